@@ -0,0 +1,134 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import javafx.scene.control.TreeItem;
+import me.maxih.itunes_backup_explorer.util.BackupPathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Loading the files of a backup: querying Manifest.db, constructing {@link BackupFile}s from its rows and
+ * arranging them into the trees of the files tab.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BackupFilesBenchmark {
+
+    private record Row(String fileID, String domain, String relativePath, int flags, byte[] record) {
+    }
+
+    // The fixture is written once per fork. At 1M files that takes minutes and about 1 GB of disk for each
+    // benchmark, so it is left out of the default runs; add it with -p files=10000,100000,1000000
+    @Param({"10000", "100000"})
+    public int files;
+
+    @Param({"10"})
+    public int domains;
+
+    private Path directory;
+    private ITunesBackup backup;
+    private List<Row> rows;
+    private List<List<BackupFile>> filesByDomain;
+
+    @Setup
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("files-benchmark");
+        backup = SyntheticBackup.generate(directory, SyntheticBackup.Options.defaults()
+                .withDomains(domains)
+                .withFiles(files)
+                .withSizes(SyntheticBackup.SizeDistribution.fixed(0)));
+
+        rows = new ArrayList<>();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + backup.manifestDBFile);
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT * FROM files ORDER BY `domain`, `relativePath`")) {
+            while (result.next())
+                rows.add(new Row(result.getString(1), result.getString(2), result.getString(3), result.getInt(4), result.getBytes(5)));
+        }
+
+        filesByDomain = new ArrayList<>(backup.queryAllFiles().stream()
+                .collect(Collectors.groupingBy(file -> file.domain, LinkedHashMap::new, Collectors.toList()))
+                .values());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        backup.cleanUp();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public List<BackupFile> queryAllFiles() throws DatabaseConnectionException {
+        return backup.queryAllFiles();
+    }
+
+    @Benchmark
+    public List<BackupFile> constructBackupFiles() throws BackupReadException {
+        MBFileDecoder decoder = new MBFileDecoder();
+        List<BackupFile> result = new ArrayList<>(rows.size());
+        for (Row row : rows)
+            result.add(new BackupFile(backup, row.fileID(), row.domain(), row.relativePath(), row.flags(), row.record(), decoder));
+        return result;
+    }
+
+    @Benchmark
+    public List<TreeItem<BackupFile>> buildTrees() throws BackupReadException {
+        List<TreeItem<BackupFile>> roots = new ArrayList<>(filesByDomain.size());
+        for (List<BackupFile> domainFiles : filesByDomain) roots.add(insertAsTree(domainFiles));
+        return roots;
+    }
+
+    /**
+     * The level by level insertion of FilesTabController.insertAsTree, on the files directly. The entries of the
+     * files tab load icons, which needs a running JavaFX toolkit.
+     */
+    private static TreeItem<BackupFile> insertAsTree(List<BackupFile> files) throws BackupReadException {
+        HashMap<Integer, List<TreeItem<BackupFile>>> levels = new HashMap<>();
+        int maxLevel = 0;
+        for (BackupFile file : files) {
+            int level = BackupPathUtils.getPathLevel(file.relativePath);
+            if (level > maxLevel) maxLevel = level;
+            levels.computeIfAbsent(level, l -> new ArrayList<>()).add(new TreeItem<>(file));
+        }
+
+        TreeItem<BackupFile> root = levels.get(0).get(0);
+        Map<String, TreeItem<BackupFile>> parents = indexDirectories(List.of(root));
+        for (int currentLevel = 1; currentLevel <= maxLevel; currentLevel++) {
+            List<TreeItem<BackupFile>> children = levels.getOrDefault(currentLevel, List.of());
+            for (TreeItem<BackupFile> child : children) {
+                BackupFile file = child.getValue();
+                TreeItem<BackupFile> parent = parents.get(file.domain + "-" + file.getParentPath());
+                if (parent == null) throw new BackupReadException("Missing parent directory: " + file.domain + "-" + file.getParentPath());
+                parent.getChildren().add(child);
+            }
+            parents = indexDirectories(children);
+        }
+        return root;
+    }
+
+    private static Map<String, TreeItem<BackupFile>> indexDirectories(List<TreeItem<BackupFile>> items) {
+        Map<String, TreeItem<BackupFile>> directories = new HashMap<>();
+        for (TreeItem<BackupFile> item : items) {
+            BackupFile file = item.getValue();
+            if (file.getFileType() != BackupFile.FileType.DIRECTORY) continue;
+            directories.putIfAbsent(file.domain + "-" + file.relativePath, item);
+        }
+        return directories;
+    }
+}
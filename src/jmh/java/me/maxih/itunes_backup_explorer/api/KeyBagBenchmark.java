@@ -0,0 +1,80 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Decryption of file contents, from memory and from disk to disk as when extracting files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyBagBenchmark {
+    private static final int PROTECTION_CLASS = 3;
+
+    @Param({"4096", "1048576", "67108864"})
+    public int size;
+
+    private KeyBag keyBag;
+    private byte[] protectionClass;
+    private byte[] persistentKey;
+    private byte[] encrypted;
+    private Path directory;
+    private File source;
+    private File destination;
+
+    @Setup
+    public void setup() throws Exception {
+        keyBag = SyntheticBackup.unlockedKeyBag(1);
+        protectionClass = ByteBuffer.allocate(4).putInt(PROTECTION_CLASS).array();
+
+        Random random = new Random(size);
+        byte[] fileKey = new byte[32];
+        random.nextBytes(fileKey);
+        persistentKey = SyntheticBackup.wrapFileKey(keyBag, PROTECTION_CLASS, fileKey);
+
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size + 16);
+        try (OutputStream encryptStream = keyBag.encryptStream(protectionClass, persistentKey, output)) {
+            encryptStream.write(content);
+        }
+        encrypted = output.toByteArray();
+
+        directory = Files.createTempDirectory("keybag-benchmark");
+        source = directory.resolve("source").toFile();
+        destination = directory.resolve("destination").toFile();
+        Files.write(source.toPath(), encrypted);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+
+    @Benchmark
+    public long decryptStream() throws Exception {
+        try (InputStream decrypted = keyBag.decryptStream(protectionClass, persistentKey, new ByteArrayInputStream(encrypted))) {
+            return decrypted.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public long decryptFile() throws Exception {
+        keyBag.decryptFile(protectionClass, persistentKey, source, destination, size);
+        return destination.length();
+    }
+}
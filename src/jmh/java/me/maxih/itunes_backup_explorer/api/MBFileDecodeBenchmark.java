@@ -0,0 +1,80 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import com.dd.plist.*;
+import me.maxih.itunes_backup_explorer.util.UtilDict;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the MBFile records of Manifest.db through dd-plist with {@link MBFileDecoder}.
+ * <p>
+ * Run with <code>mvn -Pbenchmark test-compile exec:exec@jmh -Djmh.include=MBFileDecodeBenchmark</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MBFileDecodeBenchmark {
+
+    private byte[] fileRecord;
+    private byte[] directoryRecord;
+    private MBFileDecoder decoder;
+
+    @Setup
+    public void setup() throws IOException {
+        fileRecord = SyntheticBackup.record(BackupFile.FileType.FILE, "Library/Preferences/com.apple.test.plist",
+                48_213, 3, 1_600_000_000L, new byte[44], new byte[20]);
+        directoryRecord = SyntheticBackup.record(BackupFile.FileType.DIRECTORY, "Library/Preferences", 0, 0, 1_600_000_000L, null, null);
+        decoder = new MBFileDecoder();
+    }
+
+    /**
+     * The fields of an encrypted file, read the way {@link BackupFile} did before the decoder.
+     */
+    @Benchmark
+    public void fileRecord_propertyList(Blackhole blackhole) throws Exception {
+        UtilDict data = new UtilDict((NSDictionary) PropertyListParser.parse(fileRecord));
+        NSObject[] objects = data.getArray("$objects").orElseThrow();
+        UtilDict properties = new UtilDict((NSDictionary) objects[BackupFile.uidToIndex(data.get(UID.class, "$top", "root").orElseThrow())]);
+
+        blackhole.consume(properties.get(NSNumber.class, "LastModified").orElseThrow().longValue());
+        blackhole.consume(properties.get(NSNumber.class, "Mode").orElseThrow().intValue());
+        blackhole.consume(properties.get(NSNumber.class, "Size").orElseThrow().longValue());
+        blackhole.consume(properties.get(NSNumber.class, "ProtectionClass").orElseThrow().intValue());
+
+        NSDictionary key = (NSDictionary) objects[BackupFile.uidToIndex(properties.get(UID.class, "EncryptionKey").orElseThrow())];
+        byte[] encryptionKey = new byte[40];
+        new UtilDict(key).getData("NS.data").orElseThrow().getBytes(ByteBuffer.wrap(encryptionKey), 4, 40);
+        blackhole.consume(encryptionKey);
+        blackhole.consume(((NSData) objects[BackupFile.uidToIndex(properties.get(UID.class, "Digest").orElseThrow())]).bytes());
+    }
+
+    @Benchmark
+    public void fileRecord_decoder(Blackhole blackhole) {
+        if (!decoder.decode(fileRecord)) throw new IllegalStateException("Record not decoded");
+        blackhole.consume(decoder.getLastModified());
+        blackhole.consume(decoder.getMode());
+        blackhole.consume(decoder.getSize());
+        blackhole.consume(decoder.getProtectionClass());
+        blackhole.consume(decoder.copyEncryptionKey());
+        blackhole.consume(decoder.copyDigest());
+    }
+
+    @Benchmark
+    public BackupFile directory_propertyList() throws Exception {
+        return new BackupFile(null, "id", "HomeDomain", "Library/Preferences", BackupFile.FileType.DIRECTORY.flag,
+                (NSDictionary) PropertyListParser.parse(directoryRecord));
+    }
+
+    @Benchmark
+    public BackupFile directory_decoder() throws BackupReadException {
+        return new BackupFile(null, "id", "HomeDomain", "Library/Preferences", BackupFile.FileType.DIRECTORY.flag,
+                directoryRecord, decoder);
+    }
+}
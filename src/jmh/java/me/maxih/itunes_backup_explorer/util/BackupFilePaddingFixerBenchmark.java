@@ -0,0 +1,67 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removing the padding of a file decrypted without padding handling. The trailing zeros are scanned backwards,
+ * so their number matters rather than the size of the file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BackupFilePaddingFixerBenchmark {
+    private static final int CONTENT_SIZE = 1024 * 1024;
+    private static final int PADDING = 16;
+
+    @Param({"0", "65536", "4194304"})
+    public int trailingZeros;
+
+    private File file;
+    private byte[] padding;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = Files.createTempFile("padding-benchmark", ".bin").toFile();
+        byte[] content = new byte[CONTENT_SIZE - PADDING];
+        new Random(1).nextBytes(content);
+        Files.write(file.toPath(), content);
+
+        padding = new byte[PADDING];
+        Arrays.fill(padding, (byte) PADDING);
+    }
+
+    /**
+     * Restores the padding and trailing zeros the previous invocation removed.
+     */
+    @Setup(Level.Invocation)
+    public void restorePadding() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(CONTENT_SIZE - PADDING);
+            raf.seek(CONTENT_SIZE - PADDING);
+            raf.write(padding);
+            raf.setLength(CONTENT_SIZE + trailingZeros);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(file.toPath());
+    }
+
+    @Benchmark
+    public long tryFixPadding() throws IOException {
+        BackupFilePaddingFixer.tryFixPadding(file);
+        return file.length();
+    }
+}
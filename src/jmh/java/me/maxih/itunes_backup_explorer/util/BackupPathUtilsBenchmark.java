@@ -0,0 +1,58 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The path helpers called for every file when building trees, filtering and extracting.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BackupPathUtilsBenchmark {
+    private static final String[] PATHS = {
+            "",
+            "Library",
+            "Library/Preferences/com.apple.springboard.plist",
+            "Media/DCIM/100APPLE/IMG_0001.HEIC",
+            "Documents/ChatStorage.sqlite",
+            "Library/Application Support/com.example.app/Caches/a/very/deeply/nested/directory/structure/file.data",
+            "Library/SMS/Attachments/0a/10/at_0_3F1D2E4C-8A9B-4C7D-9E1F-2A3B4C5D6E7F/IMG_1234.jpeg",
+            "Documents/Notes: draft <2023>?.txt"
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void getParentPath(Blackhole blackhole) {
+        for (String path : PATHS) blackhole.consume(BackupPathUtils.getParentPath(path));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void getFileName(Blackhole blackhole) {
+        for (String path : PATHS) blackhole.consume(BackupPathUtils.getFileName(path));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void getPathLevel(Blackhole blackhole) {
+        for (String path : PATHS) blackhole.consume(BackupPathUtils.getPathLevel(path));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void getFileExtension(Blackhole blackhole) {
+        for (String path : PATHS) blackhole.consume(BackupPathUtils.getFileExtension(path));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public void cleanPath(Blackhole blackhole) {
+        for (String path : PATHS) blackhole.consume(BackupPathUtils.cleanPath(path));
+    }
+}
@@ -19,7 +19,6 @@ import java.util.Optional;
 public class BackupFile {
     private static final Logger logger = LoggerFactory.getLogger(BackupFile.class);
     public final ITunesBackup backup;
-    public final UtilDict data;
     public final String fileID;
     public final String domain;
     public final String relativePath;
@@ -27,14 +26,20 @@ public class BackupFile {
 
     private final FileType fileType;
 
-    private final UtilDict properties;
-    private final NSObject[] objects;
+    // The MBFile record; records read by MBFileDecoder are only parsed into data when it is needed
+    private final byte[] record;
+    private UtilDict data;
+    private UtilDict properties;
+    private NSObject[] objects;
 
     private File contentFile = null;
     private String symlinkTarget = null;
 
     private long size;
     private int protectionClass;
+    private boolean hasLastModified;
+    private long lastModified;
+    private int mode;
     private byte[] encryptionKey = null;
     private byte[] digest = null;
 
@@ -44,19 +49,82 @@ public class BackupFile {
         this.domain = domain;
         this.relativePath = relativePath;
         this.flags = flags;
-        this.data = new UtilDict(data);
+        this.record = null;
+
+        this.fileType = FileType.fromFlags(flags);
+        this.contentFile = findContentFile();
+        this.readProperties(data);
+    }
+
+    /**
+     * Creates a backup file from the serialized MBFile record of Manifest.db. The common fields are decoded
+     * directly from the record; records of another shape are parsed as a property list.
+     *
+     * @param decoder Decoder to use, which can be shared by the files of one query
+     */
+    public BackupFile(ITunesBackup backup, String fileID, String domain, String relativePath, int flags, byte[] record, MBFileDecoder decoder) throws BackupReadException {
+        this.backup = backup;
+        this.fileID = fileID;
+        this.domain = domain;
+        this.relativePath = relativePath;
+        this.flags = flags;
+        this.record = record;
 
         this.fileType = FileType.fromFlags(flags);
+        this.contentFile = findContentFile();
+
+        boolean decoded = decoder.decode(record) && switch (this.fileType) {
+            case FILE -> decoder.hasSize() && decoder.hasProtectionClass();
+            case SYMBOLIC_LINK -> decoder.getTarget() != null;
+            case DIRECTORY -> true;
+        };
+        if (!decoded) {
+            this.readProperties(parseRecord(record));
+            return;
+        }
+
+        this.hasLastModified = decoder.hasLastModified();
+        this.lastModified = decoder.getLastModified();
+        this.mode = decoder.getMode();
+        if (this.fileType == FileType.FILE) {
+            this.size = decoder.getSize();
+            this.protectionClass = decoder.getProtectionClass();
+            this.encryptionKey = decoder.copyEncryptionKey();
+            this.digest = decoder.copyDigest();
+        } else if (this.fileType == FileType.SYMBOLIC_LINK) {
+            this.symlinkTarget = decoder.getTarget();
+        }
+    }
+
+    private File findContentFile() throws BackupReadException {
+        if (this.fileType != FileType.FILE) return null;
+        File file = Paths.get(backup.directory.getAbsolutePath(), fileID.substring(0, 2), fileID).toFile();
+        if (!file.exists())
+            throw new BackupReadException("Missing file: " + this.fileID + " in " + domain + " (" + relativePath + ")");
+        return file;
+    }
+
+    private static NSDictionary parseRecord(byte[] record) throws BackupReadException {
+        try {
+            return (NSDictionary) PropertyListParser.parse(record);
+        } catch (Exception e) {
+            throw new BackupReadException(e);
+        }
+    }
+
+    private void readProperties(NSDictionary data) throws BackupReadException {
+        this.data = new UtilDict(data);
 
         try {
             this.objects = this.data.getArray("$objects").orElseThrow();
             this.properties = new UtilDict(this.getObject(NSDictionary.class, this.data.get(UID.class, "$top", "root").orElseThrow()));
 
-            if (this.fileType == FileType.FILE) {
-                this.contentFile = Paths.get(backup.directory.getAbsolutePath(), fileID.substring(0, 2), fileID).toFile();
-                if (!this.contentFile.exists())
-                    throw new BackupReadException("Missing file: " + this.fileID + " in " + domain + " (" + relativePath + ")");
+            Optional<NSNumber> lastModified = this.properties.get(NSNumber.class, "LastModified");
+            this.hasLastModified = lastModified.isPresent();
+            this.lastModified = lastModified.map(NSNumber::longValue).orElse(0L);
+            this.mode = this.properties.get(NSNumber.class, "Mode").map(NSNumber::intValue).orElse(0);
 
+            if (this.fileType == FileType.FILE) {
                 this.size = this.properties.get(NSNumber.class, "Size").orElseThrow().longValue();
                 this.protectionClass = this.properties.get(NSNumber.class, "ProtectionClass").orElseThrow().intValue();
 
@@ -87,6 +155,28 @@ public class BackupFile {
         }
     }
 
+    /**
+     * The MBFile record as a property list, parsed on first use if the file was decoded from its serialized form.
+     */
+    public synchronized UtilDict getData() throws BackupReadException {
+        if (this.data == null) {
+            UtilDict parsed = new UtilDict(parseRecord(this.record));
+            try {
+                this.objects = parsed.getArray("$objects").orElseThrow();
+                this.properties = new UtilDict(this.getObject(NSDictionary.class, parsed.get(UID.class, "$top", "root").orElseThrow()));
+            } catch (NoSuchElementException e) {
+                throw new BackupReadException(e);
+            }
+            this.data = parsed;
+        }
+        return this.data;
+    }
+
+    private UtilDict getProperties() throws BackupReadException {
+        getData();
+        return this.properties;
+    }
+
     private <T extends NSObject> T getObject(Class<T> type, UID uid) throws NoSuchElementException {
         int index = uidToIndex(uid);
         if (index < 0 || index >= this.objects.length) throw new NoSuchElementException();
@@ -122,6 +212,13 @@ public class BackupFile {
         return size;
     }
 
+    /**
+     * @return The Unix file mode, including the file type bits
+     */
+    public int getMode() {
+        return mode;
+    }
+
     public boolean isEncrypted() {
         return this.encryptionKey != null;
     }
@@ -153,6 +250,35 @@ public class BackupFile {
         return this.digest;
     }
 
+    /**
+     * Opens the (decrypted) content of this file for sequential reading without extracting it first.
+     * Useful when only a small part of the file is needed, e.g. embedded thumbnails or headers.
+     *
+     * @return A buffered stream over the plaintext content, limited to the recorded file size
+     */
+    public InputStream openStream()
+            throws IOException, BackupReadException, NotUnlockedException, UnsupportedCryptoException, UnsupportedOperationException {
+        if (this.fileType != FileType.FILE) throw new UnsupportedOperationException("Not a file");
+
+        InputStream raw = new BufferedInputStream(new FileInputStream(this.contentFile));
+        if (!this.isEncrypted()) return raw;
+
+        try {
+            if (this.backup.manifest.getKeyBag().isEmpty())
+                throw new BackupReadException("Encrypted file in non-encrypted backup");
+
+            InputStream decrypted = this.backup.manifest.getKeyBag().get().decryptStream(
+                    ByteBuffer.allocate(4).putInt(this.protectionClass).array(), this.encryptionKey, raw, "AES/CBC/NoPadding");
+            return this.size > 0 ? new BoundedInputStream(decrypted, this.size) : decrypted;
+        } catch (InvalidKeyException e) {
+            raw.close();
+            throw new BackupReadException(e);
+        } catch (BackupReadException | NotUnlockedException | UnsupportedCryptoException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
     byte[] calcFileDigest() throws IOException, UnsupportedCryptoException {
         try {
             MessageDigest sha1Digest = MessageDigest.getInstance("SHA-1");
@@ -197,20 +323,15 @@ public class BackupFile {
 
                     if (preserveTimestamps) {
                         //noinspection ResultOfMethodCallIgnored
-                        this.properties.get(NSNumber.class, "LastModified")
-                                .map(NSNumber::longValue)
-                                .map(seconds -> seconds * 1000)
-                                .ifPresent(destination::setLastModified);
+                        if (this.hasLastModified) destination.setLastModified(this.lastModified * 1000);
                     }
                 } else {
                     Files.copy(this.contentFile.toPath(), destination.toPath(),
                             StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
 
                     if (preserveTimestamps) {
-                        this.properties.get(NSNumber.class, "LastModified")
-                                .map(NSNumber::longValue)
-                                .map(seconds -> seconds * 1000)
-                                .ifPresent(destination::setLastModified);
+                        //noinspection ResultOfMethodCallIgnored
+                        if (this.hasLastModified) destination.setLastModified(this.lastModified * 1000);
                     }
                 }
                 break;
@@ -260,7 +381,7 @@ public class BackupFile {
         if (this.fileType != FileType.FILE) throw new UnsupportedOperationException("Not implemented yet");
         this.backupOriginal();
         this.size = newFileAttributes.size();
-        this.properties.put("Size", this.size);
+        this.getProperties().put("Size", this.size);
         if (this.isEncrypted()) {
             if (this.backup.manifest.getKeyBag().isEmpty())
                 throw new BackupReadException("Encrypted file in non-encrypted backup");
@@ -274,13 +395,13 @@ public class BackupFile {
             Files.copy(newFile.toPath(), this.contentFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
         }
 
-        Optional<UID> digestUID = this.properties.get(UID.class, "Digest");
+        Optional<UID> digestUID = this.getProperties().get(UID.class, "Digest");
         if (digestUID.isPresent()) {
             byte[] newDigest = this.calcFileDigest();
             this.setObject(digestUID.get(), new NSData(newDigest));
         }
 
-        this.backup.updateFileInfo(this.fileID, this.data.dict);
+        this.backup.updateFileInfo(this.fileID, this.getData().dict);
     }
 
     /**
@@ -320,7 +441,11 @@ public class BackupFile {
             backupName = this.fileID + "." + (++i);
         }
 
-        BinaryPropertyListWriter.write(this.data.dict, new File(dir, backupName + ".plist"));
+        try {
+            BinaryPropertyListWriter.write(this.getData().dict, new File(dir, backupName + ".plist"));
+        } catch (BackupReadException e) {
+            throw new IOException(e);
+        }
 
         if (this.contentFile != null && this.contentFile.exists()) {
             if (move)
@@ -336,6 +461,43 @@ public class BackupFile {
         backupOriginal(false);
     }
 
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+
     public enum FileType {
         FILE(1),
         DIRECTORY(2),
@@ -0,0 +1,382 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import com.dd.plist.BinaryPropertyListWriter;
+import com.dd.plist.NSObject;
+import com.dd.plist.PropertyListFormatException;
+import com.dd.plist.PropertyListParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HexFormat;
+
+/**
+ * Reads binary property lists lazily. Only the trailer is checked up front; objects are decoded from the
+ * buffer when they are asked for, by their reference, so a large plist can be browsed one level at a time
+ * without building the object tree that {@link PropertyListParser} would.
+ * <p>
+ * Objects are identified by their index in the offset table. Methods that get an index of the wrong kind
+ * or one that points outside of the buffer throw an {@link IllegalArgumentException}.
+ */
+public class BinaryPlistReader {
+
+    public enum Kind {NULL, BOOLEAN, INTEGER, REAL, DATE, DATA, STRING, UID, ARRAY, SET, DICTIONARY}
+
+    private static final byte[] MAGIC = "bplist0".getBytes(StandardCharsets.US_ASCII);
+    private static final int TRAILER_SIZE = 32;
+    private static final long APPLE_EPOCH_OFFSET = 978307200L;
+    private static final int PREVIEW_LENGTH = 200;
+
+    private final ByteBuffer buffer;
+    private final int offsetSize;
+    private final int referenceSize;
+    private final int objectCount;
+    private final int topObject;
+    private final int offsetTable;
+    // Index of the $objects array of an NSKeyedArchiver plist, or -1
+    private final int archivedObjects;
+
+    public BinaryPlistReader(ByteBuffer buffer) throws PropertyListFormatException {
+        this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int length = this.buffer.limit();
+        if (length < MAGIC.length + 1 + TRAILER_SIZE) throw new PropertyListFormatException("Too short for a binary plist");
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (this.buffer.get(i) != MAGIC[i]) throw new PropertyListFormatException("Not a binary plist");
+        }
+
+        int trailer = length - TRAILER_SIZE;
+        this.offsetSize = this.buffer.get(trailer + 6);
+        this.referenceSize = this.buffer.get(trailer + 7);
+        long count = this.buffer.getLong(trailer + 8);
+        long top = this.buffer.getLong(trailer + 16);
+        long table = this.buffer.getLong(trailer + 24);
+        if (offsetSize < 1 || offsetSize > 8 || referenceSize < 1 || referenceSize > 8
+                || count < 1 || top < 0 || top >= count || table < MAGIC.length || table > trailer
+                || (trailer - table) / offsetSize < count) {
+            throw new PropertyListFormatException("Invalid binary plist trailer");
+        }
+        this.objectCount = (int) count;
+        this.topObject = (int) top;
+        this.offsetTable = (int) table;
+
+        int objects = -1;
+        try {
+            if (kind(topObject) == Kind.DICTIONARY && "NSKeyedArchiver".equals(stringOrNull(lookup(topObject, "$archiver")))) {
+                int candidate = lookup(topObject, "$objects");
+                if (candidate >= 0 && kind(candidate) == Kind.ARRAY) objects = candidate;
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new PropertyListFormatException("Invalid top object: " + e.getMessage());
+        }
+        this.archivedObjects = objects;
+    }
+
+    /**
+     * Reads a property list of any format. Binary plists are read in place; XML and ASCII plists,
+     * which are rarely large, are parsed and converted to the binary format.
+     */
+    public static BinaryPlistReader of(byte[] data) throws IOException, PropertyListFormatException {
+        if (startsWithMagic(data)) return new BinaryPlistReader(ByteBuffer.wrap(data));
+        try {
+            NSObject root = PropertyListParser.parse(data);
+            return new BinaryPlistReader(ByteBuffer.wrap(BinaryPropertyListWriter.writeToArray(root)));
+        } catch (PropertyListFormatException | IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new PropertyListFormatException("Not a property list: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a property list of the backup. The content file of a non-encrypted binary plist is mapped
+     * instead of read into the heap; other files are read (and decrypted) into memory.
+     */
+    public static BinaryPlistReader open(BackupFile file)
+            throws IOException, PropertyListFormatException, BackupReadException, NotUnlockedException, UnsupportedCryptoException {
+        if (!file.isEncrypted() && file.getContentFile().length() <= Integer.MAX_VALUE) {
+            try (FileChannel channel = FileChannel.open(file.getContentFile().toPath(), StandardOpenOption.READ)) {
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                byte[] header = new byte[Math.min(MAGIC.length, mapped.limit())];
+                mapped.get(0, header);
+                if (startsWithMagic(header)) return new BinaryPlistReader(mapped);
+            }
+        }
+
+        try (InputStream stream = file.openStream()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.max(0, Math.min(file.getSize(), Integer.MAX_VALUE - 8)));
+            stream.transferTo(output);
+            return of(output.toByteArray());
+        }
+    }
+
+    private static boolean startsWithMagic(byte[] data) {
+        if (data.length < MAGIC.length) return false;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    public int getTopObject() {
+        return topObject;
+    }
+
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    public int getByteSize() {
+        return buffer.limit();
+    }
+
+    public boolean isKeyedArchive() {
+        return archivedObjects >= 0;
+    }
+
+    private int offset(int object) {
+        if (object < 0 || object >= objectCount) throw new IllegalArgumentException("No object " + object);
+        long offset = readUnsigned(offsetTable + (long) object * offsetSize, offsetSize);
+        if (offset < MAGIC.length || offset >= offsetTable) throw new IllegalArgumentException("Object " + object + " out of bounds");
+        return (int) offset;
+    }
+
+    private long readUnsigned(long position, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) value = (value << 8) | (buffer.get((int) position + i) & 0xFF);
+        return value;
+    }
+
+    public Kind kind(int object) {
+        int marker = buffer.get(offset(object)) & 0xFF;
+        return switch (marker >> 4) {
+            case 0x0 -> marker == 0x08 || marker == 0x09 ? Kind.BOOLEAN : Kind.NULL;
+            case 0x1 -> Kind.INTEGER;
+            case 0x2 -> Kind.REAL;
+            case 0x3 -> Kind.DATE;
+            case 0x4 -> Kind.DATA;
+            case 0x5, 0x6, 0x7 -> Kind.STRING;
+            case 0x8 -> Kind.UID;
+            case 0xA -> Kind.ARRAY;
+            case 0xB, 0xC -> Kind.SET;
+            case 0xD -> Kind.DICTIONARY;
+            default -> throw new IllegalArgumentException("Unknown object type 0x" + Integer.toHexString(marker));
+        };
+    }
+
+    /**
+     * Position of the content of a data, string or container object, after its marker and length.
+     * The length is returned in the upper 32 bits.
+     */
+    private long content(int object) {
+        int offset = offset(object);
+        int info = buffer.get(offset) & 0x0F;
+        if (info != 0x0F) return ((long) info << 32) | (offset + 1);
+
+        int lengthMarker = buffer.get(offset + 1) & 0xFF;
+        if (lengthMarker >> 4 != 0x1) throw new IllegalArgumentException("Invalid length of object " + object);
+        int size = 1 << (lengthMarker & 0x0F);
+        long length = readUnsigned(offset + 2, size);
+        if (size > 4 || length > Integer.MAX_VALUE) throw new IllegalArgumentException("Object " + object + " too large");
+        return (length << 32) | (offset + 2 + size);
+    }
+
+    /**
+     * Number of entries of an array, set or dictionary, bytes of data, or characters of a string.
+     */
+    public int count(int object) {
+        return (int) (content(object) >>> 32);
+    }
+
+    private int start(int object) {
+        return (int) content(object);
+    }
+
+    private int reference(int position) {
+        long reference = readUnsigned(position, referenceSize);
+        if (reference >= objectCount) throw new IllegalArgumentException("Invalid reference " + reference);
+        return (int) reference;
+    }
+
+    /**
+     * @return The element of an array or set, or the value of a dictionary entry
+     */
+    public int child(int container, int index) {
+        Kind kind = kind(container);
+        int count = count(container);
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException(index);
+        if (kind == Kind.DICTIONARY) return reference(start(container) + (count + index) * referenceSize);
+        if (kind == Kind.ARRAY || kind == Kind.SET) return reference(start(container) + index * referenceSize);
+        throw new IllegalArgumentException("Object " + container + " is no container");
+    }
+
+    /**
+     * @return The key of a dictionary entry
+     */
+    public int key(int dictionary, int index) {
+        if (kind(dictionary) != Kind.DICTIONARY) throw new IllegalArgumentException("Object " + dictionary + " is no dictionary");
+        if (index < 0 || index >= count(dictionary)) throw new IndexOutOfBoundsException(index);
+        return reference(start(dictionary) + index * referenceSize);
+    }
+
+    /**
+     * @return The value of the key in the dictionary, or -1 if it has no such key or is no dictionary
+     */
+    public int lookup(int dictionary, String key) {
+        if (kind(dictionary) != Kind.DICTIONARY) return -1;
+        int count = count(dictionary);
+        for (int i = 0; i < count; i++) {
+            if (key.equals(stringOrNull(key(dictionary, i)))) return child(dictionary, i);
+        }
+        return -1;
+    }
+
+    public boolean bool(int object) {
+        int marker = buffer.get(offset(object)) & 0xFF;
+        if (marker != 0x08 && marker != 0x09) throw new IllegalArgumentException("Object " + object + " is no boolean");
+        return marker == 0x09;
+    }
+
+    /**
+     * @return A Long, or a BigInteger for 128-bit integers that do not fit one
+     */
+    public Number integer(int object) {
+        int offset = offset(object);
+        int marker = buffer.get(offset) & 0xFF;
+        if (marker >> 4 != 0x1) throw new IllegalArgumentException("Object " + object + " is no integer");
+        int size = 1 << (marker & 0x0F);
+        return switch (size) {
+            case 1, 2, 4 -> readUnsigned(offset + 1, size);
+            case 8 -> buffer.getLong(offset + 1);
+            case 16 -> {
+                byte[] bytes = new byte[16];
+                buffer.get(offset + 1, bytes);
+                BigInteger value = new BigInteger(bytes);
+                yield value.bitLength() < 64 ? (Number) value.longValue() : value;
+            }
+            default -> throw new IllegalArgumentException("Invalid integer size " + size);
+        };
+    }
+
+    public double real(int object) {
+        int offset = offset(object);
+        int marker = buffer.get(offset) & 0xFF;
+        if (marker == 0x22) return buffer.getFloat(offset + 1);
+        if (marker == 0x23) return buffer.getDouble(offset + 1);
+        throw new IllegalArgumentException("Object " + object + " is no real");
+    }
+
+    public Instant date(int object) {
+        int offset = offset(object);
+        if ((buffer.get(offset) & 0xFF) != 0x33) throw new IllegalArgumentException("Object " + object + " is no date");
+        double seconds = buffer.getDouble(offset + 1);
+        long whole = (long) Math.floor(seconds);
+        return Instant.ofEpochSecond(whole + APPLE_EPOCH_OFFSET, (long) ((seconds - whole) * 1e9));
+    }
+
+    /**
+     * @param limit Bytes to read at most, so large data can be previewed without copying all of it
+     */
+    public byte[] data(int object, int limit) {
+        if (kind(object) != Kind.DATA) throw new IllegalArgumentException("Object " + object + " is no data");
+        byte[] bytes = new byte[Math.min(count(object), limit)];
+        buffer.get(start(object), bytes);
+        return bytes;
+    }
+
+    public String string(int object) {
+        int offset = offset(object);
+        int type = (buffer.get(offset) & 0xFF) >> 4;
+        int length = count(object);
+        int start = start(object);
+        return switch (type) {
+            case 0x5 -> decode(start, length, StandardCharsets.US_ASCII);
+            case 0x6 -> decode(start, length * 2, StandardCharsets.UTF_16BE);
+            case 0x7 -> decode(start, length, StandardCharsets.UTF_8);
+            default -> throw new IllegalArgumentException("Object " + object + " is no string");
+        };
+    }
+
+    private String stringOrNull(int object) {
+        return object >= 0 && kind(object) == Kind.STRING ? string(object) : null;
+    }
+
+    private String decode(int start, int length, java.nio.charset.Charset charset) {
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * @return The index a UID refers to, e.g. in the $objects of a keyed archive
+     */
+    public long uid(int object) {
+        int offset = offset(object);
+        int marker = buffer.get(offset) & 0xFF;
+        if (marker >> 4 != 0x8) throw new IllegalArgumentException("Object " + object + " is no UID");
+        return readUnsigned(offset + 1, (marker & 0x0F) + 1);
+    }
+
+    /**
+     * Resolves a UID of an NSKeyedArchiver plist to the object it refers to in <code>$objects</code>.
+     *
+     * @return The archived object, or -1 if this is no keyed archive or the UID is out of range
+     */
+    public int resolve(int uid) {
+        if (archivedObjects < 0) return -1;
+        long index = uid(uid);
+        if (index >= count(archivedObjects)) return -1;
+        return child(archivedObjects, (int) index);
+    }
+
+    /**
+     * @return The <code>$classname</code> of an archived object, or null if it has none
+     */
+    public String archivedClassName(int object) {
+        if (archivedObjects < 0 || kind(object) != Kind.DICTIONARY) return null;
+        int classUid = lookup(object, "$class");
+        if (classUid < 0 || kind(classUid) != Kind.UID) return null;
+        int classInfo = resolve(classUid);
+        return classInfo < 0 ? null : stringOrNull(lookup(classInfo, "$classname"));
+    }
+
+    /**
+     * Short description of an object for a tree or table cell, without decoding the entries of containers.
+     */
+    public String preview(int object) {
+        return switch (kind(object)) {
+            case NULL -> "null";
+            case BOOLEAN -> String.valueOf(bool(object));
+            case INTEGER -> integer(object).toString();
+            case REAL -> String.valueOf(real(object));
+            case DATE -> date(object).toString();
+            case DATA -> {
+                int length = count(object);
+                String hex = HexFormat.of().formatHex(data(object, 16));
+                yield length + (length == 1 ? " byte" : " bytes") + (length == 0 ? "" : " <" + hex + (length > 16 ? "\u2026>" : ">"));
+            }
+            case STRING -> {
+                String text = string(object);
+                yield text.length() > PREVIEW_LENGTH ? text.substring(0, PREVIEW_LENGTH) + "\u2026" : text;
+            }
+            case UID -> {
+                long index = uid(object);
+                int target = resolve(object);
+                if (target < 0) yield "UID " + index;
+                String className = archivedClassName(target);
+                // A UID that points at another UID is not followed, the archive may contain a reference cycle
+                String description = className != null ? className
+                        : kind(target) == Kind.UID ? "UID " + uid(target) : preview(target);
+                yield "$objects[" + index + "] " + description;
+            }
+            case ARRAY, SET -> count(object) + (count(object) == 1 ? " item" : " items");
+            case DICTIONARY -> count(object) + (count(object) == 1 ? " entry" : " entries");
+        };
+    }
+}
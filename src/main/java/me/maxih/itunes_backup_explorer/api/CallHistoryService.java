@@ -0,0 +1,153 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Reads calls from an extracted copy of the call history ({@code HomeDomain/Library/CallHistoryDB/CallHistory.storedata}),
+ * which includes phone, FaceTime and third-party VoIP calls since iOS 8. Columns that only some iOS versions have
+ * are detected from the schema.
+ */
+public class CallHistoryService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(CallHistoryService.class);
+
+    public static final String DOMAIN = "HomeDomain";
+    public static final String DATABASE_PATH = "Library/CallHistoryDB/CallHistory.storedata";
+
+    private static final long APPLE_EPOCH_OFFSET = 978307200L;
+    private static final int CALL_TYPE_FACETIME_VIDEO = 8;
+    private static final int CALL_TYPE_FACETIME_AUDIO = 16;
+
+    private final Connection connection;
+    private final Set<String> callColumns;
+
+    public CallHistoryService(File databaseFile) throws SQLException {
+        this(DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath()));
+    }
+
+    /**
+     * @param connection Connection to CallHistory.storedata, e.g. from {@link ITunesBackup#openDatabase}; closed with this service
+     */
+    public CallHistoryService(Connection connection) throws SQLException {
+        this.connection = connection;
+        this.callColumns = getTableColumns("ZCALLRECORD");
+        if (!callColumns.contains("ZDATE")) {
+            connection.close();
+            throw new SQLException("No call records in CallHistory.storedata");
+        }
+        logger.info("CallHistory.storedata schema detected — ZCALLRECORD cols: {}", callColumns);
+    }
+
+    private Set<String> getTableColumns(String table) {
+        Set<String> columns = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name").toUpperCase(Locale.ROOT));
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to read table info for {}", table, e);
+        }
+        return columns;
+    }
+
+    private String column(String name, String fallback) {
+        return callColumns.contains(name) ? name : fallback + " AS " + name;
+    }
+
+    /**
+     * Cursor over the calls by (ZDATE, Z_PK), for the {@link Timeline}.
+     */
+    public TimelineCursor timelineCursor() {
+        String sql = "SELECT Z_PK, ZDATE, " +
+                column("ZDURATION", "0") + ", " +
+                column("ZADDRESS", "NULL") + ", " +
+                column("ZNAME", "NULL") + ", " +
+                column("ZORIGINATED", "0") + ", " +
+                column("ZANSWERED", "1") + ", " +
+                column("ZCALLTYPE", "1") +
+                " FROM ZCALLRECORD WHERE ZDATE IS NOT NULL";
+
+        return new TimelineCursor() {
+            private Double positionDate;
+            private long positionId;
+
+            @Override
+            public void seek(Instant before) {
+                positionDate = before == null ? null : before.getEpochSecond() - APPLE_EPOCH_OFFSET + before.getNano() / 1e9;
+                positionId = Long.MIN_VALUE;
+            }
+
+            @Override
+            public List<TimelineEvent> next(int limit) throws SQLException {
+                List<TimelineEvent> events = new ArrayList<>(limit);
+                try (PreparedStatement stmt = connection.prepareStatement(sql +
+                        (positionDate != null ? " AND (ZDATE, Z_PK) < (?, ?)" : "") +
+                        " ORDER BY ZDATE DESC, Z_PK DESC LIMIT ?")) {
+                    int index = 1;
+                    if (positionDate != null) {
+                        stmt.setDouble(index++, positionDate);
+                        stmt.setLong(index++, positionId);
+                    }
+                    stmt.setInt(index, limit);
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            positionDate = rs.getDouble("ZDATE");
+                            positionId = rs.getLong("Z_PK");
+                            events.add(new TimelineEvent(TimelineEvent.Source.CALLS, toInstant(positionDate), positionId,
+                                    callerName(rs.getString("ZNAME"), rs.getBytes("ZADDRESS")),
+                                    describe(rs.getInt("ZCALLTYPE"), rs.getInt("ZORIGINATED") == 1,
+                                            rs.getInt("ZANSWERED") == 1, rs.getDouble("ZDURATION"))));
+                        }
+                    }
+                }
+                return events;
+            }
+        };
+    }
+
+    /**
+     * The address is stored as text by some iOS versions and as a UTF-8 BLOB by others.
+     */
+    private static String callerName(String name, byte[] address) {
+        if (name != null && !name.isBlank()) return name;
+        if (address != null && address.length > 0) return new String(address, StandardCharsets.UTF_8);
+        return "Unknown";
+    }
+
+    static String describe(int callType, boolean outgoing, boolean answered, double durationSeconds) {
+        String kind = switch (callType) {
+            case CALL_TYPE_FACETIME_VIDEO -> "FaceTime video call";
+            case CALL_TYPE_FACETIME_AUDIO -> "FaceTime audio call";
+            default -> "call";
+        };
+        if (!outgoing && !answered) return "Missed " + kind;
+
+        long seconds = Math.round(durationSeconds);
+        return (outgoing ? "Outgoing " : "Incoming ") + kind + String.format(" (%d:%02d)", seconds / 60, seconds % 60);
+    }
+
+    static Instant toInstant(double appleTimestamp) {
+        long seconds = (long) Math.floor(appleTimestamp);
+        long nanos = (long) ((appleTimestamp - seconds) * 1_000_000_000L);
+        return Instant.ofEpochSecond(APPLE_EPOCH_OFFSET + seconds, nanos);
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to close CallHistory.storedata connection", e);
+        }
+    }
+}
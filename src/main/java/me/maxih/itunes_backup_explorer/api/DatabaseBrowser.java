@@ -0,0 +1,373 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Read-only access to any SQLite database of a backup. Tables are read page by page, seeking by their key
+ * instead of an offset, so browsing stays fast at any position of a large table. Ad hoc queries are capped
+ * in rows and time, while CSV exports stream the full result without holding it in memory.
+ */
+public class DatabaseBrowser implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseBrowser.class);
+
+    public static final Set<String> DATABASE_EXTENSIONS = Set.of(
+            "sqlite", "sqlite3", "sqlitedb", "db", "storedata"
+    );
+
+    private static final Pattern WITHOUT_ROWID = Pattern.compile("\\bWITHOUT\\s+ROWID\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern READ_ONLY_STATEMENT = Pattern.compile("^(SELECT|WITH|VALUES|EXPLAIN)\\b", Pattern.CASE_INSENSITIVE);
+    private static final int MAX_DISPLAY_LENGTH = 500;
+
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "database-browser-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param keyColumns The columns pages are ordered and seeked by: the rowid, the primary key of a
+     *                   WITHOUT ROWID table, or none for views, which are paged by offset
+     */
+    public record Table(String name, boolean view, List<String> columns, List<String> keyColumns) {
+        public boolean keyed() {
+            return !keyColumns.isEmpty();
+        }
+    }
+
+    /**
+     * @param nextKey Position to pass to {@link #page} for the following page, or null if this is the last one
+     */
+    public record Page(List<String> columns, List<Object[]> rows, Object[] nextKey) {
+    }
+
+    /**
+     * @param truncated Whether the query returned more rows than the cap
+     */
+    public record QueryResult(List<String> columns, List<Object[]> rows, boolean truncated) {
+    }
+
+    private final Connection connection;
+
+    /**
+     * @param connection Connection to the database, e.g. from {@link ITunesBackup#openDatabase}; closed with this browser
+     */
+    public DatabaseBrowser(Connection connection) throws SQLException {
+        this.connection = connection;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA query_only = 1");
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    public static boolean isDatabase(BackupFile file) {
+        return file.getFileType() == BackupFile.FileType.FILE
+                && DATABASE_EXTENSIONS.contains(file.getFileExtension().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Tables and views of the database, without SQLite's internal tables.
+     */
+    public synchronized List<Table> listTables() throws SQLException {
+        List<String[]> entries = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT name, type, sql FROM sqlite_master " +
+                     "WHERE type IN ('table', 'view') AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\' ORDER BY name COLLATE NOCASE")) {
+            while (rs.next()) entries.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3)});
+        }
+
+        List<Table> tables = new ArrayList<>(entries.size());
+        for (String[] entry : entries) {
+            boolean view = "view".equals(entry[1]);
+            List<String> columns = new ArrayList<>();
+            // Primary key columns by their position in the key
+            SortedMap<Integer, String> primaryKey = new TreeMap<>();
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("PRAGMA table_info(" + quoteIdentifier(entry[0]) + ")")) {
+                while (rs.next()) {
+                    columns.add(rs.getString("name"));
+                    if (rs.getInt("pk") > 0) primaryKey.put(rs.getInt("pk"), rs.getString("name"));
+                }
+            } catch (SQLException e) {
+                // e.g. virtual tables whose module is not available
+                logger.debug("Failed to read columns of {}: {}", entry[0], e.getMessage());
+            }
+
+            List<String> keyColumns;
+            if (view) {
+                keyColumns = List.of();
+            } else if (entry[2] != null && WITHOUT_ROWID.matcher(entry[2].strip()).find()) {
+                keyColumns = List.copyOf(primaryKey.values());
+            } else {
+                keyColumns = rowidAlias(columns).map(List::of).orElse(List.of());
+            }
+            tables.add(new Table(entry[0], view, List.copyOf(columns), keyColumns));
+        }
+        return tables;
+    }
+
+    /**
+     * The rowid can be shadowed by columns of the same name, in which case one of its aliases is used.
+     */
+    private static Optional<String> rowidAlias(List<String> columns) {
+        return Stream.of("rowid", "_rowid_", "oid")
+                .filter(alias -> columns.stream().noneMatch(alias::equalsIgnoreCase))
+                .findFirst();
+    }
+
+    /**
+     * Reads the rows following a position of the table.
+     *
+     * @param after The {@link Page#nextKey()} of the previous page, or null for the first page
+     */
+    public synchronized Page page(Table table, Object[] after, int limit) throws SQLException {
+        String source = quoteIdentifier(table.name());
+        List<String> keys = table.keyColumns().stream().map(DatabaseBrowser::quoteIdentifier).toList();
+        String sql;
+        if (table.keyed()) {
+            // The key is selected first and hidden from the result, since the rowid is not one of the columns
+            String keyList = String.join(", ", keys);
+            String placeholders = String.join(", ", Collections.nCopies(keys.size(), "?"));
+            sql = "SELECT " + keyList + ", * FROM " + source +
+                    (after == null ? "" : keys.size() == 1
+                            ? " WHERE " + keyList + " > ?"
+                            : " WHERE (" + keyList + ") > (" + placeholders + ")") +
+                    " ORDER BY " + keyList + " LIMIT ?";
+        } else {
+            sql = "SELECT * FROM " + source + " LIMIT ? OFFSET ?";
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (table.keyed()) {
+                if (after != null) for (Object key : after) statement.setObject(index++, key);
+                statement.setInt(index, limit + 1);
+            } else {
+                statement.setInt(index++, limit + 1);
+                statement.setLong(index, after == null ? 0 : (Long) after[0]);
+            }
+
+            int skip = table.keyed() ? keys.size() : 0;
+            try (ResultSet rs = statement.executeQuery()) {
+                List<String> columns = columnNames(rs.getMetaData(), skip);
+                List<Object[]> rows = new ArrayList<>(limit);
+                Object[] lastKey = null;
+                boolean more = false;
+                while (rs.next()) {
+                    if (rows.size() == limit) {
+                        more = true;
+                        break;
+                    }
+                    if (table.keyed()) {
+                        lastKey = new Object[skip];
+                        for (int i = 0; i < skip; i++) lastKey[i] = rs.getObject(i + 1);
+                    }
+                    rows.add(readRow(rs, skip, columns.size()));
+                }
+
+                Object[] nextKey = null;
+                if (more) {
+                    nextKey = table.keyed() ? lastKey : new Object[]{(after == null ? 0 : (Long) after[0]) + limit};
+                }
+                return new Page(columns, rows, nextKey);
+            }
+        }
+    }
+
+    /**
+     * Runs an ad hoc query. Only SELECT, WITH, VALUES and EXPLAIN statements are accepted, and the
+     * connection refuses to write in any case.
+     *
+     * @param maxRows        Rows to read at most; further rows are not evaluated
+     * @param timeoutSeconds Time after which the query is interrupted
+     * @throws SQLTimeoutException If the query took too long
+     */
+    public synchronized QueryResult query(String sql, int maxRows, int timeoutSeconds) throws SQLException {
+        String query = checkQuery(sql);
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setMaxRows(maxRows + 1);
+
+            AtomicBoolean timedOut = new AtomicBoolean();
+            ScheduledFuture<?> timeout = watchdog.schedule(() -> {
+                timedOut.set(true);
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    logger.debug("Failed to cancel query: {}", e.getMessage());
+                }
+            }, timeoutSeconds, TimeUnit.SECONDS);
+
+            // SQLite evaluates lazily, so the timeout has to cover reading the rows as well
+            try (ResultSet rs = statement.executeQuery()) {
+                List<String> columns = columnNames(rs.getMetaData(), 0);
+                List<Object[]> rows = new ArrayList<>();
+                boolean truncated = false;
+                while (rs.next()) {
+                    if (rows.size() == maxRows) {
+                        truncated = true;
+                        break;
+                    }
+                    rows.add(readRow(rs, 0, columns.size()));
+                }
+                return new QueryResult(columns, rows, truncated);
+            } catch (SQLException e) {
+                if (timedOut.get()) throw new SQLTimeoutException("Query timed out after " + timeoutSeconds + " seconds", e);
+                throw e;
+            } finally {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the full result of a query as CSV, row by row. Interrupting the thread stops the export.
+     *
+     * @return The number of rows written
+     */
+    public synchronized long exportCsv(String sql, Writer writer) throws SQLException, IOException {
+        String query = checkQuery(sql);
+        try (PreparedStatement statement = connection.prepareStatement(query);
+             ResultSet rs = statement.executeQuery()) {
+            List<String> columns = columnNames(rs.getMetaData(), 0);
+            writeCsvRow(writer, columns.toArray());
+
+            long count = 0;
+            Object[] row = new Object[columns.size()];
+            while (rs.next()) {
+                if (Thread.interrupted()) throw new InterruptedIOException("CSV export cancelled");
+                for (int i = 0; i < row.length; i++) row[i] = rs.getObject(i + 1);
+                writeCsvRow(writer, row);
+                count++;
+            }
+            writer.flush();
+            return count;
+        }
+    }
+
+    /**
+     * Writes all rows of a table as CSV, see {@link #exportCsv(String, Writer)}.
+     */
+    public long exportCsv(Table table, Writer writer) throws SQLException, IOException {
+        return exportCsv("SELECT * FROM " + quoteIdentifier(table.name()), writer);
+    }
+
+    private static List<String> columnNames(ResultSetMetaData metaData, int skip) throws SQLException {
+        List<String> columns = new ArrayList<>(metaData.getColumnCount() - skip);
+        for (int i = skip + 1; i <= metaData.getColumnCount(); i++) columns.add(metaData.getColumnLabel(i));
+        return columns;
+    }
+
+    private static Object[] readRow(ResultSet rs, int skip, int count) throws SQLException {
+        Object[] row = new Object[count];
+        for (int i = 0; i < count; i++) row[i] = rs.getObject(skip + i + 1);
+        return row;
+    }
+
+    /**
+     * @return The query without surrounding whitespace and a trailing semicolon
+     * @throws SQLException If the query is not a single read-only statement
+     */
+    static String checkQuery(String sql) throws SQLException {
+        String query = stripComments(sql).strip();
+        while (query.endsWith(";")) query = query.substring(0, query.length() - 1).strip();
+        if (query.isEmpty()) throw new SQLException("The query is empty");
+        if (!READ_ONLY_STATEMENT.matcher(query).find())
+            throw new SQLException("Only SELECT, WITH, VALUES and EXPLAIN queries are allowed");
+        if (hasStatementSeparator(query)) throw new SQLException("Only a single statement can be run at a time");
+        return query;
+    }
+
+    private static String stripComments(String sql) {
+        StringBuilder result = new StringBuilder(sql.length());
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                result.append(c);
+            } else if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                quote = c == '[' ? ']' : c;
+                result.append(c);
+            } else if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+                while (i < sql.length() && sql.charAt(i) != '\n') i++;
+                result.append(' ');
+            } else if (c == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? sql.length() : end + 1;
+                result.append(' ');
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static boolean hasStatementSeparator(String query) {
+        char quote = 0;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                quote = c == '[' ? ']' : c;
+            } else if (c == ';') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String quoteIdentifier(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Short text for a value in the table view; BLOBs are summarized and long text is cut off.
+     */
+    public static String displayValue(Object value) {
+        if (value == null) return "NULL";
+        if (value instanceof byte[] bytes) return "BLOB (" + bytes.length + " bytes)";
+        String text = value.toString();
+        return text.length() > MAX_DISPLAY_LENGTH ? text.substring(0, MAX_DISPLAY_LENGTH) + "\u2026" : text;
+    }
+
+    /**
+     * Writes one CSV record as of RFC 4180. NULL is written as an empty field and BLOBs as hex.
+     */
+    static void writeCsvRow(Writer writer, Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) writer.write(',');
+            writer.write(csvField(values[i]));
+        }
+        writer.write("\r\n");
+    }
+
+    static String csvField(Object value) {
+        if (value == null) return "";
+        if (value instanceof byte[] bytes) return HexFormat.of().formatHex(bytes);
+        String text = value.toString();
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0)
+            return text;
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        connection.close();
+    }
+}
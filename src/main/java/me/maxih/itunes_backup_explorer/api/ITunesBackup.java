@@ -2,18 +2,17 @@ package me.maxih.itunes_backup_explorer.api;
 
 import com.dd.plist.BinaryPropertyListWriter;
 import com.dd.plist.NSDictionary;
-import com.dd.plist.PropertyListFormatException;
 import com.dd.plist.PropertyListParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
+import org.sqlite.SQLiteConnection;
 
-import javax.xml.parsers.ParserConfigurationException;
+import javax.crypto.BadPaddingException;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.security.InvalidKeyException;
 import java.sql.*;
-import java.text.ParseException;
 import java.util.Date;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -55,6 +54,8 @@ public class ITunesBackup {
 
     public File decryptedDatabaseFile;
     private Connection databaseCon;
+    // The decrypted Manifest.db only exists in memory, so there is no temporary copy to wipe
+    private boolean databaseInMemory = false;
 
     public ITunesBackup(File directory) throws FileNotFoundException, BackupReadException {
         if (!directory.exists()) throw new FileNotFoundException(directory.getAbsolutePath());
@@ -117,6 +118,8 @@ public class ITunesBackup {
     public void decryptDatabase() throws BackupReadException, IOException, UnsupportedCryptoException, NotUnlockedException {
         if (!this.manifest.encrypted || this.manifest.getKeyBag().isEmpty()) return;
 
+        if (InMemoryDatabase.fits(this.manifestDBFile.length()) && decryptDatabaseInMemory()) return;
+
         try {
             this.decryptedDatabaseFile = File.createTempFile("decrypted-manifest", ".sqlite3");
             this.decryptedDatabaseFile.deleteOnExit();
@@ -126,21 +129,51 @@ public class ITunesBackup {
         }
     }
 
+    /**
+     * Decrypts Manifest.db straight into an in-memory connection.
+     * @return false if the content needs the padding fallback of {@link KeyBag#decryptFile}, which only works on files
+     */
+    private boolean decryptDatabaseInMemory() throws BackupReadException, IOException, UnsupportedCryptoException, NotUnlockedException {
+        byte[] image;
+        try (InputStream input = new BufferedInputStream(new FileInputStream(this.manifestDBFile));
+             InputStream decrypted = this.manifest.getKeyBag().get().decryptStream(
+                     ByteBuffer.allocate(4).putInt(manifest.protectionClass).array(), manifest.getManifestKey().orElseThrow(), input)) {
+            image = decrypted.readAllBytes();
+        } catch (InvalidKeyException e) {
+            throw new BackupReadException(e);
+        } catch (IOException e) {
+            if (e.getCause() instanceof BadPaddingException) return false;
+            throw e;
+        }
+
+        try {
+            synchronized (this) {
+                if (databaseConnected()) this.databaseCon.close();
+                this.databaseCon = InMemoryDatabase.open(image);
+                this.databaseInMemory = true;
+            }
+            logger.info("Decrypted Manifest.db into memory ({} bytes)", image.length);
+            return true;
+        } catch (SQLException e) {
+            logger.warn("Failed to open Manifest.db in memory, decrypting to a temporary file: {}", e.getMessage());
+            return false;
+        } finally {
+            Arrays.fill(image, (byte) 0);
+        }
+    }
+
     public void reEncryptDatabase() throws IOException, BackupReadException, DatabaseConnectionException, UnsupportedCryptoException, NotUnlockedException {
         if (!this.manifest.encrypted || this.manifest.getKeyBag().isEmpty()) return;
 
+        if (this.databaseInMemory) {
+            reEncryptDatabaseFromMemory();
+            return;
+        }
+
         if (this.decryptedDatabaseFile == null || !this.decryptedDatabaseFile.exists())
             throw new DatabaseConnectionException();
 
-        File dir = new File(this.directory, "_BackupExplorer");
-        if (!dir.isDirectory() && !dir.mkdir())
-            throw new IOException("Backup directory '" + dir.getAbsolutePath() + "' could not be created");
-
-        // Incremental backup suffix
-        String backupName = "Manifest.db";
-        int i = 0;
-        while (new File(dir, backupName + ".bak").exists()) backupName = "Manifest.db." + (++i);
-        Files.copy(this.manifestDBFile.toPath(), new File(dir, backupName + ".bak").toPath());
+        backupManifestDatabase();
 
         if (this.databaseConnected()) {
             try {
@@ -160,6 +193,42 @@ public class ITunesBackup {
         connectToDatabase();
     }
 
+    private void backupManifestDatabase() throws IOException {
+        File dir = new File(this.directory, "_BackupExplorer");
+        if (!dir.isDirectory() && !dir.mkdir())
+            throw new IOException("Backup directory '" + dir.getAbsolutePath() + "' could not be created");
+
+        // Incremental backup suffix
+        String backupName = "Manifest.db";
+        int i = 0;
+        while (new File(dir, backupName + ".bak").exists()) backupName = "Manifest.db." + (++i);
+        Files.copy(this.manifestDBFile.toPath(), new File(dir, backupName + ".bak").toPath());
+    }
+
+    private void reEncryptDatabaseFromMemory() throws IOException, BackupReadException, DatabaseConnectionException, UnsupportedCryptoException, NotUnlockedException {
+        if (!databaseConnected()) throw new DatabaseConnectionException();
+
+        byte[] image;
+        try {
+            synchronized (this) {
+                image = this.databaseCon.unwrap(SQLiteConnection.class).serialize("main");
+            }
+        } catch (SQLException e) {
+            throw new DatabaseConnectionException(e);
+        }
+
+        backupManifestDatabase();
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(this.manifestDBFile));
+             OutputStream encrypted = this.manifest.getKeyBag().get().encryptStream(
+                     ByteBuffer.allocate(4).putInt(manifest.protectionClass).array(), manifest.getManifestKey().orElseThrow(), output)) {
+            encrypted.write(image);
+        } catch (InvalidKeyException e) {
+            throw new BackupReadException(e);
+        } finally {
+            Arrays.fill(image, (byte) 0);
+        }
+    }
+
     public synchronized boolean databaseConnected() {
         try {
             return this.databaseCon != null && !this.databaseCon.isClosed();
@@ -185,6 +254,16 @@ public class ITunesBackup {
     }
 
     public void cleanUp() {
+        if (this.databaseInMemory) {
+            try {
+                if (databaseCon != null && !databaseCon.isClosed())
+                    this.databaseCon.close();
+            } catch (SQLException e) {
+                logger.error("Failed to close database connection", e);
+            }
+            return;
+        }
+
         if (!this.manifest.encrypted
                 || this.decryptedDatabaseFile == null
                 || !this.decryptedDatabaseFile.exists()
@@ -225,6 +304,7 @@ public class ITunesBackup {
 
             try (ResultSet result = statement.executeQuery()) {
                 List<BackupFile> backupFiles = new ArrayList<>();
+                MBFileDecoder decoder = new MBFileDecoder();
                 while (result.next()) {
                     try {
                         backupFiles.add(new BackupFile(
@@ -233,13 +313,11 @@ public class ITunesBackup {
                                 result.getString(2),
                                 result.getString(3),
                                 result.getInt(4),
-                                (NSDictionary) PropertyListParser.parse(result.getBinaryStream(5))
+                                result.getBytes(5),
+                                decoder
                         ));
                     } catch (BackupReadException e) {
                         logger.error("Failed to read backup: {}", e.getMessage());
-                    } catch (IOException | PropertyListFormatException | ParseException | ParserConfigurationException |
-                             SAXException e) {
-                        logger.error("Failed to query backups", e);
                     }
                 }
                 return backupFiles;
@@ -370,6 +448,66 @@ public class ITunesBackup {
         );
     }
 
+    /**
+     * Opens an SQLite database of the backup. Databases up to {@link InMemoryDatabase#MAX_SIZE} are decrypted
+     * straight into memory with their WAL merged; larger ones are extracted into the given directory first.
+     * @param spillDirectory The directory to extract large databases into
+     * @return A connection to the database, or null if the backup does not contain it
+     */
+    public Connection openDatabase(String domain, String relativePath, File spillDirectory)
+            throws DatabaseConnectionException, IOException, BackupReadException, NotUnlockedException, UnsupportedCryptoException, SQLException {
+        Map<String, BackupFile> files = queryDatabaseFiles(domain, relativePath);
+        BackupFile database = files.get(relativePath);
+        if (database == null) return null;
+
+        BackupFile wal = files.get(relativePath + "-wal");
+        if (InMemoryDatabase.fits(database.getSize() + (wal == null ? 0 : wal.getSize()))) {
+            try {
+                return InMemoryDatabase.open(InMemoryDatabase.read(database, wal));
+            } catch (SQLException e) {
+                logger.warn("Failed to open {} in memory, extracting it instead: {}", database.getFileName(), e.getMessage());
+            }
+        }
+
+        File databaseFile = extractDatabase(files, relativePath, spillDirectory);
+        return DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+    }
+
+    /**
+     * @return The database and its companions by relative path
+     */
+    private Map<String, BackupFile> queryDatabaseFiles(String domain, String relativePath) throws DatabaseConnectionException {
+        String escaped = relativePath.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        Map<String, BackupFile> files = new HashMap<>();
+        for (BackupFile file : searchFiles(domain, escaped + "%")) {
+            if (file.getFileType() == BackupFile.FileType.FILE) files.put(file.relativePath, file);
+        }
+        return files;
+    }
+
+    /**
+     * Extracts a database together with its WAL and SHM companions, which hold the most recent
+     * changes and have to sit beside the main file when it is opened.
+     */
+    private static File extractDatabase(Map<String, BackupFile> files, String relativePath, File directory)
+            throws IOException, BackupReadException, NotUnlockedException, UnsupportedCryptoException {
+        BackupFile database = files.get(relativePath);
+        if (database == null) return null;
+
+        File databaseFile = new File(directory, database.getFileName());
+        database.extract(databaseFile);
+        for (String suffix : new String[]{"-wal", "-shm"}) {
+            BackupFile companion = files.get(relativePath + suffix);
+            if (companion == null) continue;
+            try {
+                companion.extract(new File(directory, databaseFile.getName() + suffix));
+            } catch (IOException | BackupReadException | NotUnlockedException | UnsupportedCryptoException e) {
+                logger.debug("Companion file '{}{}' not extractable: {}", databaseFile.getName(), suffix, e.getMessage());
+            }
+        }
+        return databaseFile;
+    }
+
     @SuppressWarnings({"SqlResolve", "SqlNoDataSourceInspection"})
     public void updateFileInfo(String fileID, NSDictionary data) throws DatabaseConnectionException, IOException {
         if (!databaseConnected()) this.connectToDatabase();
@@ -0,0 +1,163 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Opens SQLite databases from memory instead of extracting them to a temporary file first. The decrypted
+ * content is loaded into an in-memory connection with sqlite-jdbc's deserialize support, so nothing of it
+ * touches the disk and there is no temporary copy to wipe afterwards.
+ * <p>
+ * In-memory databases cannot be in WAL mode, so the committed frames of a WAL sidecar are applied to the
+ * image before it is loaded, the same way a checkpoint would.
+ */
+public class InMemoryDatabase {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryDatabase.class);
+
+    /**
+     * Databases up to this size are opened in memory; larger ones are still extracted to disk.
+     */
+    public static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    private static final int DATABASE_HEADER_SIZE = 100;
+    private static final int WAL_HEADER_SIZE = 32;
+    private static final int WAL_FRAME_HEADER_SIZE = 24;
+    private static final int WAL_MAGIC = 0x377f0682;
+
+    public static boolean fits(long size) {
+        return size >= 0 && size <= MAX_SIZE;
+    }
+
+    /**
+     * Loads a database image, e.g. the result of {@link #read(BackupFile)}, into a new in-memory connection.
+     */
+    public static Connection open(byte[] image) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try {
+            connection.unwrap(SQLiteConnection.class).deserialize("main", image);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Reads and decrypts a database from the backup and merges its WAL sidecar, if there is one.
+     *
+     * @param wal The -wal companion of the database, or null
+     */
+    public static byte[] read(BackupFile database, BackupFile wal)
+            throws IOException, BackupReadException, NotUnlockedException, UnsupportedCryptoException {
+        byte[] image = read(database);
+        if (wal == null || wal.getSize() == 0) return image;
+
+        try {
+            return mergeWal(image, read(wal));
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable WAL of {}: {}", database.relativePath, e.getMessage());
+            return image;
+        }
+    }
+
+    private static byte[] read(BackupFile file)
+            throws IOException, BackupReadException, NotUnlockedException, UnsupportedCryptoException {
+        try (InputStream stream = file.openStream()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.max(0, Math.min(file.getSize(), MAX_SIZE)));
+            stream.transferTo(output);
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * Applies the frames of a WAL file to the database image, up to the last complete transaction.
+     * Frames are only used while their salts match the WAL header and their checksums continue the chain,
+     * so leftovers of older transactions and torn writes are left out.
+     *
+     * @return The checkpointed image in rollback journal mode, or the unchanged image if the WAL does not belong to it
+     */
+    static byte[] mergeWal(byte[] database, byte[] wal) {
+        if (wal.length < WAL_HEADER_SIZE || database.length < DATABASE_HEADER_SIZE) return database;
+        // Only a database in WAL mode reads its sidecar, any other one would be stale
+        if (database[18] != 2 || database[19] != 2) return database;
+
+        ByteBuffer header = ByteBuffer.wrap(wal).order(ByteOrder.BIG_ENDIAN);
+        int magic = header.getInt(0);
+        if ((magic & 0xFFFFFFFE) != WAL_MAGIC) return database;
+        ByteOrder checksumOrder = (magic & 1) == 1 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+        int pageSize = header.getInt(8);
+        int databasePageSize = ((database[16] & 0xFF) << 8) | (database[17] & 0xFF);
+        if (databasePageSize == 1) databasePageSize = 65536;
+        if (pageSize != databasePageSize) return database;
+
+        int salt1 = header.getInt(16);
+        int salt2 = header.getInt(20);
+        int[] checksum = checksum(wal, 0, 24, new int[2], checksumOrder);
+        if (checksum[0] != header.getInt(24) || checksum[1] != header.getInt(28)) return database;
+
+        Map<Integer, Integer> pending = new HashMap<>();
+        Map<Integer, Integer> committed = new HashMap<>();
+        int pageCount = -1;
+        int frameSize = WAL_FRAME_HEADER_SIZE + pageSize;
+        for (int offset = WAL_HEADER_SIZE; offset + frameSize <= wal.length; offset += frameSize) {
+            if (header.getInt(offset + 8) != salt1 || header.getInt(offset + 12) != salt2) break;
+            checksum = checksum(wal, offset, 8, checksum, checksumOrder);
+            checksum = checksum(wal, offset + WAL_FRAME_HEADER_SIZE, pageSize, checksum, checksumOrder);
+            if (checksum[0] != header.getInt(offset + 16) || checksum[1] != header.getInt(offset + 20)) break;
+
+            pending.put(header.getInt(offset), offset + WAL_FRAME_HEADER_SIZE);
+            int commitSize = header.getInt(offset + 4);
+            if (commitSize != 0) {
+                committed.putAll(pending);
+                pending.clear();
+                pageCount = commitSize;
+            }
+        }
+        if (pageCount < 0) return database;
+
+        byte[] merged = new byte[Math.multiplyExact(pageCount, pageSize)];
+        System.arraycopy(database, 0, merged, 0, Math.min(database.length, merged.length));
+        for (Map.Entry<Integer, Integer> page : committed.entrySet()) {
+            int number = page.getKey();
+            if (number < 1 || number > pageCount) continue;
+            System.arraycopy(wal, page.getValue(), merged, (number - 1) * pageSize, pageSize);
+        }
+
+        // Back to rollback journal mode, with a page count that matches the image
+        merged[18] = 1;
+        merged[19] = 1;
+        ByteBuffer mergedHeader = ByteBuffer.wrap(merged).order(ByteOrder.BIG_ENDIAN);
+        mergedHeader.putInt(28, pageCount);
+        mergedHeader.putInt(92, mergedHeader.getInt(24));
+
+        logger.debug("Merged {} WAL pages into database of {} pages", committed.size(), pageCount);
+        return merged;
+    }
+
+    /**
+     * The WAL checksum: Fibonacci-weighted sums over pairs of 32-bit words, continued from the previous value.
+     */
+    private static int[] checksum(byte[] data, int offset, int length, int[] previous, ByteOrder order) {
+        ByteBuffer buffer = ByteBuffer.wrap(data, offset, length).order(order);
+        int s0 = previous[0];
+        int s1 = previous[1];
+        for (int i = offset; i < offset + length; i += 8) {
+            s0 += buffer.getInt(i) + s1;
+            s1 += buffer.getInt(i + 4) + s0;
+        }
+        return new int[]{s0, s1};
+    }
+}
@@ -0,0 +1,311 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decodes the MBFile records in the <code>file</code> column of Manifest.db without building a property list.
+ * The records are NSKeyedArchiver binary plists of always the same shape, so the fields a {@link BackupFile}
+ * needs are read straight from the bytes: numbers into primitives, data and strings as ranges of the record.
+ * <p>
+ * A decoder is reused for many records and keeps the fields of the last one. It is not thread-safe.
+ * Records it does not understand are rejected, and have to be parsed with dd-plist instead.
+ */
+public final class MBFileDecoder {
+    private static final byte[] MAGIC = "bplist00".getBytes(StandardCharsets.US_ASCII);
+    private static final int TRAILER_SIZE = 32;
+    private static final int ENCRYPTION_KEY_OFFSET = 4;
+    private static final int ENCRYPTION_KEY_LENGTH = 40;
+
+    private static final byte[] KEY_OBJECTS = ascii("$objects");
+    private static final byte[] KEY_TOP = ascii("$top");
+    private static final byte[] KEY_ROOT = ascii("root");
+    private static final byte[] KEY_SIZE = ascii("Size");
+    private static final byte[] KEY_PROTECTION_CLASS = ascii("ProtectionClass");
+    private static final byte[] KEY_LAST_MODIFIED = ascii("LastModified");
+    private static final byte[] KEY_MODE = ascii("Mode");
+    private static final byte[] KEY_ENCRYPTION_KEY = ascii("EncryptionKey");
+    private static final byte[] KEY_DIGEST = ascii("Digest");
+    private static final byte[] KEY_TARGET = ascii("Target");
+    private static final byte[] KEY_NS_DATA = ascii("NS.data");
+
+    private byte[] record;
+    private int offsetSize;
+    private int referenceSize;
+    private int objectCount;
+    private int offsetTable;
+    private int archivedObjects;
+
+    // Position and length of the content of the last object passed to content()
+    private int contentStart;
+    private int contentLength;
+    // Result of the last number() call
+    private long number;
+
+    private boolean hasSize;
+    private long size;
+    private boolean hasProtectionClass;
+    private int protectionClass;
+    private boolean hasLastModified;
+    private long lastModified;
+    private boolean hasMode;
+    private int mode;
+    private int encryptionKeyStart;
+    private int digestStart;
+    private int digestLength;
+    private int targetStart;
+    private int targetLength;
+    private boolean targetUtf16;
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return false if the record is no MBFile archive this decoder understands
+     */
+    public boolean decode(byte[] record) {
+        this.record = record;
+        hasSize = hasProtectionClass = hasLastModified = hasMode = false;
+        encryptionKeyStart = digestStart = targetStart = -1;
+        digestLength = targetLength = 0;
+
+        try {
+            return decodeRecord();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Offsets pointing outside of a truncated or corrupt record
+            return false;
+        }
+    }
+
+    private boolean decodeRecord() {
+        int length = record.length;
+        if (length < MAGIC.length + 1 + TRAILER_SIZE || !Arrays.equals(record, 0, MAGIC.length, MAGIC, 0, MAGIC.length))
+            return false;
+
+        int trailer = length - TRAILER_SIZE;
+        offsetSize = record[trailer + 6];
+        referenceSize = record[trailer + 7];
+        long count = readUnsigned(trailer + 8, 8);
+        long top = readUnsigned(trailer + 16, 8);
+        long table = readUnsigned(trailer + 24, 8);
+        if (offsetSize < 1 || offsetSize > 8 || referenceSize < 1 || referenceSize > 8
+                || count < 1 || top < 0 || top >= count || table < MAGIC.length || table > trailer
+                || (trailer - table) / offsetSize < count) {
+            return false;
+        }
+        objectCount = (int) count;
+        offsetTable = (int) table;
+
+        int topObject = (int) top;
+        archivedObjects = lookup(topObject, KEY_OBJECTS);
+        if (archivedObjects < 0 || marker(archivedObjects) >> 4 != 0xA) return false;
+        int root = resolve(lookup(lookup(topObject, KEY_TOP), KEY_ROOT));
+        if (root < 0 || !content(root, 0xD)) return false;
+
+        int entries = contentLength;
+        int keys = contentStart;
+        for (int i = 0; i < entries; i++) {
+            int key = reference(keys + i * referenceSize);
+            int value = reference(keys + (entries + i) * referenceSize);
+            if (key < 0 || value < 0) return false;
+
+            if (keyEquals(key, KEY_SIZE)) {
+                if (!number(value)) return false;
+                hasSize = true;
+                size = number;
+            } else if (keyEquals(key, KEY_PROTECTION_CLASS)) {
+                if (!number(value)) return false;
+                hasProtectionClass = true;
+                protectionClass = (int) number;
+            } else if (keyEquals(key, KEY_LAST_MODIFIED)) {
+                if (!number(value)) return false;
+                hasLastModified = true;
+                lastModified = number;
+            } else if (keyEquals(key, KEY_MODE)) {
+                if (!number(value)) return false;
+                hasMode = true;
+                mode = (int) number;
+            } else if (keyEquals(key, KEY_ENCRYPTION_KEY)) {
+                // An NSMutableData, archived as a dictionary with the bytes in NS.data
+                int data = lookup(resolve(value), KEY_NS_DATA);
+                if (data < 0 || !content(data, 0x4) || contentLength < ENCRYPTION_KEY_OFFSET + ENCRYPTION_KEY_LENGTH)
+                    return false;
+                encryptionKeyStart = contentStart + ENCRYPTION_KEY_OFFSET;
+            } else if (keyEquals(key, KEY_DIGEST)) {
+                int data = resolve(value);
+                if (data < 0 || !content(data, 0x4)) return false;
+                digestStart = contentStart;
+                digestLength = contentLength;
+            } else if (keyEquals(key, KEY_TARGET)) {
+                int target = resolve(value);
+                if (target < 0) return false;
+                int type = marker(target) >> 4;
+                if ((type != 0x5 && type != 0x6) || !content(target, type)) return false;
+                targetStart = contentStart;
+                targetUtf16 = type == 0x6;
+                targetLength = targetUtf16 ? contentLength * 2 : contentLength;
+            }
+        }
+        return true;
+    }
+
+    private long readUnsigned(int position, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) value = (value << 8) | (record[position + i] & 0xFF);
+        return value;
+    }
+
+    /**
+     * @return The position of an object, or -1 if it is out of bounds
+     */
+    private int offset(int object) {
+        if (object < 0 || object >= objectCount) return -1;
+        long offset = readUnsigned(offsetTable + object * offsetSize, offsetSize);
+        return offset < MAGIC.length || offset >= offsetTable ? -1 : (int) offset;
+    }
+
+    private int marker(int object) {
+        int offset = offset(object);
+        return offset < 0 ? -1 : record[offset] & 0xFF;
+    }
+
+    private int reference(int position) {
+        long reference = readUnsigned(position, referenceSize);
+        return reference >= objectCount ? -1 : (int) reference;
+    }
+
+    /**
+     * Locates the content of an object of the given type into {@link #contentStart} and {@link #contentLength}.
+     */
+    private boolean content(int object, int type) {
+        int offset = offset(object);
+        if (offset < 0 || (record[offset] & 0xFF) >> 4 != type) return false;
+        int info = record[offset] & 0x0F;
+        if (info != 0x0F) {
+            contentLength = info;
+            contentStart = offset + 1;
+            return true;
+        }
+
+        int lengthMarker = record[offset + 1] & 0xFF;
+        int size = 1 << (lengthMarker & 0x0F);
+        if (lengthMarker >> 4 != 0x1 || size > 4) return false;
+        long length = readUnsigned(offset + 2, size);
+        if (length > Integer.MAX_VALUE) return false;
+        contentLength = (int) length;
+        contentStart = offset + 2 + size;
+        return true;
+    }
+
+    /**
+     * Reads an integer or real into {@link #number}.
+     */
+    private boolean number(int object) {
+        int offset = offset(object);
+        if (offset < 0) return false;
+        int marker = record[offset] & 0xFF;
+        switch (marker) {
+            case 0x10, 0x11, 0x12 -> number = readUnsigned(offset + 1, 1 << (marker & 0x0F));
+            case 0x13 -> number = readUnsigned(offset + 1, 8);
+            case 0x22 -> number = (long) Float.intBitsToFloat((int) readUnsigned(offset + 1, 4));
+            case 0x23 -> number = (long) Double.longBitsToDouble(readUnsigned(offset + 1, 8));
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean keyEquals(int object, byte[] key) {
+        if (!content(object, 0x5) || contentLength != key.length) return false;
+        return Arrays.equals(record, contentStart, contentStart + contentLength, key, 0, key.length);
+    }
+
+    /**
+     * @return The value of the ASCII key in the dictionary, or -1
+     */
+    private int lookup(int dictionary, byte[] key) {
+        if (dictionary < 0 || !content(dictionary, 0xD)) return -1;
+        int entries = contentLength;
+        int keys = contentStart;
+        for (int i = 0; i < entries; i++) {
+            int candidate = reference(keys + i * referenceSize);
+            if (candidate >= 0 && keyEquals(candidate, key)) return reference(keys + (entries + i) * referenceSize);
+        }
+        return -1;
+    }
+
+    /**
+     * @return The object in $objects a UID refers to, or -1
+     */
+    private int resolve(int uid) {
+        int offset = offset(uid);
+        if (offset < 0 || (record[offset] & 0xFF) >> 4 != 0x8) return -1;
+        long index = readUnsigned(offset + 1, (record[offset] & 0x0F) + 1);
+
+        if (!content(archivedObjects, 0xA) || index >= contentLength) return -1;
+        return reference(contentStart + (int) index * referenceSize);
+    }
+
+    public boolean hasSize() {
+        return hasSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public boolean hasProtectionClass() {
+        return hasProtectionClass;
+    }
+
+    public int getProtectionClass() {
+        return protectionClass;
+    }
+
+    public boolean hasLastModified() {
+        return hasLastModified;
+    }
+
+    /**
+     * @return Seconds since the Unix epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public boolean hasMode() {
+        return hasMode;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public boolean hasEncryptionKey() {
+        return encryptionKeyStart >= 0;
+    }
+
+    /**
+     * @return The wrapped key without its protection class prefix, or null if the file is not encrypted
+     */
+    public byte[] copyEncryptionKey() {
+        return hasEncryptionKey() ? Arrays.copyOfRange(record, encryptionKeyStart, encryptionKeyStart + ENCRYPTION_KEY_LENGTH) : null;
+    }
+
+    /**
+     * @return The digest, or null if the record has none
+     */
+    public byte[] copyDigest() {
+        return digestStart >= 0 ? Arrays.copyOfRange(record, digestStart, digestStart + digestLength) : null;
+    }
+
+    /**
+     * @return The target of a symbolic link, or null if the record has none
+     */
+    public String getTarget() {
+        if (targetStart < 0) return null;
+        return new String(record, targetStart, targetLength, targetUtf16 ? StandardCharsets.UTF_16BE : StandardCharsets.US_ASCII);
+    }
+}
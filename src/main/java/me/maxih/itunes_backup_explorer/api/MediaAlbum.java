@@ -0,0 +1,11 @@
+package me.maxih.itunes_backup_explorer.api;
+
+/**
+ * A user album from Photos.sqlite.
+ */
+public record MediaAlbum(long id, String title, int assetCount) {
+    @Override
+    public String toString() {
+        return title + " (" + assetCount + ")";
+    }
+}
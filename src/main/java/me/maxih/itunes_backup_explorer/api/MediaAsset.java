@@ -0,0 +1,30 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import java.time.Instant;
+
+/**
+ * A photo or video of the Media tab. Assets from Photos.sqlite carry their capture date and favorite flag;
+ * media files the library does not know about have an {@link #assetId()} of -1 and no capture date.
+ *
+ * @param relativePath   Path of the file in its domain, e.g. {@code Media/DCIM/100APPLE/IMG_0001.HEIC}
+ * @param file           The file in the backup, null while the asset is not yet joined with the manifest
+ * @param livePhotoVideo The video half of a Live Photo, or null
+ */
+public record MediaAsset(
+        long assetId,
+        String relativePath,
+        boolean video,
+        Instant captureDate,
+        boolean favorite,
+        boolean livePhoto,
+        BackupFile file,
+        BackupFile livePhotoVideo
+) {
+    public MediaAsset withFiles(BackupFile file, BackupFile livePhotoVideo) {
+        return new MediaAsset(assetId, relativePath, video, captureDate, favorite, livePhoto, file, livePhotoVideo);
+    }
+
+    public String fileName() {
+        return relativePath.substring(relativePath.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,228 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.util.*;
+
+/**
+ * Photos and videos of a backup, built from the photo library and joined with the manifest in one pass.
+ * Assets are kept sorted by capture date, with bit sets per type, favorites and album over that order,
+ * so every combination of filters is answered from the indexes without scanning file names.
+ * <p>
+ * Media files the photo library does not know about, and all media in MediaDomain, are included
+ * without a capture date after the dated assets.
+ */
+public class MediaCatalog {
+    private static final Logger logger = LoggerFactory.getLogger(MediaCatalog.class);
+
+    public static final Set<String> PHOTO_EXTENSIONS = Set.of(
+            "jpg", "jpeg", "png", "heic", "heif", "gif", "bmp", "tiff"
+    );
+    public static final Set<String> VIDEO_EXTENSIONS = Set.of(
+            "mov", "mp4", "m4v", "avi"
+    );
+
+    public enum Kind {ALL, PHOTOS, VIDEOS}
+
+    /**
+     * @param albumId ID of the album to show, or -1 for all assets
+     */
+    public record Filter(Kind kind, long albumId, boolean favoritesOnly, boolean oldestFirst) {
+        public static final Filter ALL = new Filter(Kind.ALL, -1, false, false);
+    }
+
+    private final List<MediaAsset> assets;
+    private final List<MediaAlbum> albums;
+    private final BitSet videos = new BitSet();
+    private final BitSet favorites = new BitSet();
+    private final Map<Long, BitSet> albumMembers = new HashMap<>();
+    // Dated assets come first, so the oldest-first order reverses only this range
+    private final int datedCount;
+
+    /**
+     * @param assets Assets with their backup files; assets without a file are not part of the backup and dropped
+     * @param albums Albums with the IDs of their assets
+     */
+    MediaCatalog(Collection<MediaAsset> assets, Map<MediaAlbum, long[]> albums) {
+        List<MediaAsset> sorted = new ArrayList<>(assets);
+        sorted.sort(Comparator.comparing(MediaAsset::captureDate, Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(MediaAsset::relativePath));
+        this.assets = Collections.unmodifiableList(sorted);
+
+        Map<Long, Integer> positions = new HashMap<>();
+        int dated = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            MediaAsset asset = sorted.get(i);
+            if (asset.video()) videos.set(i);
+            if (asset.favorite()) favorites.set(i);
+            if (asset.captureDate() != null) dated++;
+            if (asset.assetId() >= 0) positions.put(asset.assetId(), i);
+        }
+        this.datedCount = dated;
+
+        List<MediaAlbum> albumList = new ArrayList<>();
+        for (Map.Entry<MediaAlbum, long[]> album : albums.entrySet()) {
+            BitSet members = new BitSet();
+            for (long assetId : album.getValue()) {
+                Integer position = positions.get(assetId);
+                if (position != null) members.set(position);
+            }
+            if (members.isEmpty()) continue;
+
+            MediaAlbum counted = new MediaAlbum(album.getKey().id(), album.getKey().title(), members.cardinality());
+            albumList.add(counted);
+            albumMembers.put(counted.id(), members);
+        }
+        this.albums = Collections.unmodifiableList(albumList);
+    }
+
+    /**
+     * Reads Photos.sqlite (with its WAL) and joins its assets with the media files
+     * of the backup. Falls back to the media files alone if the backup has no readable photo library.
+     */
+    public static MediaCatalog build(ITunesBackup backup) throws DatabaseConnectionException {
+        long start = System.currentTimeMillis();
+
+        Map<String, BackupFile> cameraRoll = new HashMap<>();
+        for (BackupFile file : backup.searchFiles(PhotosLibrary.DOMAIN, PhotosLibrary.MEDIA_ROOT + "%")) {
+            if (file.getFileType() == BackupFile.FileType.FILE) cameraRoll.put(file.relativePath.toLowerCase(Locale.ROOT), file);
+        }
+
+        List<MediaAsset> libraryAssets = List.of();
+        Map<MediaAlbum, long[]> albums = Map.of();
+        if (cameraRoll.containsKey(PhotosLibrary.DATABASE_PATH.toLowerCase(Locale.ROOT))) {
+            File directory = null;
+            try {
+                // Only used if the library is too large to be opened in memory
+                directory = Files.createTempDirectory("photos_db_").toFile();
+                Connection connection = backup.openDatabase(PhotosLibrary.DOMAIN, PhotosLibrary.DATABASE_PATH, directory);
+                if (connection != null) {
+                    try (PhotosLibrary library = new PhotosLibrary(connection)) {
+                        libraryAssets = library.queryAssets();
+                        albums = library.queryAlbums();
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Failed to read Photos.sqlite, listing media files only: {}", e.getMessage());
+            } finally {
+                if (directory != null) {
+                    File[] files = directory.listFiles();
+                    if (files != null) for (File f : files) f.delete();
+                    directory.delete();
+                }
+            }
+        }
+
+        List<MediaAsset> assets = join(libraryAssets, cameraRoll);
+        List<String> patterns = new ArrayList<>();
+        PHOTO_EXTENSIONS.forEach(extension -> patterns.add("%." + extension));
+        VIDEO_EXTENSIONS.forEach(extension -> patterns.add("%." + extension));
+        for (BackupFile file : backup.searchFilesMultiPattern("MediaDomain", patterns)) {
+            if (file.getFileType() == BackupFile.FileType.FILE) assets.add(unlisted(file));
+        }
+
+        MediaCatalog catalog = new MediaCatalog(assets, albums);
+        logger.info("Built media catalog of {} assets ({} from Photos.sqlite, {} albums) in {} ms",
+                catalog.size(), catalog.datedCount, catalog.albums.size(), System.currentTimeMillis() - start);
+        return catalog;
+    }
+
+    /**
+     * Attaches the backup files to the library assets and pairs Live Photos with their videos, which share
+     * the directory and name of the still. Camera roll media the library does not list are added as well,
+     * except for the Live Photo videos that were paired.
+     *
+     * @param files Camera roll files by lower case relative path; the joined files are removed
+     */
+    static List<MediaAsset> join(List<MediaAsset> libraryAssets, Map<String, BackupFile> files) {
+        List<MediaAsset> assets = new ArrayList<>(libraryAssets.size());
+        Map<String, BackupFile> remaining = new HashMap<>(files);
+
+        for (MediaAsset asset : libraryAssets) {
+            String path = asset.relativePath().toLowerCase(Locale.ROOT);
+            BackupFile file = remaining.remove(path);
+            if (file == null) continue;
+
+            BackupFile video = null;
+            if (asset.livePhoto()) {
+                int dot = path.lastIndexOf('.');
+                String stem = dot > path.lastIndexOf('/') ? path.substring(0, dot) : path;
+                video = remaining.remove(stem + ".mov");
+            }
+            assets.add(asset.withFiles(file, video));
+        }
+
+        for (Map.Entry<String, BackupFile> entry : remaining.entrySet()) {
+            // Thumbnails and caches of the photo library are not media of their own
+            if (entry.getKey().startsWith("media/photodata/")) continue;
+            if (kindOf(entry.getKey()) != null) assets.add(unlisted(entry.getValue()));
+        }
+        return assets;
+    }
+
+    private static MediaAsset unlisted(BackupFile file) {
+        return new MediaAsset(-1, file.relativePath, Boolean.TRUE.equals(kindOf(file.relativePath)),
+                null, false, false, file, null);
+    }
+
+    /**
+     * @return true for videos, false for photos, null for other files
+     */
+    private static Boolean kindOf(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) return null;
+        String extension = name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        if (VIDEO_EXTENSIONS.contains(extension)) return true;
+        if (PHOTO_EXTENSIONS.contains(extension)) return false;
+        return null;
+    }
+
+    public int size() {
+        return assets.size();
+    }
+
+    public List<MediaAsset> getAssets() {
+        return assets;
+    }
+
+    public List<MediaAlbum> getAlbums() {
+        return albums;
+    }
+
+    /**
+     * @return The matching assets, newest first unless the filter asks otherwise; undated assets always come last
+     */
+    public List<MediaAsset> query(Filter filter) {
+        BitSet selection;
+        if (filter.albumId() >= 0) {
+            BitSet members = albumMembers.get(filter.albumId());
+            selection = members == null ? new BitSet() : (BitSet) members.clone();
+        } else {
+            selection = new BitSet(assets.size());
+            selection.set(0, assets.size());
+        }
+        if (filter.kind() == Kind.VIDEOS) selection.and(videos);
+        else if (filter.kind() == Kind.PHOTOS) selection.andNot(videos);
+        if (filter.favoritesOnly()) selection.and(favorites);
+
+        List<MediaAsset> result = new ArrayList<>(selection.cardinality());
+        if (filter.oldestFirst()) {
+            for (int i = selection.previousSetBit(datedCount - 1); i >= 0; i = selection.previousSetBit(i - 1)) {
+                result.add(assets.get(i));
+            }
+            for (int i = selection.nextSetBit(datedCount); i >= 0; i = selection.nextSetBit(i + 1)) {
+                result.add(assets.get(i));
+            }
+        } else {
+            for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+                result.add(assets.get(i));
+            }
+        }
+        return result;
+    }
+}
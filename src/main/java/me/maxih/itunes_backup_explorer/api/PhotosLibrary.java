@@ -0,0 +1,249 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Reads assets and albums from an extracted copy of the photo library ({@code CameraRollDomain/Media/PhotoData/Photos.sqlite}).
+ * The asset table is ZASSET since iOS 14 and ZGENERICASSET before; the album join table is named after the
+ * Core Data entity numbers of the particular iOS version, so both are detected from the schema.
+ */
+public class PhotosLibrary implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(PhotosLibrary.class);
+
+    public static final String DOMAIN = "CameraRollDomain";
+    public static final String DATABASE_PATH = "Media/PhotoData/Photos.sqlite";
+    public static final String MEDIA_ROOT = "Media/";
+
+    private static final long APPLE_EPOCH_OFFSET = 978307200L;
+    private static final int KIND_VIDEO = 1;
+    private static final int SUBTYPE_LIVE_PHOTO = 2;
+    private static final int ALBUM_KIND_USER = 2;
+    private static final Pattern ALBUM_JOIN_TABLE = Pattern.compile("Z_\\d+ASSETS");
+    private static final Pattern ALBUM_JOIN_ALBUMS = Pattern.compile("Z_\\d+ALBUMS");
+    private static final Pattern ALBUM_JOIN_ASSETS = Pattern.compile("Z_\\d+ASSETS");
+
+    private final Connection connection;
+    private final String assetTable;
+    private final Set<String> assetColumns;
+
+    public PhotosLibrary(File databaseFile) throws SQLException {
+        this(DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath()));
+    }
+
+    /**
+     * @param connection Connection to Photos.sqlite, e.g. from {@link ITunesBackup#openDatabase}; closed with this library
+     */
+    public PhotosLibrary(Connection connection) throws SQLException {
+        this.connection = connection;
+        this.assetTable = getTableColumns("ZASSET").isEmpty() ? "ZGENERICASSET" : "ZASSET";
+        this.assetColumns = getTableColumns(assetTable);
+        if (assetColumns.isEmpty()) {
+            connection.close();
+            throw new SQLException("No asset table in Photos.sqlite");
+        }
+        logger.info("Photos.sqlite schema detected — asset table: {}, columns: {}", assetTable, assetColumns.size());
+    }
+
+    private Set<String> getTableColumns(String table) {
+        Set<String> columns = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name").toUpperCase(Locale.ROOT));
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to read table info for {}", table, e);
+        }
+        return columns;
+    }
+
+    private String column(String name, String fallback) {
+        return assetColumns.contains(name) ? name : fallback + " AS " + name;
+    }
+
+    /**
+     * Loads all assets that are not in the trash, without their backup files.
+     */
+    public List<MediaAsset> queryAssets() throws SQLException {
+        String sql = "SELECT Z_PK, ZDIRECTORY, ZFILENAME, " +
+                column("ZKIND", "0") + ", " +
+                column("ZKINDSUBTYPE", "0") + ", " +
+                column("ZDATECREATED", "NULL") + ", " +
+                column("ZFAVORITE", "0") +
+                " FROM " + assetTable +
+                " WHERE ZFILENAME IS NOT NULL" +
+                (assetColumns.contains("ZTRASHEDSTATE") ? " AND ZTRASHEDSTATE = 0" : "");
+
+        List<MediaAsset> assets = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                String directory = rs.getString("ZDIRECTORY");
+                String path = MEDIA_ROOT + (directory == null || directory.isEmpty() ? "" : directory + "/") + rs.getString("ZFILENAME");
+                boolean video = rs.getInt("ZKIND") == KIND_VIDEO;
+
+                double created = rs.getDouble("ZDATECREATED");
+                Instant captureDate = rs.wasNull() ? null : toInstant(created);
+
+                assets.add(new MediaAsset(
+                        rs.getLong("Z_PK"),
+                        path,
+                        video,
+                        captureDate,
+                        rs.getInt("ZFAVORITE") == 1,
+                        !video && rs.getInt("ZKINDSUBTYPE") == SUBTYPE_LIVE_PHOTO,
+                        null,
+                        null
+                ));
+            }
+        }
+        logger.info("Loaded {} assets from Photos.sqlite in {} ms", assets.size(), System.currentTimeMillis() - start);
+        return assets;
+    }
+
+    /**
+     * Loads the user albums with the IDs of their assets. Smart albums and system albums are left out.
+     */
+    public Map<MediaAlbum, long[]> queryAlbums() throws SQLException {
+        Map<MediaAlbum, long[]> albums = new LinkedHashMap<>();
+
+        String[] join = findAlbumJoinTable();
+        if (join == null || getTableColumns("ZGENERICALBUM").isEmpty()) {
+            logger.info("No album tables found in Photos.sqlite");
+            return albums;
+        }
+
+        Map<Long, List<Long>> members = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + join[1] + ", " + join[2] + " FROM " + join[0])) {
+            while (rs.next()) {
+                members.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(rs.getLong(2));
+            }
+        }
+
+        Set<String> albumColumns = getTableColumns("ZGENERICALBUM");
+        String sql = "SELECT Z_PK, ZTITLE FROM ZGENERICALBUM WHERE ZTITLE IS NOT NULL" +
+                (albumColumns.contains("ZKIND") ? " AND ZKIND = " + ALBUM_KIND_USER : "") +
+                (albumColumns.contains("ZTRASHEDSTATE") ? " AND ZTRASHEDSTATE = 0" : "") +
+                " ORDER BY ZTITLE COLLATE NOCASE";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                List<Long> assetIds = members.getOrDefault(rs.getLong(1), List.of());
+                albums.put(new MediaAlbum(rs.getLong(1), rs.getString(2), assetIds.size()),
+                        assetIds.stream().mapToLong(Long::longValue).toArray());
+            }
+        }
+        return albums;
+    }
+
+    /**
+     * Cursor over the capture dates of the assets by (ZDATECREATED, Z_PK), for the {@link Timeline}.
+     */
+    public TimelineCursor timelineCursor() {
+        if (!assetColumns.contains("ZDATECREATED")) return TimelineCursor.empty();
+
+        String sql = "SELECT Z_PK, ZFILENAME, ZDATECREATED, " + column("ZKIND", "0") + ", " + column("ZKINDSUBTYPE", "0") +
+                " FROM " + assetTable +
+                " WHERE ZFILENAME IS NOT NULL AND ZDATECREATED IS NOT NULL" +
+                (assetColumns.contains("ZTRASHEDSTATE") ? " AND ZTRASHEDSTATE = 0" : "");
+
+        return new TimelineCursor() {
+            private Double positionDate;
+            private long positionId;
+            private boolean indexChecked;
+
+            @Override
+            public void seek(Instant before) {
+                positionDate = before == null ? null : before.getEpochSecond() - APPLE_EPOCH_OFFSET + before.getNano() / 1e9;
+                positionId = Long.MIN_VALUE;
+            }
+
+            @Override
+            public List<TimelineEvent> next(int limit) throws SQLException {
+                if (!indexChecked) {
+                    indexChecked = true;
+                    // The library is a temporary copy, so the index for reading by date is added to it directly
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute("CREATE INDEX IF NOT EXISTS itbe_asset_date ON " + assetTable + " (ZDATECREATED, Z_PK)");
+                    } catch (SQLException e) {
+                        logger.warn("Could not add Photos.sqlite date index, the timeline may be slow: {}", e.getMessage());
+                    }
+                }
+
+                List<TimelineEvent> events = new ArrayList<>(limit);
+                try (PreparedStatement stmt = connection.prepareStatement(sql +
+                        (positionDate != null ? " AND (ZDATECREATED, Z_PK) < (?, ?)" : "") +
+                        " ORDER BY ZDATECREATED DESC, Z_PK DESC LIMIT ?")) {
+                    int index = 1;
+                    if (positionDate != null) {
+                        stmt.setDouble(index++, positionDate);
+                        stmt.setLong(index++, positionId);
+                    }
+                    stmt.setInt(index, limit);
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            boolean video = rs.getInt("ZKIND") == KIND_VIDEO;
+                            String kind = video ? "Video"
+                                    : rs.getInt("ZKINDSUBTYPE") == SUBTYPE_LIVE_PHOTO ? "Live Photo" : "Photo";
+                            positionDate = rs.getDouble("ZDATECREATED");
+                            positionId = rs.getLong("Z_PK");
+                            events.add(new TimelineEvent(TimelineEvent.Source.PHOTOS, toInstant(positionDate),
+                                    positionId, rs.getString("ZFILENAME"), kind));
+                        }
+                    }
+                }
+                return events;
+            }
+        };
+    }
+
+    /**
+     * @return Table name, album column and asset column of the album membership table, or null
+     */
+    private String[] findAlbumJoinTable() throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE 'Z\\_%ASSETS' ESCAPE '\\'")) {
+            while (rs.next()) tables.add(rs.getString(1));
+        }
+
+        for (String table : tables) {
+            if (!ALBUM_JOIN_TABLE.matcher(table.toUpperCase(Locale.ROOT)).matches()) continue;
+
+            String albums = null, assets = null;
+            for (String column : getTableColumns(table)) {
+                if (ALBUM_JOIN_ALBUMS.matcher(column).matches()) albums = column;
+                else if (ALBUM_JOIN_ASSETS.matcher(column).matches()) assets = column;
+            }
+            if (albums != null && assets != null) return new String[]{table, albums, assets};
+        }
+        return null;
+    }
+
+    static Instant toInstant(double appleTimestamp) {
+        long seconds = (long) Math.floor(appleTimestamp);
+        long nanos = (long) ((appleTimestamp - seconds) * 1_000_000_000L);
+        return Instant.ofEpochSecond(APPLE_EPOCH_OFFSET + seconds, nanos);
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to close Photos.sqlite connection", e);
+        }
+    }
+}
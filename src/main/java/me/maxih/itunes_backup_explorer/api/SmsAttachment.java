@@ -0,0 +1,23 @@
+package me.maxih.itunes_backup_explorer.api;
+
+/**
+ * @param fileName Path of the attachment on the device, e.g. {@code ~/Library/SMS/Attachments/ab/11/…/IMG_0001.HEIC}
+ */
+public record SmsAttachment(
+        long id,
+        long messageId,
+        String fileName,
+        String mimeType,
+        String transferName,
+        long totalBytes
+) {
+    public boolean isImage() {
+        return mimeType != null && mimeType.startsWith("image/");
+    }
+
+    public String displayName() {
+        if (transferName != null && !transferName.isBlank()) return transferName;
+        if (fileName == null) return "Attachment";
+        return fileName.substring(fileName.lastIndexOf('/') + 1);
+    }
+}
@@ -0,0 +1,64 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory lookup of the Messages attachments in {@code MediaDomain}, built with a single query.
+ * sms.db stores the device path of each attachment (e.g. {@code ~/Library/SMS/Attachments/..}), which maps
+ * to exactly one relative path, so resolving is a map lookup instead of a Manifest.db search per attachment.
+ */
+public class SmsAttachmentIndex {
+    private static final Logger logger = LoggerFactory.getLogger(SmsAttachmentIndex.class);
+
+    public static final String DOMAIN = "MediaDomain";
+    private static final String ATTACHMENTS_PATH = "Library/SMS/Attachments/%";
+    private static final String[] DEVICE_PREFIXES = {"~/", "/private/var/mobile/", "/var/mobile/"};
+
+    private final Map<String, BackupFile> byPath = new HashMap<>();
+
+    SmsAttachmentIndex(Collection<BackupFile> files) {
+        for (BackupFile file : files) {
+            if (file.getFileType() != BackupFile.FileType.FILE || file.relativePath == null) continue;
+            byPath.put(file.relativePath.toLowerCase(Locale.ROOT), file);
+        }
+    }
+
+    public static SmsAttachmentIndex build(ITunesBackup backup) throws DatabaseConnectionException {
+        long start = System.currentTimeMillis();
+        SmsAttachmentIndex index = new SmsAttachmentIndex(backup.searchFiles(DOMAIN, ATTACHMENTS_PATH));
+        logger.info("Indexed {} message attachments in {} ms", index.size(), System.currentTimeMillis() - start);
+        return index;
+    }
+
+    public int size() {
+        return byPath.size();
+    }
+
+    /**
+     * @return The backup file of the attachment, or null if it is not part of the backup
+     */
+    public BackupFile resolve(SmsAttachment attachment) {
+        String path = toRelativePath(attachment.fileName());
+        return path == null ? null : byPath.get(path.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Converts the device path stored in sms.db into a path relative to the home directory.
+     *
+     * @return The relative path, or null if the path is outside of the home directory
+     */
+    static String toRelativePath(String deviceFileName) {
+        if (deviceFileName == null || deviceFileName.isEmpty()) return null;
+
+        for (String prefix : DEVICE_PREFIXES) {
+            if (deviceFileName.startsWith(prefix)) return deviceFileName.substring(prefix.length());
+        }
+        return deviceFileName.startsWith("/") ? null : deviceFileName;
+    }
+}
@@ -0,0 +1,30 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import java.time.Instant;
+
+/**
+ * A conversation from the chat table of sms.db. SMS and iMessage threads with the same contact
+ * are separate chats there, told apart by {@link #serviceName()}.
+ */
+public record SmsChat(
+        long id,
+        String identifier,
+        String displayName,
+        String serviceName,
+        int style,
+        int messageCount,
+        Instant lastMessageDate,
+        String lastMessagePreview
+) {
+    private static final int GROUP_STYLE = 43;
+
+    public boolean isGroup() {
+        return style == GROUP_STYLE;
+    }
+
+    public String title() {
+        if (displayName != null && !displayName.isBlank()) return displayName;
+        if (identifier != null && !identifier.isBlank()) return identifier;
+        return "Unknown";
+    }
+}
@@ -0,0 +1,480 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Reads conversations from an extracted copy of the Messages database ({@code HomeDomain/Library/SMS/sms.db}).
+ * Like {@link WhatsAppDatabaseService}, queries adapt to the columns present in the particular iOS version
+ * and messages are paged by keyset, so long histories are never loaded as a whole.
+ */
+public class SmsDatabaseService implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SmsDatabaseService.class);
+
+    public static final String DOMAIN = "HomeDomain";
+    public static final String DATABASE_PATH = "Library/SMS/sms.db";
+
+    private static final long APPLE_EPOCH_OFFSET = 978307200L;
+    // Since iOS 11 dates are stored in nanoseconds instead of seconds
+    private static final long NANOSECOND_THRESHOLD = 100_000_000_000L;
+    private static final int ATTACHMENT_BATCH_SIZE = 500;
+    private static final byte[] NSSTRING_MARKER = "NSString".getBytes(StandardCharsets.US_ASCII);
+
+    private final Connection connection;
+    private final Set<String> messageColumns;
+    private final Set<String> chatColumns;
+    private final Set<String> joinColumns;
+    private final boolean hasAttachments;
+    private boolean indexesChecked = false;
+    private boolean timelineIndexesChecked = false;
+    private List<SmsChat> cachedChats;
+
+    public SmsDatabaseService(File databaseFile) throws SQLException {
+        this(DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath()));
+    }
+
+    /**
+     * @param connection Connection to sms.db, e.g. from {@link ITunesBackup#openDatabase}; closed with this service
+     */
+    public SmsDatabaseService(Connection connection) throws SQLException {
+        this.connection = connection;
+        this.connection.setAutoCommit(false);
+        this.messageColumns = getTableColumns("message");
+        this.chatColumns = getTableColumns("chat");
+        this.joinColumns = getTableColumns("chat_message_join");
+        this.hasAttachments = !getTableColumns("attachment").isEmpty() && !getTableColumns("message_attachment_join").isEmpty();
+        logger.info("sms.db schema detected — message cols: {}, chat cols: {}, chat_message_join cols: {}, attachments: {}",
+                messageColumns, chatColumns, joinColumns, hasAttachments);
+    }
+
+    private Set<String> getTableColumns(String table) {
+        Set<String> columns = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name").toLowerCase(Locale.ROOT));
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to read table info for {}", table, e);
+        }
+        return columns;
+    }
+
+    /**
+     * Paging follows chat_message_join.message_date where the join table has it (iOS 14 and later),
+     * so a chat's messages are read straight from an index without touching the message table first.
+     */
+    private boolean hasJoinDate() {
+        return joinColumns.contains("message_date");
+    }
+
+    private String dateColumn() {
+        return hasJoinDate() ? "cmj.message_date" : "m.date";
+    }
+
+    private String idColumn() {
+        return hasJoinDate() ? "cmj.message_id" : "m.ROWID";
+    }
+
+    /**
+     * Adds an index for paging a chat by date, which older databases lack. The database is a working copy,
+     * so it is changed directly.
+     */
+    public void ensureIndexes() {
+        if (indexesChecked) return;
+        indexesChecked = true;
+
+        String columns = hasJoinDate() ? "chat_id, message_date, message_id" : "chat_id, message_id";
+        long start = System.currentTimeMillis();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS itbe_chat_message_join_paging ON chat_message_join (" + columns + ")");
+            if (hasAttachments) {
+                stmt.execute("CREATE INDEX IF NOT EXISTS itbe_message_attachment_join_message ON message_attachment_join (message_id)");
+            }
+            connection.commit();
+            logger.info("Checked sms.db indexes in {} ms", System.currentTimeMillis() - start);
+        } catch (SQLException e) {
+            logger.warn("Could not add sms.db indexes, paging may be slow: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Loads all chats that have messages, most recent first. Counts and last dates come from one grouped
+     * scan of chat_message_join; the preview is looked up through the paging index per chat.
+     */
+    public List<SmsChat> queryChats() throws SQLException {
+        if (cachedChats != null) return cachedChats;
+        ensureIndexes();
+
+        String lastMessage = "(SELECT " + idColumn() + " FROM chat_message_join cmj" +
+                (hasJoinDate() ? "" : " JOIN message m ON m.ROWID = cmj.message_id") +
+                " WHERE cmj.chat_id = c.ROWID ORDER BY " + dateColumn() + " DESC, " + idColumn() + " DESC LIMIT 1)";
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT c.ROWID, c.chat_identifier, ");
+        sql.append(chatColumns.contains("display_name") ? "c.display_name, " : "NULL AS display_name, ");
+        sql.append(chatColumns.contains("service_name") ? "c.service_name, " : "NULL AS service_name, ");
+        sql.append(chatColumns.contains("style") ? "c.style, " : "0 AS style, ");
+        sql.append("st.message_count, lm.date AS last_date, lm.text AS last_text");
+        sql.append(messageColumns.contains("attributedbody") ? ", lm.attributedBody AS last_body" : "");
+        sql.append(" FROM chat c JOIN (SELECT chat_id, COUNT(*) AS message_count FROM chat_message_join GROUP BY chat_id) st");
+        sql.append(" ON st.chat_id = c.ROWID");
+        sql.append(" LEFT JOIN message lm ON lm.ROWID = ").append(lastMessage);
+        sql.append(" ORDER BY lm.date DESC");
+
+        List<SmsChat> chats = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql.toString())) {
+            while (rs.next()) {
+                String preview = rs.getString("last_text");
+                if ((preview == null || preview.isBlank()) && messageColumns.contains("attributedbody")) {
+                    preview = decodeAttributedBody(rs.getBytes("last_body"));
+                }
+                chats.add(new SmsChat(
+                        rs.getLong("ROWID"),
+                        rs.getString("chat_identifier"),
+                        rs.getString("display_name"),
+                        rs.getString("service_name"),
+                        rs.getInt("style"),
+                        rs.getInt("message_count"),
+                        toInstant(rs.getLong("last_date")),
+                        preview
+                ));
+            }
+        }
+
+        logger.info("Loaded {} message chats in {} ms", chats.size(), System.currentTimeMillis() - start);
+        cachedChats = Collections.unmodifiableList(chats);
+        return cachedChats;
+    }
+
+    /**
+     * Position in a chat's history, ordered by (date, message ID) descending. The date is the raw value
+     * from the database.
+     */
+    public record MessageCursor(long date, long messageId) {
+        public MessageCursor including() {
+            return new MessageCursor(date, messageId + 1);
+        }
+    }
+
+    /**
+     * @param nextCursor Cursor for the next page in paging direction, or null if there are no more messages
+     */
+    public record MessagePage(List<SmsMessage> messages, MessageCursor nextCursor) {
+    }
+
+    /**
+     * Loads messages older than the given cursor, newest first, with their attachments.
+     *
+     * @param before Cursor returned with the previous page, or null to start with the newest message
+     */
+    public MessagePage queryMessagePage(long chatId, MessageCursor before, int limit) throws SQLException {
+        ensureIndexes();
+
+        String sql = messageSelectSql() +
+                " WHERE cmj.chat_id = ?" +
+                (before != null ? " AND (" + dateColumn() + ", " + idColumn() + ") < (?, ?)" : "") +
+                " ORDER BY " + dateColumn() + " DESC, " + idColumn() + " DESC LIMIT ?";
+
+        List<SmsMessage> messages = new ArrayList<>();
+        MessageCursor last = null;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setLong(index++, chatId);
+            if (before != null) {
+                stmt.setLong(index++, before.date());
+                stmt.setLong(index++, before.messageId());
+            }
+            stmt.setInt(index, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs, chatId));
+                    last = new MessageCursor(rs.getLong("sort_date"), rs.getLong("ROWID"));
+                }
+            }
+        }
+
+        logger.debug("queryMessagePage(chat={}, before={}, limit={}) returned {} messages", chatId, before, limit, messages.size());
+        return new MessagePage(withAttachments(messages), messages.size() < limit ? null : last);
+    }
+
+    /**
+     * Loads messages newer than the given cursor, oldest first.
+     */
+    public MessagePage queryNewerMessagePage(long chatId, MessageCursor after, int limit) throws SQLException {
+        ensureIndexes();
+
+        String sql = messageSelectSql() +
+                " WHERE cmj.chat_id = ? AND (" + dateColumn() + ", " + idColumn() + ") > (?, ?)" +
+                " ORDER BY " + dateColumn() + " ASC, " + idColumn() + " ASC LIMIT ?";
+
+        List<SmsMessage> messages = new ArrayList<>();
+        MessageCursor last = null;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, chatId);
+            stmt.setLong(2, after.date());
+            stmt.setLong(3, after.messageId());
+            stmt.setInt(4, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs, chatId));
+                    last = new MessageCursor(rs.getLong("sort_date"), rs.getLong("ROWID"));
+                }
+            }
+        }
+
+        return new MessagePage(withAttachments(messages), messages.size() < limit ? null : last);
+    }
+
+    private String messageSelectSql() {
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT m.ROWID, ").append(dateColumn()).append(" AS sort_date, m.date, m.is_from_me, m.text, h.id AS sender");
+        sql.append(messageColumns.contains("service") ? ", m.service" : ", NULL AS service");
+        if (messageColumns.contains("attributedbody")) sql.append(", m.attributedBody");
+        sql.append(messageColumns.contains("cache_has_attachments") ? ", m.cache_has_attachments" : ", 1 AS cache_has_attachments");
+        sql.append(" FROM chat_message_join cmj JOIN message m ON m.ROWID = cmj.message_id");
+        sql.append(" LEFT JOIN handle h ON h.ROWID = m.handle_id");
+        return sql.toString();
+    }
+
+    private SmsMessage readMessage(ResultSet rs, long chatId) throws SQLException {
+        String text = rs.getString("text");
+        if ((text == null || text.isBlank()) && messageColumns.contains("attributedbody")) {
+            text = decodeAttributedBody(rs.getBytes("attributedBody"));
+        }
+        boolean fromMe = rs.getInt("is_from_me") == 1;
+
+        return new SmsMessage(
+                rs.getLong("ROWID"),
+                chatId,
+                fromMe,
+                toInstant(rs.getLong("date")),
+                fromMe ? null : rs.getString("sender"),
+                text,
+                rs.getString("service"),
+                // Marks messages whose attachments still have to be loaded, see withAttachments
+                rs.getInt("cache_has_attachments") != 0 ? null : List.of()
+        );
+    }
+
+    /**
+     * Cursor over the messages of all chats by (date, ROWID), for the {@link Timeline}.
+     */
+    public TimelineCursor timelineCursor() {
+        String chatTitle = "(SELECT COALESCE(" + (chatColumns.contains("display_name") ? "NULLIF(c.display_name, ''), " : "") +
+                "c.chat_identifier) FROM chat_message_join tj JOIN chat c ON c.ROWID = tj.chat_id" +
+                " WHERE tj.message_id = m.ROWID LIMIT 1)";
+        String sql = "SELECT m.ROWID, m.date, m.is_from_me, m.text, h.id AS sender, " + chatTitle + " AS chat_title" +
+                (messageColumns.contains("attributedbody") ? ", m.attributedBody" : "") +
+                (messageColumns.contains("cache_has_attachments") ? ", m.cache_has_attachments" : ", 0 AS cache_has_attachments") +
+                " FROM message m LEFT JOIN handle h ON h.ROWID = m.handle_id WHERE m.date > 0";
+
+        return new TimelineCursor() {
+            private MessageCursor position;
+            private Instant seekDate;
+
+            @Override
+            public void seek(Instant before) {
+                position = null;
+                seekDate = before;
+            }
+
+            @Override
+            public List<TimelineEvent> next(int limit) throws SQLException {
+                ensureTimelineIndexes();
+                // The raw unit of the dates is only known from the data, so the seek date is converted on first use
+                if (position == null && seekDate != null) {
+                    position = new MessageCursor(toAppleTimestamp(seekDate, usesNanoseconds()), Long.MIN_VALUE);
+                }
+
+                List<TimelineEvent> events = new ArrayList<>(limit);
+                try (PreparedStatement stmt = connection.prepareStatement(sql +
+                        (position != null ? " AND (m.date, m.ROWID) < (?, ?)" : "") +
+                        " ORDER BY m.date DESC, m.ROWID DESC LIMIT ?")) {
+                    int index = 1;
+                    if (position != null) {
+                        stmt.setLong(index++, position.date());
+                        stmt.setLong(index++, position.messageId());
+                    }
+                    stmt.setInt(index, limit);
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            String text = rs.getString("text");
+                            if ((text == null || text.isBlank()) && messageColumns.contains("attributedbody")) {
+                                text = decodeAttributedBody(rs.getBytes("attributedBody"));
+                            }
+                            if ((text == null || text.isBlank()) && rs.getInt("cache_has_attachments") != 0) text = "Attachment";
+                            boolean fromMe = rs.getInt("is_from_me") == 1;
+                            String title = rs.getString("chat_title");
+                            if (title == null) title = rs.getString("sender");
+
+                            long date = rs.getLong("date");
+                            events.add(new TimelineEvent(
+                                    TimelineEvent.Source.MESSAGES,
+                                    toInstant(date),
+                                    rs.getLong("ROWID"),
+                                    title == null ? "Unknown" : title,
+                                    (fromMe ? "You: " : "") + (text == null ? "" : text)
+                            ));
+                            position = new MessageCursor(date, rs.getLong("ROWID"));
+                        }
+                    }
+                }
+                return events;
+            }
+        };
+    }
+
+    private void ensureTimelineIndexes() {
+        if (timelineIndexesChecked) return;
+        timelineIndexesChecked = true;
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS itbe_message_date ON message (date, ROWID)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS itbe_chat_message_join_message ON chat_message_join (message_id)");
+            connection.commit();
+        } catch (SQLException e) {
+            logger.warn("Could not add sms.db timeline indexes, the timeline may be slow: {}", e.getMessage());
+        }
+    }
+
+    private boolean usesNanoseconds() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MAX(date) FROM message")) {
+            return rs.next() && Math.abs(rs.getLong(1)) >= NANOSECOND_THRESHOLD;
+        }
+    }
+
+    /**
+     * Fills in the attachments of a page with one query per batch instead of one per message.
+     */
+    private List<SmsMessage> withAttachments(List<SmsMessage> messages) throws SQLException {
+        List<Long> ids = messages.stream().filter(message -> message.attachments() == null).map(SmsMessage::id).toList();
+        Map<Long, List<SmsAttachment>> attachments = queryAttachments(ids);
+
+        List<SmsMessage> result = new ArrayList<>(messages.size());
+        for (SmsMessage message : messages) {
+            if (message.attachments() != null) {
+                result.add(message);
+                continue;
+            }
+            result.add(new SmsMessage(message.id(), message.chatId(), message.fromMe(), message.date(), message.sender(),
+                    message.text(), message.service(), attachments.getOrDefault(message.id(), List.of())));
+        }
+        return result;
+    }
+
+    /**
+     * @return The attachments of the given messages by message ID; messages without attachments are missing
+     */
+    public Map<Long, List<SmsAttachment>> queryAttachments(Collection<Long> messageIds) throws SQLException {
+        Map<Long, List<SmsAttachment>> attachments = new HashMap<>();
+        if (!hasAttachments || messageIds.isEmpty()) return attachments;
+
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(messageIds));
+        for (int from = 0; from < ids.size(); from += ATTACHMENT_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(ids.size(), from + ATTACHMENT_BATCH_SIZE));
+            String sql = "SELECT a.ROWID, maj.message_id, a.filename, a.mime_type, a.transfer_name, a.total_bytes " +
+                    "FROM message_attachment_join maj JOIN attachment a ON a.ROWID = maj.attachment_id " +
+                    "WHERE maj.message_id IN (" + String.join(", ", Collections.nCopies(batch.size(), "?")) + ") " +
+                    "ORDER BY maj.message_id, a.ROWID";
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < batch.size(); i++) stmt.setLong(i + 1, batch.get(i));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        SmsAttachment attachment = new SmsAttachment(
+                                rs.getLong(1),
+                                rs.getLong(2),
+                                rs.getString(3),
+                                rs.getString(4),
+                                rs.getString(5),
+                                rs.getLong(6)
+                        );
+                        attachments.computeIfAbsent(attachment.messageId(), id -> new ArrayList<>(1)).add(attachment);
+                    }
+                }
+            }
+        }
+        return attachments;
+    }
+
+    /**
+     * Newer iOS versions leave message.text empty and only store an archived NSAttributedString
+     * (typedstream format). The plain text follows the NSString class name as a length-prefixed UTF-8 string.
+     *
+     * @return The text or null if it cannot be found
+     */
+    static String decodeAttributedBody(byte[] body) {
+        if (body == null) return null;
+
+        int marker = indexOf(body, NSSTRING_MARKER);
+        if (marker < 0) return null;
+
+        // Skip the class version and type bytes up to the '+' that introduces the string
+        int index = marker + NSSTRING_MARKER.length;
+        int end = Math.min(body.length, index + 8);
+        while (index < end && body[index] != '+') index++;
+        if (++index >= body.length) return null;
+
+        int length = body[index++] & 0xFF;
+        if (length == 0x81) {
+            if (index + 2 > body.length) return null;
+            length = (body[index] & 0xFF) | (body[index + 1] & 0xFF) << 8;
+            index += 2;
+        } else if (length == 0x82) {
+            if (index + 4 > body.length) return null;
+            length = (body[index] & 0xFF) | (body[index + 1] & 0xFF) << 8
+                    | (body[index + 2] & 0xFF) << 16 | (body[index + 3] & 0xFF) << 24;
+            index += 4;
+        }
+        if (length < 0 || index + length > body.length) return null;
+
+        return new String(body, index, length, StandardCharsets.UTF_8);
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        outer:
+        for (int i = 0; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    static Instant toInstant(long appleTimestamp) {
+        if (appleTimestamp == 0) return Instant.EPOCH;
+        if (Math.abs(appleTimestamp) >= NANOSECOND_THRESHOLD) {
+            return Instant.ofEpochSecond(APPLE_EPOCH_OFFSET + appleTimestamp / 1_000_000_000L, appleTimestamp % 1_000_000_000L);
+        }
+        return Instant.ofEpochSecond(APPLE_EPOCH_OFFSET + appleTimestamp);
+    }
+
+    static long toAppleTimestamp(Instant instant, boolean nanoseconds) {
+        long seconds = instant.getEpochSecond() - APPLE_EPOCH_OFFSET;
+        return nanoseconds ? seconds * 1_000_000_000L + instant.getNano() : seconds;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to close sms.db connection", e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * @param sender      Phone number or email address of the sender, null for messages sent from this device
+ * @param attachments Attachments of the message, loaded together with its page
+ */
+public record SmsMessage(
+        long id,
+        long chatId,
+        boolean fromMe,
+        Instant date,
+        String sender,
+        String text,
+        String service,
+        List<SmsAttachment> attachments
+) {
+    public boolean isIMessage() {
+        return "iMessage".equalsIgnoreCase(service);
+    }
+}
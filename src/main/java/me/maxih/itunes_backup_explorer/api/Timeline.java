@@ -0,0 +1,95 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Merges the events of several sources into one stream, newest first. Each source is read through its
+ * {@link TimelineCursor} in small batches, and a priority queue over the head of every batch picks the
+ * next event, so the timeline only ever holds one batch per source in memory.
+ * <p>
+ * {@link #seek(Instant)} repositions all cursors at once, which makes jumping to any date as cheap as
+ * reading the first page.
+ */
+public class Timeline {
+    private static final Logger logger = LoggerFactory.getLogger(Timeline.class);
+
+    static final int BATCH_SIZE = 64;
+
+    static final Comparator<TimelineEvent> ORDER = Comparator.comparing(TimelineEvent::date).reversed()
+            .thenComparing(TimelineEvent::source)
+            .thenComparing(Comparator.comparingLong(TimelineEvent::id).reversed());
+
+    private static class SourceBuffer {
+        final TimelineCursor cursor;
+        final ArrayDeque<TimelineEvent> events = new ArrayDeque<>(BATCH_SIZE);
+        boolean started;
+        boolean exhausted;
+
+        SourceBuffer(TimelineCursor cursor) {
+            this.cursor = cursor;
+        }
+    }
+
+    private final List<SourceBuffer> sources = new ArrayList<>();
+    private final PriorityQueue<SourceBuffer> heads =
+            new PriorityQueue<>((a, b) -> ORDER.compare(a.events.peek(), b.events.peek()));
+
+    public Timeline(Collection<TimelineCursor> cursors) {
+        cursors.forEach(cursor -> sources.add(new SourceBuffer(cursor)));
+    }
+
+    /**
+     * Continues the timeline with the newest events before the given date.
+     *
+     * @param before Exclusive upper bound, or null to start over with the newest events
+     */
+    public synchronized void seek(Instant before) {
+        heads.clear();
+        for (SourceBuffer source : sources) {
+            source.cursor.seek(before);
+            source.events.clear();
+            source.started = false;
+            source.exhausted = false;
+        }
+    }
+
+    /**
+     * @return Up to {@code count} events following the ones returned before, newest first;
+     * an empty list at the end of all sources
+     */
+    public synchronized List<TimelineEvent> next(int count) {
+        for (SourceBuffer source : sources) {
+            if (source.started) continue;
+            source.started = true;
+            fill(source);
+        }
+
+        List<TimelineEvent> events = new ArrayList<>(count);
+        while (events.size() < count && !heads.isEmpty()) {
+            SourceBuffer source = heads.poll();
+            events.add(source.events.poll());
+            if (source.events.isEmpty()) fill(source);
+            else heads.add(source);
+        }
+        return events;
+    }
+
+    private void fill(SourceBuffer source) {
+        if (source.exhausted) return;
+        try {
+            List<TimelineEvent> batch = source.cursor.next(BATCH_SIZE);
+            source.exhausted = batch.size() < BATCH_SIZE;
+            source.events.addAll(batch);
+        } catch (SQLException e) {
+            // One unreadable source should not take the rest of the timeline with it
+            logger.warn("Failed to read timeline source, leaving it out: {}", e.getMessage());
+            source.exhausted = true;
+        }
+        if (!source.events.isEmpty()) heads.add(source);
+    }
+}
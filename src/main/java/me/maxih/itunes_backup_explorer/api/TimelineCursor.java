@@ -0,0 +1,41 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Reads the events of one source newest first, a page at a time. The cursor remembers the last event it
+ * returned in the source's own date format and continues from there by keyset, so every page costs the
+ * same however far back it is and no source is ever loaded as a whole.
+ */
+public interface TimelineCursor {
+    /**
+     * Repositions the cursor, so the next page starts with the newest event before the given date.
+     *
+     * @param before Exclusive upper bound, or null to start with the newest event
+     */
+    void seek(Instant before);
+
+    /**
+     * @return Up to {@code limit} events older than the ones returned before, newest first;
+     * fewer than {@code limit} only when the source has no more events
+     */
+    List<TimelineEvent> next(int limit) throws SQLException;
+
+    /**
+     * @return A cursor without events, for sources a backup does not have
+     */
+    static TimelineCursor empty() {
+        return new TimelineCursor() {
+            @Override
+            public void seek(Instant before) {
+            }
+
+            @Override
+            public List<TimelineEvent> next(int limit) {
+                return List.of();
+            }
+        };
+    }
+}
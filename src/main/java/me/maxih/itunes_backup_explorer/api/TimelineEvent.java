@@ -0,0 +1,25 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import java.time.Instant;
+
+/**
+ * One entry of the {@link Timeline}: a message, call or photo at the time it happened.
+ *
+ * @param id     ID of the entry in its source, e.g. the row of the message
+ * @param title  Chat, contact or file the entry belongs to
+ * @param detail Message text, call details or media type
+ */
+public record TimelineEvent(Source source, Instant date, long id, String title, String detail) {
+    public enum Source {
+        WHATSAPP("WhatsApp"),
+        MESSAGES("Messages"),
+        CALLS("Calls"),
+        PHOTOS("Photos");
+
+        public final String label;
+
+        Source(String label) {
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import me.maxih.itunes_backup_explorer.util.AppPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidKeyException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Keeps the extracted ChatStorage.sqlite (with its WAL/SHM companions and the search index sidecar) of each backup
+ * in the application config directory, so that reopening the WhatsApp tab of an unchanged backup neither extracts
+ * nor decrypts the database again and keeps the indexes built for it.
+ * <p>
+ * The copy is tied to the source files through their file IDs, sizes and digests. Optionally, the cached files are
+ * stored encrypted and only decrypted into a temporary working directory while the tab is open.
+ */
+public class WhatsAppDatabaseCache {
+    private static final Logger logger = LoggerFactory.getLogger(WhatsAppDatabaseCache.class);
+
+    public static final Path DEFAULT_ROOT = AppPaths.CONFIG_DIR.resolve("whatsapp-cache");
+
+    public static final String DATABASE_NAME = "ChatStorage.sqlite";
+    private static final String SOURCE_FILE = "source.properties";
+    private static final String ENCRYPTED_SUFFIX = ".enc";
+    private static final int CACHE_VERSION = 1;
+
+    /**
+     * Encrypts cached files at rest.
+     */
+    public interface Encryption {
+        void encrypt(File source, File destination) throws IOException;
+
+        void decrypt(File source, File destination) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface Extractor {
+        /**
+         * Extracts ChatStorage.sqlite and its companions into the given directory.
+         */
+        void extractTo(File directory) throws Exception;
+    }
+
+    private final File directory;
+    private final Encryption encryption;
+    private File workingDirectory;
+
+    /**
+     * @param encryption Used to store the cached files encrypted, or null to keep them as plain SQLite files
+     */
+    public WhatsAppDatabaseCache(Path root, String backupId, Encryption encryption) {
+        this.directory = root.resolve(backupId.replaceAll("[^A-Za-z0-9._-]", "_")).toFile();
+        this.encryption = encryption;
+    }
+
+    /**
+     * Encrypts with the manifest key of the backup, so the cached copy can only be read after the backup
+     * has been unlocked with its password.
+     *
+     * @return The encryption or null if the backup itself is not encrypted
+     */
+    public static Encryption forBackup(ITunesBackup backup) {
+        if (!backup.manifest.encrypted || backup.manifest.getKeyBag().isEmpty()) return null;
+
+        KeyBag keyBag = backup.manifest.getKeyBag().get();
+        byte[] protectionClass = ByteBuffer.allocate(4).putInt(backup.manifest.protectionClass).array();
+        byte[] key = backup.manifest.getManifestKey().orElseThrow();
+
+        return new Encryption() {
+            @Override
+            public void encrypt(File source, File destination) throws IOException {
+                try {
+                    keyBag.encryptFile(protectionClass, key, source, destination);
+                } catch (BackupReadException | UnsupportedCryptoException | NotUnlockedException | InvalidKeyException e) {
+                    throw new IOException("Failed to encrypt cached database", e);
+                }
+            }
+
+            @Override
+            public void decrypt(File source, File destination) throws IOException {
+                try {
+                    keyBag.decryptFile(protectionClass, key, source, destination, -1);
+                } catch (BackupReadException | UnsupportedCryptoException | NotUnlockedException | InvalidKeyException e) {
+                    throw new IOException("Failed to decrypt cached database", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Identifies the state of the source files in the backup. Files without a digest fall back to the
+     * modification time of their content file.
+     */
+    public static String fingerprint(List<BackupFile> sources) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (BackupFile file : sources) {
+            if (fingerprint.length() > 0) fingerprint.append(';');
+            fingerprint.append(file.fileID).append(':').append(file.getSize()).append(':');
+            byte[] digest = file.getDigest();
+            if (digest != null) {
+                fingerprint.append(HexFormat.of().formatHex(digest));
+            } else {
+                File content = file.getContentFile();
+                fingerprint.append(content == null ? 0 : content.lastModified());
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean isEncrypted() {
+        return encryption != null;
+    }
+
+    /**
+     * Returns a working copy of ChatStorage.sqlite, reusing the cached one if it was extracted from the same
+     * source files, otherwise extracting it again.
+     *
+     * @param fingerprint Result of {@link #fingerprint(List)} for the current source files
+     * @return The database file to open; the search index sidecar can be placed next to it
+     */
+    public synchronized File open(String fingerprint, Extractor extractor) throws Exception {
+        release();
+        Files.createDirectories(directory.toPath());
+        workingDirectory = encryption == null ? directory : Files.createTempDirectory("whatsapp_db_").toFile();
+
+        if (isUpToDate(fingerprint)) {
+            if (encryption != null) restoreEncrypted();
+            logger.info("Reusing cached WhatsApp database in {}", directory);
+            return new File(workingDirectory, DATABASE_NAME);
+        }
+
+        // Drop the stale copy first, so an interrupted extraction is never taken for a complete one
+        clearDirectory(directory);
+        long start = System.currentTimeMillis();
+        extractor.extractTo(workingDirectory);
+        File database = new File(workingDirectory, DATABASE_NAME);
+        if (!database.isFile()) throw new FileNotFoundException(database.getAbsolutePath());
+
+        if (encryption != null) store();
+        writeSource(fingerprint);
+        logger.info("Extracted WhatsApp database into cache in {} ms", System.currentTimeMillis() - start);
+        return database;
+    }
+
+    /**
+     * Opens the cached copy of the given ChatStorage.sqlite, extracting it with its companions if needed.
+     * Companions that cannot be extracted are left out, the database is still usable without them.
+     *
+     * @param sources Result of {@link WhatsAppDatabaseService#findDatabaseFiles(ITunesBackup)}
+     */
+    public File open(List<BackupFile> sources) throws Exception {
+        return open(fingerprint(sources), dir -> {
+            sources.get(0).extract(new File(dir, DATABASE_NAME));
+            for (BackupFile companion : sources.subList(1, sources.size())) {
+                try {
+                    File target = new File(dir, companion.getFileName());
+                    companion.extract(target);
+                    logger.info("Extracted WAL companion '{}' ({} bytes)", companion.getFileName(), target.length());
+                } catch (Exception e) {
+                    logger.debug("Companion file '{}' not extractable: {}", companion.getFileName(), e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the working copy back into the encrypted cache, e.g. after indexes were added to it.
+     * Without encryption the working copy is the cache, so there is nothing to do.
+     */
+    public synchronized void store() throws IOException {
+        if (encryption == null || workingDirectory == null) return;
+
+        File[] files = workingDirectory.listFiles(File::isFile);
+        if (files == null) return;
+        for (File file : files) {
+            File target = new File(directory, file.getName() + ENCRYPTED_SUFFIX);
+            if (target.isFile() && target.lastModified() >= file.lastModified()) continue;
+
+            File partial = new File(directory, target.getName() + ".tmp");
+            encryption.encrypt(file, partial);
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes the temporary working copy of an encrypted cache. The cache itself is kept.
+     */
+    public synchronized void release() {
+        if (encryption != null && workingDirectory != null) clearDirectory(workingDirectory);
+        if (workingDirectory != null && !workingDirectory.equals(directory)) workingDirectory.delete();
+        workingDirectory = null;
+    }
+
+    /**
+     * Removes the cached copy entirely.
+     */
+    public synchronized void delete() {
+        release();
+        clearDirectory(directory);
+        directory.delete();
+    }
+
+    private boolean isUpToDate(String fingerprint) {
+        File sourceFile = new File(directory, SOURCE_FILE);
+        if (!sourceFile.isFile()) return false;
+
+        Properties source = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(sourceFile), StandardCharsets.UTF_8)) {
+            source.load(reader);
+        } catch (IOException e) {
+            logger.warn("Failed to read WhatsApp cache source: {}", e.getMessage());
+            return false;
+        }
+
+        String database = encryption == null ? DATABASE_NAME : DATABASE_NAME + ENCRYPTED_SUFFIX;
+        return String.valueOf(CACHE_VERSION).equals(source.getProperty("version"))
+                && String.valueOf(encryption != null).equals(source.getProperty("encrypted"))
+                && Objects.equals(fingerprint, source.getProperty("fingerprint"))
+                && new File(directory, database).isFile();
+    }
+
+    private void restoreEncrypted() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(ENCRYPTED_SUFFIX));
+        if (files == null) return;
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - ENCRYPTED_SUFFIX.length());
+            File target = new File(workingDirectory, name);
+            encryption.decrypt(file, target);
+            // Keep the working copy older than the cached one, so store() only rewrites files that changed
+            target.setLastModified(file.lastModified() - 1000);
+        }
+    }
+
+    private void writeSource(String fingerprint) throws IOException {
+        Properties source = new Properties();
+        source.setProperty("version", String.valueOf(CACHE_VERSION));
+        source.setProperty("encrypted", String.valueOf(encryption != null));
+        source.setProperty("fingerprint", fingerprint);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, SOURCE_FILE)), StandardCharsets.UTF_8)) {
+            source.store(writer, "Source of the cached WhatsApp database");
+        }
+    }
+
+    private static void clearDirectory(File dir) {
+        File[] files = dir.listFiles(File::isFile);
+        if (files != null) for (File file : files) file.delete();
+    }
+}
@@ -4,6 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.*;
 import java.time.Instant;
 import java.util.*;
@@ -11,13 +12,25 @@ import java.util.*;
 public class WhatsAppDatabaseService implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(WhatsAppDatabaseService.class);
     private static final long CORE_DATA_EPOCH_OFFSET = 978307200L;
+    public static final String WHATSAPP_DOMAIN = "%net.whatsapp%";
+    private static final String[] COMPANION_SUFFIXES = {"-wal", "-shm"};
+    private static final int THUMBNAIL_BATCH_SIZE = 500;
+    // Sort key of the message pages, with the expression index that backs it
+    private static final String PAGING_DATE = "COALESCE(m.ZMESSAGEDATE, 0)";
+    private static final String PAGING_INDEX = "itbe_message_session_paging";
+    private static final List<String> MEDIA_COLUMNS = List.of(
+            "ZMEDIALOCALPATH", "ZTHUMBNAILDATA", "ZTHUMBNAILLOCALPATH", "ZXMPPTHUMBPATH",
+            "ZVCARDSTRING", "ZFILESIZE", "ZTITLE");
 
     private final Connection connection;
     private final Set<String> messageColumns;
     private final Set<String> sessionColumns;
     private final boolean hasMediaTable;
     private final Set<String> mediaColumns;
-    private String whatsappDomain;
+    private volatile String whatsappDomain;
+    private boolean chatStatsBuilt = false;
+    private boolean messageIndexesChecked = false;
+    private List<WhatsAppChat> cachedChats;
 
     public WhatsAppDatabaseService(File databaseFile) throws SQLException {
         this.connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
@@ -30,6 +43,51 @@ public class WhatsAppDatabaseService implements AutoCloseable {
                 messageColumns, sessionColumns, hasMediaTable, mediaColumns);
     }
 
+    /**
+     * Finds the ChatStorage.sqlite to read, preferring regular WhatsApp (group container), then other
+     * WhatsApp domains, and only then WhatsApp Business. Within each tier, the largest database wins.
+     *
+     * @return The database followed by its WAL and SHM companions, or an empty list if there is none
+     */
+    public static List<BackupFile> findDatabaseFiles(ITunesBackup backup) throws DatabaseConnectionException {
+        List<BackupFile> results = backup.searchFiles(WHATSAPP_DOMAIN, "%" + WhatsAppDatabaseCache.DATABASE_NAME + "%").stream()
+                .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
+                .toList();
+
+        List<BackupFile> chatDbs = results.stream().filter(f -> f.relativePath.endsWith(WhatsAppDatabaseCache.DATABASE_NAME)).toList();
+        logger.info("Found {} ChatStorage.sqlite candidates:", chatDbs.size());
+        chatDbs.forEach(f -> logger.info("  - domain='{}' path='{}' size={}", f.domain, f.relativePath, f.getSize()));
+
+        BackupFile database = chatDbs.stream()
+                .min(Comparator.comparingInt((BackupFile f) -> rankWhatsappDomain(f.domain))
+                        .thenComparing(Comparator.comparingLong(BackupFile::getSize).reversed()))
+                .orElse(null);
+        if (database == null) return List.of();
+
+        logger.info("Selected ChatStorage.sqlite from domain '{}' at '{}' (size={})",
+                database.domain, database.relativePath, database.getSize());
+
+        // WAL and SHM contain the most recent uncommitted data and have to sit beside the main DB
+        List<BackupFile> files = new ArrayList<>();
+        files.add(database);
+        for (String suffix : COMPANION_SUFFIXES) {
+            results.stream()
+                    .filter(f -> f.domain.equals(database.domain) && f.relativePath.equals(database.relativePath + suffix))
+                    .findFirst()
+                    .ifPresent(files::add);
+        }
+        return files;
+    }
+
+    static int rankWhatsappDomain(String domain) {
+        if (domain == null) return 99;
+        String d = domain.toLowerCase(Locale.ROOT);
+        if (d.contains("whatsappsmb")) return 2;
+        if (d.startsWith("appdomaingroup-group.net.whatsapp.whatsapp")) return 0;
+        if (d.contains("net.whatsapp")) return 1;
+        return 9;
+    }
+
     private Set<String> getTableColumns(String table) {
         Set<String> columns = new HashSet<>();
         try (Statement stmt = connection.createStatement();
@@ -53,44 +111,67 @@ public class WhatsAppDatabaseService implements AutoCloseable {
         }
     }
 
-    public List<WhatsAppChat> queryChats() throws SQLException {
-        List<WhatsAppChat> chats = new ArrayList<>();
+    /**
+     * Builds a temporary table with the per-session message count, latest text and latest push name.
+     * All three come from a single grouped scan over ZWAMESSAGE instead of correlated subqueries per chat.
+     * The "latest" values are picked by taking the MAX of the text prefixed with its zero-padded timestamp,
+     * which sorts chronologically, and stripping the prefix again afterwards.
+     */
+    private void ensureChatStats() throws SQLException {
+        if (chatStatsBuilt) return;
 
         boolean hasPushName = messageColumns.contains("ZPUSHNAME");
+        String latestText = "MAX(CASE WHEN ZTEXT IS NOT NULL AND ZTEXT != '' " +
+                "THEN printf('%020.6f', COALESCE(ZMESSAGEDATE, 0)) || ZTEXT END)";
+        String latestPushName = hasPushName
+                ? "MAX(CASE WHEN ZISFROMME = 0 AND ZPUSHNAME IS NOT NULL AND ZPUSHNAME != '' " +
+                  "THEN printf('%020.6f', COALESCE(ZMESSAGEDATE, 0)) || ZPUSHNAME END)"
+                : "NULL";
+
+        long start = System.currentTimeMillis();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS temp.chat_stats");
+            stmt.execute("CREATE TEMP TABLE chat_stats (" +
+                    "session INTEGER PRIMARY KEY, message_count INTEGER NOT NULL, last_text TEXT, last_push_name TEXT)");
+            stmt.execute("INSERT INTO temp.chat_stats " +
+                    "SELECT session, message_count, substr(last_text, 21), substr(last_push_name, 21) FROM (" +
+                    "SELECT ZCHATSESSION AS session, COUNT(*) AS message_count, " +
+                    latestText + " AS last_text, " + latestPushName + " AS last_push_name " +
+                    "FROM ZWAMESSAGE WHERE ZCHATSESSION IS NOT NULL GROUP BY ZCHATSESSION)");
+        }
+        chatStatsBuilt = true;
+        logger.info("Built WhatsApp chat statistics in {} ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Loads all chats that have messages, newest first. The result is computed once per database
+     * and kept, so repeated calls are free. Callers on other threads wait for the first computation.
+     */
+    public synchronized List<WhatsAppChat> queryChats() throws SQLException {
+        if (cachedChats != null) return cachedChats;
+
+        List<WhatsAppChat> chats = new ArrayList<>();
+
         boolean hasChatSession = messageColumns.contains("ZCHATSESSION");
         boolean hasMessageCounter = sessionColumns.contains("ZMESSAGECOUNTER");
 
+        if (hasChatSession) ensureChatStats();
         logDatabaseStats(hasChatSession);
 
         StringBuilder sql = new StringBuilder();
-        sql.append("SELECT cs.Z_PK, cs.ZCONTACTJID, cs.ZPARTNERNAME, cs.ZSESSIONTYPE, ");
-        sql.append("cs.ZLASTMESSAGEDATE");
+        sql.append("SELECT cs.Z_PK, cs.ZCONTACTJID, cs.ZPARTNERNAME, cs.ZSESSIONTYPE, cs.ZLASTMESSAGEDATE");
 
         if (hasChatSession) {
-            sql.append(", (SELECT COUNT(*) FROM ZWAMESSAGE m WHERE m.ZCHATSESSION = cs.Z_PK) AS totalMessageCount");
+            sql.append(", st.message_count AS totalMessageCount, st.last_text AS ZLASTMESSAGETEXT, st.last_push_name AS latestPushName");
+            sql.append(" FROM ZWACHATSESSION cs JOIN temp.chat_stats st ON st.session = cs.Z_PK ");
         } else if (hasMessageCounter) {
-            sql.append(", COALESCE(cs.ZMESSAGECOUNTER, 0) AS totalMessageCount");
+            sql.append(", COALESCE(cs.ZMESSAGECOUNTER, 0) AS totalMessageCount FROM ZWACHATSESSION cs ");
         } else {
-            sql.append(", 0 AS totalMessageCount");
+            sql.append(", 0 AS totalMessageCount FROM ZWACHATSESSION cs ");
         }
 
-        if (hasChatSession) {
-            sql.append(", (SELECT m.ZTEXT FROM ZWAMESSAGE m WHERE m.ZCHATSESSION = cs.Z_PK ");
-            sql.append("AND m.ZTEXT IS NOT NULL AND m.ZTEXT != '' ");
-            sql.append("ORDER BY m.ZMESSAGEDATE DESC LIMIT 1) AS ZLASTMESSAGETEXT");
-        }
-
-        if (hasPushName && hasChatSession) {
-            sql.append(", (SELECT m2.ZPUSHNAME FROM ZWAMESSAGE m2 WHERE m2.ZCHATSESSION = cs.Z_PK ");
-            sql.append("AND m2.ZISFROMME = 0 AND m2.ZPUSHNAME IS NOT NULL AND m2.ZPUSHNAME != '' ");
-            sql.append("ORDER BY m2.ZMESSAGEDATE DESC LIMIT 1) AS latestPushName");
-        }
-
-        sql.append(" FROM ZWACHATSESSION cs ");
         sql.append("WHERE ((cs.ZCONTACTJID IS NOT NULL AND cs.ZCONTACTJID != '') OR cs.ZSESSIONTYPE = 1) ");
-        if (hasChatSession) {
-            sql.append("AND EXISTS (SELECT 1 FROM ZWAMESSAGE m WHERE m.ZCHATSESSION = cs.Z_PK) ");
-        } else if (hasMessageCounter) {
+        if (!hasChatSession && hasMessageCounter) {
             sql.append("AND COALESCE(cs.ZMESSAGECOUNTER, 0) > 0 ");
         }
         sql.append("ORDER BY cs.ZLASTMESSAGEDATE DESC");
@@ -100,98 +181,229 @@ public class WhatsAppDatabaseService implements AutoCloseable {
         try (Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql.toString())) {
             while (rs.next()) {
-                int msgCount = rs.getInt("totalMessageCount");
-                String lastMsg = hasChatSession ? rs.getString("ZLASTMESSAGETEXT") : null;
-
                 chats.add(new WhatsAppChat(
                         rs.getLong("Z_PK"),
                         rs.getString("ZCONTACTJID"),
                         rs.getString("ZPARTNERNAME"),
                         rs.getInt("ZSESSIONTYPE"),
-                        msgCount,
+                        rs.getInt("totalMessageCount"),
                         toInstant(rs.getDouble("ZLASTMESSAGEDATE")),
-                        lastMsg,
-                        (hasPushName && hasChatSession) ? rs.getString("latestPushName") : null
+                        hasChatSession ? rs.getString("ZLASTMESSAGETEXT") : null,
+                        hasChatSession ? rs.getString("latestPushName") : null
                 ));
             }
         }
 
         logger.info("Loaded {} WhatsApp chats", chats.size());
-        return chats;
+        cachedChats = Collections.unmodifiableList(chats);
+        return cachedChats;
     }
 
-    public List<WhatsAppMessage> queryMessages(long chatSessionId, int limit, int offset) throws SQLException {
+    /**
+     * Position in a chat's message history, ordered by (ZMESSAGEDATE, Z_PK) descending.
+     * Messages without a date are placed at date 0, since a NULL would never compare as before or after a cursor.
+     */
+    public record MessageCursor(double messageDate, long messageId) {
+        /**
+         * Cursor directly above this position, so a page loaded from it starts with this message.
+         */
+        public MessageCursor including() {
+            return new MessageCursor(messageDate, messageId + 1);
+        }
+    }
+
+    /**
+     * @param nextCursor Cursor for the next page in paging direction, or null if there are no more messages
+     */
+    public record MessagePage(List<WhatsAppMessage> messages, MessageCursor nextCursor) {
+    }
+
+    /**
+     * Loads messages older than the given cursor, newest first. Paging uses the position of the last
+     * loaded message instead of an offset, so every page costs the same however far back it is.
+     *
+     * @param before Cursor returned with the previous page, or null to start with the newest message
+     */
+    public MessagePage queryMessagePage(long chatSessionId, MessageCursor before, int limit) throws SQLException {
+        ensureMessageIndexes();
+
+        String sql = messageSelectSql() +
+                " WHERE m.ZCHATSESSION = ?" +
+                // The separate bound on the date lets SQLite seek into the index instead of filtering the newer rows
+                (before != null ? " AND " + PAGING_DATE + " <= ? AND (" + PAGING_DATE + ", m.Z_PK) < (?, ?)" : "") +
+                " ORDER BY " + PAGING_DATE + " DESC, m.Z_PK DESC LIMIT ?";
+
         List<WhatsAppMessage> messages = new ArrayList<>();
+        MessageCursor last = null;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setLong(index++, chatSessionId);
+            if (before != null) {
+                stmt.setDouble(index++, before.messageDate());
+                stmt.setDouble(index++, before.messageDate());
+                stmt.setLong(index++, before.messageId());
+            }
+            stmt.setInt(index, limit);
 
-        boolean hasStarred = messageColumns.contains("ZSTARRED");
-        boolean hasPushName = messageColumns.contains("ZPUSHNAME");
-        boolean hasMediaLocalPath = mediaColumns.contains("ZMEDIALOCALPATH");
-        boolean hasThumbnailData = mediaColumns.contains("ZTHUMBNAILDATA");
-        boolean hasThumbnailLocalPath = mediaColumns.contains("ZTHUMBNAILLOCALPATH");
-        boolean hasXmppThumbPath = mediaColumns.contains("ZXMPPTHUMBPATH");
-        boolean hasVcardString = mediaColumns.contains("ZVCARDSTRING");
-        boolean hasFileSize = mediaColumns.contains("ZFILESIZE");
-        boolean hasTitle = mediaColumns.contains("ZTITLE");
-        boolean hasMediaMessage = mediaColumns.contains("ZMESSAGE");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs));
+                    last = new MessageCursor(rs.getDouble("ZMESSAGEDATE"), rs.getLong("Z_PK"));
+                }
+            }
+        }
 
-        StringBuilder sql = new StringBuilder();
-        sql.append("SELECT m.Z_PK, m.ZCHATSESSION, m.ZISFROMME, m.ZMESSAGETYPE, m.ZMESSAGEDATE, ");
-        sql.append("m.ZFROMJID, m.ZTEXT");
-        if (hasStarred) sql.append(", m.ZSTARRED");
-        if (hasPushName) sql.append(", m.ZPUSHNAME");
-        if (hasMediaTable && hasMediaMessage) {
-            if (hasMediaLocalPath) sql.append(", mi.ZMEDIALOCALPATH");
-            if (hasThumbnailData) sql.append(", mi.ZTHUMBNAILDATA");
-            if (hasThumbnailLocalPath) sql.append(", mi.ZTHUMBNAILLOCALPATH");
-            if (hasXmppThumbPath) sql.append(", mi.ZXMPPTHUMBPATH");
-            if (hasVcardString) sql.append(", mi.ZVCARDSTRING");
-            if (hasFileSize) sql.append(", mi.ZFILESIZE");
-            if (hasTitle) sql.append(", mi.ZTITLE");
+        logger.debug("queryMessagePage(chatSession={}, before={}, limit={}) returned {} messages",
+                chatSessionId, before, limit, messages.size());
+        return new MessagePage(messages, messages.size() < limit ? null : last);
+    }
+
+    /**
+     * Loads messages newer than the given cursor, oldest first. Used to page forward after jumping
+     * into the middle of a chat.
+     */
+    public MessagePage queryNewerMessagePage(long chatSessionId, MessageCursor after, int limit) throws SQLException {
+        ensureMessageIndexes();
+
+        String sql = messageSelectSql() +
+                " WHERE m.ZCHATSESSION = ? AND " + PAGING_DATE + " >= ? AND (" + PAGING_DATE + ", m.Z_PK) > (?, ?)" +
+                " ORDER BY " + PAGING_DATE + " ASC, m.Z_PK ASC LIMIT ?";
+
+        List<WhatsAppMessage> messages = new ArrayList<>();
+        MessageCursor last = null;
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, chatSessionId);
+            stmt.setDouble(2, after.messageDate());
+            stmt.setDouble(3, after.messageDate());
+            stmt.setLong(4, after.messageId());
+            stmt.setInt(5, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(readMessage(rs));
+                    last = new MessageCursor(rs.getDouble("ZMESSAGEDATE"), rs.getLong("Z_PK"));
+                }
+            }
         }
-        sql.append(" FROM ZWAMESSAGE m");
-        if (hasMediaTable && hasMediaMessage) {
-            sql.append(" LEFT JOIN ZWAMEDIAITEM mi ON mi.ZMESSAGE = m.Z_PK");
+
+        logger.debug("queryNewerMessagePage(chatSession={}, after={}, limit={}) returned {} messages",
+                chatSessionId, after, limit, messages.size());
+        return new MessagePage(messages, messages.size() < limit ? null : last);
+    }
+
+    /**
+     * @return The position of the given message, or null if it does not exist
+     */
+    public MessageCursor cursorOf(long messageId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT COALESCE(ZMESSAGEDATE, 0) FROM ZWAMESSAGE WHERE Z_PK = ?")) {
+            stmt.setLong(1, messageId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new MessageCursor(rs.getDouble(1), messageId) : null;
+            }
+        }
+    }
+
+    /**
+     * Cursor over the messages of all chats by (ZMESSAGEDATE, Z_PK), for the {@link Timeline}.
+     */
+    public TimelineCursor timelineCursor() {
+        String sql = "SELECT m.Z_PK, m.ZMESSAGEDATE, m.ZMESSAGETYPE, m.ZTEXT, " +
+                (messageColumns.contains("ZISFROMME") ? "m.ZISFROMME" : "0 AS ZISFROMME") + ", " +
+                (hasPartnerName() ? "s.ZPARTNERNAME" : "NULL AS ZPARTNERNAME") +
+                " FROM ZWAMESSAGE m" +
+                (hasPartnerName() ? " LEFT JOIN ZWACHATSESSION s ON s.Z_PK = m.ZCHATSESSION" : "") +
+                " WHERE m.ZMESSAGEDATE IS NOT NULL";
+
+        return new TimelineCursor() {
+            private MessageCursor position;
+
+            @Override
+            public void seek(Instant before) {
+                position = before == null ? null
+                        : new MessageCursor(before.getEpochSecond() - CORE_DATA_EPOCH_OFFSET + before.getNano() / 1e9, Long.MIN_VALUE);
+            }
+
+            @Override
+            public List<TimelineEvent> next(int limit) throws SQLException {
+                ensureMessageIndexes();
+
+                List<TimelineEvent> events = new ArrayList<>(limit);
+                try (PreparedStatement stmt = connection.prepareStatement(sql +
+                        (position != null ? " AND (m.ZMESSAGEDATE, m.Z_PK) < (?, ?)" : "") +
+                        " ORDER BY m.ZMESSAGEDATE DESC, m.Z_PK DESC LIMIT ?")) {
+                    int index = 1;
+                    if (position != null) {
+                        stmt.setDouble(index++, position.messageDate());
+                        stmt.setLong(index++, position.messageId());
+                    }
+                    stmt.setInt(index, limit);
+
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            double date = rs.getDouble("ZMESSAGEDATE");
+                            String text = rs.getString("ZTEXT");
+                            if (text == null || text.isBlank()) text = WhatsAppMessage.typeLabel(rs.getInt("ZMESSAGETYPE"));
+                            String partner = rs.getString("ZPARTNERNAME");
+                            events.add(new TimelineEvent(
+                                    TimelineEvent.Source.WHATSAPP,
+                                    toInstant(date),
+                                    rs.getLong("Z_PK"),
+                                    partner == null || partner.isBlank() ? "WhatsApp" : partner,
+                                    (rs.getInt("ZISFROMME") == 1 ? "You: " : "") + (text == null ? "" : text)
+                            ));
+                            position = new MessageCursor(date, rs.getLong("Z_PK"));
+                        }
+                    }
+                }
+                return events;
+            }
+        };
+    }
+
+    private boolean hasPartnerName() {
+        return messageColumns.contains("ZCHATSESSION") && sessionColumns.contains("ZPARTNERNAME");
+    }
+
+    @FunctionalInterface
+    public interface MessageHandler {
+        void accept(WhatsAppMessage message) throws IOException;
+    }
+
+    /**
+     * Passes every message of a chat to the handler, oldest first, straight from a forward-only cursor,
+     * so even very long chats are processed with constant memory.
+     *
+     * @return The number of messages handled
+     */
+    public int forEachMessage(long chatSessionId, MessageHandler handler) throws SQLException, IOException {
+        ensureMessageIndexes();
+
+        String sql = messageSelectSql() + " WHERE m.ZCHATSESSION = ? ORDER BY m.ZMESSAGEDATE ASC, m.Z_PK ASC";
+        int count = 0;
+        try (PreparedStatement stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setLong(1, chatSessionId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    handler.accept(readMessage(rs));
+                    count++;
+                }
+            }
         }
-        sql.append(" WHERE m.ZCHATSESSION = ? ORDER BY m.ZMESSAGEDATE DESC LIMIT ? OFFSET ?");
+        return count;
+    }
 
-        try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+    public List<WhatsAppMessage> queryMessages(long chatSessionId, int limit, int offset) throws SQLException {
+        List<WhatsAppMessage> messages = new ArrayList<>();
+
+        String sql = messageSelectSql() + " WHERE m.ZCHATSESSION = ? ORDER BY m.ZMESSAGEDATE DESC, m.Z_PK DESC LIMIT ? OFFSET ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setLong(1, chatSessionId);
             stmt.setInt(2, limit);
             stmt.setInt(3, offset);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    WhatsAppMedia media = null;
-                    if (hasMediaTable && hasMediaMessage) {
-                        String mediaPath = hasMediaLocalPath ? rs.getString("ZMEDIALOCALPATH") : null;
-                        byte[] thumbnailData = hasThumbnailData ? rs.getBytes("ZTHUMBNAILDATA") : null;
-                        String thumbnailLocalPath = hasThumbnailLocalPath ? rs.getString("ZTHUMBNAILLOCALPATH") : null;
-                        String xmppThumbPath = hasXmppThumbPath ? rs.getString("ZXMPPTHUMBPATH") : null;
-                        if (mediaPath != null || thumbnailData != null || thumbnailLocalPath != null || xmppThumbPath != null) {
-                            media = new WhatsAppMedia(
-                                    mediaPath,
-                                    thumbnailData,
-                                    thumbnailLocalPath,
-                                    xmppThumbPath,
-                                    hasVcardString ? rs.getString("ZVCARDSTRING") : null,
-                                    hasFileSize ? rs.getLong("ZFILESIZE") : 0,
-                                    hasTitle ? rs.getString("ZTITLE") : null
-                            );
-                        }
-                    }
-
-                    messages.add(new WhatsAppMessage(
-                            rs.getLong("Z_PK"),
-                            rs.getLong("ZCHATSESSION"),
-                            rs.getInt("ZISFROMME") == 1,
-                            rs.getInt("ZMESSAGETYPE"),
-                            toInstant(rs.getDouble("ZMESSAGEDATE")),
-                            rs.getString("ZFROMJID"),
-                            hasPushName ? rs.getString("ZPUSHNAME") : null,
-                            rs.getString("ZTEXT"),
-                            hasStarred && rs.getInt("ZSTARRED") == 1,
-                            media
-                    ));
+                    messages.add(readMessage(rs));
                 }
             }
         }
@@ -201,27 +413,202 @@ public class WhatsAppDatabaseService implements AutoCloseable {
         return messages;
     }
 
+    private boolean hasJoinedMedia() {
+        return hasMediaTable && mediaColumns.contains("ZMESSAGE");
+    }
+
+    private String messageSelectSql() {
+        StringBuilder sql = new StringBuilder();
+        sql.append("SELECT m.Z_PK, m.ZCHATSESSION, m.ZISFROMME, m.ZMESSAGETYPE, m.ZMESSAGEDATE, ");
+        sql.append("m.ZFROMJID, m.ZTEXT");
+        if (messageColumns.contains("ZSTARRED")) sql.append(", m.ZSTARRED");
+        if (messageColumns.contains("ZPUSHNAME")) sql.append(", m.ZPUSHNAME");
+        if (hasJoinedMedia()) {
+            sql.append(", mi.Z_PK AS MEDIA_PK");
+            for (String column : MEDIA_COLUMNS) {
+                if (!mediaColumns.contains(column)) continue;
+                // Only the size of the thumbnail BLOB, which SQLite reads without loading the content
+                if (column.equals("ZTHUMBNAILDATA")) sql.append(", length(mi.ZTHUMBNAILDATA) AS THUMBNAIL_SIZE");
+                else sql.append(", mi.").append(column);
+            }
+        }
+        sql.append(" FROM ZWAMESSAGE m");
+        if (hasJoinedMedia()) {
+            sql.append(" LEFT JOIN ZWAMEDIAITEM mi ON mi.ZMESSAGE = m.Z_PK");
+        }
+        return sql.toString();
+    }
+
+    private WhatsAppMessage readMessage(ResultSet rs) throws SQLException {
+        WhatsAppMedia media = null;
+        if (hasJoinedMedia()) {
+            String mediaPath = mediaColumn(rs, "ZMEDIALOCALPATH");
+            boolean hasThumbnailData = mediaColumns.contains("ZTHUMBNAILDATA") && rs.getLong("THUMBNAIL_SIZE") > 0;
+            String thumbnailLocalPath = mediaColumn(rs, "ZTHUMBNAILLOCALPATH");
+            String xmppThumbPath = mediaColumn(rs, "ZXMPPTHUMBPATH");
+            if (mediaPath != null || hasThumbnailData || thumbnailLocalPath != null || xmppThumbPath != null) {
+                media = new WhatsAppMedia(
+                        rs.getLong("MEDIA_PK"),
+                        mediaPath,
+                        hasThumbnailData,
+                        thumbnailLocalPath,
+                        xmppThumbPath,
+                        mediaColumn(rs, "ZVCARDSTRING"),
+                        mediaColumns.contains("ZFILESIZE") ? rs.getLong("ZFILESIZE") : 0,
+                        mediaColumn(rs, "ZTITLE")
+                );
+            }
+        }
+
+        return new WhatsAppMessage(
+                rs.getLong("Z_PK"),
+                rs.getLong("ZCHATSESSION"),
+                rs.getInt("ZISFROMME") == 1,
+                rs.getInt("ZMESSAGETYPE"),
+                toInstant(rs.getDouble("ZMESSAGEDATE")),
+                rs.getString("ZFROMJID"),
+                messageColumns.contains("ZPUSHNAME") ? rs.getString("ZPUSHNAME") : null,
+                rs.getString("ZTEXT"),
+                messageColumns.contains("ZSTARRED") && rs.getInt("ZSTARRED") == 1,
+                media
+        );
+    }
+
+    /**
+     * Loads the embedded thumbnails of the given media items. Message pages only carry whether a thumbnail
+     * exists, so the BLOBs are read just for the messages that are actually shown, in batches.
+     *
+     * @param mediaItemIds {@link WhatsAppMedia#mediaItemId()} of the wanted thumbnails
+     * @return The thumbnail bytes by media item ID; items without a thumbnail are missing
+     */
+    public Map<Long, byte[]> queryThumbnailData(Collection<Long> mediaItemIds) throws SQLException {
+        Map<Long, byte[]> thumbnails = new HashMap<>();
+        if (!hasMediaTable || !mediaColumns.contains("ZTHUMBNAILDATA") || mediaItemIds.isEmpty()) return thumbnails;
+
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(mediaItemIds));
+        for (int from = 0; from < ids.size(); from += THUMBNAIL_BATCH_SIZE) {
+            List<Long> batch = ids.subList(from, Math.min(ids.size(), from + THUMBNAIL_BATCH_SIZE));
+            String sql = "SELECT Z_PK, ZTHUMBNAILDATA FROM ZWAMEDIAITEM WHERE Z_PK IN (" +
+                    String.join(", ", Collections.nCopies(batch.size(), "?")) + ")";
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                for (int i = 0; i < batch.size(); i++) stmt.setLong(i + 1, batch.get(i));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        byte[] data = rs.getBytes(2);
+                        if (data != null && data.length > 0) thumbnails.put(rs.getLong(1), data);
+                    }
+                }
+            }
+        }
+        return thumbnails;
+    }
+
+    /**
+     * @return The embedded thumbnail of a single media item, or null if it has none
+     */
+    public byte[] queryThumbnailData(long mediaItemId) throws SQLException {
+        return queryThumbnailData(List.of(mediaItemId)).get(mediaItemId);
+    }
+
+    private String mediaColumn(ResultSet rs, String column) throws SQLException {
+        return mediaColumns.contains(column) ? rs.getString(column) : null;
+    }
+
+    /**
+     * Makes sure paging by (ZCHATSESSION, ZMESSAGEDATE), including the NULL-safe page order, the timeline
+     * across all chats and the media join are backed by indexes.
+     * The database is a working copy extracted from the backup, so missing indexes are added to it directly.
+     * The service can be shared between tabs, so concurrent callers wait for the first one to add them.
+     */
+    public synchronized void ensureMessageIndexes() {
+        if (messageIndexesChecked) return;
+        messageIndexesChecked = true;
+
+        try {
+            boolean created = false;
+            if (!hasIndexOn("ZWAMESSAGE", "ZCHATSESSION", "ZMESSAGEDATE")) {
+                createIndex("itbe_message_session_date", "ZWAMESSAGE", "ZCHATSESSION", "ZMESSAGEDATE");
+                created = true;
+            }
+            if (!hasIndexOn("ZWAMESSAGE", "ZMESSAGEDATE")) {
+                createIndex("itbe_message_date", "ZWAMESSAGE", "ZMESSAGEDATE");
+                created = true;
+            }
+            if (!hasIndex(PAGING_INDEX)) {
+                createIndex(PAGING_INDEX, "ZWAMESSAGE", "ZCHATSESSION", "COALESCE(ZMESSAGEDATE, 0)");
+                created = true;
+            }
+            if (hasJoinedMedia() && !hasIndexOn("ZWAMEDIAITEM", "ZMESSAGE")) {
+                createIndex("itbe_media_message", "ZWAMEDIAITEM", "ZMESSAGE");
+                created = true;
+            }
+            if (created) connection.commit();
+        } catch (SQLException e) {
+            logger.warn("Could not add WhatsApp message indexes, paging may be slow: {}", e.getMessage());
+        }
+    }
+
+    private boolean hasIndex(String name) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'index' AND name = ?")) {
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private boolean hasIndexOn(String table, String... leadingColumns) throws SQLException {
+        List<String> indexes = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA index_list(" + table + ")")) {
+            while (rs.next()) indexes.add(rs.getString("name"));
+        }
+
+        for (String index : indexes) {
+            List<String> columns = new ArrayList<>();
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA index_info('" + index.replace("'", "''") + "')")) {
+                while (rs.next()) {
+                    String name = rs.getString("name");
+                    columns.add(name == null ? "" : name.toUpperCase(Locale.ROOT));
+                }
+            }
+            if (columns.size() >= leadingColumns.length
+                    && columns.subList(0, leadingColumns.length).equals(List.of(leadingColumns))) return true;
+        }
+        return false;
+    }
+
+    private void createIndex(String name, String table, String... columns) throws SQLException {
+        long start = System.currentTimeMillis();
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE INDEX IF NOT EXISTS " + name + " ON " + table + " (" + String.join(", ", columns) + ")");
+        }
+        logger.info("Created index {} on {} in {} ms", name, table, System.currentTimeMillis() - start);
+    }
+
     private void logDatabaseStats(boolean hasChatSession) {
+        if (!logger.isInfoEnabled()) return;
+
         try (Statement stmt = connection.createStatement()) {
             int totalSessions = 0;
-            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ZWACHATSESSION")) {
-                if (rs.next()) totalSessions = rs.getInt(1);
-            }
-
             int sessionsWithJid = 0;
-            try (ResultSet rs = stmt.executeQuery(
-                    "SELECT COUNT(*) FROM ZWACHATSESSION WHERE ZCONTACTJID IS NOT NULL AND ZCONTACTJID != ''")) {
-                if (rs.next()) sessionsWithJid = rs.getInt(1);
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*), " +
+                    "SUM(CASE WHEN ZCONTACTJID IS NOT NULL AND ZCONTACTJID != '' THEN 1 ELSE 0 END) FROM ZWACHATSESSION")) {
+                if (rs.next()) {
+                    totalSessions = rs.getInt(1);
+                    sessionsWithJid = rs.getInt(2);
+                }
             }
 
             if (hasChatSession) {
                 int sessionsWithMessages = 0;
-                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(DISTINCT ZCHATSESSION) FROM ZWAMESSAGE")) {
-                    if (rs.next()) sessionsWithMessages = rs.getInt(1);
-                }
-                int totalMessages = 0;
-                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM ZWAMESSAGE")) {
-                    if (rs.next()) totalMessages = rs.getInt(1);
+                long totalMessages = 0;
+                try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*), COALESCE(SUM(message_count), 0) FROM temp.chat_stats")) {
+                    if (rs.next()) {
+                        sessionsWithMessages = rs.getInt(1);
+                        totalMessages = rs.getLong(2);
+                    }
                 }
                 logger.info("WhatsApp DB stats: {} total sessions, {} with JID, {} with messages, {} total messages",
                         totalSessions, sessionsWithJid, sessionsWithMessages, totalMessages);
@@ -235,7 +622,9 @@ public class WhatsAppDatabaseService implements AutoCloseable {
     }
 
     public int countMessages(long chatSessionId) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM ZWAMESSAGE WHERE ZCHATSESSION = ?";
+        String sql = chatStatsBuilt
+                ? "SELECT message_count FROM temp.chat_stats WHERE session = ?"
+                : "SELECT COUNT(*) FROM ZWAMESSAGE WHERE ZCHATSESSION = ?";
         try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setLong(1, chatSessionId);
             try (ResultSet rs = stmt.executeQuery()) {
@@ -245,7 +634,7 @@ public class WhatsAppDatabaseService implements AutoCloseable {
         return 0;
     }
 
-    private static Instant toInstant(double coreDataTimestamp) {
+    static Instant toInstant(double coreDataTimestamp) {
         if (coreDataTimestamp == 0) return Instant.EPOCH;
         return Instant.ofEpochSecond((long) coreDataTimestamp + CORE_DATA_EPOCH_OFFSET);
     }
@@ -258,6 +647,10 @@ public class WhatsAppDatabaseService implements AutoCloseable {
         this.whatsappDomain = domain;
     }
 
+    /**
+     * Closes the connection. The service can be shared by several threads, which may query it at the same time,
+     * so the owner has to make sure none of them is still running a query or iterating messages.
+     */
     @Override
     public void close() {
         try {
@@ -0,0 +1,449 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Writes WhatsApp chats to text, JSON Lines or HTML files. Messages are streamed from the database
+ * one at a time, so memory use does not depend on the length of the chat. Referenced media files can
+ * be copied out of the backup alongside the export on a small thread pool.
+ */
+public class WhatsAppExporter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(WhatsAppExporter.class);
+
+    private static final int MEDIA_THREADS = 4;
+    private static final int MAX_PENDING_MEDIA = 32;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final DateTimeFormatter DATETIME_FMT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZONE);
+    private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm").withZone(ZONE);
+    private static final DateTimeFormatter DAY_FMT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    public enum Format {
+        TXT("txt", "Text Files"),
+        JSONL("jsonl", "JSON Lines"),
+        HTML("html", "HTML Files");
+
+        private final String extension;
+        private final String description;
+
+        Format(String extension, String description) {
+            this.extension = extension;
+            this.description = description;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        public String description() {
+            return description;
+        }
+    }
+
+    public record Result(int messages, int mediaCopied, int mediaMissing) {
+        Result plus(Result other) {
+            return new Result(messages + other.messages, mediaCopied + other.mediaCopied, mediaMissing + other.mediaMissing);
+        }
+    }
+
+    private final WhatsAppDatabaseService service;
+    private final WhatsAppMediaIndex mediaIndex;
+    private final Format format;
+    private final ExecutorService mediaExecutor;
+    private final Semaphore pendingMedia = new Semaphore(MAX_PENDING_MEDIA);
+
+    /**
+     * @param mediaIndex Files to copy media from, or null to export messages only
+     */
+    public WhatsAppExporter(WhatsAppDatabaseService service, WhatsAppMediaIndex mediaIndex, Format format) {
+        this.service = service;
+        this.mediaIndex = mediaIndex;
+        this.format = format;
+        this.mediaExecutor = mediaIndex == null ? null : Executors.newFixedThreadPool(MEDIA_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "whatsapp-export-media");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Exports one chat. Media files are written to a "&lt;name&gt;_media" folder next to the destination.
+     * Interrupting the calling thread stops the export.
+     */
+    public Result exportChat(WhatsAppChat chat, File destination) throws IOException, SQLException {
+        String baseName = destination.getName().replaceFirst("\\.[^.]+$", "");
+        File mediaDir = new File(destination.getParentFile(), baseName + "_media");
+        AtomicInteger copied = new AtomicInteger();
+        AtomicInteger missing = new AtomicInteger();
+
+        int count;
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(destination), StandardCharsets.UTF_8))) {
+            ChatWriter writer = switch (format) {
+                case TXT -> new TextWriter(out, chat);
+                case JSONL -> new JsonLinesWriter(out, chat);
+                case HTML -> new HtmlWriter(out, chat, service);
+            };
+
+            writer.begin();
+            count = service.forEachMessage(chat.id(), message -> {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Export cancelled");
+
+                String mediaReference = null;
+                if (mediaExecutor != null && message.media() != null && message.media().localPath() != null) {
+                    mediaReference = copyMedia(message, mediaDir, copied, missing);
+                }
+                writer.message(message, mediaReference);
+            });
+            writer.end();
+        } finally {
+            // Wait for the copies of this chat before reporting it as done
+            pendingMedia.acquireUninterruptibly(MAX_PENDING_MEDIA);
+            pendingMedia.release(MAX_PENDING_MEDIA);
+        }
+
+        logger.info("Exported {} messages of '{}' to {} ({} media files copied, {} not found)",
+                count, chat.displayName(), destination, copied.get(), missing.get());
+        return new Result(count, copied.get(), missing.get());
+    }
+
+    /**
+     * Exports every chat into its own file inside the given directory.
+     *
+     * @param cancelled    Checked before each chat
+     * @param onChatDone   Receives the number of chats exported so far
+     */
+    public Result exportAllChats(List<WhatsAppChat> chats, File directory, BooleanSupplier cancelled, IntConsumer onChatDone)
+            throws IOException, SQLException {
+        Set<String> usedNames = new HashSet<>();
+        Result total = new Result(0, 0, 0);
+        int done = 0;
+
+        for (WhatsAppChat chat : chats) {
+            if (cancelled.getAsBoolean()) break;
+
+            String name = fileNameFor(chat);
+            if (!usedNames.add(name.toLowerCase(Locale.ROOT))) {
+                name = name + " (" + chat.id() + ")";
+                usedNames.add(name.toLowerCase(Locale.ROOT));
+            }
+
+            total = total.plus(exportChat(chat, new File(directory, name + "." + format.extension())));
+            onChatDone.accept(++done);
+        }
+        return total;
+    }
+
+    public static String fileNameFor(WhatsAppChat chat) {
+        return chat.displayName().replaceAll("[^a-zA-Z0-9._\\- ]", "_");
+    }
+
+    private String copyMedia(WhatsAppMessage message, File mediaDir, AtomicInteger copied, AtomicInteger missing)
+            throws InterruptedIOException {
+        String localPath = message.media().localPath();
+        BackupFile file = mediaIndex.findByPathSuffix(localPath);
+        if (file == null) {
+            missing.incrementAndGet();
+            return null;
+        }
+
+        String basename = localPath.substring(localPath.lastIndexOf('/') + 1).replaceAll("[^a-zA-Z0-9._\\-]", "_");
+        String fileName = message.id() + "_" + basename;
+
+        try {
+            pendingMedia.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export cancelled");
+        }
+
+        mediaExecutor.execute(() -> {
+            try {
+                if (!mediaDir.isDirectory() && !mediaDir.mkdirs() && !mediaDir.isDirectory())
+                    throw new IOException("Could not create " + mediaDir);
+                file.extract(new File(mediaDir, fileName));
+                copied.incrementAndGet();
+            } catch (Exception e) {
+                logger.debug("Failed to copy media file {}", localPath, e);
+                missing.incrementAndGet();
+            } finally {
+                pendingMedia.release();
+            }
+        });
+
+        return mediaDir.getName() + "/" + fileName;
+    }
+
+    private static String senderName(WhatsAppChat chat, WhatsAppMessage message) {
+        if (message.fromMe()) return "You";
+        if (message.pushName() != null && !message.pushName().isBlank()) return message.pushName();
+        if (chat.isGroup() && message.fromJid() != null) return "+" + message.fromJid().split("@")[0];
+        return chat.displayName();
+    }
+
+    /**
+     * Messages without text, media or a type label, e.g. empty system messages, are left out of the
+     * text and HTML exports like they are in the message list.
+     */
+    private static boolean hasContent(WhatsAppMessage message) {
+        return (message.text() != null && !message.text().isEmpty()) || message.media() != null
+                || WhatsAppMessage.typeLabel(message.messageType()) != null;
+    }
+
+    private static boolean hasDate(Instant instant) {
+        return instant != null && !instant.equals(Instant.EPOCH);
+    }
+
+    @Override
+    public void close() {
+        if (mediaExecutor != null) mediaExecutor.shutdown();
+    }
+
+    private interface ChatWriter {
+        void begin() throws IOException;
+
+        void message(WhatsAppMessage message, String mediaReference) throws IOException;
+
+        void end() throws IOException;
+    }
+
+    private record TextWriter(Writer out, WhatsAppChat chat) implements ChatWriter {
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void message(WhatsAppMessage message, String mediaReference) throws IOException {
+            if (!hasContent(message)) return;
+
+            String date = hasDate(message.messageDate()) ? DATETIME_FMT.format(message.messageDate()) : "??";
+            String text = message.text() != null ? message.text() : "";
+            if (message.media() != null) {
+                String caption = message.media().caption() != null ? message.media().caption() : "";
+                String media = mediaReference != null ? "<media: " + mediaReference + ">" : "<media>";
+                text = media + " " + caption + (text.isEmpty() ? "" : " " + text);
+            }
+            if (text.isEmpty()) text = WhatsAppMessage.typeLabel(message.messageType());
+
+            out.write("[" + date + "] " + senderName(chat, message) + ": " + text);
+            out.write(System.lineSeparator());
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+
+    private record JsonLinesWriter(Writer out, WhatsAppChat chat) implements ChatWriter {
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void message(WhatsAppMessage message, String mediaReference) throws IOException {
+            StringBuilder json = new StringBuilder(256);
+            json.append("{\"id\":").append(message.id());
+            json.append(",\"chat\":");
+            appendJsonString(json, chat.displayName());
+            if (hasDate(message.messageDate())) {
+                json.append(",\"date\":");
+                appendJsonString(json, message.messageDate().toString());
+            }
+            json.append(",\"fromMe\":").append(message.fromMe());
+            json.append(",\"sender\":");
+            appendJsonString(json, senderName(chat, message));
+            if (message.fromJid() != null) {
+                json.append(",\"senderJid\":");
+                appendJsonString(json, message.fromJid());
+            }
+            json.append(",\"type\":").append(message.messageType());
+            if (message.text() != null) {
+                json.append(",\"text\":");
+                appendJsonString(json, message.text());
+            }
+            json.append(",\"starred\":").append(message.starred());
+
+            WhatsAppMedia media = message.media();
+            if (media != null) {
+                json.append(",\"media\":{\"path\":");
+                appendJsonString(json, media.localPath());
+                json.append(",\"size\":").append(media.fileSize());
+                if (media.caption() != null) {
+                    json.append(",\"caption\":");
+                    appendJsonString(json, media.caption());
+                }
+                if (mediaReference != null) {
+                    json.append(",\"file\":");
+                    appendJsonString(json, mediaReference);
+                }
+                json.append('}');
+            }
+            json.append('}');
+
+            out.write(json.toString());
+            out.write('\n');
+        }
+
+        @Override
+        public void end() {
+        }
+
+        private static void appendJsonString(StringBuilder json, String value) {
+            if (value == null) {
+                json.append("null");
+                return;
+            }
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"' -> json.append("\\\"");
+                    case '\\' -> json.append("\\\\");
+                    case '\n' -> json.append("\\n");
+                    case '\r' -> json.append("\\r");
+                    case '\t' -> json.append("\\t");
+                    default -> {
+                        if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+                        else json.append(c);
+                    }
+                }
+            }
+            json.append('"');
+        }
+    }
+
+    private static final class HtmlWriter implements ChatWriter {
+        private static final String STYLE = """
+                body { font-family: -apple-system, "Segoe UI", sans-serif; background: #1a1a28; color: #e0e0e8; margin: 0; }
+                h1 { font-size: 18px; margin: 0; padding: 14px 20px; background: #252538; position: sticky; top: 0; }
+                .chat { max-width: 760px; margin: 0 auto; padding: 12px; }
+                .day { text-align: center; color: #8888a0; font-size: 12px; margin: 16px 0 8px; }
+                .msg { max-width: 70%; padding: 8px 12px 6px; border-radius: 12px; margin: 4px 0; background: #2a2a3e; clear: both; float: left; }
+                .msg.sent { background: #2f3563; float: right; }
+                .sender { font-weight: bold; font-size: 12px; color: #6c7ff2; }
+                .text { font-size: 14px; white-space: pre-wrap; word-wrap: break-word; }
+                .media img { max-width: 100%; border-radius: 8px; display: block; }
+                .media a { color: #8fa0ff; }
+                .placeholder { color: #b0b8c8; font-size: 13px; }
+                .time { font-size: 10px; color: #8888a0; text-align: right; }
+                .clear { clear: both; }
+                """;
+
+        private final Writer out;
+        private final WhatsAppChat chat;
+        private final WhatsAppDatabaseService service;
+        private LocalDate currentDay;
+
+        HtmlWriter(Writer out, WhatsAppChat chat, WhatsAppDatabaseService service) {
+            this.out = out;
+            this.chat = chat;
+            this.service = service;
+        }
+
+        private byte[] loadThumbnail(WhatsAppMedia media) throws IOException {
+            if (!media.hasThumbnailData()) return null;
+            try {
+                return service.queryThumbnailData(media.mediaItemId());
+            } catch (SQLException e) {
+                throw new IOException("Failed to read thumbnail of media item " + media.mediaItemId(), e);
+            }
+        }
+
+        @Override
+        public void begin() throws IOException {
+            out.write("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>");
+            out.write(escape(chat.displayName()));
+            out.write("</title><style>\n" + STYLE + "</style></head><body>\n<h1>");
+            out.write(escape(chat.displayName()));
+            out.write("</h1>\n<div class=\"chat\">\n");
+        }
+
+        @Override
+        public void message(WhatsAppMessage message, String mediaReference) throws IOException {
+            if (!hasContent(message)) return;
+
+            if (hasDate(message.messageDate())) {
+                LocalDate day = LocalDate.ofInstant(message.messageDate(), ZONE);
+                if (!day.equals(currentDay)) {
+                    currentDay = day;
+                    out.write("<div class=\"day clear\">" + DAY_FMT.format(day) + "</div>\n");
+                }
+            }
+
+            out.write(message.fromMe() ? "<div class=\"msg sent\">" : "<div class=\"msg\">");
+            if (chat.isGroup() && !message.fromMe()) {
+                out.write("<div class=\"sender\">" + escape(senderName(chat, message)) + "</div>");
+            }
+
+            String typeLabel = WhatsAppMessage.typeLabel(message.messageType());
+            WhatsAppMedia media = message.media();
+            if (media != null) {
+                out.write("<div class=\"media\">");
+                boolean image = message.messageType() == 1 || message.messageType() == 15;
+                byte[] thumbnail = mediaReference != null && image ? null : loadThumbnail(media);
+                if (mediaReference != null && image) {
+                    out.write("<a href=\"" + escape(mediaReference) + "\"><img src=\"" + escape(mediaReference) + "\" loading=\"lazy\"></a>");
+                } else if (thumbnail != null) {
+                    // Inline the embedded preview so the file stays self-contained without copied media
+                    String img = "<img src=\"data:image/jpeg;base64," + Base64.getEncoder().encodeToString(thumbnail) + "\">";
+                    out.write(mediaReference != null ? "<a href=\"" + escape(mediaReference) + "\">" + img + "</a>" : img);
+                } else if (mediaReference != null) {
+                    out.write("<a href=\"" + escape(mediaReference) + "\">" + escape(typeLabel != null ? typeLabel : "Media") + "</a>");
+                } else {
+                    out.write("<div class=\"placeholder\">" + escape(typeLabel != null ? typeLabel : "Media") + "</div>");
+                }
+                if (media.caption() != null && !media.caption().isBlank()) {
+                    out.write("<div class=\"text\">" + escape(media.caption()) + "</div>");
+                }
+                out.write("</div>");
+            }
+
+            if (message.text() != null && !message.text().isBlank()) {
+                out.write("<div class=\"text\">" + escape(message.text()) + "</div>");
+            } else if (media == null && typeLabel != null) {
+                out.write("<div class=\"placeholder\">" + escape(typeLabel) + "</div>");
+            }
+
+            String time = hasDate(message.messageDate()) ? TIME_FMT.format(message.messageDate()) : "";
+            out.write("<div class=\"time\">" + time + (message.starred() ? " ★" : "") + "</div></div>\n");
+        }
+
+        @Override
+        public void end() throws IOException {
+            out.write("<div class=\"clear\"></div>\n</div>\n</body></html>\n");
+        }
+
+        private static String escape(String value) {
+            StringBuilder escaped = new StringBuilder(value.length() + 16);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '<' -> escaped.append("&lt;");
+                    case '>' -> escaped.append("&gt;");
+                    case '&' -> escaped.append("&amp;");
+                    case '"' -> escaped.append("&quot;");
+                    default -> escaped.append(c);
+                }
+            }
+            return escaped.toString();
+        }
+    }
+}
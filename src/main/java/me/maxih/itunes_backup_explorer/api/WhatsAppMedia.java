@@ -1,8 +1,14 @@
 package me.maxih.itunes_backup_explorer.api;
 
+/**
+ * @param mediaItemId      Z_PK of the ZWAMEDIAITEM row, used to load the embedded thumbnail on demand
+ * @param hasThumbnailData Whether the row has an embedded thumbnail, see
+ *                         {@link WhatsAppDatabaseService#queryThumbnailData(java.util.Collection)}
+ */
 public record WhatsAppMedia(
+        long mediaItemId,
         String localPath,
-        byte[] thumbnailData,
+        boolean hasThumbnailData,
         String thumbnailLocalPath,
         String xmppThumbPath,
         String mimeType,
@@ -0,0 +1,94 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * In-memory lookup of all files in the WhatsApp domains, built with a single query.
+ * Media paths stored in ChatStorage.sqlite are relative to varying roots, so they are matched as path
+ * suffixes (like {@code LIKE '%path'}) through a map keyed by file name instead of scanning Manifest.db
+ * for every bubble.
+ */
+public class WhatsAppMediaIndex {
+    private static final Logger logger = LoggerFactory.getLogger(WhatsAppMediaIndex.class);
+    private static final String WHATSAPP_DOMAINS = "%net.whatsapp%";
+
+    private final String preferredDomain;
+    private final Map<String, List<BackupFile>> byName = new HashMap<>();
+    private final Map<String, List<BackupFile>> byStem = new HashMap<>();
+    private int size = 0;
+
+    WhatsAppMediaIndex(String preferredDomain, Collection<BackupFile> files) {
+        this.preferredDomain = preferredDomain;
+        for (BackupFile file : files) {
+            if (file.getFileType() != BackupFile.FileType.FILE || file.relativePath == null) continue;
+
+            String name = lowerName(file.relativePath);
+            byName.computeIfAbsent(name, key -> new ArrayList<>(1)).add(file);
+            int dot = name.indexOf('.');
+            if (dot > 0) byStem.computeIfAbsent(name.substring(0, dot), key -> new ArrayList<>(1)).add(file);
+            size++;
+        }
+    }
+
+    /**
+     * @param preferredDomain Domain whose files win when several domains contain a match
+     */
+    public static WhatsAppMediaIndex build(ITunesBackup backup, String preferredDomain) throws DatabaseConnectionException {
+        long start = System.currentTimeMillis();
+        WhatsAppMediaIndex index = new WhatsAppMediaIndex(preferredDomain, backup.searchFiles(WHATSAPP_DOMAINS, "%"));
+        logger.info("Indexed {} WhatsApp files in {} ms", index.size, System.currentTimeMillis() - start);
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds a file whose relative path ends with the given path, case-insensitively.
+     * If no path ends with it, a file with the same name is taken instead, since the stored paths
+     * do not always match the folders the media ended up in.
+     *
+     * @return The match from the preferred domain if there is one, otherwise the first match, or null
+     */
+    public BackupFile findByPathSuffix(String path) {
+        if (path == null || path.isEmpty()) return null;
+
+        String suffix = path.toLowerCase(Locale.ROOT);
+        List<BackupFile> candidates = byName.get(lowerName(suffix));
+        if (candidates == null) return null;
+        BackupFile match = pick(candidates, file -> file.relativePath.toLowerCase(Locale.ROOT).endsWith(suffix));
+        return match != null ? match : pick(candidates, file -> true);
+    }
+
+    /**
+     * Finds a file by its name without extension, e.g. the UUID WhatsApp uses for media and their thumbnails.
+     *
+     * @param filter Additional condition, e.g. to skip the thumbnail itself
+     */
+    public BackupFile findByStem(String stem, Predicate<BackupFile> filter) {
+        if (stem == null || stem.isEmpty()) return null;
+
+        List<BackupFile> candidates = byStem.get(stem.toLowerCase(Locale.ROOT));
+        if (candidates == null) return null;
+        return pick(candidates, filter);
+    }
+
+    private BackupFile pick(List<BackupFile> candidates, Predicate<BackupFile> filter) {
+        BackupFile fallback = null;
+        for (BackupFile file : candidates) {
+            if (!filter.test(file)) continue;
+            if (Objects.equals(file.domain, preferredDomain)) return file;
+            if (fallback == null) fallback = file;
+        }
+        return fallback;
+    }
+
+    private static String lowerName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+    }
+}
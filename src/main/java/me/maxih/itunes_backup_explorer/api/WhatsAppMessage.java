@@ -14,4 +14,26 @@ public record WhatsAppMessage(
         boolean starred,
         WhatsAppMedia media
 ) {
+    /**
+     * @return A short label for non-text message types, or null for plain text messages
+     */
+    public static String typeLabel(int messageType) {
+        return switch (messageType) {
+            case 0 -> null;
+            case 1 -> "\uD83D\uDCF7 Photo";
+            case 2 -> "\uD83C\uDFA5 Video";
+            case 3, 8 -> "\uD83C\uDFA4 Audio";
+            case 4 -> "\uD83D\uDC64 Contact";
+            case 5, 16 -> "\uD83D\uDCCD Location";
+            case 6 -> null;
+            case 7 -> "\uD83D\uDCC4 Document";
+            case 9, 13 -> "\uD83C\uDFA5 GIF";
+            case 10 -> "\uD83D\uDCDE Call";
+            case 11 -> "\uD83D\uDD12 Encryption changed";
+            case 14 -> "\u26D4 Deleted";
+            case 15 -> "Sticker";
+            case 46 -> "\uD83D\uDCCA Poll";
+            default -> null;
+        };
+    }
 }
@@ -0,0 +1,11 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import java.time.Instant;
+
+public record WhatsAppSearchHit(
+        long messageId,
+        long chatSessionId,
+        Instant messageDate,
+        String snippet
+) {
+}
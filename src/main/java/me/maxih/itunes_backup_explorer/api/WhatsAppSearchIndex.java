@@ -0,0 +1,243 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+
+/**
+ * FTS5 full-text index over the text, push names and media captions of all WhatsApp messages.
+ * The index lives in a sidecar database next to the extracted ChatStorage.sqlite copy and is only
+ * rebuilt when the message table changed.
+ */
+public class WhatsAppSearchIndex implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(WhatsAppSearchIndex.class);
+
+    private static final int INDEX_VERSION = 1;
+    private static final int BUILD_CHUNK_SIZE = 50_000;
+    public static final String HIGHLIGHT_START = "\u0002";
+    public static final String HIGHLIGHT_END = "\u0003";
+
+    private final File sourceFile;
+    private final File indexFile;
+    private Connection connection;
+    private volatile boolean ready = false;
+
+    public WhatsAppSearchIndex(File chatStorageFile) {
+        this.sourceFile = chatStorageFile;
+        this.indexFile = sidecarFor(chatStorageFile);
+    }
+
+    public static File sidecarFor(File chatStorageFile) {
+        String name = chatStorageFile.getName().replaceFirst("\\.sqlite$", "");
+        return new File(chatStorageFile.getParentFile(), name + "-search.sqlite");
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Builds the index unless an up-to-date one already exists. Runs for a while on large histories,
+     * so call it from a background thread.
+     *
+     * @param cancelled Checked between chunks, stops the build early when it returns true
+     * @param progress  Receives the build progress between 0 and 1
+     * @return true if the index is complete and can be searched
+     */
+    public synchronized boolean build(BooleanSupplier cancelled, DoubleConsumer progress) throws SQLException {
+        if (ready) return true;
+        if (connection == null) {
+            connection = DriverManager.getConnection("jdbc:sqlite:" + indexFile.getAbsolutePath());
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ATTACH DATABASE '" + sourceFile.getAbsolutePath().replace("'", "''") + "' AS src");
+        }
+
+        try {
+            String fingerprint = sourceFingerprint();
+            if (fingerprint.equals(readMeta("fingerprint")) && String.valueOf(INDEX_VERSION).equals(readMeta("version"))) {
+                logger.info("WhatsApp search index is up to date ({})", fingerprint);
+                ready = true;
+                return true;
+            }
+
+            long start = System.currentTimeMillis();
+            connection.setAutoCommit(false);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP TABLE IF EXISTS message_fts");
+                stmt.execute("CREATE TABLE IF NOT EXISTS meta (key TEXT PRIMARY KEY, value TEXT)");
+                stmt.execute("DELETE FROM meta");
+                stmt.execute("CREATE VIRTUAL TABLE message_fts USING fts5(" +
+                        "text, push_name, caption, session UNINDEXED, message_date UNINDEXED, " +
+                        "tokenize = 'unicode61 remove_diacritics 2', prefix = '2 3')");
+            }
+
+            long maxId = 0;
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(Z_PK), 0) FROM src.ZWAMESSAGE")) {
+                if (rs.next()) maxId = rs.getLong(1);
+            }
+
+            try (PreparedStatement insert = connection.prepareStatement(buildInsertSql())) {
+                for (long from = 0; from < maxId; from += BUILD_CHUNK_SIZE) {
+                    if (cancelled.getAsBoolean()) return false;
+                    insert.setLong(1, from);
+                    insert.setLong(2, from + BUILD_CHUNK_SIZE);
+                    insert.executeUpdate();
+                    progress.accept((double) Math.min(maxId, from + BUILD_CHUNK_SIZE) / maxId);
+                }
+            }
+
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("INSERT INTO message_fts(message_fts) VALUES ('optimize')");
+            }
+            writeMeta("version", String.valueOf(INDEX_VERSION));
+            writeMeta("fingerprint", fingerprint);
+            connection.commit();
+            connection.setAutoCommit(true);
+
+            logger.info("Built WhatsApp search index in {} ms", System.currentTimeMillis() - start);
+            ready = true;
+            return true;
+        } finally {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DETACH DATABASE src");
+            }
+        }
+    }
+
+    /**
+     * Ranked full-text search over all chats.
+     *
+     * @param query Plain user input; every word has to match, the last characters of a word may be missing
+     * @return Hits ordered by relevance. Matches in the snippet are wrapped in
+     * {@link #HIGHLIGHT_START} and {@link #HIGHLIGHT_END}
+     */
+    public synchronized List<WhatsAppSearchHit> search(String query, int limit, int offset) throws SQLException {
+        List<WhatsAppSearchHit> hits = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if (!ready || match == null) return hits;
+
+        String sql = "SELECT rowid, session, message_date, " +
+                "snippet(message_fts, -1, '" + HIGHLIGHT_START + "', '" + HIGHLIGHT_END + "', '…', 12) AS snippet " +
+                "FROM message_fts WHERE message_fts MATCH ? ORDER BY rank LIMIT ? OFFSET ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setString(1, match);
+            stmt.setInt(2, limit);
+            stmt.setInt(3, offset);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    hits.add(new WhatsAppSearchHit(
+                            rs.getLong("rowid"),
+                            rs.getLong("session"),
+                            WhatsAppDatabaseService.toInstant(rs.getDouble("message_date")),
+                            rs.getString("snippet")
+                    ));
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Turns user input into an FTS5 query: each word is quoted, so operators and punctuation
+     * are taken literally, and matched as a prefix.
+     *
+     * @return The match expression or null if the input contains no words
+     */
+    static String toMatchExpression(String query) {
+        if (query == null) return null;
+
+        List<String> terms = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            String cleaned = word.replace("\"", "");
+            if (!cleaned.isEmpty()) terms.add("\"" + cleaned + "\"*");
+        }
+        return terms.isEmpty() ? null : String.join(" ", terms);
+    }
+
+    private String buildInsertSql() throws SQLException {
+        Set<String> messageColumns = columns("ZWAMESSAGE");
+        Set<String> mediaColumns = columns("ZWAMEDIAITEM");
+        boolean hasPushName = messageColumns.contains("ZPUSHNAME");
+        boolean hasCaption = mediaColumns.contains("ZMESSAGE") && mediaColumns.contains("ZTITLE");
+
+        // ?1 and ?2 are the Z_PK bounds of the current chunk, used by the caption subquery as well
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO message_fts (rowid, text, push_name, caption, session, message_date) ");
+        sql.append("SELECT m.Z_PK, m.ZTEXT, ");
+        sql.append(hasPushName ? "m.ZPUSHNAME, " : "NULL, ");
+        sql.append(hasCaption ? "mi.ZTITLE, " : "NULL, ");
+        sql.append("m.ZCHATSESSION, m.ZMESSAGEDATE FROM src.ZWAMESSAGE m ");
+        if (hasCaption) {
+            sql.append("LEFT JOIN (SELECT ZMESSAGE, MAX(ZTITLE) AS ZTITLE FROM src.ZWAMEDIAITEM ");
+            sql.append("WHERE ZTITLE IS NOT NULL AND ZTITLE != '' AND ZMESSAGE > ?1 AND ZMESSAGE <= ?2 GROUP BY ZMESSAGE) mi ");
+            sql.append("ON mi.ZMESSAGE = m.Z_PK ");
+        }
+        sql.append("WHERE m.Z_PK > ?1 AND m.Z_PK <= ?2 AND (COALESCE(m.ZTEXT, '') != ''");
+        if (hasPushName) sql.append(" OR COALESCE(m.ZPUSHNAME, '') != ''");
+        if (hasCaption) sql.append(" OR mi.ZTITLE IS NOT NULL");
+        sql.append(")");
+        return sql.toString();
+    }
+
+    private Set<String> columns(String table) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA src.table_info(" + table + ")")) {
+            while (rs.next()) columns.add(rs.getString("name").toUpperCase(Locale.ROOT));
+        }
+        return columns;
+    }
+
+    private String sourceFingerprint() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*), COALESCE(MAX(Z_PK), 0) FROM src.ZWAMESSAGE")) {
+            return rs.next() ? rs.getLong(1) + ":" + rs.getLong(2) : "";
+        }
+    }
+
+    private String readMeta(String key) {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT value FROM meta WHERE key = ?")) {
+            stmt.setString(1, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    private void writeMeta(String key, String value) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("INSERT OR REPLACE INTO meta (key, value) VALUES (?, ?)")) {
+            stmt.setString(1, key);
+            stmt.setString(2, value);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        ready = false;
+        try {
+            if (connection != null && !connection.isClosed()) connection.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close WhatsApp search index", e);
+        }
+        connection = null;
+    }
+}
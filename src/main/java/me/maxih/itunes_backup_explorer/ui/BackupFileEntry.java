@@ -8,6 +8,7 @@ import me.maxih.itunes_backup_explorer.api.BackupFile;
 import me.maxih.itunes_backup_explorer.util.BackupPathUtils;
 
 import java.io.ByteArrayInputStream;
+import java.util.Locale;
 import java.util.Optional;
 
 public class BackupFileEntry {
@@ -19,6 +20,7 @@ public class BackupFileEntry {
     private BackupFile file;
     private final String title;
     private final int pathLevel;
+    private final String sortKey;
     private final Image icon;
     private final BooleanProperty checkBoxSelected = new SimpleBooleanProperty(false);
     private final BooleanProperty checkBoxIndeterminate = new SimpleBooleanProperty(false);
@@ -35,6 +37,7 @@ public class BackupFileEntry {
     public BackupFileEntry(String title) {
         this.title = title;
         this.pathLevel = 0;
+        this.sortKey = title.toLowerCase(Locale.ROOT);
         this.icon = domainGroupIcon;
     }
 
@@ -42,6 +45,7 @@ public class BackupFileEntry {
         this.file = file;
         this.title = file.getFileName().equals("") ? file.domain : file.getFileName();
         this.pathLevel = BackupPathUtils.getPathLevel(file.relativePath);
+        this.sortKey = file.relativePath.toLowerCase(Locale.ROOT);
 
         String appID = file.domain.startsWith("AppDomain-") ? file.domain.substring("AppDomain-".length()) : null;
         if (file.relativePath.equals("") && appID != null && file.backup.getBackupInfo().map(info -> info.applications.containsKey(appID)).orElse(false)) {
@@ -86,6 +90,10 @@ public class BackupFileEntry {
         return this.getFile().map(f -> f.relativePath).orElse(this.title);
     }
 
+    public String getSortKey() {
+        return this.sortKey;
+    }
+
     public String getParentPath() {
         return this.getFile().map(BackupFile::getParentPath).orElse("");
     }
@@ -0,0 +1,336 @@
+package me.maxih.itunes_backup_explorer.ui;
+
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
+import javafx.stage.FileChooser;
+import me.maxih.itunes_backup_explorer.api.BackupFile;
+import me.maxih.itunes_backup_explorer.api.DatabaseBrowser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+public class DatabaseBrowserController {
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseBrowserController.class);
+    private static final int PAGE_SIZE = 200;
+    private static final int QUERY_TIMEOUT_SECONDS = 30;
+
+    private record OpenResult(DatabaseBrowser browser, File directory, List<DatabaseBrowser.Table> tables) {}
+
+    private DatabaseBrowser browser;
+    private File databaseDir;
+    private String databaseName;
+    private DatabaseBrowser.Table selectedTable;
+    // Positions of the pages before the current one, to go back without an offset
+    private final Deque<Object[]> previousKeys = new ArrayDeque<>();
+    private Object[] currentKey;
+    private Object[] nextKey;
+    // Query of the result that is shown instead of a table, exported in full
+    private String shownQuery;
+    private Task<?> runningTask;
+    private boolean closed;
+
+    @FXML ListView<DatabaseBrowser.Table> tableListView;
+    @FXML Label tableCountLabel;
+    @FXML TableView<Object[]> rowsTableView;
+    @FXML Label placeholderLabel;
+    @FXML Button previousPageButton;
+    @FXML Button nextPageButton;
+    @FXML Label pageLabel;
+    @FXML Button exportButton;
+    @FXML TextArea queryArea;
+    @FXML TextField rowLimitField;
+    @FXML Button runQueryButton;
+    @FXML Label statusLabel;
+
+    @FXML
+    public void initialize() {
+        tableListView.setCellFactory(listView -> new ListCell<>() {
+            @Override
+            protected void updateItem(DatabaseBrowser.Table table, boolean empty) {
+                super.updateItem(table, empty);
+                setText(empty || table == null ? null : table.view() ? table.name() + " (view)" : table.name());
+            }
+        });
+        tableListView.getSelectionModel().selectedItemProperty().addListener((obs, oldTable, newTable) -> {
+            if (newTable != null) showTable(newTable);
+        });
+
+        queryArea.setOnKeyPressed(event -> {
+            if (event.getCode() == KeyCode.ENTER && event.isShortcutDown()) {
+                event.consume();
+                onRunQuery();
+            }
+        });
+    }
+
+    /**
+     * Opens the database in the background. Small databases are read into memory, larger ones are extracted
+     * to a temporary directory, which is removed again by {@link #close()}.
+     */
+    public void load(BackupFile file) {
+        this.databaseName = file.getFileName();
+
+        Task<OpenResult> task = new Task<>() {
+            @Override
+            protected OpenResult call() throws Exception {
+                File directory = Files.createTempDirectory("browser_db_").toFile();
+                directory.deleteOnExit();
+                try {
+                    Connection connection = file.backup.openDatabase(file.domain, file.relativePath, directory);
+                    if (connection == null) throw new SQLException("The database is not part of the backup");
+                    DatabaseBrowser browser = new DatabaseBrowser(connection);
+                    try {
+                        return new OpenResult(browser, directory, browser.listTables());
+                    } catch (SQLException e) {
+                        browser.close();
+                        throw e;
+                    }
+                } catch (Exception e) {
+                    deleteDirectory(directory);
+                    throw e;
+                }
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            OpenResult result = task.getValue();
+            browser = result.browser();
+            databaseDir = result.directory();
+            if (closed) {
+                close();
+                return;
+            }
+            tableListView.setItems(FXCollections.observableArrayList(result.tables()));
+            tableCountLabel.setText(result.tables().size() + (result.tables().size() == 1 ? " table" : " tables"));
+            placeholderLabel.setText(result.tables().isEmpty() ? "The database has no tables" : "Select a table");
+            setBusy(false);
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to open database {}", file.relativePath, task.getException());
+            placeholderLabel.setText("Failed to open the database: " + task.getException().getMessage());
+        });
+
+        run(task, "database-browser-open");
+    }
+
+    private void showTable(DatabaseBrowser.Table table) {
+        selectedTable = table;
+        shownQuery = null;
+        previousKeys.clear();
+        loadPage(null);
+    }
+
+    private void loadPage(Object[] key) {
+        DatabaseBrowser.Table table = selectedTable;
+        Task<DatabaseBrowser.Page> task = new Task<>() {
+            @Override
+            protected DatabaseBrowser.Page call() throws Exception {
+                return browser.page(table, key, PAGE_SIZE);
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            if (table != selectedTable || shownQuery != null) {
+                setBusy(false);
+                return;
+            }
+            DatabaseBrowser.Page page = task.getValue();
+            currentKey = key;
+            nextKey = page.nextKey();
+            showRows(page.columns(), page.rows());
+
+            long first = (long) previousKeys.size() * PAGE_SIZE + 1;
+            pageLabel.setText(page.rows().isEmpty() ? "No rows"
+                    : "Rows " + first + "\u2013" + (first + page.rows().size() - 1) + (nextKey == null ? "" : "+"));
+            showStatus(table.keyed() ? "" : "Paged by offset, as " + table.name() + " has no key", false);
+            setBusy(false);
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to read table {}", table.name(), task.getException());
+            showStatus("Failed to read " + table.name() + ": " + task.getException().getMessage(), true);
+            setBusy(false);
+        });
+
+        run(task, "database-browser-page");
+    }
+
+    @FXML
+    public void onNextPage() {
+        if (nextKey == null || selectedTable == null) return;
+        previousKeys.push(currentKey == null ? new Object[0] : currentKey);
+        loadPage(nextKey);
+    }
+
+    @FXML
+    public void onPreviousPage() {
+        if (previousKeys.isEmpty() || selectedTable == null) return;
+        Object[] key = previousKeys.pop();
+        loadPage(key.length == 0 ? null : key);
+    }
+
+    @FXML
+    public void onRunQuery() {
+        if (browser == null || runningTask != null) return;
+        String sql = queryArea.getText();
+        int rowLimit;
+        try {
+            rowLimit = Integer.parseInt(rowLimitField.getText().strip());
+            if (rowLimit <= 0) throw new NumberFormatException();
+        } catch (NumberFormatException e) {
+            showStatus("The row limit must be a positive number", true);
+            return;
+        }
+
+        Task<DatabaseBrowser.QueryResult> task = new Task<>() {
+            @Override
+            protected DatabaseBrowser.QueryResult call() throws Exception {
+                return browser.query(sql, rowLimit, QUERY_TIMEOUT_SECONDS);
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            DatabaseBrowser.QueryResult result = task.getValue();
+            tableListView.getSelectionModel().clearSelection();
+            selectedTable = null;
+            shownQuery = sql;
+            previousKeys.clear();
+            nextKey = null;
+            showRows(result.columns(), result.rows());
+            pageLabel.setText(result.rows().size() + (result.rows().size() == 1 ? " row" : " rows"));
+            showStatus(result.truncated() ? "Showing the first " + rowLimit + " rows, export to CSV for all of them" : "", false);
+            setBusy(false);
+        });
+
+        task.setOnFailed(event -> {
+            showStatus(task.getException().getMessage(), true);
+            setBusy(false);
+        });
+
+        run(task, "database-browser-query");
+    }
+
+    @FXML
+    public void onExportCsv() {
+        if (browser == null || runningTask != null || (selectedTable == null && shownQuery == null)) return;
+        DatabaseBrowser.Table table = selectedTable;
+        String query = shownQuery;
+
+        FileChooser chooser = new FileChooser();
+        chooser.setInitialFileName((table != null ? table.name() : "query") + ".csv");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV", "*.csv"));
+        File lastDirectory = PreferencesController.getLastExportDirectory();
+        if (lastDirectory != null) chooser.setInitialDirectory(lastDirectory);
+        File destination = chooser.showSaveDialog(rowsTableView.getScene().getWindow());
+        if (destination == null) return;
+        PreferencesController.setLastExportDirectory(destination.getParentFile());
+
+        Task<Long> task = new Task<>() {
+            @Override
+            protected Long call() throws Exception {
+                try (Writer writer = Files.newBufferedWriter(destination.toPath(), StandardCharsets.UTF_8)) {
+                    return table != null ? browser.exportCsv(table, writer) : browser.exportCsv(query, writer);
+                }
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            showStatus("Exported " + task.getValue() + " rows to " + destination.getName(), false);
+            setBusy(false);
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to export CSV", task.getException());
+            showStatus("Export failed: " + task.getException().getMessage(), true);
+            setBusy(false);
+        });
+
+        showStatus("Exporting...", false);
+        run(task, "database-browser-export");
+    }
+
+    private void showRows(List<String> columns, List<Object[]> rows) {
+        rowsTableView.getColumns().clear();
+        for (int i = 0; i < columns.size(); i++) {
+            int index = i;
+            TableColumn<Object[], String> column = new TableColumn<>(columns.get(i));
+            column.setCellValueFactory(cell ->
+                    new ReadOnlyStringWrapper(DatabaseBrowser.displayValue(cell.getValue()[index])));
+            // Sorting would only reorder the current page
+            column.setSortable(false);
+            rowsTableView.getColumns().add(column);
+        }
+        rowsTableView.setItems(FXCollections.observableArrayList(rows));
+        rowsTableView.scrollTo(0);
+    }
+
+    private void showStatus(String text, boolean error) {
+        statusLabel.setText(text);
+        statusLabel.setStyle(error ? "-fx-text-fill: #d96f6f;" : null);
+    }
+
+    private void run(Task<?> task, String threadName) {
+        runningTask = task;
+        setBusy(true);
+        Thread thread = new Thread(task, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void setBusy(boolean busy) {
+        if (!busy) runningTask = null;
+        boolean ready = !busy && browser != null;
+        tableListView.setDisable(busy);
+        runQueryButton.setDisable(!ready);
+        exportButton.setDisable(!ready || (selectedTable == null && shownQuery == null));
+        previousPageButton.setDisable(!ready || selectedTable == null || previousKeys.isEmpty());
+        nextPageButton.setDisable(!ready || selectedTable == null || nextKey == null);
+    }
+
+    /**
+     * Stops a running export and closes the database once its current statement has finished.
+     */
+    public void close() {
+        closed = true;
+        // Opening is left to finish, its result is closed as soon as it arrives
+        if (runningTask != null && browser != null) runningTask.cancel(true);
+
+        DatabaseBrowser closing = browser;
+        File directory = databaseDir;
+        browser = null;
+        databaseDir = null;
+        if (closing == null) return;
+
+        Thread thread = new Thread(() -> {
+            try {
+                closing.close();
+            } catch (SQLException e) {
+                logger.warn("Failed to close database {}: {}", databaseName, e.getMessage());
+            }
+            deleteDirectory(directory);
+        }, "database-browser-close");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void deleteDirectory(File directory) {
+        if (directory == null) return;
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+}
@@ -17,6 +17,7 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import javafx.stage.WindowEvent;
 import me.maxih.itunes_backup_explorer.ITunesBackupExplorer;
+import me.maxih.itunes_backup_explorer.api.WhatsAppExporter;
 
 import java.util.Optional;
 
@@ -24,6 +25,8 @@ public class Dialogs {
 
     public record EncryptionChoice(boolean enable, boolean disableAfter, char[] password) {}
 
+    public record ExportChoice(WhatsAppExporter.Format format, boolean includeMedia) {}
+
     public static Optional<char[]> askPassword() {
         Dialog<char[]> dialog = new Dialog<>();
         dialog.setTitle("Enter the password");
@@ -126,6 +129,38 @@ public class Dialogs {
         return dialog.showAndWait();
     }
 
+    public static Optional<ExportChoice> askWhatsAppExport(String headerText) {
+        Dialog<ExportChoice> dialog = new Dialog<>();
+        dialog.setTitle("Export");
+        dialog.setHeaderText(headerText);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        applyTheme(dialog.getDialogPane());
+        ((Stage) dialog.getDialogPane().getScene().getWindow()).getIcons().add(ITunesBackupExplorer.APP_ICON);
+
+        ToggleGroup formatGroup = new ToggleGroup();
+        RadioButton text = new RadioButton("Plain text (.txt)");
+        text.setUserData(WhatsAppExporter.Format.TXT);
+        RadioButton jsonLines = new RadioButton("JSON Lines (.jsonl)");
+        jsonLines.setUserData(WhatsAppExporter.Format.JSONL);
+        RadioButton html = new RadioButton("HTML page (.html)");
+        html.setUserData(WhatsAppExporter.Format.HTML);
+        formatGroup.getToggles().addAll(text, jsonLines, html);
+        text.setSelected(true);
+
+        CheckBox includeMedia = new CheckBox("Copy media files next to the export");
+
+        VBox content = new VBox(8, text, jsonLines, html, new Separator(), includeMedia);
+        content.setAlignment(Pos.TOP_LEFT);
+        content.setPadding(new Insets(5, 5, 5, 5));
+        dialog.getDialogPane().setContent(content);
+
+        dialog.setResultConverter(btn -> btn == ButtonType.OK
+                ? new ExportChoice((WhatsAppExporter.Format) formatGroup.getSelectedToggle().getUserData(), includeMedia.isSelected())
+                : null);
+
+        return dialog.showAndWait();
+    }
+
     public static Alert getAlert(Alert.AlertType type, String message, ButtonType... buttonTypes) {
         Alert alert = new Alert(type, message, buttonTypes);
         applyTheme(alert.getDialogPane());
@@ -1,12 +1,17 @@
 package me.maxih.itunes_backup_explorer.ui;
 
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
+import javafx.stage.Stage;
 import javafx.stage.Window;
+import me.maxih.itunes_backup_explorer.ITunesBackupExplorer;
 import me.maxih.itunes_backup_explorer.api.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -93,6 +98,47 @@ public class FileActions {
         }
     }
 
+    public static void browseDatabase(BackupFile file, Window ownerWindow) {
+        FXMLLoader fxmlLoader = new FXMLLoader(ITunesBackupExplorer.class.getResource("database_browser.fxml"));
+        try {
+            Stage browserWindow = showFileWindow(fxmlLoader, file, ownerWindow, 1000, 640);
+            DatabaseBrowserController controller = fxmlLoader.getController();
+            browserWindow.setOnHidden(event -> controller.close());
+            controller.load(file);
+        } catch (IOException e) {
+            logger.error("Failed to open database browser", e);
+            Dialogs.showAlert(Alert.AlertType.ERROR, e.getMessage(), ButtonType.OK);
+        }
+    }
+
+    public static void viewPlist(BackupFile file, Window ownerWindow) {
+        FXMLLoader fxmlLoader = new FXMLLoader(ITunesBackupExplorer.class.getResource("plist_viewer.fxml"));
+        try {
+            showFileWindow(fxmlLoader, file, ownerWindow, 900, 640);
+            PlistViewerController controller = fxmlLoader.getController();
+            controller.load(file);
+        } catch (IOException e) {
+            logger.error("Failed to open plist viewer", e);
+            Dialogs.showAlert(Alert.AlertType.ERROR, e.getMessage(), ButtonType.OK);
+        }
+    }
+
+    /**
+     * Shows a window for one file of the backup, themed like the main window
+     */
+    private static Stage showFileWindow(FXMLLoader fxmlLoader, BackupFile file, Window ownerWindow, double width, double height) throws IOException {
+        Parent root = fxmlLoader.load();
+        root.getStyleClass().add("Light".equalsIgnoreCase(PreferencesController.getTheme()) ? "theme-light" : "theme-dark");
+
+        Stage window = new Stage();
+        window.initOwner(ownerWindow);
+        window.setScene(new Scene(root, width, height));
+        window.setTitle(file.getFileName() + " \u2013 " + file.domain);
+        window.getIcons().add(ITunesBackupExplorer.APP_ICON);
+        window.show();
+        return window;
+    }
+
     public static void showSymlinkTarget(BackupFile file) {
         String target = file.getSymlinkTarget();
 
@@ -170,6 +216,12 @@ public class FileActions {
         MenuItem extractFileItem = new MenuItem("Extract file...");
         extractFileItem.setOnAction(event -> FileActions.extractFile(file, ownerWindow));
 
+        MenuItem browseDatabaseItem = new MenuItem("Browse database...");
+        browseDatabaseItem.setOnAction(event -> FileActions.browseDatabase(file, ownerWindow));
+
+        MenuItem viewPlistItem = new MenuItem("View plist...");
+        viewPlistItem.setOnAction(event -> FileActions.viewPlist(file, ownerWindow));
+
         MenuItem replaceItem = new MenuItem("Replace...");
         replaceItem.setOnAction(event -> FileActions.replaceFile(file, ownerWindow));
 
@@ -188,6 +240,10 @@ public class FileActions {
 
         if (file.getFileType() == BackupFile.FileType.DIRECTORY)
             menu.getItems().addAll(insertFilesItem, deleteItem);
+        else if (file.getFileType() == BackupFile.FileType.FILE && DatabaseBrowser.isDatabase(file))
+            menu.getItems().addAll(openFileItem, browseDatabaseItem, extractFileItem, replaceItem, deleteItem);
+        else if (file.getFileType() == BackupFile.FileType.FILE && file.getFileExtension().equalsIgnoreCase("plist"))
+            menu.getItems().addAll(openFileItem, viewPlistItem, extractFileItem, replaceItem, deleteItem);
         else if (file.getFileType() == BackupFile.FileType.FILE)
             menu.getItems().addAll(openFileItem, extractFileItem, replaceItem, deleteItem);
         else if (file.getFileType() == BackupFile.FileType.SYMBOLIC_LINK)
@@ -1,5 +1,6 @@
 package me.maxih.itunes_backup_explorer.ui;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.concurrent.Task;
@@ -10,9 +11,9 @@ import javafx.scene.control.*;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
 import javafx.stage.DirectoryChooser;
+import javafx.util.Duration;
 import me.maxih.itunes_backup_explorer.api.*;
 import me.maxih.itunes_backup_explorer.util.BackupPathUtils;
-import me.maxih.itunes_backup_explorer.util.CollectionUtils;
 import me.maxih.itunes_backup_explorer.util.FileSize;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +24,7 @@ import java.nio.channels.ClosedByInterruptException;
 import java.nio.file.FileAlreadyExistsException;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -31,8 +33,12 @@ public class FilesTabController {
 
     private ITunesBackup selectedBackup;
     private Task<TreeItem<BackupFileEntry>> loadDomainFilesTask;
+    private Task<TreeItem<BackupFileEntry>> refreshTreeTask;
+    private final PauseTransition filterDebounce = new PauseTransition(Duration.millis(250));
     private List<BackupFile> currentDomainFiles = Collections.emptyList();
     private boolean fileCountUpdatePending = false;
+    // Set when the filter or sort changes while a domain is still loading with the previous settings
+    private boolean treeRefreshPending = false;
 
     @FXML
     SplitPane splitPane;
@@ -81,7 +87,8 @@ public class FilesTabController {
         ));
         sortComboBox.setValue("Path (A-Z)");
 
-        fileFilterField.textProperty().addListener((obs, oldValue, newValue) -> refreshCurrentDomainTree());
+        filterDebounce.setOnFinished(event -> refreshCurrentDomainTree());
+        fileFilterField.textProperty().addListener((obs, oldValue, newValue) -> filterDebounce.playFromStart());
         sortComboBox.valueProperty().addListener((obs, oldValue, newValue) -> refreshCurrentDomainTree());
         filesOnlyFilterCheckBox.selectedProperty().addListener((obs, oldValue, newValue) -> refreshCurrentDomainTree());
 
@@ -133,11 +140,14 @@ public class FilesTabController {
         domainsTreeView.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
             if (newValue == null || newValue.getValue() == null || newValue.getValue().getFile().isEmpty()) return;
             if (loadDomainFilesTask != null) loadDomainFilesTask.cancel(true);
+            cancelTreeRefresh();
+            treeRefreshPending = false;
 
             domainsTreeView.setCursor(Cursor.WAIT);
             filesTreeView.setCursor(Cursor.WAIT);
 
             BackupFile domainRoot = newValue.getValue().getFile().get();
+            TreeFilter filter = currentTreeFilter();
             loadDomainFilesTask = new Task<>() {
                 @Override
                 protected TreeItem<BackupFileEntry> call() {
@@ -145,7 +155,7 @@ public class FilesTabController {
                     try {
                         List<BackupFile> result = selectedBackup.queryDomainFiles(false, domainRoot.domain);
                         currentDomainFiles = result;
-                        buildFilteredTree(root, result);
+                        buildFilteredTree(root, result, filter, this::isCancelled);
                     } catch (DatabaseConnectionException | BackupReadException e) {
                         logger.error("Failed to load domain files", e);
                     }
@@ -160,6 +170,11 @@ public class FilesTabController {
                 filesTreeView.setCursor(Cursor.DEFAULT);
                 updateFileSelectionCount();
                 setFileControlsEnabled(true);
+
+                if (treeRefreshPending) {
+                    treeRefreshPending = false;
+                    if (!currentTreeFilter().equals(filter)) refreshCurrentDomainTree();
+                }
             });
 
             new Thread(loadDomainFilesTask).start();
@@ -256,43 +271,44 @@ public class FilesTabController {
             levels.get(level).add(treeItem);
         }
 
-        List<TreeItem<BackupFileEntry>> parents = new ArrayList<>();
-        parents.add(root);
+        Map<String, TreeItem<BackupFileEntry>> parents = indexDirectories(List.of(root));
         for (int currentLevel = 1; currentLevel <= maxLevel; currentLevel++) {
             List<TreeItem<BackupFileEntry>> children = levels.get(currentLevel);
             if (children == null) children = new ArrayList<>();
 
             for (TreeItem<BackupFileEntry> child : children) {
                 BackupFileEntry childEntry = child.getValue();
+                TreeItem<BackupFileEntry> parent = parents.get(childEntry.getDomain() + "-" + childEntry.getParentPath());
 
-                Optional<TreeItem<BackupFileEntry>> parent = CollectionUtils.find(parents, parentCandidate -> {
-                    BackupFileEntry parentEntry = parentCandidate.getValue();
-
-                    if (parentEntry.getFile().isEmpty()) return false;
-                    BackupFile parentFile = parentEntry.getFile().get();
-
-                    return parentFile.getFileType() == BackupFile.FileType.DIRECTORY
-                            && parentFile.domain.equals(childEntry.getDomain())
-                            && childEntry.getParentPath().equals(parentFile.relativePath);
-                });
-
-                if (parent.isPresent()) {
-                    parent.get().getChildren().add(child);
+                if (parent != null) {
+                    parent.getChildren().add(child);
                 } else {
                     throw new BackupReadException("Missing parent directory: " + childEntry.getDomain() + "-" + BackupPathUtils.getParentPath(childEntry.getRelativePath()));
                 }
             }
 
-            parents = children;
+            parents = indexDirectories(children);
         }
     }
 
+    private static Map<String, TreeItem<BackupFileEntry>> indexDirectories(List<TreeItem<BackupFileEntry>> items) {
+        Map<String, TreeItem<BackupFileEntry>> directories = new HashMap<>();
+        for (TreeItem<BackupFileEntry> item : items) {
+            BackupFile file = item.getValue().getFile().orElse(null);
+            if (file == null || file.getFileType() != BackupFile.FileType.DIRECTORY) continue;
+            directories.putIfAbsent(file.domain + "-" + file.relativePath, item);
+        }
+        return directories;
+    }
+
     public void tabShown(ITunesBackup backup) {
         if (backup == this.selectedBackup && this.domainsTreeView.getRoot() != null) return;
 
         this.selectedBackup = backup;
 
         if (this.loadDomainFilesTask != null) this.loadDomainFilesTask.cancel(true);
+        cancelTreeRefresh();
+        this.treeRefreshPending = false;
         this.filesTreeView.setRoot(null);
         this.currentDomainFiles = Collections.emptyList();
         this.fileFilterField.clear();
@@ -363,32 +379,82 @@ public class FilesTabController {
     }
 
     private void refreshCurrentDomainTree() {
+        filterDebounce.stop();
+
+        if (loadDomainFilesTask != null && loadDomainFilesTask.isRunning()) {
+            treeRefreshPending = true;
+            return;
+        }
+
         TreeItem<BackupFileEntry> currentRoot = filesTreeView.getRoot();
         if (currentRoot == null || currentRoot.getValue() == null || currentRoot.getValue().getFile().isEmpty()) return;
 
-        TreeItem<BackupFileEntry> newRoot = new TreeItem<>(new BackupFileEntry(currentRoot.getValue().getFile().get()));
-        try {
-            buildFilteredTree(newRoot, currentDomainFiles);
-        } catch (BackupReadException e) {
-            logger.error("Failed to apply local file filter", e);
+        cancelTreeRefresh();
+
+        BackupFile domainRoot = currentRoot.getValue().getFile().get();
+        List<BackupFile> source = currentDomainFiles;
+        TreeFilter filter = currentTreeFilter();
+
+        Task<TreeItem<BackupFileEntry>> task = new Task<>() {
+            @Override
+            protected TreeItem<BackupFileEntry> call() throws BackupReadException {
+                TreeItem<BackupFileEntry> newRoot = new TreeItem<>(new BackupFileEntry(domainRoot));
+                buildFilteredTree(newRoot, source, filter, this::isCancelled);
+                return newRoot;
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            if (task != refreshTreeTask || task.getValue() == null) return;
+            refreshTreeTask = null;
+            filesTreeView.setCursor(Cursor.DEFAULT);
+            filesTreeView.setRoot(task.getValue());
+            updateFileSelectionCount();
+        });
+        task.setOnFailed(event -> {
+            if (task != refreshTreeTask) return;
+            refreshTreeTask = null;
+            filesTreeView.setCursor(Cursor.DEFAULT);
+            logger.error("Failed to apply local file filter", task.getException());
+        });
+
+        refreshTreeTask = task;
+        filesTreeView.setCursor(Cursor.WAIT);
+
+        Thread thread = new Thread(task, "files-tree-filter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void cancelTreeRefresh() {
+        filterDebounce.stop();
+        if (refreshTreeTask != null) {
+            refreshTreeTask.cancel(true);
+            refreshTreeTask = null;
+            filesTreeView.setCursor(Cursor.DEFAULT);
         }
+    }
 
-        filesTreeView.setRoot(newRoot);
-        updateFileSelectionCount();
+    private TreeFilter currentTreeFilter() {
+        String query = fileFilterField.getText() == null ? "" : fileFilterField.getText().trim().toLowerCase(Locale.ROOT);
+        return new TreeFilter(query, filesOnlyFilterCheckBox.isSelected(), sortComboBox.getValue());
     }
 
-    private void buildFilteredTree(TreeItem<BackupFileEntry> root, List<BackupFile> source) throws BackupReadException {
-        List<BackupFile> filtered = applyLocalFilter(source);
+    private void buildFilteredTree(TreeItem<BackupFileEntry> root, List<BackupFile> source, TreeFilter filter, BooleanSupplier cancelled) throws BackupReadException {
+        List<BackupFile> filtered = applyLocalFilter(source, filter);
+        if (cancelled.getAsBoolean()) return;
         List<BackupFileEntry> entries = filtered.stream().map(BackupFileEntry::new).collect(Collectors.toList());
+        if (cancelled.getAsBoolean()) return;
         insertAsTree(root, entries);
-        sortTree(root, getTreeComparator());
+        if (cancelled.getAsBoolean()) return;
+        sortTree(root, getTreeComparator(filter.sortMode()), cancelled);
     }
 
-    private List<BackupFile> applyLocalFilter(List<BackupFile> source) {
+    private static List<BackupFile> applyLocalFilter(List<BackupFile> source, TreeFilter filter) {
         if (source == null) return Collections.emptyList();
 
-        String query = fileFilterField.getText() == null ? "" : fileFilterField.getText().trim().toLowerCase(Locale.ROOT);
-        boolean filesOnly = filesOnlyFilterCheckBox.isSelected();
+        String query = filter.query();
+        boolean filesOnly = filter.filesOnly();
 
         if (query.isEmpty() && !filesOnly) return new ArrayList<>(source);
 
@@ -418,10 +484,8 @@ public class FilesTabController {
         return new ArrayList<>(visible);
     }
 
-    private Comparator<TreeItem<BackupFileEntry>> getTreeComparator() {
-        String mode = sortComboBox.getValue();
-
-        Comparator<TreeItem<BackupFileEntry>> byPath = Comparator.comparing(item -> item.getValue().getRelativePath().toLowerCase(Locale.ROOT));
+    private static Comparator<TreeItem<BackupFileEntry>> getTreeComparator(String mode) {
+        Comparator<TreeItem<BackupFileEntry>> byPath = Comparator.comparing(item -> item.getValue().getSortKey());
         Comparator<TreeItem<BackupFileEntry>> bySize = Comparator.comparingLong(item -> item.getValue().getSize());
         Comparator<TreeItem<BackupFileEntry>> byType = Comparator.<TreeItem<BackupFileEntry>>comparingInt(item -> {
             BackupFile file = item.getValue().getFile().orElse(null);
@@ -440,14 +504,17 @@ public class FilesTabController {
         return byPath;
     }
 
-    private void sortTree(TreeItem<BackupFileEntry> parent, Comparator<TreeItem<BackupFileEntry>> comparator) {
-        if (parent == null || parent.isLeaf()) return;
+    private static void sortTree(TreeItem<BackupFileEntry> parent, Comparator<TreeItem<BackupFileEntry>> comparator, BooleanSupplier cancelled) {
+        if (parent == null || parent.isLeaf() || cancelled.getAsBoolean()) return;
         parent.getChildren().sort(comparator);
         for (TreeItem<BackupFileEntry> child : parent.getChildren()) {
-            sortTree(child, comparator);
+            sortTree(child, comparator, cancelled);
         }
     }
 
+    private record TreeFilter(String query, boolean filesOnly, String sortMode) {
+    }
+
     private void updateDomainSelectionCount() {
         if (domainsTreeView.getRoot() == null) {
             selectedDomainsCount.setText("0 domains selected");
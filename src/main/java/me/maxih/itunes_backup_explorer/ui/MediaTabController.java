@@ -1,18 +1,24 @@
 package me.maxih.itunes_backup_explorer.ui;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
+import javafx.scene.control.skin.VirtualFlow;
 import javafx.scene.image.ImageView;
-import javafx.scene.layout.FlowPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
+import javafx.util.Duration;
+import javafx.util.StringConverter;
 import me.maxih.itunes_backup_explorer.api.BackupFile;
 import me.maxih.itunes_backup_explorer.api.BackupReadException;
 import me.maxih.itunes_backup_explorer.api.ITunesBackup;
+import me.maxih.itunes_backup_explorer.api.MediaAlbum;
+import me.maxih.itunes_backup_explorer.api.MediaAsset;
+import me.maxih.itunes_backup_explorer.api.MediaCatalog;
 import me.maxih.itunes_backup_explorer.api.NotUnlockedException;
 import me.maxih.itunes_backup_explorer.api.UnsupportedCryptoException;
 import me.maxih.itunes_backup_explorer.util.FileSize;
@@ -25,51 +31,58 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public class MediaTabController {
     private static final Logger logger = LoggerFactory.getLogger(MediaTabController.class);
 
-    private static final int PAGE_SIZE = 100;
     private static final int THUMB_SIZE = 90;
-
-    private static final Set<String> PHOTO_EXTENSIONS = Set.of(
-            "jpg", "jpeg", "png", "heic", "heif", "gif", "bmp", "tiff"
-    );
-    private static final Set<String> VIDEO_EXTENSIONS = Set.of(
-            "mov", "mp4", "m4v", "avi"
-    );
+    private static final int TILE_WIDTH = THUMB_SIZE + 20;
+    private static final int TILE_GAP = 10;
+    private static final int ROW_HEIGHT = THUMB_SIZE + 44;
+    private static final int GRID_PADDING = 28;
+    private static final int SCROLLBAR_ALLOWANCE = 16;
+    private static final int PREFETCH_ROWS = 3;
+    private static final DateTimeFormatter DATE_FMT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+    private static final MediaAlbum ALL_ALBUMS = new MediaAlbum(-1, "All albums", 0);
 
     private ITunesBackup selectedBackup;
-    private List<BackupFile> allMedia = new ArrayList<>();
-    private List<BackupFile> filteredMedia = new ArrayList<>();
-    private int currentPage = 0;
-    private BackupFile selectedFile;
-    private VBox selectedTile;
-
-    @FXML FlowPane mediaGrid;
-    @FXML ScrollPane gridScrollPane;
+    // Catalogs of the backups opened in this session, so switching back does not read Photos.sqlite again
+    private final Map<ITunesBackup, MediaCatalog> catalogs = new WeakHashMap<>();
+    private MediaCatalog catalog;
+    private List<MediaAsset> filteredMedia = new ArrayList<>();
+    private int columns = 1;
+    private MediaAsset selectedAsset;
+    private MediaTile selectedTile;
+    private VirtualFlow<?> gridFlow;
+    private final PauseTransition prefetchDebounce = new PauseTransition(Duration.millis(150));
+    private final List<ThumbnailService.ThumbnailRequest> prefetchRequests = new ArrayList<>();
+    private ThumbnailService.ThumbnailRequest previewRequest;
+
+    @FXML ListView<List<MediaAsset>> mediaGrid;
     @FXML ImageView previewImage;
     @FXML Label fileNameLabel;
     @FXML Label fileSizeLabel;
     @FXML Label fileDateLabel;
     @FXML Label fileDomainLabel;
     @FXML Label filePathLabel;
-    @FXML Button prevPageBtn;
-    @FXML Button nextPageBtn;
     @FXML Button saveBtn;
     @FXML Button openBtn;
     @FXML Button exportAllBtn;
-    @FXML Label pageInfoLabel;
+    @FXML Label rangeInfoLabel;
     @FXML Label resultsCountLabel;
     @FXML ToggleGroup filterGroup;
     @FXML ToggleButton filterAll;
     @FXML ToggleButton filterPhotos;
     @FXML ToggleButton filterVideos;
+    @FXML ToggleButton filterFavorites;
+    @FXML ComboBox<MediaAlbum> albumBox;
+    @FXML ComboBox<String> sortBox;
     @FXML SplitPane splitPane;
     @FXML StackPane previewContainer;
 
@@ -82,6 +95,27 @@ public class MediaTabController {
             }
             applyFilter();
         });
+        filterFavorites.selectedProperty().addListener((obs, oldVal, newVal) -> applyFilter());
+
+        albumBox.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(MediaAlbum album) {
+                if (album == null) return "";
+                return album.id() < 0 ? album.title() : album.toString();
+            }
+
+            @Override
+            public MediaAlbum fromString(String string) {
+                return null;
+            }
+        });
+        albumBox.getItems().setAll(ALL_ALBUMS);
+        albumBox.getSelectionModel().select(ALL_ALBUMS);
+        albumBox.valueProperty().addListener((obs, oldVal, newVal) -> applyFilter());
+
+        sortBox.getItems().setAll("Newest first", "Oldest first");
+        sortBox.getSelectionModel().selectFirst();
+        sortBox.valueProperty().addListener((obs, oldVal, newVal) -> applyFilter());
 
         previewImage.fitWidthProperty().bind(
                 previewContainer.widthProperty().subtract(28)
@@ -90,25 +124,19 @@ public class MediaTabController {
                 previewContainer.heightProperty().subtract(28)
         );
 
-        gridScrollPane.viewportBoundsProperty().addListener((obs, oldBounds, newBounds) -> {
-            double width = newBounds.getWidth();
-            if (width > 0) {
-                mediaGrid.setPrefWrapLength(width);
-                mediaGrid.requestLayout();
-            }
-        });
-
-        Platform.runLater(() -> {
-            if (splitPane.getDividers().size() > 0) {
-                splitPane.getDividers().get(0).positionProperty().addListener((obs, oldPos, newPos) -> {
-                    double width = gridScrollPane.getViewportBounds().getWidth();
-                    if (width > 0) {
-                        mediaGrid.setPrefWrapLength(width);
-                        mediaGrid.requestLayout();
-                    }
+        mediaGrid.setFixedCellSize(ROW_HEIGHT);
+        mediaGrid.setCellFactory(view -> new MediaRowCell());
+        mediaGrid.widthProperty().addListener((obs, oldWidth, newWidth) -> updateColumns());
+        mediaGrid.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+            gridFlow = (VirtualFlow<?>) mediaGrid.lookup(".virtual-flow");
+            if (gridFlow != null) {
+                gridFlow.positionProperty().addListener((o, oldPos, newPos) -> {
+                    updateRangeInfo();
+                    prefetchDebounce.playFromStart();
                 });
             }
         });
+        prefetchDebounce.setOnFinished(event -> prefetchAroundViewport());
 
         Thread toolsCheck = new Thread(MediaConverter::detectTools, "media-tools-check");
         toolsCheck.setDaemon(true);
@@ -116,52 +144,37 @@ public class MediaTabController {
     }
 
     public void tabShown(ITunesBackup backup) {
-        Platform.runLater(() -> {
-            double width = gridScrollPane.getViewportBounds().getWidth();
-            if (width > 0) {
-                mediaGrid.setPrefWrapLength(width);
-                mediaGrid.requestLayout();
-            }
-        });
+        Platform.runLater(this::updateColumns);
 
-        if (backup == this.selectedBackup && !this.allMedia.isEmpty()) return;
+        if (backup == this.selectedBackup && this.catalog != null) return;
 
         this.selectedBackup = backup;
-        this.allMedia.clear();
-        this.filteredMedia.clear();
-        this.selectedFile = null;
+        this.catalog = null;
+        this.filteredMedia = new ArrayList<>();
+        this.selectedAsset = null;
         this.selectedTile = null;
+        cancelPrefetch();
+        this.mediaGrid.getItems().clear();
         clearPreview();
         ThumbnailService.getInstance().clearCache();
 
-        javafx.concurrent.Task<List<BackupFile>> task = new javafx.concurrent.Task<>() {
+        MediaCatalog cached = catalogs.get(backup);
+        if (cached != null) {
+            showCatalog(cached);
+            return;
+        }
+        showCatalog(null);
+
+        javafx.concurrent.Task<MediaCatalog> task = new javafx.concurrent.Task<>() {
             @Override
-            protected List<BackupFile> call() throws Exception {
-                List<String> photoPatterns = Arrays.asList(
-                        "%.jpg", "%.jpeg", "%.png", "%.heic", "%.heif", "%.gif", "%.bmp", "%.tiff"
-                );
-                List<String> videoPatterns = Arrays.asList(
-                        "%.mov", "%.mp4", "%.m4v", "%.avi"
-                );
-
-                List<String> allPatterns = new ArrayList<>(photoPatterns);
-                allPatterns.addAll(videoPatterns);
-
-                List<BackupFile> cameraRoll = backup.searchFilesMultiPattern("CameraRollDomain", allPatterns);
-                List<BackupFile> mediaDomain = backup.searchFilesMultiPattern("MediaDomain", allPatterns);
-
-                List<BackupFile> combined = new ArrayList<>(cameraRoll);
-                combined.addAll(mediaDomain);
-
-                return combined.stream()
-                        .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
-                        .collect(Collectors.toList());
+            protected MediaCatalog call() throws Exception {
+                return MediaCatalog.build(backup);
             }
         };
 
         task.setOnSucceeded(event -> {
-            allMedia = task.getValue();
-            applyFilter();
+            catalogs.put(backup, task.getValue());
+            if (backup == selectedBackup) showCatalog(task.getValue());
         });
 
         task.setOnFailed(event -> {
@@ -172,118 +185,136 @@ public class MediaTabController {
         new Thread(task).start();
     }
 
+    private void showCatalog(MediaCatalog newCatalog) {
+        catalog = newCatalog;
+
+        MediaAlbum album = albumBox.getValue();
+        List<MediaAlbum> albums = new ArrayList<>();
+        albums.add(ALL_ALBUMS);
+        if (newCatalog != null) albums.addAll(newCatalog.getAlbums());
+        albumBox.getItems().setAll(albums);
+        albumBox.getSelectionModel().select(album != null && albums.contains(album) ? album : ALL_ALBUMS);
+        albumBox.setDisable(albums.size() == 1);
+
+        applyFilter();
+    }
+
     private void applyFilter() {
         Toggle selected = filterGroup.getSelectedToggle();
-
-        if (selected == filterPhotos) {
-            filteredMedia = allMedia.stream()
-                    .filter(f -> isPhoto(f.getFileExtension()))
-                    .collect(Collectors.toList());
-        } else if (selected == filterVideos) {
-            filteredMedia = allMedia.stream()
-                    .filter(f -> isVideo(f.getFileExtension()))
-                    .collect(Collectors.toList());
-        } else {
-            filteredMedia = new ArrayList<>(allMedia);
-        }
+        MediaCatalog.Kind kind = selected == filterPhotos ? MediaCatalog.Kind.PHOTOS
+                : selected == filterVideos ? MediaCatalog.Kind.VIDEOS
+                : MediaCatalog.Kind.ALL;
+        MediaAlbum album = albumBox.getValue();
+
+        filteredMedia = catalog == null ? new ArrayList<>() : catalog.query(new MediaCatalog.Filter(
+                kind,
+                album != null ? album.id() : -1,
+                filterFavorites.isSelected(),
+                sortBox.getSelectionModel().getSelectedIndex() == 1
+        ));
 
         resultsCountLabel.setText(filteredMedia.size() + " items");
-        currentPage = 0;
-        selectedFile = null;
+        selectedAsset = null;
         selectedTile = null;
         clearPreview();
-        showPage(currentPage);
+        rebuildRows(0);
     }
 
-    private void showPage(int page) {
-        mediaGrid.getChildren().clear();
-        gridScrollPane.setVvalue(0);
-
-        int totalPages = Math.max(1, (int) Math.ceil((double) filteredMedia.size() / PAGE_SIZE));
-        if (page < 0) page = 0;
-        if (page >= totalPages) page = totalPages - 1;
-        currentPage = page;
-
-        int start = page * PAGE_SIZE;
-        int end = Math.min(start + PAGE_SIZE, filteredMedia.size());
+    private void updateColumns() {
+        double available = mediaGrid.getWidth() - GRID_PADDING - SCROLLBAR_ALLOWANCE;
+        if (available <= 0) return;
 
-        pageInfoLabel.setText("Page " + (page + 1) + " of " + totalPages);
-        prevPageBtn.setDisable(page == 0);
-        nextPageBtn.setDisable(page >= totalPages - 1);
+        int fitting = Math.max(1, (int) ((available + TILE_GAP) / (TILE_WIDTH + TILE_GAP)));
+        if (fitting == columns) return;
 
-        if (filteredMedia.isEmpty()) return;
-
-        List<BackupFile> pageItems = filteredMedia.subList(start, end);
+        int firstItem = gridFlow != null && gridFlow.getFirstVisibleCell() != null
+                ? gridFlow.getFirstVisibleCell().getIndex() * columns
+                : 0;
+        columns = fitting;
+        rebuildRows(firstItem);
+    }
 
-        for (BackupFile file : pageItems) {
-            VBox tile = createTile(file);
-            mediaGrid.getChildren().add(tile);
+    private void rebuildRows(int firstItem) {
+        List<List<MediaAsset>> rows = new ArrayList<>((filteredMedia.size() + columns - 1) / columns);
+        for (int start = 0; start < filteredMedia.size(); start += columns) {
+            rows.add(filteredMedia.subList(start, Math.min(start + columns, filteredMedia.size())));
         }
 
-        Platform.runLater(() -> mediaGrid.requestLayout());
+        mediaGrid.getItems().setAll(rows);
+        mediaGrid.scrollTo(firstItem / columns);
+        updateRangeInfo();
     }
 
-    private VBox createTile(BackupFile file) {
-        ImageView thumbView = new ImageView();
-        thumbView.setFitWidth(THUMB_SIZE);
-        thumbView.setFitHeight(THUMB_SIZE);
-        thumbView.setPreserveRatio(true);
-        thumbView.setSmooth(true);
-
-        String ext = file.getFileExtension();
-        if (ThumbnailService.isVideo(ext)) {
-            thumbView.setImage(ThumbnailService.getVideoPlaceholder());
-        } else {
-            thumbView.setImage(ThumbnailService.getPhotoPlaceholder());
+    private void updateRangeInfo() {
+        if (filteredMedia.isEmpty()) {
+            rangeInfoLabel.setText("0 of 0");
+            return;
+        }
+        if (gridFlow == null || gridFlow.getFirstVisibleCell() == null || gridFlow.getLastVisibleCell() == null) {
+            rangeInfoLabel.setText(filteredMedia.size() + " items");
+            return;
         }
 
-        ThumbnailService.getInstance().loadThumbnail(file, THUMB_SIZE, thumbView::setImage);
+        int first = gridFlow.getFirstVisibleCell().getIndex() * columns + 1;
+        int last = Math.min(filteredMedia.size(), (gridFlow.getLastVisibleCell().getIndex() + 1) * columns);
+        rangeInfoLabel.setText(first + "–" + last + " of " + filteredMedia.size());
+    }
 
-        StackPane thumbContainer = new StackPane(thumbView);
-        thumbContainer.setPrefSize(THUMB_SIZE, THUMB_SIZE);
-        thumbContainer.setMinSize(THUMB_SIZE, THUMB_SIZE);
-        thumbContainer.setMaxSize(THUMB_SIZE, THUMB_SIZE);
-        thumbContainer.getStyleClass().add("media-thumbnail");
+    private void prefetchAroundViewport() {
+        cancelPrefetch();
+        if (gridFlow == null || gridFlow.getFirstVisibleCell() == null || gridFlow.getLastVisibleCell() == null) return;
 
-        Label nameLabel = new Label(file.getFileName());
-        nameLabel.getStyleClass().add("media-label");
-        nameLabel.setMaxWidth(THUMB_SIZE + 10);
-        nameLabel.setAlignment(Pos.CENTER);
+        List<List<MediaAsset>> rows = mediaGrid.getItems();
+        int first = gridFlow.getFirstVisibleCell().getIndex();
+        int last = gridFlow.getLastVisibleCell().getIndex();
 
-        VBox tile = new VBox(4, thumbContainer, nameLabel);
-        tile.setAlignment(Pos.TOP_CENTER);
-        tile.getStyleClass().add("media-tile");
-        tile.setPrefWidth(THUMB_SIZE + 20);
-        tile.setMaxWidth(THUMB_SIZE + 20);
+        for (int row = last + 1; row <= Math.min(rows.size() - 1, last + PREFETCH_ROWS); row++) {
+            prefetchRow(rows.get(row));
+        }
+        for (int row = first - 1; row >= Math.max(0, first - PREFETCH_ROWS); row--) {
+            prefetchRow(rows.get(row));
+        }
+    }
 
-        tile.setOnMouseClicked(event -> selectMedia(file, tile));
+    private void prefetchRow(List<MediaAsset> row) {
+        for (MediaAsset asset : row) {
+            prefetchRequests.add(ThumbnailService.getInstance().prefetchThumbnail(asset.file(), THUMB_SIZE));
+        }
+    }
 
-        return tile;
+    private void cancelPrefetch() {
+        prefetchRequests.forEach(ThumbnailService.ThumbnailRequest::cancel);
+        prefetchRequests.clear();
     }
 
-    private void selectMedia(BackupFile file, VBox tile) {
+    private void selectMedia(MediaAsset asset, MediaTile tile) {
         if (selectedTile != null) {
-            selectedTile.getStyleClass().remove("media-tile-selected");
+            selectedTile.root.getStyleClass().remove("media-tile-selected");
         }
 
-        selectedFile = file;
+        selectedAsset = asset;
         selectedTile = tile;
-        tile.getStyleClass().add("media-tile-selected");
+        tile.root.getStyleClass().add("media-tile-selected");
 
         saveBtn.setDisable(false);
         openBtn.setDisable(false);
 
+        BackupFile file = asset.file();
         fileNameLabel.setText(file.getFileName());
-        fileSizeLabel.setText("Size: " + FileSize.format(file.getSize()));
+        long size = file.getSize() + (asset.livePhotoVideo() != null ? asset.livePhotoVideo().getSize() : 0);
+        fileSizeLabel.setText("Size: " + FileSize.format(size) + (asset.livePhotoVideo() != null ? " (Live Photo)" : ""));
         fileDomainLabel.setText("Domain: " + file.domain);
         filePathLabel.setText("Path: " + file.relativePath);
-        fileDateLabel.setText("");
+        fileDateLabel.setText(asset.captureDate() != null ? "Captured: " + DATE_FMT.format(asset.captureDate()) : "");
 
         int maxSize = (int) Math.max(800, previewContainer.getWidth());
-        ThumbnailService.getInstance().loadPreview(file, maxSize, previewImage::setImage);
+        if (previewRequest != null) previewRequest.cancel();
+        previewRequest = ThumbnailService.getInstance().loadPreview(file, maxSize, previewImage::setImage);
     }
 
     private void clearPreview() {
+        if (previewRequest != null) previewRequest.cancel();
+        previewRequest = null;
         previewImage.setImage(null);
         fileNameLabel.setText("");
         fileSizeLabel.setText("");
@@ -294,26 +325,136 @@ public class MediaTabController {
         openBtn.setDisable(true);
     }
 
-    @FXML
-    public void prevPage() {
-        if (currentPage > 0) {
-            showPage(currentPage - 1);
+    private class MediaRowCell extends ListCell<List<MediaAsset>> {
+        private final HBox row = new HBox(TILE_GAP);
+        private final List<MediaTile> tiles = new ArrayList<>();
+
+        MediaRowCell() {
+            row.setAlignment(Pos.TOP_LEFT);
+            setText(null);
+        }
+
+        @Override
+        protected void updateItem(List<MediaAsset> items, boolean empty) {
+            super.updateItem(items, empty);
+
+            if (empty || items == null) {
+                tiles.forEach(MediaTile::unbind);
+                setGraphic(null);
+                return;
+            }
+
+            while (tiles.size() < items.size()) {
+                MediaTile tile = new MediaTile();
+                tiles.add(tile);
+                row.getChildren().add(tile.root);
+            }
+
+            for (int i = 0; i < tiles.size(); i++) {
+                MediaTile tile = tiles.get(i);
+                if (i < items.size()) tile.bind(items.get(i));
+                else tile.unbind();
+            }
+
+            setGraphic(row);
         }
     }
 
-    @FXML
-    public void nextPage() {
-        int totalPages = (int) Math.ceil((double) filteredMedia.size() / PAGE_SIZE);
-        if (currentPage < totalPages - 1) {
-            showPage(currentPage + 1);
+    private class MediaTile {
+        private final ImageView thumbView = new ImageView();
+        private final Label nameLabel = new Label();
+        private final Label badgeLabel = new Label();
+        private final VBox root;
+        private MediaAsset asset;
+        private ThumbnailService.ThumbnailRequest thumbnailRequest;
+
+        MediaTile() {
+            thumbView.setFitWidth(THUMB_SIZE);
+            thumbView.setFitHeight(THUMB_SIZE);
+            thumbView.setPreserveRatio(true);
+            thumbView.setSmooth(true);
+
+            badgeLabel.getStyleClass().add("media-badge");
+            badgeLabel.setMouseTransparent(true);
+            StackPane.setAlignment(badgeLabel, Pos.BOTTOM_RIGHT);
+
+            StackPane thumbContainer = new StackPane(thumbView, badgeLabel);
+            thumbContainer.setPrefSize(THUMB_SIZE, THUMB_SIZE);
+            thumbContainer.setMinSize(THUMB_SIZE, THUMB_SIZE);
+            thumbContainer.setMaxSize(THUMB_SIZE, THUMB_SIZE);
+            thumbContainer.getStyleClass().add("media-thumbnail");
+
+            nameLabel.getStyleClass().add("media-label");
+            nameLabel.setMaxWidth(THUMB_SIZE + 10);
+            nameLabel.setAlignment(Pos.CENTER);
+
+            root = new VBox(4, thumbContainer, nameLabel);
+            root.setAlignment(Pos.TOP_CENTER);
+            root.getStyleClass().add("media-tile");
+            root.setPrefWidth(TILE_WIDTH);
+            root.setMaxWidth(TILE_WIDTH);
+
+            root.setOnMouseClicked(event -> {
+                if (asset != null) selectMedia(asset, this);
+            });
+        }
+
+        void bind(MediaAsset newAsset) {
+            root.setVisible(true);
+            root.setManaged(true);
+            updateSelectionStyle(newAsset);
+            if (newAsset == asset) return;
+
+            cancelThumbnail();
+            asset = newAsset;
+            BackupFile newFile = newAsset.file();
+            nameLabel.setText(newAsset.captureDate() != null ? DATE_FMT.format(newAsset.captureDate()) : newFile.getFileName());
+            String badge = (newAsset.favorite() ? "\u2665" : "") + (newAsset.livePhotoVideo() != null ? " LIVE" : "");
+            badgeLabel.setText(badge.strip());
+            badgeLabel.setVisible(!badge.isEmpty());
+            thumbView.setImage(ThumbnailService.isVideo(newFile.getFileExtension())
+                    ? ThumbnailService.getVideoPlaceholder()
+                    : ThumbnailService.getPhotoPlaceholder());
+
+            thumbnailRequest = ThumbnailService.getInstance().loadThumbnail(newFile, THUMB_SIZE, image -> {
+                if (asset == newAsset) thumbView.setImage(image);
+            });
+        }
+
+        void unbind() {
+            cancelThumbnail();
+            asset = null;
+            thumbView.setImage(null);
+            root.setVisible(false);
+            root.setManaged(false);
+            if (selectedTile == this) selectedTile = null;
+            root.getStyleClass().remove("media-tile-selected");
+        }
+
+        private void cancelThumbnail() {
+            if (thumbnailRequest != null) {
+                thumbnailRequest.cancel();
+                thumbnailRequest = null;
+            }
+        }
+
+        private void updateSelectionStyle(MediaAsset newAsset) {
+            boolean selected = newAsset == selectedAsset;
+            root.getStyleClass().remove("media-tile-selected");
+            if (selected) {
+                root.getStyleClass().add("media-tile-selected");
+                selectedTile = this;
+            } else if (selectedTile == this) {
+                selectedTile = null;
+            }
         }
     }
 
     @FXML
     public void saveFile() {
-        if (selectedFile == null) return;
+        if (selectedAsset == null) return;
 
-        BackupFile fileToSave = selectedFile;
+        MediaAsset assetToSave = selectedAsset;
 
         DirectoryChooser chooser = new DirectoryChooser();
         File lastDir = PreferencesController.getLastExportDirectory();
@@ -324,7 +465,8 @@ public class MediaTabController {
         PreferencesController.setLastExportDirectory(destination);
 
         try {
-            fileToSave.extractToFolder(destination, false);
+            assetToSave.file().extractToFolder(destination, false);
+            if (assetToSave.livePhotoVideo() != null) assetToSave.livePhotoVideo().extractToFolder(destination, false);
         } catch (FileAlreadyExistsException e) {
             Dialogs.showAlert(Alert.AlertType.WARNING, "File already exists: " + e.getMessage());
         } catch (IOException | BackupReadException | NotUnlockedException | UnsupportedCryptoException e) {
@@ -335,9 +477,9 @@ public class MediaTabController {
 
     @FXML
     public void openFile() {
-        if (selectedFile == null) return;
+        if (selectedAsset == null) return;
 
-        BackupFile fileToOpen = selectedFile;
+        BackupFile fileToOpen = selectedAsset.file();
 
         javafx.concurrent.Task<File> task = new javafx.concurrent.Task<>() {
             @Override
@@ -394,7 +536,12 @@ public class MediaTabController {
             protected int[] call() {
                 int success = 0;
                 int failed = 0;
-                for (BackupFile file : filteredMedia) {
+                List<BackupFile> files = new ArrayList<>(filteredMedia.size());
+                for (MediaAsset asset : filteredMedia) {
+                    files.add(asset.file());
+                    if (asset.livePhotoVideo() != null) files.add(asset.livePhotoVideo());
+                }
+                for (BackupFile file : files) {
                     try {
                         file.extractToFolder(destination, withRelativePath, preserveTimestamps);
                         success++;
@@ -423,12 +570,4 @@ public class MediaTabController {
 
         new Thread(task).start();
     }
-
-    private static boolean isPhoto(String extension) {
-        return extension != null && PHOTO_EXTENSIONS.contains(extension.toLowerCase());
-    }
-
-    private static boolean isVideo(String extension) {
-        return extension != null && VIDEO_EXTENSIONS.contains(extension.toLowerCase());
-    }
 }
@@ -0,0 +1,210 @@
+package me.maxih.itunes_backup_explorer.ui;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import javafx.scene.Node;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.IndexedCell;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.skin.VirtualFlow;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Virtualized chat message list of the WhatsApp and Messages tabs, which load a chat in pages.
+ * Bubbles are rendered when a recycled cell is assigned a message, and their height is measured once
+ * per message and list width, so scrolling doesn't re-measure wrapped text of rows that were already shown.
+ *
+ * @param <T> Message type
+ */
+class MessageList<T> {
+    private static final Object RECYCLE_KEY = new Object();
+
+    private final ListView<T> listView;
+    private final ToLongFunction<T> idOf;
+    private final Predicate<T> renderable;
+    private final List<Function<T, String>> searchFields;
+    private final Function<T, Node> renderer;
+    private final ObservableList<T> allMessages = FXCollections.observableArrayList();
+    private final FilteredList<T> visibleMessages;
+    private final Map<Long, Double> heights = new HashMap<>();
+    private VirtualFlow<?> flow;
+    private int prefetchDistance;
+    private Runnable loadOlder;
+    private Runnable loadNewer;
+
+    /**
+     * @param renderable   Messages that produce a bubble, all others are left out of the list entirely
+     * @param searchFields Texts of a message matched by {@link #filter(String)}
+     * @param renderer     Renders the row of a message, or returns null to leave the cell empty
+     */
+    MessageList(ListView<T> listView, ToLongFunction<T> idOf, Predicate<T> renderable,
+                List<Function<T, String>> searchFields, Function<T, Node> renderer) {
+        this.listView = listView;
+        this.idOf = idOf;
+        this.renderable = renderable;
+        this.searchFields = searchFields;
+        this.renderer = renderer;
+        this.visibleMessages = new FilteredList<>(allMessages, renderable);
+
+        listView.setItems(visibleMessages);
+        listView.setCellFactory(view -> new MessageCell());
+        listView.setFocusTraversable(false);
+        // Wrapped text changes height with the width, so measured heights only hold for one width
+        listView.widthProperty().addListener((obs, oldVal, newVal) -> heights.clear());
+        listView.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+            if (listView.lookup(".virtual-flow") instanceof VirtualFlow<?> virtualFlow) {
+                flow = virtualFlow;
+                virtualFlow.positionProperty().addListener((o, oldPos, newPos) -> prefetch());
+            }
+        });
+    }
+
+    /**
+     * Requests the next page once the viewport gets within the given number of rows of either end
+     * of the loaded messages.
+     *
+     * @param loadNewer Called near the bottom, or null if the list only pages backwards
+     */
+    void setPrefetch(int distance, Runnable loadOlder, Runnable loadNewer) {
+        this.prefetchDistance = distance;
+        this.loadOlder = loadOlder;
+        this.loadNewer = loadNewer;
+    }
+
+    /**
+     * Runs the action once the cell showing the given row moves on to another message, e.g. to cancel
+     * loads that would only update the discarded row.
+     */
+    static void onRecycle(Node row, Runnable action) {
+        row.getProperties().put(RECYCLE_KEY, action);
+    }
+
+    int size() {
+        return visibleMessages.size();
+    }
+
+    /**
+     * Inserts an older page above the loaded messages, keeping the rows that were on screen in place.
+     */
+    void prependPage(List<T> messages) {
+        int firstVisible = flow != null && flow.getFirstVisibleCell() != null ? flow.getFirstVisibleCell().getIndex() : 0;
+        int visibleBefore = visibleMessages.size();
+        allMessages.addAll(0, messages);
+        listView.scrollTo(firstVisible + visibleMessages.size() - visibleBefore);
+    }
+
+    void appendPage(List<T> messages) {
+        allMessages.addAll(messages);
+    }
+
+    void scrollToEnd() {
+        listView.scrollTo(Math.max(0, visibleMessages.size() - 1));
+    }
+
+    /**
+     * @param contextRows Rows to leave visible above the message
+     */
+    void scrollToMessage(long id, int contextRows) {
+        for (int i = 0; i < visibleMessages.size(); i++) {
+            if (idOf.applyAsLong(visibleMessages.get(i)) == id) {
+                listView.scrollTo(Math.max(0, i - contextRows));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Shows only the messages with a search field containing the query, case-insensitively.
+     *
+     * @param query Query, or null or blank to show all messages
+     */
+    void filter(String query) {
+        heights.clear();
+        if (query == null || query.isBlank()) {
+            visibleMessages.setPredicate(renderable);
+            return;
+        }
+
+        String lowerQuery = query.toLowerCase(Locale.ROOT);
+        visibleMessages.setPredicate(renderable.and(msg -> searchFields.stream()
+                .map(field -> field.apply(msg))
+                .anyMatch(text -> text != null && text.toLowerCase(Locale.ROOT).contains(lowerQuery))));
+    }
+
+    /**
+     * Measures the row of the message again, after its bubble changed, e.g. when a thumbnail replaced its placeholder.
+     */
+    void invalidateHeight(long id) {
+        heights.remove(id);
+    }
+
+    void clear() {
+        allMessages.clear();
+        heights.clear();
+    }
+
+    private void prefetch() {
+        if (flow == null || loadOlder == null) return;
+
+        IndexedCell<?> first = flow.getFirstVisibleCell();
+        IndexedCell<?> last = flow.getLastVisibleCell();
+        if (first == null || last == null) return;
+
+        if (first.getIndex() < prefetchDistance) loadOlder.run();
+        if (loadNewer != null && last.getIndex() >= visibleMessages.size() - prefetchDistance) loadNewer.run();
+    }
+
+    private class MessageCell extends ListCell<T> {
+
+        MessageCell() {
+            getStyleClass().add("message-cell");
+            setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+        }
+
+        @Override
+        protected void updateItem(T msg, boolean empty) {
+            if (getGraphic() != null && getGraphic().getProperties().get(RECYCLE_KEY) instanceof Runnable action) {
+                action.run();
+            }
+            super.updateItem(msg, empty);
+            setText(null);
+            setGraphic(empty || msg == null ? null : renderer.apply(msg));
+        }
+
+        @Override
+        protected double computePrefHeight(double width) {
+            T msg = getItem();
+            Node graphic = getGraphic();
+            if (isEmpty() || msg == null || graphic == null) return super.computePrefHeight(width);
+
+            long id = idOf.applyAsLong(msg);
+            Double cached = heights.get(id);
+            if (cached != null) return cached;
+
+            double cellWidth = width > 0 ? width : getListView().getWidth();
+            double height = snappedTopInset() + snappedBottomInset()
+                    + graphic.prefHeight(cellWidth - snappedLeftInset() - snappedRightInset());
+            heights.put(id, height);
+            return height;
+        }
+
+        @Override
+        protected void layoutChildren() {
+            // The row spans the whole cell, so sent bubbles can align to the right
+            Node graphic = getGraphic();
+            if (graphic == null) return;
+            graphic.resizeRelocate(snappedLeftInset(), snappedTopInset(),
+                    getWidth() - snappedLeftInset() - snappedRightInset(),
+                    getHeight() - snappedTopInset() - snappedBottomInset());
+        }
+    }
+}
@@ -0,0 +1,511 @@
+package me.maxih.itunes_backup_explorer.ui;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.transformation.FilteredList;
+import javafx.fxml.FXML;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Cursor;
+import javafx.scene.Node;
+import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import me.maxih.itunes_backup_explorer.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class MessagesTabController {
+    private static final Logger logger = LoggerFactory.getLogger(MessagesTabController.class);
+    private static final int PAGE_SIZE = 100;
+    // Rows from the top of the loaded messages at which the next older page is fetched
+    private static final int PREFETCH_DISTANCE = 30;
+    private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter SHORT_DATE_FMT = DateTimeFormatter.ofPattern("dd/MM HH:mm").withZone(ZoneId.systemDefault());
+
+    private record DbLoadResult(SmsDatabaseService service, File directory, SmsAttachmentIndex attachmentIndex) {}
+
+    private ITunesBackup selectedBackup;
+    private SmsDatabaseService databaseService;
+    private SmsAttachmentIndex attachmentIndex;
+    private File databaseDir;
+    private File attachmentDir;
+    private FilteredList<SmsChat> filteredChats;
+    private SmsChat selectedChat;
+    private int loadedMessageCount;
+    private SmsDatabaseService.MessageCursor olderMessagesCursor;
+    private boolean loadingOlderMessages;
+    private MessageList<SmsMessage> messageList;
+    // Tasks using the database service or the temp directories, which are only released once they have stopped
+    private final Map<javafx.concurrent.Task<?>, CompletableFuture<Void>> backgroundTasks = new HashMap<>();
+
+    @FXML TextField chatSearchField;
+    @FXML ToggleButton filterAll;
+    @FXML ToggleButton filterPrivate;
+    @FXML ToggleButton filterGroups;
+    @FXML ToggleGroup chatFilterGroup;
+    @FXML Label chatCountLabel;
+    @FXML ListView<SmsChat> chatListView;
+    @FXML VBox conversationHeaderBox;
+    @FXML Label conversationHeader;
+    @FXML Label conversationInfo;
+    @FXML ListView<SmsMessage> messagesListView;
+    @FXML VBox emptyStatePane;
+    @FXML Button loadOlderButton;
+    @FXML Label messageCountLabel;
+    @FXML TextField messageSearchField;
+
+    @FXML
+    public void initialize() {
+        chatListView.setCellFactory(listView -> new ChatListCell());
+        chatListView.getSelectionModel().selectedItemProperty().addListener((obs, oldChat, newChat) -> {
+            if (newChat != null) onChatSelected(newChat);
+        });
+
+        chatSearchField.textProperty().addListener((obs, oldVal, newVal) -> applyFilter());
+        chatFilterGroup.selectedToggleProperty().addListener((obs, oldToggle, newToggle) -> {
+            if (newToggle == null) {
+                filterAll.setSelected(true);
+                return;
+            }
+            applyFilter();
+        });
+
+        messageSearchField.textProperty().addListener((obs, oldVal, newVal) -> messageList.filter(newVal));
+
+        messageList = new MessageList<>(messagesListView, SmsMessage::id, MessagesTabController::isRenderable,
+                List.of(SmsMessage::text, SmsMessage::sender),
+                msg -> selectedChat != null ? renderMessage(msg, selectedChat.isGroup()) : null);
+        messageList.setPrefetch(PREFETCH_DISTANCE, () -> loadMessages(true), null);
+    }
+
+    public void tabShown(ITunesBackup backup) {
+        if (backup == this.selectedBackup && databaseService != null) return;
+
+        cleanup();
+        this.selectedBackup = backup;
+
+        javafx.concurrent.Task<DbLoadResult> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected DbLoadResult call() throws Exception {
+                // sms.db is usually opened in memory, the directory only takes it if it is too large for that
+                File directory = Files.createTempDirectory("sms_db_").toFile();
+                directory.deleteOnExit();
+                Connection connection = backup.openDatabase(SmsDatabaseService.DOMAIN, SmsDatabaseService.DATABASE_PATH, directory);
+                if (connection == null) {
+                    deleteDirectory(directory);
+                    return null;
+                }
+
+                SmsDatabaseService service = new SmsDatabaseService(connection);
+                service.ensureIndexes();
+                return new DbLoadResult(service, directory, SmsAttachmentIndex.build(backup));
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            DbLoadResult result = task.getValue();
+            if (result == null) {
+                showEmptyState("No messages found in this backup");
+                return;
+            }
+            if (backup != selectedBackup) {
+                result.service().close();
+                deleteDirectory(result.directory());
+                return;
+            }
+            databaseService = result.service();
+            databaseDir = result.directory();
+            attachmentIndex = result.attachmentIndex();
+            loadChats();
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to open sms.db", task.getException());
+            showEmptyState("Failed to load messages");
+        });
+
+        Thread thread = new Thread(task, "sms-db-extract");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loadChats() {
+        SmsDatabaseService service = databaseService;
+        javafx.concurrent.Task<List<SmsChat>> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected List<SmsChat> call() throws Exception {
+                return service.queryChats();
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            if (service != databaseService) return;
+            filteredChats = new FilteredList<>(FXCollections.observableArrayList(task.getValue()));
+            chatListView.setItems(filteredChats);
+            applyFilter();
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to load message chats", task.getException());
+            showEmptyState("Failed to load conversations");
+        });
+
+        runInBackground(task, "sms-load-chats");
+    }
+
+    private void applyFilter() {
+        if (filteredChats == null) return;
+
+        String searchText = chatSearchField.getText() == null ? "" : chatSearchField.getText().trim().toLowerCase(Locale.ROOT);
+        Toggle selected = chatFilterGroup.getSelectedToggle();
+
+        filteredChats.setPredicate(chat -> {
+            if (selected == filterPrivate && chat.isGroup()) return false;
+            if (selected == filterGroups && !chat.isGroup()) return false;
+
+            if (!searchText.isEmpty()) {
+                String title = chat.title().toLowerCase(Locale.ROOT);
+                String identifier = chat.identifier() != null ? chat.identifier().toLowerCase(Locale.ROOT) : "";
+                return title.contains(searchText) || identifier.contains(searchText);
+            }
+            return true;
+        });
+
+        chatCountLabel.setText(filteredChats.size() + " chats");
+    }
+
+    private void onChatSelected(SmsChat chat) {
+        this.selectedChat = chat;
+        this.loadedMessageCount = 0;
+        this.olderMessagesCursor = null;
+        this.loadingOlderMessages = false;
+        this.messageList.clear();
+        this.messageSearchField.clear();
+
+        conversationHeaderBox.setVisible(true);
+        conversationHeaderBox.setManaged(true);
+        conversationHeader.setText(chat.title());
+        String service = chat.serviceName() != null ? chat.serviceName() + " \u00b7 " : "";
+        conversationInfo.setText((chat.isGroup() ? "Group \u00b7 " : "") + service + chat.messageCount() + " messages");
+
+        emptyStatePane.setVisible(false);
+        loadMessages(false);
+    }
+
+    private void loadMessages(boolean loadOlder) {
+        if (selectedChat == null || databaseService == null) return;
+
+        SmsChat chat = selectedChat;
+        SmsDatabaseService.MessageCursor cursor = loadOlder ? olderMessagesCursor : null;
+        if (loadOlder && (cursor == null || loadingOlderMessages)) return;
+        loadingOlderMessages = loadOlder;
+
+        SmsDatabaseService service = databaseService;
+        javafx.concurrent.Task<SmsDatabaseService.MessagePage> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected SmsDatabaseService.MessagePage call() throws Exception {
+                return service.queryMessagePage(chat.id(), cursor, PAGE_SIZE);
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            if (chat != selectedChat) return;
+            loadingOlderMessages = false;
+
+            SmsDatabaseService.MessagePage page = task.getValue();
+            List<SmsMessage> newMessages = new ArrayList<>(page.messages());
+            olderMessagesCursor = page.nextCursor();
+            Collections.reverse(newMessages);
+
+            if (loadOlder) {
+                messageList.prependPage(newMessages);
+            } else {
+                messageList.appendPage(newMessages);
+                messageList.scrollToEnd();
+            }
+
+            loadedMessageCount += newMessages.size();
+            messageCountLabel.setText(loadedMessageCount + " of " + chat.messageCount() + " messages");
+            loadOlderButton.setDisable(olderMessagesCursor == null);
+        });
+
+        task.setOnFailed(event -> {
+            if (chat == selectedChat) loadingOlderMessages = false;
+            logger.error("Failed to load messages", task.getException());
+            Dialogs.showAlert(Alert.AlertType.ERROR,
+                    "Failed to load messages: " + task.getException().getMessage());
+        });
+
+        runInBackground(task, "sms-load-messages");
+    }
+
+    /**
+     * Runs a task on a daemon thread, tracked until it stops, so {@link #cleanup()} does not close
+     * the database service or delete the temp files underneath it.
+     */
+    private void runInBackground(javafx.concurrent.Task<?> task, String name) {
+        CompletableFuture<Void> stopped = new CompletableFuture<>();
+        backgroundTasks.put(task, stopped);
+        stopped.thenRun(() -> Platform.runLater(() -> backgroundTasks.remove(task)));
+
+        // Completes however the task ends, also when it is cancelled before it starts running
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } finally {
+                stopped.complete(null);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Messages without text or attachments, e.g. tapbacks and group events, are left out of the list.
+     */
+    private static boolean isRenderable(SmsMessage msg) {
+        return (msg.text() != null && !msg.text().isBlank()) || !msg.attachments().isEmpty();
+    }
+
+    private Node renderMessage(SmsMessage msg, boolean isGroup) {
+        VBox bubble = new VBox(2);
+        bubble.setMaxWidth(420);
+        bubble.getStyleClass().add("whatsapp-bubble");
+        bubble.getStyleClass().add(msg.fromMe() ? "whatsapp-bubble-sent" : "whatsapp-bubble-received");
+        if (msg.fromMe() && !msg.isIMessage()) bubble.getStyleClass().add("sms-bubble-sent");
+
+        if (isGroup && !msg.fromMe()) {
+            Label senderLabel = new Label(msg.sender() != null ? msg.sender() : "Unknown");
+            senderLabel.getStyleClass().add("whatsapp-sender-name");
+            bubble.getChildren().add(senderLabel);
+        }
+
+        for (SmsAttachment attachment : msg.attachments()) {
+            bubble.getChildren().add(createAttachmentLabel(attachment));
+        }
+
+        if (msg.text() != null && !msg.text().isBlank()) {
+            // U+FFFC marks the position of an attachment in the text
+            String text = msg.text().replace("\uFFFC", "").strip();
+            if (!text.isEmpty()) {
+                Label textLabel = new Label(text);
+                textLabel.setWrapText(true);
+                textLabel.getStyleClass().add("whatsapp-message-text");
+                bubble.getChildren().add(textLabel);
+            }
+        }
+
+        HBox metaRow = new HBox(4);
+        metaRow.setAlignment(msg.fromMe() ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
+        if (msg.date() != null && !msg.date().equals(Instant.EPOCH)) {
+            Label timeLabel = new Label(TIME_FMT.format(msg.date()));
+            timeLabel.getStyleClass().add("whatsapp-timestamp");
+            metaRow.getChildren().add(timeLabel);
+        }
+        bubble.getChildren().add(metaRow);
+
+        HBox row = new HBox();
+        row.setPadding(new Insets(2, 8, 2, 8));
+        row.setAlignment(msg.fromMe() ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
+        row.getChildren().add(bubble);
+        return row;
+    }
+
+    private Label createAttachmentLabel(SmsAttachment attachment) {
+        String icon = attachment.isImage() ? "\uD83D\uDDBC " : "\uD83D\uDCCE ";
+        String size = attachment.totalBytes() > 0 ? " (" + formatFileSize(attachment.totalBytes()) + ")" : "";
+        Label label = new Label(icon + attachment.displayName() + size);
+        label.getStyleClass().add("whatsapp-media-placeholder");
+
+        BackupFile file = attachmentIndex != null ? attachmentIndex.resolve(attachment) : null;
+        if (file == null) {
+            label.setTooltip(new Tooltip("Not included in this backup"));
+            return label;
+        }
+
+        label.setCursor(Cursor.HAND);
+        label.setOnMouseClicked(event -> openAttachment(file));
+        return label;
+    }
+
+    private void openAttachment(BackupFile file) {
+        if (attachmentDir == null) {
+            try {
+                attachmentDir = Files.createTempDirectory("sms_attachments_").toFile();
+                attachmentDir.deleteOnExit();
+            } catch (IOException e) {
+                logger.error("Failed to create attachment directory", e);
+                return;
+            }
+        }
+
+        File directory = attachmentDir;
+        javafx.concurrent.Task<File> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected File call() throws Exception {
+                File target = new File(directory, file.fileID + "_" + file.getFileName());
+                if (!target.exists()) file.extract(target);
+                target.deleteOnExit();
+                return target;
+            }
+        };
+
+        task.setOnSucceeded(event -> openWithSystemViewer(task.getValue()));
+        task.setOnFailed(event -> {
+            logger.error("Failed to extract attachment {}", file.relativePath, task.getException());
+            Dialogs.showAlert(Alert.AlertType.ERROR,
+                    "Failed to extract attachment: " + task.getException().getMessage());
+        });
+
+        runInBackground(task, "sms-extract-attachment");
+    }
+
+    private void openWithSystemViewer(File file) {
+        try {
+            String os = System.getProperty("os.name").toLowerCase(Locale.ROOT);
+            ProcessBuilder pb;
+            if (os.contains("win")) {
+                pb = new ProcessBuilder("cmd", "/c", "start", "", file.getAbsolutePath());
+            } else if (os.contains("mac")) {
+                pb = new ProcessBuilder("open", file.getAbsolutePath());
+            } else {
+                pb = new ProcessBuilder("xdg-open", file.getAbsolutePath());
+            }
+            pb.start();
+        } catch (Exception e) {
+            logger.error("Failed to open file: {}", file.getAbsolutePath(), e);
+        }
+    }
+
+    private static String formatFileSize(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024 * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    private void showEmptyState(String message) {
+        emptyStatePane.setVisible(true);
+        if (!emptyStatePane.getChildren().isEmpty() && emptyStatePane.getChildren().get(0) instanceof Label label) {
+            label.setText(message);
+        }
+        conversationHeaderBox.setVisible(false);
+        conversationHeaderBox.setManaged(false);
+        chatListView.setItems(FXCollections.observableArrayList());
+        chatCountLabel.setText("0 chats");
+    }
+
+    private static void deleteDirectory(File directory) {
+        if (directory == null) return;
+        File[] files = directory.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        directory.delete();
+    }
+
+    private void cleanup() {
+        // Queries that are already running can't be interrupted, so the service is closed once they return
+        backgroundTasks.keySet().forEach(javafx.concurrent.Task::cancel);
+        SmsDatabaseService service = databaseService;
+        File directory = databaseDir;
+        File attachments = attachmentDir;
+        CompletableFuture.allOf(backgroundTasks.values().toArray(CompletableFuture[]::new)).whenComplete((result, error) -> {
+            if (service != null) service.close();
+            deleteDirectory(directory);
+            deleteDirectory(attachments);
+        });
+        backgroundTasks.clear();
+        databaseService = null;
+        databaseDir = null;
+        attachmentDir = null;
+        attachmentIndex = null;
+        filteredChats = null;
+        selectedChat = null;
+        loadedMessageCount = 0;
+        olderMessagesCursor = null;
+        loadingOlderMessages = false;
+        messageList.clear();
+        chatListView.setItems(FXCollections.observableArrayList());
+        chatCountLabel.setText("0 chats");
+        conversationHeaderBox.setVisible(false);
+        conversationHeaderBox.setManaged(false);
+        emptyStatePane.setVisible(true);
+        if (emptyStatePane.getChildren().get(0) instanceof Label label) {
+            label.setText("Select a conversation to view messages");
+        }
+        loadOlderButton.setDisable(true);
+        messageCountLabel.setText("");
+        messageSearchField.clear();
+    }
+
+    @FXML
+    private void onLoadOlder() {
+        loadMessages(true);
+    }
+
+    private static class ChatListCell extends ListCell<SmsChat> {
+        private final VBox container = new VBox(2);
+        private final HBox topRow = new HBox(8);
+        private final Label nameLabel = new Label();
+        private final Label timeLabel = new Label();
+        private final HBox bottomRow = new HBox(8);
+        private final Label previewLabel = new Label();
+        private final Label badgeLabel = new Label();
+
+        ChatListCell() {
+            container.setPadding(new Insets(8, 10, 8, 10));
+            container.getStyleClass().add("whatsapp-chat-cell");
+
+            nameLabel.getStyleClass().add("whatsapp-chat-name");
+            nameLabel.setMaxWidth(Double.MAX_VALUE);
+            HBox.setHgrow(nameLabel, Priority.ALWAYS);
+            timeLabel.getStyleClass().add("whatsapp-chat-time");
+            timeLabel.setMinWidth(Region.USE_PREF_SIZE);
+            topRow.setAlignment(Pos.CENTER_LEFT);
+            topRow.getChildren().addAll(nameLabel, timeLabel);
+
+            previewLabel.getStyleClass().add("whatsapp-chat-preview");
+            previewLabel.setMaxWidth(Double.MAX_VALUE);
+            HBox.setHgrow(previewLabel, Priority.ALWAYS);
+            badgeLabel.getStyleClass().add("whatsapp-chat-badge");
+            badgeLabel.setMinWidth(Region.USE_PREF_SIZE);
+            bottomRow.setAlignment(Pos.CENTER_LEFT);
+            bottomRow.getChildren().addAll(previewLabel, badgeLabel);
+
+            container.getChildren().addAll(topRow, bottomRow);
+        }
+
+        @Override
+        protected void updateItem(SmsChat chat, boolean empty) {
+            super.updateItem(chat, empty);
+            if (empty || chat == null) {
+                setText(null);
+                setGraphic(null);
+                return;
+            }
+
+            nameLabel.setText(chat.title());
+            Instant date = chat.lastMessageDate();
+            timeLabel.setText(date == null || date.equals(Instant.EPOCH) ? "" : SHORT_DATE_FMT.format(date));
+
+            String preview = chat.lastMessagePreview();
+            String singleLine = preview == null ? "" : preview.replace('\uFFFC', ' ').replace('\n', ' ').replace('\r', ' ').strip();
+            previewLabel.setText(singleLine.length() <= 60 ? singleLine : singleLine.substring(0, 60) + "...");
+            badgeLabel.setText(String.valueOf(chat.messageCount()));
+
+            setGraphic(container);
+        }
+    }
+}
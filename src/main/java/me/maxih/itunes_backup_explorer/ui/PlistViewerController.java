@@ -0,0 +1,230 @@
+package me.maxih.itunes_backup_explorer.ui;
+
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+import me.maxih.itunes_backup_explorer.api.BackupFile;
+import me.maxih.itunes_backup_explorer.api.BinaryPlistReader;
+import me.maxih.itunes_backup_explorer.util.FileSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Function;
+
+public class PlistViewerController {
+    private static final Logger logger = LoggerFactory.getLogger(PlistViewerController.class);
+    // Containers with more entries are split into ranges of at most this many children
+    private static final int RANGE_SIZE = 1000;
+    private static final int DETAIL_LIMIT = 64 * 1024;
+
+    /**
+     * A plist object in the tree, or a range of the entries of a large container.
+     */
+    private record Node(String key, int object, boolean range, int start, int end) {
+        static Node of(String key, int object) {
+            return new Node(key, object, false, 0, 0);
+        }
+    }
+
+    private BinaryPlistReader reader;
+
+    @FXML TreeTableView<Node> plistTreeView;
+    @FXML TreeTableColumn<Node, String> keyColumn;
+    @FXML TreeTableColumn<Node, String> typeColumn;
+    @FXML TreeTableColumn<Node, String> valueColumn;
+    @FXML Label placeholderLabel;
+    @FXML Label statusLabel;
+    @FXML TextArea detailArea;
+
+    @FXML
+    public void initialize() {
+        keyColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getValue().key()));
+        typeColumn.setCellValueFactory(cell -> describe(cell.getValue().getValue(), this::typeOf));
+        valueColumn.setCellValueFactory(cell -> describe(cell.getValue().getValue(), this::valueOf));
+
+        plistTreeView.getSelectionModel().selectedItemProperty().addListener((obs, oldItem, newItem) ->
+                detailArea.setText(newItem == null ? "" : describe(newItem.getValue(), this::detailOf).get()));
+    }
+
+    public void load(BackupFile file) {
+        Task<BinaryPlistReader> task = new Task<>() {
+            @Override
+            protected BinaryPlistReader call() throws Exception {
+                return BinaryPlistReader.open(file);
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            reader = task.getValue();
+            LazyItem root = new LazyItem(Node.of("Root", reader.getTopObject()));
+            root.setExpanded(true);
+            plistTreeView.setRoot(root);
+            statusLabel.setText(reader.getObjectCount() + " objects, " + FileSize.format(reader.getByteSize())
+                    + (reader.isKeyedArchive() ? ", NSKeyedArchiver" : ""));
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to read property list {}", file.relativePath, task.getException());
+            placeholderLabel.setText("Failed to read the property list: " + task.getException().getMessage());
+        });
+
+        Thread thread = new Thread(task, "plist-viewer-open");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Objects are only decoded when their cells are shown, so a broken one is reported in place.
+     */
+    private static ReadOnlyStringWrapper describe(Node node, Function<Node, String> description) {
+        try {
+            return new ReadOnlyStringWrapper(description.apply(node));
+        } catch (RuntimeException e) {
+            return new ReadOnlyStringWrapper("<unreadable: " + e.getMessage() + ">");
+        }
+    }
+
+    private String typeOf(Node node) {
+        if (node.range()) return "";
+        String type = switch (reader.kind(node.object())) {
+            case NULL -> "Null";
+            case BOOLEAN -> "Boolean";
+            case INTEGER, REAL -> "Number";
+            case DATE -> "Date";
+            case DATA -> "Data";
+            case STRING -> "String";
+            case UID -> "UID";
+            case ARRAY -> "Array";
+            case SET -> "Set";
+            case DICTIONARY -> "Dictionary";
+        };
+        String className = reader.archivedClassName(node.object());
+        return className == null ? type : type + " (" + className + ")";
+    }
+
+    private String valueOf(Node node) {
+        if (node.range()) return (node.end() - node.start()) + " items";
+        return reader.preview(node.object());
+    }
+
+    private String detailOf(Node node) {
+        if (node.range()) return valueOf(node);
+        int object = node.object();
+        return switch (reader.kind(object)) {
+            case STRING -> {
+                String text = reader.string(object);
+                yield text.length() > DETAIL_LIMIT ? text.substring(0, DETAIL_LIMIT) + "\n\u2026" : text;
+            }
+            case DATA -> hexDump(reader.data(object, DETAIL_LIMIT), reader.count(object));
+            default -> reader.preview(object);
+        };
+    }
+
+    private static String hexDump(byte[] bytes, int totalLength) {
+        HexFormat hex = HexFormat.of().withDelimiter(" ");
+        StringBuilder dump = new StringBuilder(bytes.length * 4);
+        for (int offset = 0; offset < bytes.length; offset += 16) {
+            int end = Math.min(offset + 16, bytes.length);
+            dump.append(String.format("%08x  ", offset)).append(hex.formatHex(bytes, offset, end)).append("  ");
+            dump.append(" ".repeat((16 - (end - offset)) * 3));
+            for (int i = offset; i < end; i++) {
+                char c = (char) (bytes[i] & 0xFF);
+                dump.append(c >= 0x20 && c < 0x7F ? c : '.');
+            }
+            dump.append('\n');
+        }
+        if (totalLength > bytes.length) dump.append("\u2026 ").append(totalLength - bytes.length).append(" more bytes");
+        return dump.toString();
+    }
+
+    /**
+     * The container whose entries are the children of a node. UIDs of keyed archives show the object they refer to.
+     */
+    private int containerOf(Node node) {
+        if (node.range()) return node.object();
+        int object = node.object();
+        if (reader.kind(object) == BinaryPlistReader.Kind.UID) {
+            object = reader.resolve(object);
+            if (object < 0) return -1;
+        }
+        return switch (reader.kind(object)) {
+            case ARRAY, SET, DICTIONARY -> object;
+            default -> -1;
+        };
+    }
+
+    private List<TreeItem<Node>> childrenOf(Node node) {
+        int container = containerOf(node);
+        if (container < 0) return List.of();
+        int start = node.range() ? node.start() : 0;
+        int end = node.range() ? node.end() : reader.count(container);
+
+        List<TreeItem<Node>> children = new ArrayList<>();
+        long span = end - start;
+        if (span > RANGE_SIZE) {
+            long chunk = RANGE_SIZE;
+            while (span / chunk > RANGE_SIZE) chunk *= RANGE_SIZE;
+            for (long from = start; from < end; from += chunk) {
+                int to = (int) Math.min(from + chunk, end);
+                children.add(new LazyItem(new Node("[" + from + " \u2026 " + (to - 1) + "]", container, true, (int) from, to)));
+            }
+            return children;
+        }
+
+        boolean dictionary = reader.kind(container) == BinaryPlistReader.Kind.DICTIONARY;
+        for (int i = start; i < end; i++) {
+            String key;
+            if (dictionary) {
+                int keyObject = reader.key(container, i);
+                key = reader.kind(keyObject) == BinaryPlistReader.Kind.STRING ? reader.string(keyObject) : reader.preview(keyObject);
+            } else {
+                key = "[" + i + "]";
+            }
+            children.add(new LazyItem(Node.of(key, reader.child(container, i))));
+        }
+        return children;
+    }
+
+    /**
+     * Decodes its children the first time it is expanded.
+     */
+    private final class LazyItem extends TreeItem<Node> {
+        private boolean loaded;
+        private Boolean leaf;
+
+        LazyItem(Node node) {
+            super(node);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            if (leaf == null) {
+                try {
+                    int container = containerOf(getValue());
+                    leaf = container < 0 || reader.count(container) == 0;
+                } catch (RuntimeException e) {
+                    leaf = true;
+                }
+            }
+            return leaf;
+        }
+
+        @Override
+        public ObservableList<TreeItem<Node>> getChildren() {
+            if (!loaded) {
+                loaded = true;
+                try {
+                    super.getChildren().setAll(childrenOf(getValue()));
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to read entries of {}: {}", getValue().key(), e.getMessage());
+                }
+            }
+            return super.getChildren();
+        }
+    }
+}
@@ -30,6 +30,9 @@ public class PreferencesController {
     private static final String KEY_SEARCH_RESULT_LIMIT = "SearchResultLimit";
     private static final String KEY_CONFIRM_BEFORE_DELETE = "ConfirmBeforeDelete";
     private static final String KEY_LAST_EXPORT_DIRECTORY = "LastExportDirectory";
+    private static final String KEY_THUMBNAIL_DISK_CACHE = "ThumbnailDiskCache";
+    private static final String KEY_WHATSAPP_DATABASE_CACHE = "WhatsAppDatabaseCache";
+    private static final String KEY_ENCRYPT_WHATSAPP_CACHE = "EncryptWhatsAppCache";
 
     private static final String DEFAULT_THEME = "Dark";
     private static final int DEFAULT_SEARCH_RESULT_LIMIT = 5000;
@@ -98,6 +101,18 @@ public class PreferencesController {
         return PREFERENCES.getBoolean(KEY_CONFIRM_BEFORE_DELETE, true);
     }
 
+    public static boolean getThumbnailDiskCache() {
+        return PREFERENCES.getBoolean(KEY_THUMBNAIL_DISK_CACHE, true);
+    }
+
+    public static boolean getWhatsAppDatabaseCache() {
+        return PREFERENCES.getBoolean(KEY_WHATSAPP_DATABASE_CACHE, true);
+    }
+
+    public static boolean getEncryptWhatsAppCache() {
+        return PREFERENCES.getBoolean(KEY_ENCRYPT_WHATSAPP_CACHE, true);
+    }
+
     public static File getLastExportDirectory() {
         String path = PREFERENCES.get(KEY_LAST_EXPORT_DIRECTORY, "");
         if (path.isBlank()) return null;
@@ -141,6 +156,15 @@ public class PreferencesController {
     @FXML
     public CheckBox confirmBeforeDeleteCheckBox;
 
+    @FXML
+    public CheckBox thumbnailDiskCacheCheckBox;
+
+    @FXML
+    public CheckBox whatsAppDatabaseCacheCheckBox;
+
+    @FXML
+    public CheckBox encryptWhatsAppCacheCheckBox;
+
     @FXML
     public Spinner<Integer> searchResultLimitSpinner;
 
@@ -179,6 +203,10 @@ public class PreferencesController {
         expandDomainGroupsCheckBox.setSelected(getExpandDomainGroups());
         searchIncludeNonFilesCheckBox.setSelected(getSearchIncludeNonFiles());
         confirmBeforeDeleteCheckBox.setSelected(getConfirmBeforeDelete());
+        thumbnailDiskCacheCheckBox.setSelected(getThumbnailDiskCache());
+        whatsAppDatabaseCacheCheckBox.setSelected(getWhatsAppDatabaseCache());
+        encryptWhatsAppCacheCheckBox.setSelected(getEncryptWhatsAppCache());
+        encryptWhatsAppCacheCheckBox.disableProperty().bind(whatsAppDatabaseCacheCheckBox.selectedProperty().not());
 
         SpinnerValueFactory.IntegerSpinnerValueFactory valueFactory =
                 new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 100000, getSearchResultLimit(), 100);
@@ -229,6 +257,9 @@ public class PreferencesController {
         PREFERENCES.putBoolean(KEY_EXPAND_DOMAIN_GROUPS, expandDomainGroupsCheckBox.isSelected());
         PREFERENCES.putBoolean(KEY_SEARCH_INCLUDE_NON_FILES, searchIncludeNonFilesCheckBox.isSelected());
         PREFERENCES.putBoolean(KEY_CONFIRM_BEFORE_DELETE, confirmBeforeDeleteCheckBox.isSelected());
+        PREFERENCES.putBoolean(KEY_THUMBNAIL_DISK_CACHE, thumbnailDiskCacheCheckBox.isSelected());
+        PREFERENCES.putBoolean(KEY_WHATSAPP_DATABASE_CACHE, whatsAppDatabaseCacheCheckBox.isSelected());
+        PREFERENCES.putBoolean(KEY_ENCRYPT_WHATSAPP_CACHE, encryptWhatsAppCacheCheckBox.isSelected());
         PREFERENCES.putInt(KEY_SEARCH_RESULT_LIMIT, searchResultLimitSpinner.getValue());
 
         if (this.preferencesChangedCallback != null) this.preferencesChangedCallback.run();
@@ -253,6 +284,9 @@ public class PreferencesController {
         PREFERENCES.remove(KEY_SEARCH_INCLUDE_NON_FILES);
         PREFERENCES.remove(KEY_SEARCH_RESULT_LIMIT);
         PREFERENCES.remove(KEY_CONFIRM_BEFORE_DELETE);
+        PREFERENCES.remove(KEY_THUMBNAIL_DISK_CACHE);
+        PREFERENCES.remove(KEY_WHATSAPP_DATABASE_CACHE);
+        PREFERENCES.remove(KEY_ENCRYPT_WHATSAPP_CACHE);
 
         if (this.reloadCallback != null) this.reloadCallback.run();
         if (this.preferencesChangedCallback != null) this.preferencesChangedCallback.run();
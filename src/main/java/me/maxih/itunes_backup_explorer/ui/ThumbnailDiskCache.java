@@ -0,0 +1,51 @@
+package me.maxih.itunes_backup_explorer.ui;
+
+import me.maxih.itunes_backup_explorer.api.BackupFile;
+import me.maxih.itunes_backup_explorer.util.ThumbnailStore;
+
+import java.util.HexFormat;
+
+/**
+ * Keeps generated thumbnails of backup files in a {@link ThumbnailStore} across sessions.
+ * The store is a plain SQLite file that outlives the backup being closed, so thumbnails of encrypted
+ * backups are never written to or read from it.
+ */
+final class ThumbnailDiskCache implements AutoCloseable {
+    private final ThumbnailStore store;
+
+    ThumbnailDiskCache(ThumbnailStore store) {
+        this.store = store;
+    }
+
+    static boolean accepts(BackupFile file) {
+        return !file.backup.manifest.encrypted;
+    }
+
+    /**
+     * @return The encoded thumbnail, or null if none is stored or the backup is encrypted
+     */
+    byte[] get(BackupFile file, int size) {
+        return accepts(file) ? store.get(key(file, size)) : null;
+    }
+
+    void put(BackupFile file, int size, byte[] encoded) {
+        if (accepts(file)) store.put(key(file, size), encoded);
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private static String key(BackupFile file, int size) {
+        String deviceID = file.backup.manifest.uniqueDeviceID;
+        if (deviceID == null || deviceID.isEmpty()) deviceID = file.backup.directory.getName();
+
+        byte[] digest = file.getDigest();
+        String contentTag = digest != null
+                ? HexFormat.of().formatHex(digest)
+                : file.getSize() + "-" + file.getContentFile().lastModified();
+
+        return ThumbnailStore.key(deviceID, file.fileID, size, contentTag);
+    }
+}
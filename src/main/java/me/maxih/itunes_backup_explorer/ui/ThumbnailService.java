@@ -2,30 +2,48 @@ package me.maxih.itunes_backup_explorer.ui;
 
 import javafx.application.Platform;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import me.maxih.itunes_backup_explorer.api.BackupFile;
+import me.maxih.itunes_backup_explorer.api.BackupReadException;
+import me.maxih.itunes_backup_explorer.api.NotUnlockedException;
+import me.maxih.itunes_backup_explorer.api.UnsupportedCryptoException;
+import me.maxih.itunes_backup_explorer.util.EmbeddedThumbnailReader;
 import me.maxih.itunes_backup_explorer.util.MediaConverter;
+import me.maxih.itunes_backup_explorer.util.PriorityScheduler;
+import me.maxih.itunes_backup_explorer.util.PriorityScheduler.Priority;
+import me.maxih.itunes_backup_explorer.util.ThumbnailStore;
+import me.maxih.itunes_backup_explorer.util.WeightedLruCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 public class ThumbnailService {
     private static final Logger logger = LoggerFactory.getLogger(ThumbnailService.class);
 
+    // WhatsApp stores the previews of its media as JPEG files with a .thumb extension
     private static final Set<String> SUPPORTED_IMAGE_EXTENSIONS = Set.of(
-            "jpg", "jpeg", "png", "bmp", "gif", "tiff"
+            "jpg", "jpeg", "png", "bmp", "gif", "tiff", "thumb"
     );
 
     private static final Set<String> VIDEO_EXTENSIONS = Set.of(
@@ -34,17 +52,33 @@ public class ThumbnailService {
 
     private static final ThumbnailService INSTANCE = new ThumbnailService();
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(4, r -> {
-        Thread t = new Thread(r, "thumbnail-loader");
+    private static final long CACHE_MAX_BYTES = 96L * 1024 * 1024;
+    private static final long IN_MEMORY_MAX_BYTES = 32L * 1024 * 1024;
+
+    public static final String MEDIA_TAB = "media";
+    public static final String WHATSAPP_TAB = "whatsapp";
+
+    private final PriorityScheduler scheduler = new PriorityScheduler("thumbnail-loader", 4, 1);
+
+    private final ExecutorService storeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "thumbnail-store");
         t.setDaemon(true);
         return t;
     });
 
-    private final Map<String, Image> cache = new ConcurrentHashMap<>();
+    private final ThumbnailDiskCache diskCache = new ThumbnailDiskCache(
+            new ThumbnailStore(ThumbnailStore.DEFAULT_LOCATION, ThumbnailStore.DEFAULT_MAX_BYTES));
+    private final WeightedLruCache<String, Image> cache = new WeightedLruCache<>(CACHE_MAX_BYTES, ThumbnailService::imageBytes, true);
+    private final Map<String, ThumbnailJob> pending = new HashMap<>();
 
     private static Image photoPlaceholder;
     private static Image videoPlaceholder;
 
+    private ThumbnailService() {
+        scheduler.setBudget(MEDIA_TAB, 4);
+        scheduler.setBudget(WHATSAPP_TAB, 2);
+    }
+
     public static ThumbnailService getInstance() {
         return INSTANCE;
     }
@@ -96,117 +130,238 @@ public class ThumbnailService {
         return extension != null && SUPPORTED_IMAGE_EXTENSIONS.contains(extension.toLowerCase());
     }
 
-    public void loadThumbnail(BackupFile file, int size, Consumer<Image> onLoaded) {
-        Image cached = cache.get(file.fileID);
+    public ThumbnailRequest loadThumbnail(BackupFile file, int size, Consumer<Image> onLoaded) {
+        return loadThumbnail(file, size, Priority.VISIBLE, MEDIA_TAB, onLoaded);
+    }
+
+    public ThumbnailRequest prefetchThumbnail(BackupFile file, int size) {
+        return loadThumbnail(file, size, Priority.PREFETCH, MEDIA_TAB, image -> {});
+    }
+
+    /**
+     * Loads a thumbnail through the shared scheduler.
+     *
+     * @param priority Scheduling priority. Joining a pending load with a higher priority promotes it
+     * @param budget   Concurrency budget of the calling tab, e.g. {@link #MEDIA_TAB}
+     */
+    public ThumbnailRequest loadThumbnail(BackupFile file, int size, Priority priority, String budget, Consumer<Image> onLoaded) {
+        // Tabs request different sizes of the same file, so each size is cached and loaded on its own
+        String key = cacheKey(file, size);
+        Image cached = cache.get(key);
         if (cached != null) {
             onLoaded.accept(cached);
-            return;
+            return ThumbnailRequest.COMPLETED;
         }
 
-        executor.submit(() -> {
-            File tempFile = null;
-            File convertedFile = null;
-            try {
-                String ext = file.getFileExtension();
-                boolean nativeSupport = isSupportedImage(ext);
-                boolean convertible = MediaConverter.needsConversion(ext);
+        synchronized (pending) {
+            ThumbnailJob job = pending.get(key);
+            boolean created = job == null;
+            if (created) {
+                job = new ThumbnailJob(file, size, priority, budget);
+                pending.put(key, job);
+            } else {
+                job.promote(priority);
+            }
 
-                if (!nativeSupport && !convertible) {
-                    Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
-                    cache.put(file.fileID, placeholder);
-                    Platform.runLater(() -> onLoaded.accept(placeholder));
-                    return;
+            ThumbnailRequest request = new ThumbnailRequest(job, onLoaded);
+            job.requests.add(request);
+            if (created) {
+                if (PreferencesController.getThumbnailDiskCache() && ThumbnailDiskCache.accepts(file)) {
+                    job.lookup = storeExecutor.submit(job::lookupStored);
                 }
+                else job.task = scheduler.submit(job, priority, budget);
+            }
+            return request;
+        }
+    }
 
-                tempFile = Files.createTempFile("thumb_", "." + ext).toFile();
-                tempFile.deleteOnExit();
-                file.extract(tempFile, false);
-
-                File imageFile = tempFile;
-                if (!nativeSupport && convertible) {
-                    convertedFile = MediaConverter.convertToJpeg(tempFile, ext, size);
-                    if (convertedFile == null) {
-                        Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
-                        cache.put(file.fileID, placeholder);
-                        Platform.runLater(() -> onLoaded.accept(placeholder));
-                        return;
-                    }
-                    imageFile = convertedFile;
-                }
+    private Image generateThumbnail(ThumbnailJob job) {
+        BackupFile file = job.file;
+        String ext = file.getFileExtension();
+        Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
 
-                try (InputStream is = new FileInputStream(imageFile)) {
-                    Image thumb = new Image(is, size, size, true, true);
-                    if (!thumb.isError()) {
-                        cache.put(file.fileID, thumb);
-                        Platform.runLater(() -> onLoaded.accept(thumb));
-                    } else {
-                        Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
-                        cache.put(file.fileID, placeholder);
-                        Platform.runLater(() -> onLoaded.accept(placeholder));
-                    }
-                }
-            } catch (Exception e) {
-                logger.warn("Failed to generate thumbnail for {}: {}", file.relativePath, e.getMessage());
-                String ext = file.getFileExtension();
-                Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
-                cache.put(file.fileID, placeholder);
-                Platform.runLater(() -> onLoaded.accept(placeholder));
-            } finally {
-                if (tempFile != null && tempFile.exists()) tempFile.delete();
-                if (convertedFile != null && convertedFile.exists()) convertedFile.delete();
-            }
-        });
-    }
-
-    public void loadPreview(BackupFile file, int maxSize, Consumer<Image> onLoaded) {
-        executor.submit(() -> {
-            File tempFile = null;
-            File convertedFile = null;
-            try {
-                String ext = file.getFileExtension();
-                boolean nativeSupport = isSupportedImage(ext);
-                boolean convertible = MediaConverter.needsConversion(ext);
-
-                if (!nativeSupport && !convertible) {
-                    Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
-                    Platform.runLater(() -> onLoaded.accept(placeholder));
-                    return;
-                }
+        File tempFile = null;
+        File convertedFile = null;
+        try {
+            boolean nativeSupport = isSupportedImage(ext);
+            boolean convertible = MediaConverter.needsConversion(ext);
 
-                tempFile = Files.createTempFile("preview_", "." + ext).toFile();
-                tempFile.deleteOnExit();
-                file.extract(tempFile, false);
-
-                File imageFile = tempFile;
-                if (!nativeSupport && convertible) {
-                    convertedFile = MediaConverter.convertToJpeg(tempFile, ext, maxSize);
-                    if (convertedFile == null) {
-                        Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
-                        Platform.runLater(() -> onLoaded.accept(placeholder));
-                        return;
-                    }
-                    imageFile = convertedFile;
-                }
+            if (!nativeSupport && !convertible) return placeholder;
 
-                try (InputStream is = new FileInputStream(imageFile)) {
-                    Image preview = new Image(is, maxSize, maxSize, true, true);
-                    if (!preview.isError()) {
-                        Platform.runLater(() -> onLoaded.accept(preview));
-                    } else {
-                        Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
-                        Platform.runLater(() -> onLoaded.accept(placeholder));
-                    }
-                }
-            } catch (Exception e) {
-                logger.warn("Failed to generate preview for {}: {}", file.relativePath, e.getMessage());
-                String ext = file.getFileExtension();
-                Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
-                Platform.runLater(() -> onLoaded.accept(placeholder));
-            } finally {
-                if (tempFile != null && tempFile.exists()) tempFile.delete();
-                if (convertedFile != null && convertedFile.exists()) convertedFile.delete();
+            if (EmbeddedThumbnailReader.supports(ext)) {
+                Image embedded = loadEmbeddedThumbnail(file, ext, job.size);
+                if (embedded != null) return embedded;
+                if (job.isAbandoned()) return null;
+            }
+
+            // A failed in-memory decode still gets the temp file path, which can fall back to other converters
+            Image decoded = decodeInMemory(file, ext, job.size);
+            if (decoded != null && !decoded.isError()) return decoded;
+            if (job.isAbandoned()) return null;
+
+            tempFile = Files.createTempFile("thumb_", "." + ext).toFile();
+            tempFile.deleteOnExit();
+            file.extract(tempFile, false);
+            if (job.isAbandoned()) return null;
+
+            File imageFile = tempFile;
+            if (!nativeSupport && convertible) {
+                convertedFile = MediaConverter.convertToJpeg(tempFile, ext, job.size);
+                if (convertedFile == null) return placeholder;
+                imageFile = convertedFile;
+            }
+
+            try (InputStream is = new FileInputStream(imageFile)) {
+                Image thumb = new Image(is, job.size, job.size, true, true);
+                return thumb.isError() ? placeholder : thumb;
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to generate thumbnail for {}: {}", file.relativePath, e.getMessage());
+            return placeholder;
+        } finally {
+            if (tempFile != null && tempFile.exists()) tempFile.delete();
+            if (convertedFile != null && convertedFile.exists()) convertedFile.delete();
+        }
+    }
+
+    /**
+     * Decodes the preview that cameras embed in JPEG (EXIF) and HEIC files, which only needs
+     * the first few hundred kilobytes of the file instead of a full extraction and conversion.
+     *
+     * @return The thumbnail or null if the file has no usable embedded preview
+     */
+    private static Image loadEmbeddedThumbnail(BackupFile file, String ext, int size) {
+        try {
+            EmbeddedThumbnailReader.EmbeddedThumbnail embedded;
+            try (InputStream is = file.openStream()) {
+                embedded = EmbeddedThumbnailReader.read(is, ext);
+            }
+            if (embedded == null) return null;
+
+            byte[] jpeg = embedded.format() == EmbeddedThumbnailReader.Format.HEVC
+                    ? MediaConverter.convertHevcToJpeg(embedded.data(), size)
+                    : embedded.data();
+            if (jpeg == null) return null;
+
+            Image thumb = new Image(new ByteArrayInputStream(jpeg), size, size, true, true);
+            return thumb.isError() ? null : thumb;
+        } catch (Exception e) {
+            logger.debug("No embedded thumbnail for {}: {}", file.relativePath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Decodes files below {@link #IN_MEMORY_MAX_BYTES} straight from the decrypted stream,
+     * passing HEIF data to an ImageMagick worker of the converter, so no plaintext copy is written to disk.
+     *
+     * @return The decoded image (possibly in error state), or null if the file needs the temp file path
+     */
+    private static Image decodeInMemory(BackupFile file, String ext, int size)
+            throws IOException, BackupReadException, NotUnlockedException, UnsupportedCryptoException {
+        if (file.getSize() <= 0 || file.getSize() > IN_MEMORY_MAX_BYTES) return null;
+
+        if (isSupportedImage(ext)) {
+            try (InputStream is = file.openStream()) {
+                return new Image(is, size, size, true, true);
+            }
+        }
+
+        if (MediaConverter.isHeif(ext) && MediaConverter.isImageMagickAvailable()) {
+            byte[] data;
+            try (InputStream is = file.openStream()) {
+                data = is.readAllBytes();
+            }
+            byte[] jpeg = MediaConverter.convertToJpeg(data, ext, size);
+            if (jpeg != null) return new Image(new ByteArrayInputStream(jpeg), size, size, true, true);
+        }
+
+        return null;
+    }
+
+    private static String cacheKey(BackupFile file, int size) {
+        return file.fileID + ":" + size;
+    }
+
+    private static byte[] encodeJpeg(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        if (width <= 0 || height <= 0 || image.getPixelReader() == null) return null;
+
+        int[] pixels = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        BufferedImage buffered = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        buffered.setRGB(0, 0, width, height, pixels, 0, width);
+
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            return ImageIO.write(buffered, "jpg", out) ? out.toByteArray() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static boolean isPlaceholder(Image image) {
+        return image == photoPlaceholder || image == videoPlaceholder;
+    }
+
+    private static long imageBytes(Image image) {
+        if (image == photoPlaceholder || image == videoPlaceholder) return 0;
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    /**
+     * Loads a large preview with interactive priority, ahead of any queued grid thumbnails.
+     * Cancel the returned request when the selection changes, so a stale preview is never shown.
+     */
+    public ThumbnailRequest loadPreview(BackupFile file, int maxSize, Consumer<Image> onLoaded) {
+        ThumbnailRequest request = new ThumbnailRequest(null, onLoaded);
+        request.task = scheduler.submit(() -> {
+            if (request.isCancelled()) return;
+            Image preview = generatePreview(file, maxSize, request);
+            if (preview != null) Platform.runLater(() -> request.deliver(preview));
+        }, Priority.INTERACTIVE, MEDIA_TAB);
+        return request;
+    }
+
+    private Image generatePreview(BackupFile file, int maxSize, ThumbnailRequest request) {
+        String ext = file.getFileExtension();
+        Image placeholder = isVideo(ext) ? getVideoPlaceholder() : getPhotoPlaceholder();
+
+        File tempFile = null;
+        File convertedFile = null;
+        try {
+            boolean nativeSupport = isSupportedImage(ext);
+            boolean convertible = MediaConverter.needsConversion(ext);
+
+            if (!nativeSupport && !convertible) return placeholder;
+
+            Image decoded = decodeInMemory(file, ext, maxSize);
+            if (decoded != null && !decoded.isError()) return decoded;
+            if (request.isCancelled()) return null;
+
+            tempFile = Files.createTempFile("preview_", "." + ext).toFile();
+            tempFile.deleteOnExit();
+            file.extract(tempFile, false);
+            if (request.isCancelled()) return null;
+
+            File imageFile = tempFile;
+            if (!nativeSupport && convertible) {
+                convertedFile = MediaConverter.convertToJpeg(tempFile, ext, maxSize);
+                if (convertedFile == null) return placeholder;
+                imageFile = convertedFile;
             }
-        });
+
+            try (InputStream is = new FileInputStream(imageFile)) {
+                Image preview = new Image(is, maxSize, maxSize, true, true);
+                return preview.isError() ? placeholder : preview;
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to generate preview for {}: {}", file.relativePath, e.getMessage());
+            return placeholder;
+        } finally {
+            if (tempFile != null && tempFile.exists()) tempFile.delete();
+            if (convertedFile != null && convertedFile.exists()) convertedFile.delete();
+        }
     }
 
     public void clearCache() {
@@ -214,14 +369,139 @@ public class ThumbnailService {
     }
 
     public void shutdown() {
-        executor.shutdown();
+        storeExecutor.shutdownNow();
+        diskCache.close();
+        MediaConverter.shutdownWorkers();
+        scheduler.shutdown();
         try {
-            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                executor.shutdownNow();
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
             }
         } catch (InterruptedException e) {
-            executor.shutdownNow();
+            scheduler.shutdownNow();
             Thread.currentThread().interrupt();
         }
     }
+
+    private final class ThumbnailJob implements Runnable {
+        final BackupFile file;
+        final int size;
+        final String key;
+        final String budget;
+        final List<ThumbnailRequest> requests = new ArrayList<>();
+        Priority priority;
+        Future<?> lookup;
+        PriorityScheduler.Task task;
+
+        ThumbnailJob(BackupFile file, int size, Priority priority, String budget) {
+            this.file = file;
+            this.size = size;
+            this.key = cacheKey(file, size);
+            this.priority = priority;
+            this.budget = budget;
+        }
+
+        void promote(Priority target) {
+            synchronized (pending) {
+                if (target.ordinal() >= priority.ordinal()) return;
+                priority = target;
+                if (task != null) task.promote(target);
+            }
+        }
+
+        boolean isAbandoned() {
+            synchronized (pending) {
+                return requests.isEmpty();
+            }
+        }
+
+        void release(ThumbnailRequest request) {
+            synchronized (pending) {
+                requests.remove(request);
+                if (!requests.isEmpty()) return;
+
+                pending.remove(key, this);
+                if (lookup != null) lookup.cancel(false);
+                if (task != null) task.cancel();
+            }
+        }
+
+        void lookupStored() {
+            if (isAbandoned()) return;
+
+            byte[] stored = diskCache.get(file, size);
+            if (stored != null) {
+                Image image = new Image(new ByteArrayInputStream(stored));
+                if (!image.isError()) {
+                    complete(image);
+                    return;
+                }
+            }
+
+            synchronized (pending) {
+                if (requests.isEmpty()) return;
+                task = scheduler.submit(this, priority, budget);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (isAbandoned()) return;
+
+            Image image = generateThumbnail(this);
+            if (image != null && !isPlaceholder(image) && PreferencesController.getThumbnailDiskCache()
+                    && ThumbnailDiskCache.accepts(file)) {
+                byte[] encoded = encodeJpeg(image);
+                if (encoded != null) diskCache.put(file, size, encoded);
+            }
+            complete(image);
+        }
+
+        private void complete(Image image) {
+            // A placeholder may stand for a transient failure, so the next request tries again
+            if (image != null && !isPlaceholder(image)) cache.put(key, image);
+
+            List<ThumbnailRequest> waiting;
+            synchronized (pending) {
+                pending.remove(key, this);
+                waiting = new ArrayList<>(requests);
+                requests.clear();
+            }
+            if (image == null || waiting.isEmpty()) return;
+            Platform.runLater(() -> waiting.forEach(request -> request.deliver(image)));
+        }
+    }
+
+    /**
+     * Handle for a queued thumbnail load. Cancelling it drops the callback and,
+     * once no other request is waiting for the same file, removes the work from the queue.
+     */
+    public static final class ThumbnailRequest {
+        static final ThumbnailRequest COMPLETED = new ThumbnailRequest(null, null);
+
+        private final ThumbnailJob job;
+        private final Consumer<Image> onLoaded;
+        private volatile PriorityScheduler.Task task;
+        private volatile boolean cancelled = false;
+
+        private ThumbnailRequest(ThumbnailJob job, Consumer<Image> onLoaded) {
+            this.job = job;
+            this.onLoaded = onLoaded;
+        }
+
+        public void cancel() {
+            if (cancelled || this == COMPLETED) return;
+            cancelled = true;
+            if (job != null) job.release(this);
+            if (task != null) task.cancel();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void deliver(Image image) {
+            if (!cancelled) onLoaded.accept(image);
+        }
+    }
 }
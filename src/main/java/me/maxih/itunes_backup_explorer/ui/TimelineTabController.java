@@ -0,0 +1,415 @@
+package me.maxih.itunes_backup_explorer.ui;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.fxml.FXML;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.*;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import me.maxih.itunes_backup_explorer.api.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class TimelineTabController {
+    private static final Logger logger = LoggerFactory.getLogger(TimelineTabController.class);
+    private static final int PAGE_SIZE = 200;
+    // Rows from the end of the loaded events at which the next page is fetched
+    private static final int PREFETCH_DISTANCE = 50;
+    private static final DateTimeFormatter DAY_FMT = DateTimeFormatter.ofPattern("EEEE, dd MMMM yyyy").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
+
+    private record OpenResult(Map<TimelineEvent.Source, TimelineCursor> cursors, List<AutoCloseable> services,
+                              File directory, boolean whatsappAcquired) {}
+
+    private WhatsAppDatabases whatsappDatabases;
+    private ITunesBackup selectedBackup;
+    private Map<TimelineEvent.Source, TimelineCursor> cursors;
+    private List<AutoCloseable> services = List.of();
+    private File databaseDir;
+    private boolean whatsappAcquired;
+    private Timeline timeline;
+    private Instant seekDate;
+    // Incremented on every jump, so pages still loading for the previous position are dropped
+    private int generation;
+    private boolean loading;
+    private boolean reachedEnd;
+    private final ObservableList<TimelineEvent> events = FXCollections.observableArrayList();
+    private final Map<javafx.concurrent.Task<?>, CompletableFuture<Void>> backgroundTasks = new HashMap<>();
+    private VirtualFlow<?> eventsFlow;
+
+    @FXML DatePicker datePicker;
+    @FXML Button newestButton;
+    @FXML CheckBox showWhatsApp;
+    @FXML CheckBox showMessages;
+    @FXML CheckBox showCalls;
+    @FXML CheckBox showPhotos;
+    @FXML ListView<TimelineEvent> eventListView;
+    @FXML VBox emptyStatePane;
+    @FXML Label statusLabel;
+
+    @FXML
+    public void initialize() {
+        eventListView.setItems(events);
+        eventListView.setCellFactory(listView -> new EventCell());
+        eventListView.setFocusTraversable(false);
+        eventListView.skinProperty().addListener((obs, oldSkin, newSkin) -> {
+            if (eventListView.lookup(".virtual-flow") instanceof VirtualFlow<?> flow) {
+                eventsFlow = flow;
+                flow.positionProperty().addListener((o, oldPos, newPos) -> prefetchEvents());
+            }
+        });
+
+        datePicker.valueProperty().addListener((obs, oldDate, newDate) -> {
+            // The whole picked day is shown, so the timeline continues before the start of the next one
+            jumpTo(newDate == null ? null : newDate.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+        });
+
+        for (CheckBox checkBox : List.of(showWhatsApp, showMessages, showCalls, showPhotos)) {
+            checkBox.selectedProperty().addListener((obs, oldVal, newVal) -> rebuildTimeline());
+        }
+    }
+
+    /**
+     * @param whatsappDatabases Shares the opened WhatsApp database of a backup with the WhatsApp tab
+     */
+    void setWhatsAppDatabases(WhatsAppDatabases whatsappDatabases) {
+        this.whatsappDatabases = whatsappDatabases;
+    }
+
+    public void tabShown(ITunesBackup backup) {
+        if (backup == this.selectedBackup && timeline != null) return;
+
+        cleanup();
+        this.selectedBackup = backup;
+        showEmptyState("Loading timeline...");
+
+        javafx.concurrent.Task<OpenResult> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected OpenResult call() throws Exception {
+                return openSources(backup, whatsappDatabases);
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            OpenResult result = task.getValue();
+            if (backup != selectedBackup) {
+                closeAll(result.services(), result.directory());
+                if (result.whatsappAcquired()) whatsappDatabases.release(backup);
+                return;
+            }
+            cursors = result.cursors();
+            services = result.services();
+            databaseDir = result.directory();
+            whatsappAcquired = result.whatsappAcquired();
+            if (cursors.isEmpty()) {
+                showEmptyState("No messages, calls or photos found in this backup");
+                return;
+            }
+            rebuildTimeline();
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to open timeline sources", task.getException());
+            showEmptyState("Failed to load the timeline");
+        });
+
+        Thread thread = new Thread(task, "timeline-open");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Opens every source the backup has. A source that cannot be read is left out of the timeline
+     * instead of failing it. The WhatsApp database is shared with the WhatsApp tab, so it is acquired
+     * from the shared databases instead of being opened with the other sources.
+     */
+    private static OpenResult openSources(ITunesBackup backup, WhatsAppDatabases whatsappDatabases) throws Exception {
+        Map<TimelineEvent.Source, TimelineCursor> cursors = new EnumMap<>(TimelineEvent.Source.class);
+        List<AutoCloseable> services = new ArrayList<>();
+        // Small databases are opened in memory, the directory only takes the ones too large for that
+        File directory = Files.createTempDirectory("timeline_db_").toFile();
+        directory.deleteOnExit();
+        boolean whatsappAcquired = false;
+
+        try {
+            WhatsAppDatabases.Database database = whatsappDatabases.acquire(backup);
+            if (database != null) {
+                whatsappAcquired = true;
+                cursors.put(TimelineEvent.Source.WHATSAPP, database.service().timelineCursor());
+            }
+        } catch (Exception e) {
+            logger.warn("Leaving WhatsApp out of the timeline: {}", e.getMessage());
+        }
+
+        try {
+            Connection connection = backup.openDatabase(SmsDatabaseService.DOMAIN, SmsDatabaseService.DATABASE_PATH, directory);
+            if (connection != null) {
+                SmsDatabaseService service = new SmsDatabaseService(connection);
+                services.add(service);
+                cursors.put(TimelineEvent.Source.MESSAGES, service.timelineCursor());
+            }
+        } catch (Exception e) {
+            logger.warn("Leaving messages out of the timeline: {}", e.getMessage());
+        }
+
+        try {
+            Connection connection = backup.openDatabase(CallHistoryService.DOMAIN, CallHistoryService.DATABASE_PATH, directory);
+            if (connection != null) {
+                CallHistoryService service = new CallHistoryService(connection);
+                services.add(service);
+                cursors.put(TimelineEvent.Source.CALLS, service.timelineCursor());
+            }
+        } catch (Exception e) {
+            logger.warn("Leaving calls out of the timeline: {}", e.getMessage());
+        }
+
+        try {
+            Connection connection = backup.openDatabase(PhotosLibrary.DOMAIN, PhotosLibrary.DATABASE_PATH, directory);
+            if (connection != null) {
+                PhotosLibrary library = new PhotosLibrary(connection);
+                services.add(library);
+                cursors.put(TimelineEvent.Source.PHOTOS, library.timelineCursor());
+            }
+        } catch (Exception e) {
+            logger.warn("Leaving photos out of the timeline: {}", e.getMessage());
+        }
+
+        logger.info("Opened timeline sources: {}", cursors.keySet());
+        return new OpenResult(cursors, services, directory, whatsappAcquired);
+    }
+
+    private void rebuildTimeline() {
+        if (cursors == null) return;
+
+        Map<TimelineEvent.Source, CheckBox> toggles = Map.of(
+                TimelineEvent.Source.WHATSAPP, showWhatsApp,
+                TimelineEvent.Source.MESSAGES, showMessages,
+                TimelineEvent.Source.CALLS, showCalls,
+                TimelineEvent.Source.PHOTOS, showPhotos
+        );
+        List<TimelineCursor> selected = new ArrayList<>();
+        cursors.forEach((source, cursor) -> {
+            if (toggles.get(source).isSelected()) selected.add(cursor);
+        });
+        timeline = new Timeline(selected);
+        jumpTo(seekDate);
+    }
+
+    @FXML
+    public void onNewest() {
+        if (datePicker.getValue() != null) datePicker.setValue(null);
+        else jumpTo(null);
+    }
+
+    private void jumpTo(Instant before) {
+        seekDate = before;
+        if (timeline == null) return;
+
+        generation++;
+        loading = false;
+        reachedEnd = false;
+        events.clear();
+        loadEvents(true);
+    }
+
+    private void prefetchEvents() {
+        if (eventsFlow == null || reachedEnd) return;
+
+        IndexedCell<?> last = eventsFlow.getLastVisibleCell();
+        if (last != null && last.getIndex() >= events.size() - PREFETCH_DISTANCE) loadEvents(false);
+    }
+
+    private void loadEvents(boolean seek) {
+        if (loading || reachedEnd) return;
+        loading = true;
+
+        Timeline current = timeline;
+        Instant before = seekDate;
+        int requestedGeneration = generation;
+        statusLabel.setText("Loading...");
+
+        javafx.concurrent.Task<List<TimelineEvent>> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected List<TimelineEvent> call() {
+                synchronized (current) {
+                    if (seek) current.seek(before);
+                    return current.next(PAGE_SIZE);
+                }
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            if (requestedGeneration != generation) return;
+            loading = false;
+            List<TimelineEvent> page = task.getValue();
+            reachedEnd = page.size() < PAGE_SIZE;
+            events.addAll(page);
+            if (seek) eventListView.scrollTo(0);
+
+            if (events.isEmpty()) {
+                showEmptyState(before == null ? "No events in this backup" : "No events before this date");
+            } else {
+                emptyStatePane.setVisible(false);
+            }
+            statusLabel.setText(events.size() + (reachedEnd ? " events" : "+ events") +
+                    (events.isEmpty() ? "" : ", back to " + DAY_FMT.format(events.get(events.size() - 1).date())));
+            prefetchEvents();
+        });
+
+        task.setOnFailed(event -> {
+            if (requestedGeneration != generation) return;
+            loading = false;
+            logger.error("Failed to load timeline events", task.getException());
+            statusLabel.setText("Failed to load events");
+        });
+
+        runInBackground(task, "timeline-load");
+    }
+
+    /**
+     * Runs a task that reads the sources, so they are closed only once it has stopped.
+     */
+    private void runInBackground(javafx.concurrent.Task<?> task, String name) {
+        CompletableFuture<Void> stopped = new CompletableFuture<>();
+        backgroundTasks.put(task, stopped);
+        stopped.thenRun(() -> Platform.runLater(() -> backgroundTasks.remove(task)));
+
+        // Completes however the task ends, also when it is cancelled before it starts running
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } finally {
+                stopped.complete(null);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void showEmptyState(String message) {
+        emptyStatePane.setVisible(true);
+        if (!emptyStatePane.getChildren().isEmpty() && emptyStatePane.getChildren().get(0) instanceof Label label) {
+            label.setText(message);
+        }
+        statusLabel.setText("");
+    }
+
+    private static void closeAll(List<AutoCloseable> services, File directory) {
+        for (AutoCloseable service : services) {
+            try {
+                service.close();
+            } catch (Exception e) {
+                logger.warn("Failed to close timeline source", e);
+            }
+        }
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            directory.delete();
+        }
+    }
+
+    private void cleanup() {
+        generation++;
+        // A page that is already loading can't be interrupted, so the sources are closed once it returns
+        backgroundTasks.keySet().forEach(javafx.concurrent.Task::cancel);
+        List<AutoCloseable> openServices = services;
+        File directory = databaseDir;
+        ITunesBackup whatsappBackup = whatsappAcquired ? selectedBackup : null;
+        CompletableFuture.allOf(backgroundTasks.values().toArray(CompletableFuture[]::new)).whenComplete((result, error) -> {
+            closeAll(openServices, directory);
+            if (whatsappBackup != null) whatsappDatabases.release(whatsappBackup);
+        });
+        backgroundTasks.clear();
+        services = List.of();
+        databaseDir = null;
+        whatsappAcquired = false;
+        cursors = null;
+        timeline = null;
+        seekDate = null;
+        loading = false;
+        reachedEnd = false;
+        events.clear();
+        if (datePicker.getValue() != null) datePicker.setValue(null);
+    }
+
+    private static boolean sameDay(Instant a, Instant b) {
+        ZoneId zone = ZoneId.systemDefault();
+        return LocalDate.ofInstant(a, zone).equals(LocalDate.ofInstant(b, zone));
+    }
+
+    private static class EventCell extends ListCell<TimelineEvent> {
+        private final VBox container = new VBox(2);
+        private final Label dayLabel = new Label();
+        private final HBox row = new HBox(8);
+        private final Label timeLabel = new Label();
+        private final Label sourceLabel = new Label();
+        private final Label titleLabel = new Label();
+        private final Label detailLabel = new Label();
+
+        EventCell() {
+            container.setPadding(new Insets(2, 12, 2, 12));
+            dayLabel.getStyleClass().add("timeline-day-header");
+
+            timeLabel.getStyleClass().add("whatsapp-timestamp");
+            timeLabel.setMinWidth(Region.USE_PREF_SIZE);
+            sourceLabel.getStyleClass().add("timeline-source");
+            sourceLabel.setMinWidth(Region.USE_PREF_SIZE);
+            titleLabel.getStyleClass().add("whatsapp-sender-name");
+            titleLabel.setMinWidth(Region.USE_PREF_SIZE);
+            titleLabel.setMaxWidth(240);
+            detailLabel.getStyleClass().add("whatsapp-message-text");
+            detailLabel.setMaxWidth(Double.MAX_VALUE);
+            HBox.setHgrow(detailLabel, Priority.ALWAYS);
+            row.setAlignment(Pos.CENTER_LEFT);
+            row.getChildren().addAll(timeLabel, sourceLabel, titleLabel, detailLabel);
+
+            getStyleClass().add("message-cell");
+        }
+
+        @Override
+        protected void updateItem(TimelineEvent event, boolean empty) {
+            super.updateItem(event, empty);
+            if (empty || event == null) {
+                setText(null);
+                setGraphic(null);
+                return;
+            }
+
+            int index = getIndex();
+            TimelineEvent previous = index > 0 ? getListView().getItems().get(index - 1) : null;
+            container.getChildren().clear();
+            if (previous == null || !sameDay(previous.date(), event.date())) {
+                dayLabel.setText(DAY_FMT.format(event.date()));
+                container.getChildren().add(dayLabel);
+            }
+            container.getChildren().add(row);
+
+            timeLabel.setText(TIME_FMT.format(event.date()));
+            sourceLabel.setText(event.source().label);
+            sourceLabel.getStyleClass().setAll("timeline-source",
+                    "timeline-source-" + event.source().name().toLowerCase(Locale.ROOT));
+            titleLabel.setText(event.title());
+            detailLabel.setText(event.detail() == null ? "" : event.detail().replace('\n', ' '));
+
+            setText(null);
+            setGraphic(container);
+        }
+    }
+}
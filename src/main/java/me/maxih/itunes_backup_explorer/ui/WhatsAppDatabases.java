@@ -0,0 +1,127 @@
+package me.maxih.itunes_backup_explorer.ui;
+
+import me.maxih.itunes_backup_explorer.api.BackupFile;
+import me.maxih.itunes_backup_explorer.api.ITunesBackup;
+import me.maxih.itunes_backup_explorer.api.WhatsAppDatabaseCache;
+import me.maxih.itunes_backup_explorer.api.WhatsAppDatabaseService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opens the WhatsApp database of a backup once for the WhatsApp and Timeline tabs, which would otherwise each
+ * extract it into the same cache directory. Each tab acquires the database while it shows the backup and
+ * releases it afterwards; the service is closed and the cache released when the last reference is gone.
+ * A tab gives back its reference only once the background tasks using the service have stopped, so the
+ * connection is never closed under a running query.
+ */
+class WhatsAppDatabases {
+
+    record Database(WhatsAppDatabaseService service, WhatsAppDatabaseCache cache, File file, String domain) {}
+
+    private static final class Entry {
+        int references;
+        Database database;
+    }
+
+    private final Map<ITunesBackup, Entry> entries = new HashMap<>();
+
+    /**
+     * Opens the database, or returns the one already opened for the backup, and takes a reference to it.
+     * Must not be called on the FX thread, the first call extracts the database.
+     *
+     * @return The database, or null without a reference taken if the backup has no WhatsApp data
+     */
+    Database acquire(ITunesBackup backup) throws Exception {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(backup, b -> new Entry());
+            entry.references++;
+        }
+
+        Database database;
+        try {
+            synchronized (entry) {
+                if (entry.database == null) entry.database = open(backup);
+                database = entry.database;
+            }
+        } catch (Exception e) {
+            release(backup);
+            throw e;
+        }
+        if (database == null) release(backup);
+        return database;
+    }
+
+    /**
+     * Gives back a reference taken by {@link #acquire(ITunesBackup)}.
+     */
+    void release(ITunesBackup backup) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(backup);
+            if (entry == null || --entry.references > 0) return;
+            entries.remove(backup);
+        }
+        synchronized (entry) {
+            if (entry.database != null) close(entry.database);
+        }
+    }
+
+    /**
+     * Closes every database regardless of remaining references, e.g. when the application exits.
+     */
+    void closeAll() {
+        List<Entry> remaining;
+        synchronized (entries) {
+            remaining = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        for (Entry entry : remaining) {
+            synchronized (entry) {
+                if (entry.database != null) close(entry.database);
+            }
+        }
+    }
+
+    private static Database open(ITunesBackup backup) throws Exception {
+        List<BackupFile> sources = WhatsAppDatabaseService.findDatabaseFiles(backup);
+        if (sources.isEmpty()) return null;
+
+        WhatsAppDatabaseCache cache = createCache(backup);
+        File file = cache.open(sources);
+        WhatsAppDatabaseService service = new WhatsAppDatabaseService(file);
+        // Add the paging indexes before the search index starts reading the database in parallel
+        service.ensureMessageIndexes();
+        cache.store();
+        return new Database(service, cache, file, sources.get(0).domain);
+    }
+
+    private static WhatsAppDatabaseCache createCache(ITunesBackup backup) throws IOException {
+        WhatsAppDatabaseCache.Encryption encryption = PreferencesController.getEncryptWhatsAppCache()
+                ? WhatsAppDatabaseCache.forBackup(backup) : null;
+        if (PreferencesController.getWhatsAppDatabaseCache()) {
+            return new WhatsAppDatabaseCache(WhatsAppDatabaseCache.DEFAULT_ROOT, backup.directory.getName(), encryption);
+        }
+
+        File root = Files.createTempDirectory("whatsapp_db_").toFile();
+        root.deleteOnExit();
+        return new WhatsAppDatabaseCache(root.toPath(), backup.directory.getName(), null);
+    }
+
+    private static void close(Database database) {
+        database.service().close();
+        WhatsAppDatabaseCache cache = database.cache();
+        if (cache.getDirectory().toPath().startsWith(WhatsAppDatabaseCache.DEFAULT_ROOT)) {
+            cache.release();
+        } else {
+            cache.delete();
+            cache.getDirectory().getParentFile().delete();
+        }
+    }
+}
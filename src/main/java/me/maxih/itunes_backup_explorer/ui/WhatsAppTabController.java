@@ -1,5 +1,6 @@
 package me.maxih.itunes_backup_explorer.ui;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.transformation.FilteredList;
@@ -15,30 +16,39 @@ import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
+import javafx.scene.text.Text;
+import javafx.scene.text.TextFlow;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import me.maxih.itunes_backup_explorer.api.*;
+import me.maxih.itunes_backup_explorer.util.PriorityScheduler;
+import me.maxih.itunes_backup_explorer.util.WeightedLruCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class WhatsAppTabController {
     private static final Logger logger = LoggerFactory.getLogger(WhatsAppTabController.class);
     private static final int PAGE_SIZE = 100;
+    private static final int SEARCH_PAGE_SIZE = 50;
+    // Rows from either end of the loaded messages at which the next page is fetched
+    private static final int PREFETCH_DISTANCE = 30;
+    private static final int MEDIA_THUMBNAIL_SIZE = 400;
+    private static final long EMBEDDED_THUMBNAIL_CACHE_BYTES = 32L * 1024 * 1024;
     private static final DateTimeFormatter TIME_FMT = DateTimeFormatter.ofPattern("HH:mm").withZone(ZoneId.systemDefault());
     private static final DateTimeFormatter SHORT_DATE_FMT = DateTimeFormatter.ofPattern("dd/MM HH:mm").withZone(ZoneId.systemDefault());
-    private static final DateTimeFormatter DATETIME_FMT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
-    private static final String WHATSAPP_DOMAIN = "%net.whatsapp%";
-    private static final String CHAT_STORAGE_PATTERN = "%ChatStorage.sqlite";
     private static final String WHATSAPP_GROUP_DOMAIN_PREFIX = "AppDomainGroup-group.net.whatsapp.WhatsApp";
     private static final String WHATSAPP_REGULAR_DOMAIN = "AppDomainGroup-group.net.whatsapp.WhatsApp.shared";
     private static final String WHATSAPP_BUSINESS_DOMAIN = "AppDomainGroup-group.net.whatsapp.WhatsAppSMB.shared";
@@ -48,20 +58,39 @@ public class WhatsAppTabController {
             "#61afef", "#c678dd", "#d19a66", "#be5046"
     };
 
-    private record DbLoadResult(WhatsAppDatabaseService service, String domain) {}
+    private record DbLoadResult(WhatsAppDatabases.Database database, WhatsAppMediaIndex mediaIndex) {}
 
+    private record MessageContext(WhatsAppDatabaseService.MessagePage older, WhatsAppDatabaseService.MessagePage newer) {}
+
+    private WhatsAppDatabases databases;
     private ITunesBackup selectedBackup;
     private WhatsAppDatabaseService databaseService;
-    private File tempDbDir;
+    private WhatsAppDatabaseCache databaseCache;
     private String whatsappDomain;
-    private final Map<String, Image> thumbnailCache = new HashMap<>();
+    private WhatsAppMediaIndex mediaIndex;
+    private final WeightedLruCache<Long, Image> embeddedThumbnails = new WeightedLruCache<>(
+            EMBEDDED_THUMBNAIL_CACHE_BYTES, image -> (long) image.getWidth() * (long) image.getHeight() * 4, false);
+    private final Map<Long, List<Consumer<Image>>> pendingThumbnails = new HashMap<>();
+    private final Set<Long> requestedThumbnails = new HashSet<>();
+    private final Set<Long> missingMedia = new HashSet<>();
     private File thumbnailCacheDir;
     private List<WhatsAppChat> allChats = new ArrayList<>();
     private FilteredList<WhatsAppChat> filteredChats;
     private WhatsAppChat selectedChat;
     private int loadedMessageCount;
+    private WhatsAppDatabaseService.MessageCursor olderMessagesCursor;
+    private WhatsAppDatabaseService.MessageCursor newerMessagesCursor;
+    private long pendingJumpMessageId = -1;
+    private WhatsAppSearchIndex searchIndex;
+    private final Map<javafx.concurrent.Task<?>, CompletableFuture<Void>> backgroundTasks = new HashMap<>();
+    private Map<Long, WhatsAppChat> chatsById = Map.of();
+    private final PauseTransition globalSearchDebounce = new PauseTransition(Duration.millis(250));
     private int totalMessageCount;
-    private List<WhatsAppMessage> allLoadedMessages = new ArrayList<>();
+    private MessageList<WhatsAppMessage> messageList;
+    private long highlightedMessageId = -1;
+    private boolean loadingOlderMessages;
+    private boolean loadingNewerMessages;
+    private boolean thumbnailLoadScheduled;
 
     @FXML SplitPane splitPane;
     @FXML TextField chatSearchField;
@@ -71,16 +100,22 @@ public class WhatsAppTabController {
     @FXML ToggleGroup chatFilterGroup;
     @FXML Label chatCountLabel;
     @FXML ListView<WhatsAppChat> chatListView;
+    @FXML TextField globalSearchField;
+    @FXML Label searchStatusLabel;
+    @FXML VBox searchResultsPane;
+    @FXML ListView<WhatsAppSearchHit> searchResultsView;
+    @FXML Button moreResultsButton;
     @FXML VBox conversationHeaderBox;
     @FXML Label conversationHeader;
     @FXML Label conversationInfo;
-    @FXML ScrollPane messagesScrollPane;
-    @FXML VBox messagesContainer;
+    @FXML ListView<WhatsAppMessage> messagesListView;
     @FXML VBox emptyStatePane;
     @FXML Button loadOlderButton;
+    @FXML Button loadNewerButton;
     @FXML Label messageCountLabel;
     @FXML TextField messageSearchField;
     @FXML Button exportButton;
+    @FXML Button exportAllButton;
     @FXML Button diagnosticsButton;
 
     @FXML
@@ -101,7 +136,31 @@ public class WhatsAppTabController {
             applyFilter();
         });
 
-        messageSearchField.textProperty().addListener((obs, oldVal, newVal) -> filterMessages(newVal));
+        messageSearchField.textProperty().addListener((obs, oldVal, newVal) -> messageList.filter(newVal));
+
+        messageList = new MessageList<>(messagesListView, WhatsAppMessage::id, WhatsAppTabController::isRenderable,
+                List.of(WhatsAppMessage::text, WhatsAppMessage::pushName), msg -> {
+            if (selectedChat == null) return null;
+            Node node = renderMessage(msg, selectedChat.isGroup());
+            if (node != null && msg.id() == highlightedMessageId) node.getStyleClass().add("whatsapp-message-highlight");
+            scheduleThumbnailLoad();
+            return node;
+        });
+        messageList.setPrefetch(PREFETCH_DISTANCE, () -> loadMessages(true), this::loadNewerMessages);
+
+        searchResultsView.setCellFactory(listView -> new SearchHitCell());
+        searchResultsView.getSelectionModel().selectedItemProperty().addListener((obs, oldHit, newHit) -> {
+            if (newHit != null) openSearchHit(newHit);
+        });
+        globalSearchDebounce.setOnFinished(event -> runGlobalSearch(false));
+        globalSearchField.textProperty().addListener((obs, oldVal, newVal) -> globalSearchDebounce.playFromStart());
+    }
+
+    /**
+     * @param databases Shares the opened database of a backup with the timeline
+     */
+    void setDatabases(WhatsAppDatabases databases) {
+        this.databases = databases;
     }
 
     public void tabShown(ITunesBackup backup) {
@@ -113,60 +172,35 @@ public class WhatsAppTabController {
         javafx.concurrent.Task<DbLoadResult> task = new javafx.concurrent.Task<>() {
             @Override
             protected DbLoadResult call() throws Exception {
-                List<BackupFile> results = backup.searchFiles(WHATSAPP_DOMAIN, CHAT_STORAGE_PATTERN);
-
-                List<BackupFile> chatDbs = results.stream()
-                        .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
-                        .filter(f -> f.relativePath.endsWith("ChatStorage.sqlite"))
-                        .collect(Collectors.toList());
+                WhatsAppDatabases.Database database = databases.acquire(backup);
+                if (database == null) return null;
 
-                logger.info("Found {} ChatStorage.sqlite candidates:", chatDbs.size());
-                chatDbs.forEach(f -> logger.info("  - domain='{}' path='{}' size={}",
-                        f.domain, f.relativePath, f.getSize()));
-
-                // Prefer regular WhatsApp (group container), then other WhatsApp domains,
-                // and only then WhatsApp Business. Within each tier, pick the largest DB.
-                Comparator<BackupFile> dbComparator = Comparator
-                        .comparingInt((BackupFile f) -> rankWhatsappDomain(f.domain))
-                        .thenComparing(Comparator.comparingLong(BackupFile::getSize).reversed());
-
-                BackupFile chatStorageFile = chatDbs.stream()
-                        .sorted(dbComparator)
-                        .findFirst()
-                        .orElse(null);
-
-                if (chatStorageFile == null) return null;
-
-                logger.info("Selected ChatStorage.sqlite from domain '{}' at '{}' (size={})",
-                        chatStorageFile.domain, chatStorageFile.relativePath, chatStorageFile.getSize());
-
-                // Create a temp directory so WAL/SHM companion files sit beside the main DB
-                File dir = Files.createTempDirectory("whatsapp_db_").toFile();
-                dir.deleteOnExit();
-                tempDbDir = dir;
-
-                File dbFile = new File(dir, "ChatStorage.sqlite");
-                dbFile.deleteOnExit();
-                chatStorageFile.extract(dbFile);
-
-                // Extract WAL and SHM — these contain the most recent uncommitted data
-                String domain = chatStorageFile.domain;
-                extractCompanionFile(backup, domain, "ChatStorage.sqlite-wal", dir);
-                extractCompanionFile(backup, domain, "ChatStorage.sqlite-shm", dir);
-
-                return new DbLoadResult(new WhatsAppDatabaseService(dbFile), domain);
+                try {
+                    return new DbLoadResult(database, WhatsAppMediaIndex.build(backup, database.domain()));
+                } catch (Exception e) {
+                    databases.release(backup);
+                    throw e;
+                }
             }
         };
 
         task.setOnSucceeded(event -> {
             DbLoadResult result = task.getValue();
+            // Shown again or switched to another backup while opening
+            if (backup != selectedBackup || databaseService != null) {
+                if (result != null) databases.release(backup);
+                return;
+            }
             if (result == null) {
                 showEmptyState("No WhatsApp data found in this backup");
                 return;
             }
-            databaseService = result.service();
-            whatsappDomain = result.domain();
+            databaseService = result.database().service();
+            databaseCache = result.database().cache();
+            whatsappDomain = result.database().domain();
+            mediaIndex = result.mediaIndex();
             diagnosticsButton.setDisable(false);
+            exportAllButton.setDisable(false);
             try {
                 thumbnailCacheDir = Files.createTempDirectory("whatsapp_thumbs_").toFile();
                 thumbnailCacheDir.deleteOnExit();
@@ -174,6 +208,7 @@ public class WhatsAppTabController {
                 logger.warn("Failed to create thumbnail cache directory", e);
             }
             loadChats();
+            buildSearchIndex(result.database().file());
         });
 
         task.setOnFailed(event -> {
@@ -186,35 +221,18 @@ public class WhatsAppTabController {
         thread.start();
     }
 
-    private static void extractCompanionFile(ITunesBackup backup, String domain, String fileName, File targetDir) {
-        try {
-            List<BackupFile> results = backup.searchFiles(domain, "%" + fileName);
-            BackupFile file = results.stream()
-                    .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
-                    .filter(f -> f.relativePath.endsWith(fileName))
-                    .findFirst()
-                    .orElse(null);
-            if (file != null) {
-                File target = new File(targetDir, fileName);
-                target.deleteOnExit();
-                file.extract(target);
-                logger.info("Extracted WAL companion '{}' ({} bytes)", fileName, target.length());
-            }
-        } catch (Exception e) {
-            logger.debug("Companion file '{}' not found or not extractable: {}", fileName, e.getMessage());
-        }
-    }
-
     private void loadChats() {
+        WhatsAppDatabaseService service = databaseService;
         javafx.concurrent.Task<List<WhatsAppChat>> task = new javafx.concurrent.Task<>() {
             @Override
             protected List<WhatsAppChat> call() throws Exception {
-                return databaseService.queryChats();
+                return service.queryChats();
             }
         };
 
         task.setOnSucceeded(event -> {
             allChats = task.getValue();
+            chatsById = allChats.stream().collect(Collectors.toMap(WhatsAppChat::id, chat -> chat, (a, b) -> a));
             filteredChats = new FilteredList<>(FXCollections.observableArrayList(allChats));
             chatListView.setItems(filteredChats);
             applyFilter();
@@ -225,18 +243,7 @@ public class WhatsAppTabController {
             showEmptyState("Failed to load conversations");
         });
 
-        Thread thread = new Thread(task, "whatsapp-load-chats");
-        thread.setDaemon(true);
-        thread.start();
-    }
-
-    private static int rankWhatsappDomain(String domain) {
-        if (domain == null) return 99;
-        String d = domain.toLowerCase(Locale.ROOT);
-        if (d.contains("whatsappsmb")) return 2;
-        if (d.startsWith("appdomaingroup-group.net.whatsapp.whatsapp")) return 0;
-        if (d.contains("net.whatsapp")) return 1;
-        return 9;
+        runInBackground(task, "whatsapp-load-chats");
     }
 
     private void applyFilter() {
@@ -263,9 +270,15 @@ public class WhatsAppTabController {
     private void onChatSelected(WhatsAppChat chat) {
         this.selectedChat = chat;
         this.loadedMessageCount = 0;
+        this.olderMessagesCursor = null;
+        this.newerMessagesCursor = null;
         this.totalMessageCount = chat.messageCount();
-        this.allLoadedMessages.clear();
-        this.messagesContainer.getChildren().clear();
+        this.messageList.clear();
+        this.highlightedMessageId = -1;
+        this.loadingOlderMessages = false;
+        this.loadingNewerMessages = false;
+        this.pendingThumbnails.clear();
+        this.requestedThumbnails.clear();
         this.messageSearchField.clear();
 
         conversationHeaderBox.setVisible(true);
@@ -277,23 +290,37 @@ public class WhatsAppTabController {
 
         emptyStatePane.setVisible(false);
         exportButton.setDisable(false);
+        updateLoadNewerButton();
 
-        loadMessages(false);
+        long jumpTo = pendingJumpMessageId;
+        pendingJumpMessageId = -1;
+        if (jumpTo >= 0) loadMessageContext(jumpTo);
+        else loadMessages(false);
     }
 
     private void loadMessages(boolean loadOlder) {
         if (selectedChat == null || databaseService == null) return;
 
-        javafx.concurrent.Task<List<WhatsAppMessage>> task = new javafx.concurrent.Task<>() {
+        WhatsAppChat chat = selectedChat;
+        WhatsAppDatabaseService.MessageCursor cursor = loadOlder ? olderMessagesCursor : null;
+        if (loadOlder && (cursor == null || loadingOlderMessages)) return;
+        loadingOlderMessages = loadOlder;
+
+        WhatsAppDatabaseService service = databaseService;
+        javafx.concurrent.Task<WhatsAppDatabaseService.MessagePage> task = new javafx.concurrent.Task<>() {
             @Override
-            protected List<WhatsAppMessage> call() throws Exception {
-                int offset = loadOlder ? loadedMessageCount : 0;
-                return databaseService.queryMessages(selectedChat.id(), PAGE_SIZE, offset);
+            protected WhatsAppDatabaseService.MessagePage call() throws Exception {
+                return service.queryMessagePage(chat.id(), cursor, PAGE_SIZE);
             }
         };
 
         task.setOnSucceeded(event -> {
-            List<WhatsAppMessage> newMessages = task.getValue();
+            if (chat != selectedChat) return;
+            loadingOlderMessages = false;
+
+            WhatsAppDatabaseService.MessagePage page = task.getValue();
+            List<WhatsAppMessage> newMessages = new ArrayList<>(page.messages());
+            olderMessagesCursor = page.nextCursor();
             if (newMessages.isEmpty()) {
                 loadOlderButton.setDisable(true);
                 if (!loadOlder) {
@@ -321,50 +348,314 @@ public class WhatsAppTabController {
                                 m.media().thumbnailLocalPath(), m.media().xmppThumbPath()));
             }
 
-            boolean isGroup = selectedChat.isGroup();
-            List<Node> bubbles = newMessages.stream()
-                    .map(msg -> renderMessage(msg, isGroup))
-                    .filter(java.util.Objects::nonNull)
-                    .collect(Collectors.toList());
-
             if (loadOlder) {
-                allLoadedMessages.addAll(0, newMessages);
-                messagesContainer.getChildren().addAll(0, bubbles);
+                messageList.prependPage(newMessages);
             } else {
-                allLoadedMessages.addAll(newMessages);
-                messagesContainer.getChildren().addAll(bubbles);
+                messageList.appendPage(newMessages);
+                messageList.scrollToEnd();
             }
 
             loadedMessageCount += newMessages.size();
             updateMessageCountLabel();
-            loadOlderButton.setDisable(loadedMessageCount >= totalMessageCount);
+            loadOlderButton.setDisable(olderMessagesCursor == null);
+        });
 
-            if (!loadOlder) {
-                Platform.runLater(() -> messagesScrollPane.setVvalue(1.0));
+        task.setOnFailed(event -> {
+            if (chat == selectedChat) loadingOlderMessages = false;
+            logger.error("Failed to load messages", task.getException());
+            Dialogs.showAlert(Alert.AlertType.ERROR,
+                    "Failed to load messages: " + task.getException().getMessage());
+        });
+
+        runInBackground(task, "whatsapp-load-messages");
+    }
+
+    /**
+     * Collects the thumbnails requested by all cells rendered in the same pulse into one batch.
+     */
+    private void scheduleThumbnailLoad() {
+        if (thumbnailLoadScheduled || pendingThumbnails.isEmpty()) return;
+        thumbnailLoadScheduled = true;
+        Platform.runLater(() -> {
+            thumbnailLoadScheduled = false;
+            loadPendingThumbnails();
+        });
+    }
+
+    /**
+     * Loads the embedded thumbnails of the rendered bubbles that are not cached yet, in one batch,
+     * and swaps them in for the placeholders.
+     */
+    private void loadPendingThumbnails() {
+        if (databaseService == null) return;
+
+        List<Long> ids = pendingThumbnails.keySet().stream().filter(requestedThumbnails::add).toList();
+        if (ids.isEmpty()) return;
+
+        WhatsAppDatabaseService service = databaseService;
+        javafx.concurrent.Task<Map<Long, Image>> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected Map<Long, Image> call() throws Exception {
+                Map<Long, Image> images = new HashMap<>();
+                for (Map.Entry<Long, byte[]> entry : service.queryThumbnailData(ids).entrySet()) {
+                    Image image = new Image(new ByteArrayInputStream(entry.getValue()));
+                    if (!image.isError()) images.put(entry.getKey(), image);
+                    else logger.debug("Embedded thumbnail of media item {} failed to decode", entry.getKey());
+                }
+                return images;
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            Map<Long, Image> images = task.getValue();
+            for (Long id : ids) {
+                requestedThumbnails.remove(id);
+                Image image = images.get(id);
+                if (image != null) embeddedThumbnails.put(id, image);
+                List<Consumer<Image>> consumers = pendingThumbnails.remove(id);
+                if (consumers != null) consumers.forEach(consumer -> consumer.accept(image));
             }
         });
 
         task.setOnFailed(event -> {
-            logger.error("Failed to load messages", task.getException());
+            logger.warn("Failed to load embedded thumbnails", task.getException());
+            ids.forEach(id -> {
+                requestedThumbnails.remove(id);
+                pendingThumbnails.remove(id);
+            });
+        });
+
+        runInBackground(task, "whatsapp-load-thumbnails");
+    }
+
+    /**
+     * Shows a search hit in its chat: the message itself with a page of older messages above it
+     * and newer ones below, continued with the load older/newer buttons.
+     */
+    private void loadMessageContext(long messageId) {
+        if (selectedChat == null || databaseService == null) return;
+
+        WhatsAppChat chat = selectedChat;
+        WhatsAppDatabaseService service = databaseService;
+        javafx.concurrent.Task<MessageContext> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected MessageContext call() throws Exception {
+                WhatsAppDatabaseService.MessageCursor target = service.cursorOf(messageId);
+                if (target == null) {
+                    return new MessageContext(service.queryMessagePage(chat.id(), null, PAGE_SIZE), null);
+                }
+                return new MessageContext(
+                        service.queryMessagePage(chat.id(), target.including(), PAGE_SIZE),
+                        service.queryNewerMessagePage(chat.id(), target, PAGE_SIZE)
+                );
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            if (chat != selectedChat) return;
+
+            MessageContext context = task.getValue();
+            List<WhatsAppMessage> messages = new ArrayList<>(context.older().messages());
+            Collections.reverse(messages);
+            if (context.newer() != null) messages.addAll(context.newer().messages());
+
+            olderMessagesCursor = context.older().nextCursor();
+            newerMessagesCursor = context.newer() != null ? context.newer().nextCursor() : null;
+
+            highlightedMessageId = messageId;
+            messageList.appendPage(messages);
+            loadedMessageCount += messages.size();
+            updateMessageCountLabel();
+            loadOlderButton.setDisable(olderMessagesCursor == null);
+            updateLoadNewerButton();
+            // Leave a few rows of context above the message
+            messageList.scrollToMessage(messageId, 3);
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to load message context", task.getException());
             Dialogs.showAlert(Alert.AlertType.ERROR,
                     "Failed to load messages: " + task.getException().getMessage());
         });
 
-        Thread thread = new Thread(task, "whatsapp-load-messages");
+        runInBackground(task, "whatsapp-load-context");
+    }
+
+    private void loadNewerMessages() {
+        if (selectedChat == null || databaseService == null || newerMessagesCursor == null || loadingNewerMessages) return;
+        loadingNewerMessages = true;
+
+        WhatsAppChat chat = selectedChat;
+        WhatsAppDatabaseService.MessageCursor cursor = newerMessagesCursor;
+        WhatsAppDatabaseService service = databaseService;
+        javafx.concurrent.Task<WhatsAppDatabaseService.MessagePage> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected WhatsAppDatabaseService.MessagePage call() throws Exception {
+                return service.queryNewerMessagePage(chat.id(), cursor, PAGE_SIZE);
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            if (chat != selectedChat || cursor != newerMessagesCursor) return;
+            loadingNewerMessages = false;
+
+            WhatsAppDatabaseService.MessagePage page = task.getValue();
+            newerMessagesCursor = page.nextCursor();
+            messageList.appendPage(page.messages());
+            loadedMessageCount += page.messages().size();
+            updateMessageCountLabel();
+            updateLoadNewerButton();
+        });
+
+        task.setOnFailed(event -> {
+            if (chat == selectedChat) loadingNewerMessages = false;
+            logger.error("Failed to load newer messages", task.getException());
+            Dialogs.showAlert(Alert.AlertType.ERROR,
+                    "Failed to load messages: " + task.getException().getMessage());
+        });
+
+        runInBackground(task, "whatsapp-load-messages");
+    }
+
+    private void updateLoadNewerButton() {
+        boolean hasNewer = newerMessagesCursor != null;
+        loadNewerButton.setVisible(hasNewer);
+        loadNewerButton.setManaged(hasNewer);
+    }
+
+    private void buildSearchIndex(File dbFile) {
+        WhatsAppSearchIndex index = new WhatsAppSearchIndex(dbFile);
+        WhatsAppDatabaseCache cache = databaseCache;
+        searchIndex = index;
+
+        javafx.concurrent.Task<Boolean> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected Boolean call() throws Exception {
+                boolean complete = index.build(this::isCancelled, progress -> updateProgress(progress, 1));
+                // Keep the finished index with the cached database, so it is not rebuilt next time
+                if (complete && cache != null) {
+                    try {
+                        cache.store();
+                    } catch (IOException e) {
+                        logger.warn("Failed to store WhatsApp search index in cache", e);
+                    }
+                }
+                return complete;
+            }
+        };
+
+        searchStatusLabel.setText("Indexing messages...");
+        task.progressProperty().addListener((obs, oldVal, newVal) -> {
+            if (index == searchIndex && newVal.doubleValue() >= 0)
+                searchStatusLabel.setText(String.format("Indexing messages... %d%%", Math.round(newVal.doubleValue() * 100)));
+        });
+
+        task.setOnSucceeded(event -> {
+            if (index != searchIndex) return;
+            searchStatusLabel.setText("");
+            if (Boolean.TRUE.equals(task.getValue())) runGlobalSearch(false);
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to build WhatsApp search index", task.getException());
+            if (index == searchIndex) searchStatusLabel.setText("Search unavailable");
+        });
+
+        runInBackground(task, "whatsapp-search-index");
+    }
+
+    /**
+     * Runs a task that uses the database or the search index, so they are released only once it has stopped.
+     */
+    private void runInBackground(javafx.concurrent.Task<?> task, String name) {
+        CompletableFuture<Void> stopped = new CompletableFuture<>();
+        backgroundTasks.put(task, stopped);
+        stopped.thenRun(() -> Platform.runLater(() -> backgroundTasks.remove(task)));
+
+        // Completes however the task ends, also when it is cancelled before it starts running
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } finally {
+                stopped.complete(null);
+            }
+        }, name);
         thread.setDaemon(true);
         thread.start();
     }
 
+    private void runGlobalSearch(boolean append) {
+        globalSearchDebounce.stop();
+
+        String query = globalSearchField.getText() == null ? "" : globalSearchField.getText().trim();
+        boolean active = !query.isEmpty();
+        searchResultsPane.setVisible(active);
+        chatListView.setVisible(!active);
+        if (!active) {
+            searchResultsView.getItems().clear();
+            moreResultsButton.setVisible(false);
+            if (searchIndex != null && searchIndex.isReady()) searchStatusLabel.setText("");
+            return;
+        }
+        if (searchIndex == null || !searchIndex.isReady()) return;
+
+        WhatsAppSearchIndex index = searchIndex;
+        int offset = append ? searchResultsView.getItems().size() : 0;
+        javafx.concurrent.Task<List<WhatsAppSearchHit>> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected List<WhatsAppSearchHit> call() throws Exception {
+                long start = System.currentTimeMillis();
+                List<WhatsAppSearchHit> hits = index.search(query, SEARCH_PAGE_SIZE, offset);
+                logger.debug("Search for '{}' (offset {}) returned {} hits in {} ms",
+                        query, offset, hits.size(), System.currentTimeMillis() - start);
+                return hits;
+            }
+        };
+
+        task.setOnSucceeded(event -> {
+            if (index != searchIndex || !query.equals(globalSearchField.getText().trim())) return;
+
+            List<WhatsAppSearchHit> hits = task.getValue();
+            if (append) searchResultsView.getItems().addAll(hits);
+            else searchResultsView.getItems().setAll(hits);
+
+            boolean hasMore = hits.size() == SEARCH_PAGE_SIZE;
+            moreResultsButton.setVisible(hasMore);
+            int count = searchResultsView.getItems().size();
+            searchStatusLabel.setText(count + (hasMore ? "+" : "") + (count == 1 ? " result" : " results"));
+        });
+
+        task.setOnFailed(event -> {
+            logger.error("WhatsApp search failed", task.getException());
+            searchStatusLabel.setText("Search failed");
+        });
+
+        runInBackground(task, "whatsapp-search");
+    }
+
+    private void openSearchHit(WhatsAppSearchHit hit) {
+        WhatsAppChat chat = chatsById.get(hit.chatSessionId());
+        if (chat == null) return;
+
+        pendingJumpMessageId = hit.messageId();
+        if (chatListView.getSelectionModel().getSelectedItem() != chat) {
+            chatListView.getSelectionModel().select(chat);
+        }
+        // Also covers re-opening the selected chat and chats hidden by the chat list filter
+        if (pendingJumpMessageId >= 0) onChatSelected(chat);
+    }
+
     private Node renderMessage(WhatsAppMessage msg, boolean isGroup) {
         boolean hasText = msg.text() != null && !msg.text().isBlank();
         boolean hasMedia = msg.media() != null;
-        boolean hasThumbnail = hasMedia && msg.media().thumbnailData() != null && msg.media().thumbnailData().length > 0;
-        String typeLabel = getMessageTypeLabel(msg.messageType());
+        boolean hasThumbnail = hasMedia && msg.media().hasThumbnailData();
+        String typeLabel = WhatsAppMessage.typeLabel(msg.messageType());
 
         if (!hasText && !hasMedia && typeLabel == null) {
             return null;
         }
 
+        MediaThumbnailLoad mediaLoad = null;
         VBox bubble = new VBox(2);
         bubble.setMaxWidth(420);
         bubble.getStyleClass().add("whatsapp-bubble");
@@ -380,45 +671,40 @@ public class WhatsAppTabController {
         }
 
         if (hasThumbnail) {
-            try {
-                Image img = new Image(new ByteArrayInputStream(msg.media().thumbnailData()));
-                if (!img.isError()) {
-                    bubble.getChildren().add(createMediaImageView(img, msg));
-                } else {
-                    logger.debug("Embedded thumbnail failed to decode for msg {}, localPath={}", msg.id(), msg.media().localPath());
-                    addMediaPlaceholder(bubble, typeLabel);
-                }
-            } catch (Exception e) {
+            Image cached = embeddedThumbnails.get(msg.media().mediaItemId());
+            if (cached != null) {
+                bubble.getChildren().add(createMediaImageView(cached, msg));
+            } else {
+                // The BLOB is loaded in a batch once the page is rendered, see loadPendingThumbnails
                 addMediaPlaceholder(bubble, typeLabel);
+                Node placeholder = bubble.getChildren().get(bubble.getChildren().size() - 1);
+                pendingThumbnails.computeIfAbsent(msg.media().mediaItemId(), id -> new ArrayList<>(1)).add(image -> {
+                    int index = bubble.getChildren().indexOf(placeholder);
+                    if (image != null && index >= 0) {
+                        bubble.getChildren().set(index, createMediaImageView(image, msg));
+                        messageList.invalidateHeight(msg.id());
+                    }
+                });
             }
         } else if (hasMedia) {
-            Image thumbImage = null;
-            // Try the actual media file by explicit localPath (best quality)
-            if (msg.media().localPath() != null) {
-                thumbImage = loadMediaFile(msg.media().localPath());
-            }
-            // Try to find full media by UUID from the xmpp thumb path
-            if (thumbImage == null && msg.media().xmppThumbPath() != null) {
-                thumbImage = loadFullMediaByThumbPath(msg.media().xmppThumbPath());
-            }
-            // Fall back to thumbnail paths
-            if (thumbImage == null && msg.media().thumbnailLocalPath() != null) {
-                thumbImage = loadMediaFile(msg.media().thumbnailLocalPath());
-            }
-            if (thumbImage == null && msg.media().xmppThumbPath() != null) {
-                thumbImage = loadMediaFile(msg.media().xmppThumbPath());
-            }
-            // Last resort: .thumb heuristic
-            if (thumbImage == null && msg.media().localPath() != null) {
-                thumbImage = loadThumbnail(msg.media().localPath());
-            }
-            if (thumbImage != null) {
-                bubble.getChildren().add(createMediaImageView(thumbImage, msg));
-            } else {
-                logger.info("Media not found for msg {} type={}, localPath={}, thumbLocalPath={}, xmppThumb={}",
-                        msg.id(), msg.messageType(), msg.media().localPath(),
-                        msg.media().thumbnailLocalPath(), msg.media().xmppThumbPath());
-                addMediaPlaceholderWithDetails(bubble, typeLabel, msg);
+            // The files are extracted and decoded by the thumbnail service, the details stay until one of them loads
+            addMediaPlaceholderWithDetails(bubble, typeLabel, msg);
+            Node placeholder = bubble.getChildren().get(bubble.getChildren().size() - 1);
+            if (!missingMedia.contains(msg.id())) {
+                mediaLoad = new MediaThumbnailLoad(resolveMediaFiles(msg.media()), image -> {
+                    int index = bubble.getChildren().indexOf(placeholder);
+                    if (image == null) {
+                        // Remember the miss, so scrolling back does not try the same files again
+                        missingMedia.add(msg.id());
+                        logger.debug("Media not found for msg {} type={}, localPath={}, thumbLocalPath={}, xmppThumb={}",
+                                msg.id(), msg.messageType(), msg.media().localPath(),
+                                msg.media().thumbnailLocalPath(), msg.media().xmppThumbPath());
+                    } else if (index >= 0) {
+                        bubble.getChildren().set(index, createMediaImageView(image, msg));
+                        messageList.invalidateHeight(msg.id());
+                    }
+                });
+                mediaLoad.loadNext();
             }
         }
 
@@ -454,6 +740,8 @@ public class WhatsAppTabController {
         row.setPadding(new Insets(2, 8, 2, 8));
         row.setAlignment(msg.fromMe() ? Pos.CENTER_RIGHT : Pos.CENTER_LEFT);
         row.getChildren().add(bubble);
+        // The load only updates this row, so it is dropped once the cell shows another message
+        if (mediaLoad != null) MessageList.onRecycle(row, mediaLoad::cancel);
 
         return row;
     }
@@ -488,49 +776,28 @@ public class WhatsAppTabController {
         bubble.getChildren().add(mediaBox);
     }
 
-    private Image loadThumbnail(String mediaLocalPath) {
-        if (mediaLocalPath == null || selectedBackup == null || whatsappDomain == null || thumbnailCacheDir == null)
-            return null;
-
-        Image cached = thumbnailCache.get(mediaLocalPath);
-        if (cached != null) return cached;
-
-        try {
-            String thumbName = mediaLocalPath.replaceAll("\\.[^.]+$", ".thumb");
-            String basename = thumbName.contains("/") ? thumbName.substring(thumbName.lastIndexOf('/') + 1) : thumbName;
-
-            // Search patterns from most specific to broadest
-            String[] patterns = {
-                "%" + thumbName,       // e.g. %Photos/IMG_001.thumb
-                "%" + basename         // e.g. %IMG_001.thumb
-            };
-
-            BackupFile thumbFile = null;
-            for (String pattern : patterns) {
-                List<BackupFile> results = selectedBackup.searchFiles(whatsappDomain, pattern);
-                thumbFile = results.stream()
-                        .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
-                        .findFirst()
-                        .orElse(null);
-                if (thumbFile != null) break;
-            }
-
-            if (thumbFile == null) return null;
-
-            File tempFile = new File(thumbnailCacheDir, thumbFile.fileID + ".thumb");
-            if (!tempFile.exists()) {
-                thumbFile.extract(tempFile);
-            }
-
-            Image image = new Image(tempFile.toURI().toString(), 400, 0, true, true);
-            if (!image.isError()) {
-                thumbnailCache.put(mediaLocalPath, image);
-                return image;
-            }
-        } catch (Exception e) {
-            logger.debug("Failed to load thumbnail for {}", mediaLocalPath, e);
+    /**
+     * Lists the backup files that may show the media of a bubble, best quality first: the media file itself,
+     * the full media found by the UUID of its thumbnail, then the thumbnails.
+     */
+    private List<BackupFile> resolveMediaFiles(WhatsAppMedia media) {
+        if (mediaIndex == null) return List.of();
+
+        List<BackupFile> candidates = new ArrayList<>();
+        candidates.add(mediaIndex.findByPathSuffix(media.localPath()));
+        if (media.xmppThumbPath() != null && media.xmppThumbPath().endsWith(".thumb")) {
+            candidates.add(mediaIndex.findByStem(extractThumbBaseName(media.xmppThumbPath()),
+                    f -> !f.relativePath.endsWith(".thumb")));
         }
-        return null;
+        candidates.add(mediaIndex.findByPathSuffix(media.thumbnailLocalPath()));
+        candidates.add(mediaIndex.findByPathSuffix(media.xmppThumbPath()));
+        // Last resort: .thumb next to the media file
+        if (media.localPath() != null) {
+            candidates.add(mediaIndex.findByPathSuffix(media.localPath().replaceAll("\\.[^.]+$", ".thumb")));
+        }
+
+        Set<String> fileIDs = new HashSet<>();
+        return candidates.stream().filter(f -> f != null && fileIDs.add(f.fileID)).toList();
     }
 
     private boolean isImageType(WhatsAppMessage msg) {
@@ -538,111 +805,15 @@ public class WhatsAppTabController {
             (msg.media() != null && msg.media().mimeType() != null && msg.media().mimeType().startsWith("image/"));
     }
 
-    private Image loadMediaFile(String localPath) {
-        if (localPath == null || selectedBackup == null || whatsappDomain == null || thumbnailCacheDir == null)
-            return null;
-
-        String cacheKey = "media:" + localPath;
-        Image cached = thumbnailCache.get(cacheKey);
-        if (cached != null) return cached;
-
-        String basename = localPath.contains("/") ? localPath.substring(localPath.lastIndexOf('/') + 1) : localPath;
-
-        // Search patterns from most specific to broadest
-        String[] patterns = {
-            "%" + localPath,      // e.g. %Media/0/IMG_001.jpg
-            "%" + basename        // e.g. %IMG_001.jpg
-        };
-
-        // Try exact domain first, then all WhatsApp domains
-        String[] domains = {whatsappDomain, "%net.whatsapp%"};
-
-        for (String domain : domains) {
-            for (String pattern : patterns) {
-                try {
-                    List<BackupFile> results = selectedBackup.searchFiles(domain, pattern);
-                    BackupFile mediaFile = results.stream()
-                        .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
-                        .findFirst()
-                        .orElse(null);
-
-                    if (mediaFile != null) {
-                        File tempFile = new File(thumbnailCacheDir, "media_" + mediaFile.fileID);
-                        if (!tempFile.exists()) {
-                            mediaFile.extract(tempFile);
-                        }
-                        Image image = new Image(tempFile.toURI().toString(), 400, 0, true, true);
-                        if (!image.isError()) {
-                            thumbnailCache.put(cacheKey, image);
-                            return image;
-                        }
-                    }
-                } catch (Exception e) {
-                    logger.debug("Failed to load media file {}", localPath, e);
-                }
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Finds the full-resolution media file by extracting the UUID from an xmpp thumb path.
-     * E.g. "Media/553...@s.whatsapp.net/a/c/ac74d48b-...-559e812f707.thumb"
-     *   → searches for "%ac74d48b-...-559e812f707%" excluding .thumb files.
-     */
-    private Image loadFullMediaByThumbPath(String xmppThumbPath) {
-        if (xmppThumbPath == null || !xmppThumbPath.endsWith(".thumb") || thumbnailCacheDir == null)
-            return null;
-
-        String cacheKey = "fullmedia:" + xmppThumbPath;
-        Image cached = thumbnailCache.get(cacheKey);
-        if (cached != null) return cached;
-
-        String baseName = extractThumbBaseName(xmppThumbPath);
-        if (baseName == null) return null;
-
-        try {
-            List<BackupFile> results = selectedBackup.searchFiles("%net.whatsapp%", "%" + baseName + "%");
-            BackupFile mediaFile = results.stream()
-                    .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
-                    .filter(f -> !f.relativePath.endsWith(".thumb"))
-                    .findFirst()
-                    .orElse(null);
-
-            if (mediaFile != null) {
-                logger.info("Found full media via UUID '{}' → {} ({} in {})",
-                        baseName, mediaFile.relativePath, mediaFile.fileID, mediaFile.domain);
-                File tempFile = new File(thumbnailCacheDir, "media_" + mediaFile.fileID);
-                if (!tempFile.exists()) {
-                    mediaFile.extract(tempFile);
-                }
-                Image image = new Image(tempFile.toURI().toString(), 400, 0, true, true);
-                if (!image.isError()) {
-                    thumbnailCache.put(cacheKey, image);
-                    return image;
-                }
-            }
-        } catch (Exception e) {
-            logger.debug("Failed to find full media by thumb path: {}", xmppThumbPath, e);
-        }
-        return null;
-    }
-
     private File extractFullMediaByThumbPath(String xmppThumbPath) {
-        if (xmppThumbPath == null || !xmppThumbPath.endsWith(".thumb") || thumbnailCacheDir == null)
+        if (xmppThumbPath == null || !xmppThumbPath.endsWith(".thumb") || mediaIndex == null || thumbnailCacheDir == null)
             return null;
 
         String baseName = extractThumbBaseName(xmppThumbPath);
         if (baseName == null) return null;
 
         try {
-            List<BackupFile> results = selectedBackup.searchFiles("%net.whatsapp%", "%" + baseName + "%");
-            BackupFile mediaFile = results.stream()
-                    .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
-                    .filter(f -> !f.relativePath.endsWith(".thumb"))
-                    .findFirst()
-                    .orElse(null);
-
+            BackupFile mediaFile = mediaIndex.findByStem(baseName, f -> !f.relativePath.endsWith(".thumb"));
             if (mediaFile != null) {
                 String rp = mediaFile.relativePath;
                 String ext = rp.contains(".") ? rp.substring(rp.lastIndexOf('.')) : "";
@@ -683,7 +854,7 @@ public class WhatsAppTabController {
     }
 
     private void openMediaFullSize(WhatsAppMessage msg) {
-        if (msg.media() == null || selectedBackup == null || whatsappDomain == null) return;
+        if (msg.media() == null || mediaIndex == null) return;
 
         javafx.concurrent.Task<File> task = new javafx.concurrent.Task<>() {
             @Override
@@ -729,33 +900,21 @@ public class WhatsAppTabController {
     }
 
     private File extractFullMediaFile(String localPath) {
-        if (localPath == null || thumbnailCacheDir == null) return null;
+        if (localPath == null || mediaIndex == null || thumbnailCacheDir == null) return null;
+
+        BackupFile mediaFile = mediaIndex.findByPathSuffix(localPath);
+        if (mediaFile == null) return null;
 
         String basename = localPath.contains("/") ? localPath.substring(localPath.lastIndexOf('/') + 1) : localPath;
         String ext = basename.contains(".") ? basename.substring(basename.lastIndexOf('.')) : "";
-        String[] patterns = {"%" + localPath, "%" + basename};
-        String[] domains = {whatsappDomain, "%net.whatsapp%"};
-
-        for (String domain : domains) {
-            for (String pattern : patterns) {
-                try {
-                    List<BackupFile> results = selectedBackup.searchFiles(domain, pattern);
-                    BackupFile mediaFile = results.stream()
-                            .filter(f -> f.getFileType() == BackupFile.FileType.FILE)
-                            .findFirst()
-                            .orElse(null);
-
-                    if (mediaFile != null) {
-                        File tempFile = new File(thumbnailCacheDir, "full_" + mediaFile.fileID + ext);
-                        if (!tempFile.exists()) {
-                            mediaFile.extract(tempFile);
-                        }
-                        return tempFile;
-                    }
-                } catch (Exception e) {
-                    logger.debug("Failed to extract full media: {}", e.getMessage());
-                }
+        try {
+            File tempFile = new File(thumbnailCacheDir, "full_" + mediaFile.fileID + ext);
+            if (!tempFile.exists()) {
+                mediaFile.extract(tempFile);
             }
+            return tempFile;
+        } catch (Exception e) {
+            logger.debug("Failed to extract full media: {}", e.getMessage());
         }
         return null;
     }
@@ -813,44 +972,12 @@ public class WhatsAppTabController {
         }
     }
 
-    private String getMessageTypeLabel(int type) {
-        return switch (type) {
-            case 0 -> null;
-            case 1 -> "\uD83D\uDCF7 Photo";
-            case 2 -> "\uD83C\uDFA5 Video";
-            case 3, 8 -> "\uD83C\uDFA4 Audio";
-            case 4 -> "\uD83D\uDC64 Contact";
-            case 5, 16 -> "\uD83D\uDCCD Location";
-            case 6 -> null;
-            case 7 -> "\uD83D\uDCC4 Document";
-            case 9, 13 -> "\uD83C\uDFA5 GIF";
-            case 10 -> "\uD83D\uDCDE Call";
-            case 11 -> "\uD83D\uDD12 Encryption changed";
-            case 14 -> "\u26D4 Deleted";
-            case 15 -> "Sticker";
-            case 46 -> "\uD83D\uDCCA Poll";
-            default -> null;
-        };
-    }
-
-    private void filterMessages(String query) {
-        if (query == null || query.isBlank()) {
-            messagesContainer.getChildren().forEach(node -> {
-                node.setVisible(true);
-                node.setManaged(true);
-            });
-            return;
-        }
-
-        String lowerQuery = query.toLowerCase(Locale.ROOT);
-        for (int i = 0; i < messagesContainer.getChildren().size() && i < allLoadedMessages.size(); i++) {
-            WhatsAppMessage msg = allLoadedMessages.get(i);
-            Node node = messagesContainer.getChildren().get(i);
-            boolean matches = (msg.text() != null && msg.text().toLowerCase(Locale.ROOT).contains(lowerQuery))
-                    || (msg.pushName() != null && msg.pushName().toLowerCase(Locale.ROOT).contains(lowerQuery));
-            node.setVisible(matches);
-            node.setManaged(matches);
-        }
+    /**
+     * Messages that produce no bubble, e.g. empty system messages, are left out of the list entirely.
+     */
+    private static boolean isRenderable(WhatsAppMessage msg) {
+        return (msg.text() != null && !msg.text().isBlank()) || msg.media() != null
+                || WhatsAppMessage.typeLabel(msg.messageType()) != null;
     }
 
     private void updateMessageCountLabel() {
@@ -883,38 +1010,56 @@ public class WhatsAppTabController {
     }
 
     private void cleanup() {
-        if (databaseService != null) {
-            databaseService.close();
-            databaseService = null;
-        }
-        if (tempDbDir != null) {
-            File[] dbFiles = tempDbDir.listFiles();
-            if (dbFiles != null) for (File f : dbFiles) f.delete();
-            tempDbDir.delete();
-            tempDbDir = null;
-        }
-        thumbnailCache.clear();
+        // Queries and the index build can't be interrupted, the index build also keeps the cached database
+        // attached until it notices the cancellation, so both are released once all tasks have stopped
+        backgroundTasks.keySet().forEach(javafx.concurrent.Task::cancel);
+        WhatsAppSearchIndex index = searchIndex;
+        ITunesBackup backup = databaseService != null ? selectedBackup : null;
+        CompletableFuture.allOf(backgroundTasks.values().toArray(CompletableFuture[]::new)).whenComplete((result, error) -> {
+            if (index != null) index.close();
+            if (backup != null) databases.release(backup);
+        });
+        backgroundTasks.clear();
+        searchIndex = null;
+        databaseService = null;
+        databaseCache = null;
+        embeddedThumbnails.clear();
+        pendingThumbnails.clear();
+        requestedThumbnails.clear();
+        missingMedia.clear();
         whatsappDomain = null;
+        mediaIndex = null;
         if (thumbnailCacheDir != null) {
             File[] files = thumbnailCacheDir.listFiles();
             if (files != null) for (File f : files) f.delete();
             thumbnailCacheDir.delete();
             thumbnailCacheDir = null;
         }
-        allChats.clear();
-        allLoadedMessages.clear();
+        allChats = new ArrayList<>();
+        chatsById = Map.of();
+        messageList.clear();
+        highlightedMessageId = -1;
+        loadingOlderMessages = false;
+        loadingNewerMessages = false;
         selectedChat = null;
         loadedMessageCount = 0;
+        olderMessagesCursor = null;
+        newerMessagesCursor = null;
+        pendingJumpMessageId = -1;
         totalMessageCount = 0;
-        messagesContainer.getChildren().clear();
         conversationHeaderBox.setVisible(false);
         conversationHeaderBox.setManaged(false);
         emptyStatePane.setVisible(true);
         exportButton.setDisable(true);
         diagnosticsButton.setDisable(true);
+        exportAllButton.setDisable(true);
         loadOlderButton.setDisable(true);
+        updateLoadNewerButton();
         messageCountLabel.setText("");
         messageSearchField.clear();
+        globalSearchField.clear();
+        searchResultsView.getItems().clear();
+        searchStatusLabel.setText("");
     }
 
     @FXML
@@ -922,61 +1067,107 @@ public class WhatsAppTabController {
         loadMessages(true);
     }
 
+    @FXML
+    private void onLoadNewer() {
+        loadNewerMessages();
+    }
+
+    @FXML
+    private void onMoreSearchResults() {
+        runGlobalSearch(true);
+    }
+
     @FXML
     private void onSearchMessages() {
-        filterMessages(messageSearchField.getText());
+        messageList.filter(messageSearchField.getText());
     }
 
     @FXML
     private void onExportChat() {
-        if (selectedChat == null || allLoadedMessages.isEmpty()) return;
+        if (selectedChat == null || databaseService == null) return;
+
+        WhatsAppChat chat = selectedChat;
+        Optional<Dialogs.ExportChoice> choice = Dialogs.askWhatsAppExport("Export \"" + chat.displayName() + "\"");
+        if (choice.isEmpty()) return;
+        WhatsAppExporter.Format format = choice.get().format();
 
         FileChooser chooser = new FileChooser();
         chooser.setTitle("Export Chat");
-        chooser.setInitialFileName(selectedChat.displayName().replaceAll("[^a-zA-Z0-9._\\- ]", "_") + ".txt");
-        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Text Files", "*.txt"));
+        chooser.setInitialFileName(WhatsAppExporter.fileNameFor(chat) + "." + format.extension());
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(format.description(), "*." + format.extension()));
         File destination = chooser.showSaveDialog(splitPane.getScene().getWindow());
         if (destination == null) return;
 
-        javafx.concurrent.Task<Void> task = new javafx.concurrent.Task<>() {
+        WhatsAppExporter exporter = new WhatsAppExporter(databaseService,
+                choice.get().includeMedia() ? mediaIndex : null, format);
+        javafx.concurrent.Task<WhatsAppExporter.Result> task = new javafx.concurrent.Task<>() {
             @Override
-            protected Void call() throws Exception {
-                List<WhatsAppMessage> allMessages = databaseService.queryMessages(
-                        selectedChat.id(), selectedChat.messageCount(), 0);
-                Collections.reverse(allMessages);
-
-                try (BufferedWriter writer = new BufferedWriter(
-                        new OutputStreamWriter(new FileOutputStream(destination), StandardCharsets.UTF_8))) {
-                    for (WhatsAppMessage msg : allMessages) {
-                        String date = msg.messageDate() != null && !msg.messageDate().equals(Instant.EPOCH)
-                                ? DATETIME_FMT.format(msg.messageDate()) : "??";
-                        String sender = msg.fromMe() ? "You" :
-                                (msg.pushName() != null ? msg.pushName() : selectedChat.displayName());
-                        String text = msg.text() != null ? msg.text() : "";
-                        if (msg.media() != null) {
-                            String mediaCaption = msg.media().caption() != null ? msg.media().caption() : "";
-                            text = "<media> " + mediaCaption + (text.isEmpty() ? "" : " " + text);
-                        }
-                        if (text.isEmpty()) text = getMessageTypeLabel(msg.messageType());
-                        writer.write("[" + date + "] " + sender + ": " + text);
-                        writer.newLine();
-                    }
+            protected WhatsAppExporter.Result call() throws Exception {
+                try (exporter) {
+                    return exporter.exportChat(chat, destination);
                 }
-                return null;
             }
         };
 
         task.setOnSucceeded(event ->
-                Dialogs.showAlert(Alert.AlertType.INFORMATION, "Chat exported successfully to " + destination.getName()));
+                Dialogs.showAlert(Alert.AlertType.INFORMATION, "Chat exported successfully to " + destination.getName()
+                        + describeMediaResult(task.getValue())));
 
         task.setOnFailed(event -> {
             logger.error("Failed to export chat", task.getException());
             Dialogs.showAlert(Alert.AlertType.ERROR, "Failed to export chat: " + task.getException().getMessage());
         });
 
-        Thread thread = new Thread(task, "whatsapp-export");
-        thread.setDaemon(true);
-        thread.start();
+        runInBackground(task, "whatsapp-export");
+    }
+
+    @FXML
+    private void onExportAllChats() {
+        if (databaseService == null || allChats.isEmpty()) return;
+
+        List<WhatsAppChat> chats = List.copyOf(allChats);
+        Optional<Dialogs.ExportChoice> choice = Dialogs.askWhatsAppExport("Export all " + chats.size() + " chats");
+        if (choice.isEmpty()) return;
+
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Export All Chats");
+        File directory = chooser.showDialog(splitPane.getScene().getWindow());
+        if (directory == null) return;
+
+        WhatsAppExporter exporter = new WhatsAppExporter(databaseService,
+                choice.get().includeMedia() ? mediaIndex : null, choice.get().format());
+        javafx.concurrent.Task<WhatsAppExporter.Result> task = new javafx.concurrent.Task<>() {
+            @Override
+            protected WhatsAppExporter.Result call() throws Exception {
+                updateMessage("Exporting " + chats.size() + " chats...");
+                try (exporter) {
+                    return exporter.exportAllChats(chats, directory, this::isCancelled, done -> {
+                        updateProgress(done, chats.size());
+                        updateMessage("Exported " + done + " of " + chats.size() + " chats");
+                    });
+                }
+            }
+        };
+
+        task.setOnSucceeded(event ->
+                Dialogs.showAlert(Alert.AlertType.INFORMATION, "Exported " + chats.size() + " chats ("
+                        + task.getValue().messages() + " messages) to " + directory.getName()
+                        + describeMediaResult(task.getValue())));
+
+        task.setOnFailed(event -> {
+            logger.error("Failed to export chats", task.getException());
+            Dialogs.showAlert(Alert.AlertType.ERROR, "Failed to export chats: " + task.getException().getMessage());
+        });
+
+        new Dialogs.ProgressAlert("Exporting chats...", task, true).show();
+
+        runInBackground(task, "whatsapp-export");
+    }
+
+    private static String describeMediaResult(WhatsAppExporter.Result result) {
+        if (result.mediaCopied() == 0 && result.mediaMissing() == 0) return "";
+        return "\n" + result.mediaCopied() + " media files copied"
+                + (result.mediaMissing() > 0 ? ", " + result.mediaMissing() + " not found in the backup" : "");
     }
 
     @FXML
@@ -1085,6 +1276,98 @@ public class WhatsAppTabController {
         return sb.toString();
     }
 
+    /**
+     * Loads the resolved media files of a bubble one after another through the thumbnail service
+     * until one of them decodes, e.g. a video without ffmpeg falls back to its thumbnail.
+     * Reports null if none of them does.
+     */
+    private static final class MediaThumbnailLoad {
+        private final List<BackupFile> files;
+        private final Consumer<Image> onLoaded;
+        private int next = 0;
+        private ThumbnailService.ThumbnailRequest request;
+        private boolean cancelled;
+
+        MediaThumbnailLoad(List<BackupFile> files, Consumer<Image> onLoaded) {
+            this.files = files;
+            this.onLoaded = onLoaded;
+        }
+
+        void loadNext() {
+            if (cancelled) return;
+            if (next >= files.size()) {
+                onLoaded.accept(null);
+                return;
+            }
+            request = ThumbnailService.getInstance().loadThumbnail(files.get(next++), MEDIA_THUMBNAIL_SIZE,
+                    PriorityScheduler.Priority.VISIBLE, ThumbnailService.WHATSAPP_TAB, image -> {
+                        if (ThumbnailService.isPlaceholder(image)) loadNext();
+                        else onLoaded.accept(image);
+                    });
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (request != null) request.cancel();
+        }
+    }
+
+    private class SearchHitCell extends ListCell<WhatsAppSearchHit> {
+        private final VBox container = new VBox(2);
+        private final HBox topRow = new HBox(8);
+        private final Label nameLabel = new Label();
+        private final Label timeLabel = new Label();
+        private final TextFlow snippetFlow = new TextFlow();
+
+        SearchHitCell() {
+            container.setPadding(new Insets(8, 10, 8, 10));
+            container.getStyleClass().add("whatsapp-chat-cell");
+
+            nameLabel.getStyleClass().add("whatsapp-chat-name");
+            nameLabel.setMaxWidth(Double.MAX_VALUE);
+            HBox.setHgrow(nameLabel, Priority.ALWAYS);
+            timeLabel.getStyleClass().add("whatsapp-chat-time");
+            timeLabel.setMinWidth(Region.USE_PREF_SIZE);
+
+            topRow.setAlignment(Pos.CENTER_LEFT);
+            topRow.getChildren().addAll(nameLabel, timeLabel);
+
+            snippetFlow.getStyleClass().add("whatsapp-search-snippet");
+            snippetFlow.setMaxHeight(36);
+
+            container.getChildren().addAll(topRow, snippetFlow);
+        }
+
+        @Override
+        protected void updateItem(WhatsAppSearchHit hit, boolean empty) {
+            super.updateItem(hit, empty);
+            if (empty || hit == null) {
+                setText(null);
+                setGraphic(null);
+            } else {
+                WhatsAppChat chat = chatsById.get(hit.chatSessionId());
+                nameLabel.setText(chat != null ? chat.displayName() : "Unknown chat");
+                timeLabel.setText(hit.messageDate() == null || hit.messageDate().equals(Instant.EPOCH)
+                        ? "" : SHORT_DATE_FMT.format(hit.messageDate()));
+
+                // The index wraps matches in marker characters, split on them to emphasize the matching words
+                snippetFlow.getChildren().clear();
+                String snippet = hit.snippet() != null ? hit.snippet().replace('\n', ' ').replace('\r', ' ') : "";
+                boolean match = false;
+                for (String part : snippet.split("[" + WhatsAppSearchIndex.HIGHLIGHT_START + WhatsAppSearchIndex.HIGHLIGHT_END + "]", -1)) {
+                    if (!part.isEmpty()) {
+                        Text text = new Text(part);
+                        text.getStyleClass().add(match ? "whatsapp-search-match" : "whatsapp-search-text");
+                        snippetFlow.getChildren().add(text);
+                    }
+                    match = !match;
+                }
+
+                setGraphic(container);
+            }
+        }
+    }
+
     private static class ChatListCell extends ListCell<WhatsAppChat> {
         private final VBox container = new VBox(2);
         private final HBox topRow = new HBox(8);
@@ -47,6 +47,8 @@ public class WindowController {
     List<ITunesBackup> backups = new ArrayList<>();
     ITunesBackup selectedBackup;
     final Map<ITunesBackup, ToggleButton> sidebarButtons = new HashMap<>();
+    // The WhatsApp and Timeline tabs read the same WhatsApp database, so it is opened once per backup
+    final WhatsAppDatabases whatsappDatabases = new WhatsAppDatabases();
 
     List<Node> lockedTabPages = new ArrayList<>();
     private boolean mediaToolsSetupOffered;
@@ -90,6 +92,16 @@ public class WindowController {
     @FXML
     WhatsAppTabController whatsappTabPageController;
 
+    @FXML
+    AnchorPane messagesTabPage;
+    @FXML
+    MessagesTabController messagesTabPageController;
+
+    @FXML
+    AnchorPane timelineTabPage;
+    @FXML
+    TimelineTabController timelineTabPageController;
+
     @FXML
     AnchorPane deviceTabPage;
     @FXML
@@ -111,7 +123,9 @@ public class WindowController {
 
     @FXML
     public void initialize() {
-        this.lockedTabPages = Arrays.asList(this.filesTabPage, this.mediaTabPage, this.appsTabPage, this.fileSearchTabPage, this.whatsappTabPage);
+        this.lockedTabPages = Arrays.asList(this.filesTabPage, this.mediaTabPage, this.appsTabPage, this.fileSearchTabPage, this.whatsappTabPage, this.messagesTabPage, this.timelineTabPage);
+        this.whatsappTabPageController.setDatabases(this.whatsappDatabases);
+        this.timelineTabPageController.setWhatsAppDatabases(this.whatsappDatabases);
 
         this.tabPane.getSelectionModel().selectedItemProperty().addListener((observable, oldTab, newTab) -> {
             if (newTab == null) return;
@@ -146,6 +160,10 @@ public class WindowController {
                 this.fileSearchTabPageController.tabShown(this.selectedBackup);
             } else if (tabPage == this.whatsappTabPage) {
                 this.whatsappTabPageController.tabShown(this.selectedBackup);
+            } else if (tabPage == this.messagesTabPage) {
+                this.messagesTabPageController.tabShown(this.selectedBackup);
+            } else if (tabPage == this.timelineTabPage) {
+                this.timelineTabPageController.tabShown(this.selectedBackup);
             }
         });
 
@@ -233,6 +251,7 @@ public class WindowController {
         this.deviceTabPageController.stopPolling();
         this.mirrorTabPageController.stopAll();
         this.backups.forEach(ITunesBackup::cleanUp);
+        this.whatsappDatabases.closeAll();
         ThumbnailService.getInstance().shutdown();
     }
 
@@ -387,6 +406,10 @@ public class WindowController {
             this.fileSearchTabPageController.tabShown(backup);
         } else if (selectedTabPage == this.whatsappTabPage) {
             this.whatsappTabPageController.tabShown(backup);
+        } else if (selectedTabPage == this.messagesTabPage) {
+            this.messagesTabPageController.tabShown(backup);
+        } else if (selectedTabPage == this.timelineTabPage) {
+            this.timelineTabPageController.tabShown(backup);
         }
 
         if (!mediaToolsSetupOffered && MediaConverter.isMediaToolsNeeded()) {
@@ -0,0 +1,16 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import java.nio.file.Path;
+
+public class AppPaths {
+
+    /**
+     * Per-user directory for downloaded tools and caches of the application.
+     */
+    public static final Path CONFIG_DIR = Path.of(System.getProperty("user.home"),
+            ".config", "itunes-backup-explorer");
+
+    private AppPaths() {
+    }
+
+}
@@ -24,8 +24,7 @@ import org.apache.commons.compress.archivers.sevenz.SevenZFile;
 
 public class DeviceService {
 
-    private static final Path VENV_PATH = Path.of(System.getProperty("user.home"),
-            ".config", "itunes-backup-explorer", "python-venv");
+    private static final Path VENV_PATH = AppPaths.CONFIG_DIR.resolve("python-venv");
     static final boolean IS_WINDOWS = System.getProperty("os.name", "")
             .toLowerCase(java.util.Locale.ROOT).contains("win");
 
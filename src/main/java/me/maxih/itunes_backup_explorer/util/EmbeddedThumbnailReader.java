@@ -0,0 +1,457 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extracts the small preview images that cameras embed near the start of photo files,
+ * so a thumbnail can be produced without reading or decoding the full image.
+ * <ul>
+ *     <li>JPEG: the IFD1 thumbnail of the Exif APP1 segment</li>
+ *     <li>HEIC/HEIF: the item referenced by a {@code thmb} reference to the primary item</li>
+ * </ul>
+ * Only a bounded prefix of the stream is read. If no thumbnail is found within it, null is returned.
+ */
+public class EmbeddedThumbnailReader {
+    public static final int JPEG_PREFIX_BYTES = 128 * 1024;
+    public static final int HEIF_PREFIX_BYTES = 512 * 1024;
+
+    private static final Set<String> JPEG_EXTENSIONS = Set.of("jpg", "jpeg");
+    private static final Set<String> HEIF_EXTENSIONS = Set.of("heic", "heif");
+    private static final byte[] ANNEX_B_START_CODE = {0, 0, 0, 1};
+
+    public enum Format {
+        JPEG,
+        HEVC
+    }
+
+    /**
+     * @param data   JPEG bytes, or an Annex B HEVC elementary stream (parameter sets followed by the coded picture)
+     * @param format the encoding of {@code data}
+     */
+    public record EmbeddedThumbnail(byte[] data, Format format) {
+    }
+
+    public static boolean supports(String extension) {
+        if (extension == null) return false;
+        String ext = extension.toLowerCase();
+        return JPEG_EXTENSIONS.contains(ext) || HEIF_EXTENSIONS.contains(ext);
+    }
+
+    public static EmbeddedThumbnail read(InputStream source, String extension) throws IOException {
+        if (extension == null) return null;
+        String ext = extension.toLowerCase();
+        try {
+            if (JPEG_EXTENSIONS.contains(ext)) return readJpeg(source.readNBytes(JPEG_PREFIX_BYTES));
+            if (HEIF_EXTENSIONS.contains(ext)) return readHeif(source.readNBytes(HEIF_PREFIX_BYTES));
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            // Truncated or malformed structure within the prefix, fall back to full decoding
+            return null;
+        }
+        return null;
+    }
+
+    static EmbeddedThumbnail readJpeg(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        if (buffer.remaining() < 4 || buffer.getShort() != (short) 0xFFD8) return null;
+
+        while (buffer.remaining() >= 4) {
+            if ((buffer.get() & 0xFF) != 0xFF) return null;
+            int marker = buffer.get() & 0xFF;
+            if (marker == 0xFF) {
+                buffer.position(buffer.position() - 1);
+                continue;
+            }
+            if (marker == 0xDA || marker == 0xD9) return null;
+
+            int length = buffer.getShort() & 0xFFFF;
+            if (length < 2 || length - 2 > buffer.remaining()) return null;
+            int segmentStart = buffer.position();
+
+            if (marker == 0xE1 && length >= 8 && matches(data, segmentStart, "Exif\0\0")) {
+                byte[] thumbnail = readExifThumbnail(data, segmentStart + 6, length - 8);
+                if (thumbnail != null) return new EmbeddedThumbnail(thumbnail, Format.JPEG);
+            }
+
+            buffer.position(segmentStart + length - 2);
+        }
+        return null;
+    }
+
+    private static byte[] readExifThumbnail(byte[] data, int tiffStart, int tiffLength) {
+        if (tiffLength < 8) return null;
+        ByteBuffer tiff = ByteBuffer.wrap(data, tiffStart, tiffLength).slice();
+
+        short byteOrder = tiff.getShort(0);
+        if (byteOrder == 0x4949) tiff.order(ByteOrder.LITTLE_ENDIAN);
+        else if (byteOrder == 0x4D4D) tiff.order(ByteOrder.BIG_ENDIAN);
+        else return null;
+        if (tiff.getShort(2) != 42) return null;
+
+        long ifd0 = tiff.getInt(4) & 0xFFFFFFFFL;
+        if (ifd0 + 2 > tiffLength) return null;
+        int ifd0Entries = tiff.getShort((int) ifd0) & 0xFFFF;
+        long nextIfdPosition = ifd0 + 2 + 12L * ifd0Entries;
+        if (nextIfdPosition + 4 > tiffLength) return null;
+
+        long ifd1 = tiff.getInt((int) nextIfdPosition) & 0xFFFFFFFFL;
+        if (ifd1 == 0 || ifd1 + 2 > tiffLength) return null;
+
+        int entries = tiff.getShort((int) ifd1) & 0xFFFF;
+        long offset = -1;
+        long length = -1;
+        for (int i = 0; i < entries; i++) {
+            int entry = (int) ifd1 + 2 + 12 * i;
+            if (entry + 12 > tiffLength) return null;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            if (tag == 0x0201) offset = readTiffValue(tiff, entry);
+            else if (tag == 0x0202) length = readTiffValue(tiff, entry);
+        }
+
+        if (offset <= 0 || length <= 0 || offset + length > tiffLength) return null;
+
+        byte[] thumbnail = new byte[(int) length];
+        System.arraycopy(data, tiffStart + (int) offset, thumbnail, 0, (int) length);
+        if (thumbnail.length < 2 || (thumbnail[0] & 0xFF) != 0xFF || (thumbnail[1] & 0xFF) != 0xD8) return null;
+        return thumbnail;
+    }
+
+    private static long readTiffValue(ByteBuffer tiff, int entry) {
+        int type = tiff.getShort(entry + 2) & 0xFFFF;
+        if (type == 3) return tiff.getShort(entry + 8) & 0xFFFF;
+        return tiff.getInt(entry + 8) & 0xFFFFFFFFL;
+    }
+
+    static EmbeddedThumbnail readHeif(byte[] data) {
+        ByteBuffer file = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+
+        Box meta = null;
+        for (Box box : Box.children(file, 0, data.length)) {
+            if (box.type.equals("meta")) {
+                meta = box;
+                break;
+            }
+        }
+        if (meta == null) return null;
+
+        int primaryItem = -1;
+        Map<Integer, String> itemTypes = new HashMap<>();
+        Map<Integer, List<long[]>> locations = new HashMap<>();
+        Map<Integer, List<Integer>> thumbnailsOf = new HashMap<>();
+        List<Box> properties = new ArrayList<>();
+        Map<Integer, List<Integer>> itemProperties = new HashMap<>();
+
+        for (Box box : Box.children(file, meta.contentStart + 4, meta.end)) {
+            switch (box.type) {
+                case "pitm" -> {
+                    int version = data[box.contentStart] & 0xFF;
+                    primaryItem = version == 0
+                            ? file.getShort(box.contentStart + 4) & 0xFFFF
+                            : file.getInt(box.contentStart + 4);
+                }
+                case "iinf" -> parseItemInfos(file, box, itemTypes);
+                case "iloc" -> parseItemLocations(file, box, locations);
+                case "iref" -> parseThumbnailReferences(file, box, thumbnailsOf);
+                case "iprp" -> {
+                    for (Box child : Box.children(file, box.contentStart, box.end)) {
+                        if (child.type.equals("ipco")) properties.addAll(Box.children(file, child.contentStart, child.end));
+                        else if (child.type.equals("ipma")) parsePropertyAssociations(file, child, itemProperties);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        List<Integer> candidates = thumbnailsOf.getOrDefault(primaryItem, List.of());
+        if (candidates.isEmpty()) {
+            candidates = new ArrayList<>();
+            for (List<Integer> list : thumbnailsOf.values()) candidates.addAll(list);
+        }
+
+        for (int thumbnailItem : candidates) {
+            byte[] itemData = readItemData(data, locations.get(thumbnailItem));
+            if (itemData == null) continue;
+
+            String type = itemTypes.get(thumbnailItem);
+            if ("jpeg".equals(type)) return new EmbeddedThumbnail(itemData, Format.JPEG);
+            if (!"hvc1".equals(type)) continue;
+
+            Box hvcC = null;
+            for (int index : itemProperties.getOrDefault(thumbnailItem, List.of())) {
+                if (index >= 1 && index <= properties.size() && properties.get(index - 1).type.equals("hvcC")) {
+                    hvcC = properties.get(index - 1);
+                }
+            }
+            if (hvcC == null) continue;
+
+            byte[] stream = toAnnexB(file, hvcC, itemData);
+            if (stream != null) return new EmbeddedThumbnail(stream, Format.HEVC);
+        }
+
+        return null;
+    }
+
+    private static void parseItemInfos(ByteBuffer file, Box iinf, Map<Integer, String> itemTypes) {
+        int version = file.get(iinf.contentStart) & 0xFF;
+        int entriesStart = iinf.contentStart + 4 + (version == 0 ? 2 : 4);
+
+        for (Box infe : Box.children(file, entriesStart, iinf.end)) {
+            if (!infe.type.equals("infe")) continue;
+            int infeVersion = file.get(infe.contentStart) & 0xFF;
+            if (infeVersion < 2) continue;
+
+            int position = infe.contentStart + 4;
+            int itemID;
+            if (infeVersion == 2) {
+                itemID = file.getShort(position) & 0xFFFF;
+                position += 2;
+            } else {
+                itemID = file.getInt(position);
+                position += 4;
+            }
+            position += 2;
+            if (position + 4 > infe.end) continue;
+            itemTypes.put(itemID, fourCC(file, position));
+        }
+    }
+
+    private static void parseItemLocations(ByteBuffer file, Box iloc, Map<Integer, List<long[]>> locations) {
+        int position = iloc.contentStart;
+        int version = file.get(position) & 0xFF;
+        position += 4;
+
+        int sizes = file.getShort(position) & 0xFFFF;
+        position += 2;
+        int offsetSize = (sizes >> 12) & 0xF;
+        int lengthSize = (sizes >> 8) & 0xF;
+        int baseOffsetSize = (sizes >> 4) & 0xF;
+        int indexSize = version == 1 || version == 2 ? sizes & 0xF : 0;
+
+        int itemCount;
+        if (version < 2) {
+            itemCount = file.getShort(position) & 0xFFFF;
+            position += 2;
+        } else {
+            itemCount = file.getInt(position);
+            position += 4;
+        }
+
+        for (int i = 0; i < itemCount && position < iloc.end; i++) {
+            int itemID;
+            if (version < 2) {
+                itemID = file.getShort(position) & 0xFFFF;
+                position += 2;
+            } else {
+                itemID = file.getInt(position);
+                position += 4;
+            }
+
+            int constructionMethod = 0;
+            if (version == 1 || version == 2) {
+                constructionMethod = file.getShort(position) & 0xF;
+                position += 2;
+            }
+            position += 2;
+
+            long baseOffset = readSized(file, position, baseOffsetSize);
+            position += baseOffsetSize;
+            int extentCount = file.getShort(position) & 0xFFFF;
+            position += 2;
+
+            List<long[]> extents = new ArrayList<>(extentCount);
+            for (int e = 0; e < extentCount; e++) {
+                position += indexSize;
+                long offset = readSized(file, position, offsetSize);
+                position += offsetSize;
+                long length = readSized(file, position, lengthSize);
+                position += lengthSize;
+                extents.add(new long[]{baseOffset + offset, length});
+            }
+
+            if (constructionMethod == 0) locations.put(itemID, extents);
+        }
+    }
+
+    private static void parseThumbnailReferences(ByteBuffer file, Box iref, Map<Integer, List<Integer>> thumbnailsOf) {
+        int version = file.get(iref.contentStart) & 0xFF;
+        int idSize = version == 0 ? 2 : 4;
+
+        for (Box reference : Box.children(file, iref.contentStart + 4, iref.end)) {
+            if (!reference.type.equals("thmb")) continue;
+
+            int position = reference.contentStart;
+            int fromItem = idSize == 2 ? file.getShort(position) & 0xFFFF : file.getInt(position);
+            position += idSize;
+            int count = file.getShort(position) & 0xFFFF;
+            position += 2;
+
+            for (int i = 0; i < count && position + idSize <= reference.end; i++) {
+                int toItem = idSize == 2 ? file.getShort(position) & 0xFFFF : file.getInt(position);
+                position += idSize;
+                thumbnailsOf.computeIfAbsent(toItem, key -> new ArrayList<>()).add(fromItem);
+            }
+        }
+    }
+
+    private static void parsePropertyAssociations(ByteBuffer file, Box ipma, Map<Integer, List<Integer>> itemProperties) {
+        int position = ipma.contentStart;
+        int version = file.get(position) & 0xFF;
+        int flags = file.getInt(position) & 0xFFFFFF;
+        position += 4;
+
+        int entryCount = file.getInt(position);
+        position += 4;
+
+        for (int i = 0; i < entryCount && position < ipma.end; i++) {
+            int itemID;
+            if (version < 1) {
+                itemID = file.getShort(position) & 0xFFFF;
+                position += 2;
+            } else {
+                itemID = file.getInt(position);
+                position += 4;
+            }
+
+            int associations = file.get(position) & 0xFF;
+            position += 1;
+
+            List<Integer> indices = new ArrayList<>(associations);
+            for (int a = 0; a < associations; a++) {
+                if ((flags & 1) != 0) {
+                    indices.add(file.getShort(position) & 0x7FFF);
+                    position += 2;
+                } else {
+                    indices.add(file.get(position) & 0x7F);
+                    position += 1;
+                }
+            }
+            itemProperties.put(itemID, indices);
+        }
+    }
+
+    private static byte[] readItemData(byte[] data, List<long[]> extents) {
+        if (extents == null || extents.isEmpty()) return null;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long[] extent : extents) {
+            long offset = extent[0];
+            long length = extent[1];
+            if (length == 0 || offset < 0 || offset + length > data.length) return null;
+            out.write(data, (int) offset, (int) length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] toAnnexB(ByteBuffer file, Box hvcC, byte[] itemData) {
+        int position = hvcC.contentStart + 21;
+        if (position + 2 > hvcC.end) return null;
+
+        int nalLengthSize = (file.get(position) & 0x3) + 1;
+        int arrays = file.get(position + 1) & 0xFF;
+        position += 2;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(itemData.length + 256);
+        for (int i = 0; i < arrays; i++) {
+            if (position + 3 > hvcC.end) return null;
+            int count = file.getShort(position + 1) & 0xFFFF;
+            position += 3;
+            for (int n = 0; n < count; n++) {
+                if (position + 2 > hvcC.end) return null;
+                int length = file.getShort(position) & 0xFFFF;
+                position += 2;
+                if (position + length > hvcC.end) return null;
+                out.writeBytes(ANNEX_B_START_CODE);
+                out.write(file.array(), position, length);
+                position += length;
+            }
+        }
+
+        ByteBuffer nals = ByteBuffer.wrap(itemData).order(ByteOrder.BIG_ENDIAN);
+        while (nals.remaining() >= nalLengthSize) {
+            long length = readSized(nals, nals.position(), nalLengthSize);
+            nals.position(nals.position() + nalLengthSize);
+            if (length <= 0 || length > nals.remaining()) return null;
+            out.writeBytes(ANNEX_B_START_CODE);
+            out.write(itemData, nals.position(), (int) length);
+            nals.position(nals.position() + (int) length);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static long readSized(ByteBuffer buffer, int position, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer.get(position + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private static boolean matches(byte[] data, int offset, String ascii) {
+        byte[] expected = ascii.getBytes(StandardCharsets.US_ASCII);
+        if (offset + expected.length > data.length) return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (data[offset + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    private static String fourCC(ByteBuffer buffer, int position) {
+        byte[] bytes = new byte[4];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private static final class Box {
+        final String type;
+        final int contentStart;
+        final int end;
+
+        private Box(String type, int contentStart, int end) {
+            this.type = type;
+            this.contentStart = contentStart;
+            this.end = end;
+        }
+
+        static List<Box> children(ByteBuffer buffer, int start, int end) {
+            List<Box> boxes = new ArrayList<>();
+            int position = start;
+            int limit = Math.min(end, buffer.capacity());
+
+            while (position + 8 <= limit) {
+                long size = buffer.getInt(position) & 0xFFFFFFFFL;
+                String type = fourCC(buffer, position + 4);
+                int header = 8;
+
+                if (size == 1) {
+                    if (position + 16 > limit) break;
+                    size = buffer.getLong(position + 8);
+                    header = 16;
+                } else if (size == 0) {
+                    size = limit - position;
+                }
+                if (size < header) break;
+
+                long boxEnd = position + size;
+                boxes.add(new Box(type, position + header, (int) Math.min(boxEnd, limit)));
+                if (boxEnd > limit) break;
+                position = (int) boxEnd;
+            }
+            return boxes;
+        }
+    }
+
+    private EmbeddedThumbnailReader() {
+    }
+}
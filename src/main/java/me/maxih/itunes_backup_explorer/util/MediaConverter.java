@@ -9,6 +9,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
@@ -20,10 +21,8 @@ public class MediaConverter {
     private static final Set<String> HEIF_EXTENSIONS = Set.of("heic", "heif");
     private static final Set<String> VIDEO_EXTENSIONS = Set.of("mov", "mp4", "m4v", "avi");
 
-    private static final Path CONFIG_DIR = Path.of(System.getProperty("user.home"),
-            ".config", "itunes-backup-explorer");
-    private static final Path PORTABLE_FFMPEG_DIR = CONFIG_DIR.resolve("ffmpeg-portable");
-    private static final Path PORTABLE_IMAGEMAGICK_DIR = CONFIG_DIR.resolve("imagemagick-portable");
+    private static final Path PORTABLE_FFMPEG_DIR = AppPaths.CONFIG_DIR.resolve("ffmpeg-portable");
+    private static final Path PORTABLE_IMAGEMAGICK_DIR = AppPaths.CONFIG_DIR.resolve("imagemagick-portable");
 
     private static final String FFMPEG_DOWNLOAD_URL =
             "https://github.com/BtbN/FFmpeg-Builds/releases/download/latest/ffmpeg-master-latest-win64-gpl.zip";
@@ -32,6 +31,7 @@ public class MediaConverter {
     private static Boolean imageMagickAvailable;
     private static String effectiveFfmpegPath;
     private static String effectiveImageMagickPath;
+    private static MediaWorkerPool workerPool;
 
     public static boolean isFfmpegAvailable() {
         if (ffmpegAvailable == null) {
@@ -115,6 +115,7 @@ public class MediaConverter {
     }
 
     public static void resetDetection() {
+        shutdownWorkers();
         ffmpegAvailable = null;
         imageMagickAvailable = null;
         effectiveFfmpegPath = null;
@@ -228,15 +229,30 @@ public class MediaConverter {
         return null;
     }
 
+    private static synchronized MediaWorkerPool getWorkerPool() {
+        if (workerPool == null) {
+            workerPool = new MediaWorkerPool(
+                    isImageMagickAvailable() ? effectiveImageMagickPath : null,
+                    isFfmpegAvailable() ? effectiveFfmpegPath : null,
+                    MediaWorkerPool.DEFAULT_WORKERS);
+        }
+        return workerPool;
+    }
+
+    public static synchronized void shutdownWorkers() {
+        if (workerPool == null) return;
+        workerPool.close();
+        workerPool = null;
+    }
+
     private static File convertHeifToJpeg(File source, int maxSize) throws IOException {
         if (isImageMagickAvailable()) {
-            File result = convertHeifViaImageMagick(source, maxSize);
-            if (result != null) return result;
-        }
-        if (isFfmpegAvailable()) {
-            File result = convertHeifViaFfmpeg(source, maxSize);
+            MediaWorkerPool pool = getWorkerPool();
+            File result = pool.convertImage(source, maxSize);
+            if (result == null && !pool.isScriptModeAvailable()) result = convertHeifViaImageMagick(source, maxSize);
             if (result != null) return result;
         }
+        if (isFfmpegAvailable()) return getWorkerPool().extractStillImage(source, maxSize);
         return null;
     }
 
@@ -280,90 +296,50 @@ public class MediaConverter {
         }
     }
 
-    private static File convertHeifViaFfmpeg(File source, int maxSize) throws IOException {
-        File output = Files.createTempFile("heic_", ".jpg").toFile();
-        output.deleteOnExit();
-
-        try {
-            String scale = "scale='min(" + maxSize + ",iw)':'min(" + maxSize + ",ih)':force_original_aspect_ratio=decrease";
-            ProcessBuilder pb = new ProcessBuilder(
-                    effectiveFfmpegPath, "-y",
-                    "-i", source.getAbsolutePath(),
-                    "-vf", scale,
-                    "-q:v", "2",
-                    output.getAbsolutePath()
-            );
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-            process.getInputStream().readAllBytes();
-            boolean finished = process.waitFor(15, TimeUnit.SECONDS);
+    /**
+     * Decodes a raw HEVC elementary stream (Annex B), such as the thumbnail item of a HEIC file,
+     * by piping it through a shared ffmpeg process of the worker pool. Nothing is written to disk.
+     *
+     * @return The encoded JPEG bytes or null if ffmpeg is missing or failed
+     */
+    public static byte[] convertHevcToJpeg(byte[] annexB, int maxSize) {
+        if (!isFfmpegAvailable()) return null;
+        return getWorkerPool().decodeHevc(annexB, maxSize);
+    }
 
-            if (!finished) {
-                process.destroyForcibly();
-                output.delete();
-                return null;
-            }
+    /**
+     * Converts an image held in memory on a shared ImageMagick worker of the pool, so the plaintext never touches
+     * the disk. Data too large to inline in the worker script, or ImageMagick builds without script mode,
+     * get the data piped through a one-off process instead.
+     * Only HEIF input is handled here; videos need a seekable file and go through {@link #convertToJpeg(File, String, int)}.
+     *
+     * @return The encoded JPEG bytes or null if the format is not handled or the conversion failed
+     */
+    public static byte[] convertToJpeg(byte[] data, String extension, int maxSize) {
+        if (!isHeif(extension) || !isImageMagickAvailable()) return null;
+
+        MediaWorkerPool pool = getWorkerPool();
+        if (pool.isScriptModeAvailable() && data.length <= MediaWorkerPool.INLINE_MAX_BYTES) {
+            return pool.convertImage(data, "heic", maxSize);
+        }
 
-            if (process.exitValue() != 0 || !output.exists() || output.length() == 0) {
-                output.delete();
-                return null;
-            }
+        return pipeThrough(List.of(
+                effectiveImageMagickPath,
+                "heic:-",
+                "-auto-orient",
+                "-resize", maxSize + "x" + maxSize + ">",
+                "-quality", "90",
+                "jpg:-"
+        ), data);
+    }
 
-            return output;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            output.delete();
-            return null;
-        } catch (Exception e) {
-            logger.warn("Failed to convert HEIC via ffmpeg {}: {}", source.getName(), e.getMessage());
-            output.delete();
-            return null;
-        }
+    private static byte[] pipeThrough(List<String> command, byte[] input) {
+        return MediaWorkerPool.pipeThrough(ProcessBuilder::start, command, input);
     }
 
-    private static File extractVideoFrame(File source, int maxSize) throws IOException {
+    private static File extractVideoFrame(File source, int maxSize) {
         if (!isFfmpegAvailable()) return null;
-
-        File output = Files.createTempFile("frame_", ".jpg").toFile();
-        output.deleteOnExit();
-
-        try {
-            String scale = "scale='min(" + maxSize + ",iw)':'min(" + maxSize + ",ih)':force_original_aspect_ratio=decrease";
-            ProcessBuilder pb = new ProcessBuilder(
-                    effectiveFfmpegPath, "-y",
-                    "-i", source.getAbsolutePath(),
-                    "-ss", "00:00:00.5",
-                    "-frames:v", "1",
-                    "-vf", scale,
-                    "-q:v", "2",
-                    output.getAbsolutePath()
-            );
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-            process.getInputStream().readAllBytes();
-            boolean finished = process.waitFor(15, TimeUnit.SECONDS);
-
-            if (!finished) {
-                process.destroyForcibly();
-                output.delete();
-                return null;
-            }
-
-            if (process.exitValue() != 0 || !output.exists() || output.length() == 0) {
-                output.delete();
-                return null;
-            }
-
-            return output;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            output.delete();
-            return null;
-        } catch (Exception e) {
-            logger.warn("Failed to extract frame from {}: {}", source.getName(), e.getMessage());
-            output.delete();
-            return null;
-        }
+        return getWorkerPool().extractVideoFrame(source, maxSize);
     }
 
     public static void detectTools() {
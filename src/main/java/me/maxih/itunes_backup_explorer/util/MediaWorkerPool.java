@@ -0,0 +1,723 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the external media tools busy without paying the process startup for every file.
+ * ImageMagick 7 runs in script mode and receives one command per image over stdin,
+ * video frames and embedded HEVC thumbnails are collected into batches that a single ffmpeg invocation
+ * decodes at once.
+ */
+public class MediaWorkerPool implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MediaWorkerPool.class);
+
+    public static final int DEFAULT_WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    // Inline data is base64 encoded on a single script line, which gets unwieldy for large images
+    public static final int INLINE_MAX_BYTES = 4 * 1024 * 1024;
+
+    private static final int FRAME_BATCH_SIZE = 8;
+    private static final long FRAME_BATCH_WAIT_MS = 30;
+    private static final long TIMEOUT_SECONDS = 15;
+    private static final long PROBE_TIMEOUT_SECONDS = 3;
+    private static final int MAX_WORKER_FAILURES = 3;
+
+    private final String magickPath;
+    private final String ffmpegPath;
+    private final ProcessStarter processStarter;
+
+    private final BlockingQueue<MagickWorker> idleWorkers = new LinkedBlockingQueue<>();
+    private final Semaphore magickPermits;
+    private final AtomicInteger workerFailures = new AtomicInteger();
+    private volatile boolean scriptModeAvailable;
+
+    private final Semaphore ffmpegPermits;
+    private final BlockingQueue<FrameRequest> frameQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<HevcRequest> hevcQueue = new LinkedBlockingQueue<>();
+    private final ExecutorService frameDispatchers;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param magickPath ImageMagick executable or null. Script mode is only used with ImageMagick 7 ({@code magick})
+     * @param ffmpegPath ffmpeg executable or null
+     * @param workers    Number of concurrent processes per tool
+     */
+    public MediaWorkerPool(String magickPath, String ffmpegPath, int workers) {
+        this(magickPath, ffmpegPath, workers, ProcessBuilder::start);
+    }
+
+    MediaWorkerPool(String magickPath, String ffmpegPath, int workers, ProcessStarter processStarter) {
+        this.magickPath = magickPath;
+        this.ffmpegPath = ffmpegPath;
+        this.processStarter = processStarter;
+        this.magickPermits = new Semaphore(workers);
+        this.ffmpegPermits = new Semaphore(workers);
+        this.scriptModeAvailable = magickPath != null
+                && Path.of(magickPath).getFileName().toString().toLowerCase(Locale.ROOT).startsWith("magick");
+
+        if (ffmpegPath != null) {
+            // Dispatchers mostly wait for requests, the permits bound the number of running ffmpeg processes
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.frameDispatchers = Executors.newFixedThreadPool(workers * 2, r -> {
+                Thread t = new Thread(r, "ffmpeg-frame-batch-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            for (int i = 0; i < workers; i++) {
+                frameDispatchers.submit(this::dispatchFrames);
+                frameDispatchers.submit(this::dispatchHevc);
+            }
+        } else {
+            this.frameDispatchers = null;
+        }
+    }
+
+    public boolean isScriptModeAvailable() {
+        return scriptModeAvailable && !closed;
+    }
+
+    /**
+     * Converts an image to a JPEG of at most maxSize pixels on a persistent ImageMagick worker.
+     *
+     * @return The converted temp file, or null if the conversion failed or script mode is not available.
+     * Check {@link #isScriptModeAvailable()} to tell the two apart.
+     */
+    public File convertImage(File source, int maxSize) throws IOException {
+        if (!isScriptModeAvailable()) return null;
+
+        File output = Files.createTempFile("heic_", ".jpg").toFile();
+        output.deleteOnExit();
+
+        File result = runOnWorker(source.getName(), worker -> worker.convert(source, output, maxSize) ? output : null);
+        if (result == null) output.delete();
+        return result;
+    }
+
+    /**
+     * Converts an image held in memory to a JPEG of at most maxSize pixels on a persistent ImageMagick worker.
+     * The data is passed inline in the script and the result is read back from the worker's stdout,
+     * so nothing is written to disk.
+     *
+     * @param data   At most {@link #INLINE_MAX_BYTES}
+     * @param format ImageMagick format of the data, e.g. {@code heic}
+     * @return The encoded JPEG bytes, or null if the conversion failed, the data is too large
+     * or script mode is not available
+     */
+    public byte[] convertImage(byte[] data, String format, int maxSize) {
+        if (!isScriptModeAvailable() || data.length > INLINE_MAX_BYTES) return null;
+        return runOnWorker(format + " data", worker -> worker.convert(data, format, maxSize));
+    }
+
+    private <T> T runOnWorker(String sourceName, WorkerCall<T> call) {
+        boolean acquired = false;
+        MagickWorker worker = null;
+        try {
+            magickPermits.acquire();
+            acquired = true;
+
+            worker = idleWorkers.poll();
+            if (worker == null) worker = startWorker();
+            if (worker == null) return null;
+
+            T result = call.run(worker);
+            workerFailures.set(0);
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (IOException e) {
+            logger.warn("ImageMagick worker failed on {}: {}", sourceName, e.getMessage());
+            if (worker != null) worker.destroy();
+            worker = null;
+            if (workerFailures.incrementAndGet() >= MAX_WORKER_FAILURES) disableScriptMode("workers keep failing");
+            return null;
+        } finally {
+            if (worker != null) {
+                if (closed || !scriptModeAvailable) worker.destroy();
+                else idleWorkers.offer(worker);
+            }
+            if (acquired) magickPermits.release();
+        }
+    }
+
+    /**
+     * Extracts a single frame from a video, sharing the ffmpeg process with other requests
+     * that arrive at about the same time.
+     *
+     * @return The extracted JPEG temp file or null if ffmpeg is missing or failed
+     */
+    public File extractVideoFrame(File source, int maxSize) {
+        return extractFrame(new FrameRequest(source, maxSize, false));
+    }
+
+    /**
+     * Decodes a still image, e.g. a HEIF file ImageMagick cannot read, in the same ffmpeg batches as video frames.
+     *
+     * @return The JPEG temp file or null if ffmpeg is missing or failed
+     */
+    public File extractStillImage(File source, int maxSize) {
+        return extractFrame(new FrameRequest(source, maxSize, true));
+    }
+
+    private File extractFrame(FrameRequest request) {
+        if (ffmpegPath == null || closed) return null;
+
+        frameQueue.add(request);
+        try {
+            return request.result.get(TIMEOUT_SECONDS * 2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a raw HEVC elementary stream (Annex B), such as the thumbnail item of a HEIC file.
+     * Streams with the same picture size that arrive at about the same time are decoded by one ffmpeg process,
+     * which reads them from stdin and writes the JPEGs to stdout, so nothing is written to disk.
+     *
+     * @return The encoded JPEG bytes or null if ffmpeg is missing or failed
+     */
+    public byte[] decodeHevc(byte[] annexB, int maxSize) {
+        if (ffmpegPath == null || closed) return null;
+
+        HevcRequest request = new HevcRequest(annexB, maxSize);
+        hevcQueue.add(request);
+        try {
+            return request.result.get(TIMEOUT_SECONDS * 2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException | TimeoutException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (frameDispatchers != null) frameDispatchers.shutdownNow();
+
+        FrameRequest request;
+        while ((request = frameQueue.poll()) != null) request.result.complete(null);
+        HevcRequest hevcRequest;
+        while ((hevcRequest = hevcQueue.poll()) != null) hevcRequest.result.complete(null);
+
+        MagickWorker worker;
+        while ((worker = idleWorkers.poll()) != null) worker.destroy();
+    }
+
+    private MagickWorker startWorker() {
+        try {
+            MagickWorker worker = new MagickWorker(processStarter, magickPath);
+            if (worker.probe()) return worker;
+            worker.destroy();
+            disableScriptMode("no response to probe");
+        } catch (IOException e) {
+            disableScriptMode(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private void disableScriptMode(String reason) {
+        if (!scriptModeAvailable) return;
+        scriptModeAvailable = false;
+        logger.info("ImageMagick script mode unavailable ({}) - using one process per image", reason);
+
+        MagickWorker worker;
+        while ((worker = idleWorkers.poll()) != null) worker.destroy();
+    }
+
+    private void dispatchFrames() {
+        while (!closed) {
+            try {
+                List<FrameRequest> batch = new ArrayList<>(FRAME_BATCH_SIZE);
+                batch.add(frameQueue.take());
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FRAME_BATCH_WAIT_MS);
+                while (batch.size() < FRAME_BATCH_SIZE) {
+                    FrameRequest next = frameQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                runFrameBatch(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("Video frame batch failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void runFrameBatch(List<FrameRequest> batch) throws InterruptedException {
+        List<File> outputs = new ArrayList<>(batch.size());
+        ffmpegPermits.acquire();
+        try {
+            List<String> command = new ArrayList<>(List.of(ffmpegPath, "-y", "-loglevel", "error"));
+            for (FrameRequest request : batch) {
+                // Seeking past the only frame of a still image would leave its output empty
+                if (!request.still) command.addAll(List.of("-ss", "00:00:00.5"));
+                command.addAll(List.of("-i", request.source.getAbsolutePath()));
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                File output = Files.createTempFile("frame_", ".jpg").toFile();
+                output.deleteOnExit();
+                outputs.add(output);
+                command.addAll(List.of(
+                        "-map", i + ":v:0",
+                        "-frames:v", "1",
+                        "-vf", scaleFilter(batch.get(i).maxSize),
+                        "-q:v", "2",
+                        output.getAbsolutePath()
+                ));
+            }
+
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            Process process = processStarter.start(pb);
+            process.getInputStream().readAllBytes();
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) process.destroyForcibly();
+        } catch (IOException e) {
+            logger.warn("Failed to run ffmpeg for {} videos: {}", batch.size(), e.getMessage());
+        } finally {
+            ffmpegPermits.release();
+        }
+
+        // A single unreadable input makes ffmpeg reject the whole batch, so retry those one by one
+        boolean anyWritten = outputs.stream().anyMatch(output -> output.length() > 0);
+        for (int i = 0; i < batch.size(); i++) {
+            FrameRequest request = batch.get(i);
+            File output = i < outputs.size() ? outputs.get(i) : null;
+
+            if (output != null && output.length() > 0) {
+                request.result.complete(output);
+                continue;
+            }
+            if (output != null) output.delete();
+
+            if (batch.size() > 1 && !anyWritten && !closed) runFrameBatch(List.of(request));
+            else request.result.complete(null);
+        }
+    }
+
+    private void dispatchHevc() {
+        while (!closed) {
+            try {
+                HevcRequest first = hevcQueue.take();
+                List<HevcRequest> batch = new ArrayList<>(FRAME_BATCH_SIZE);
+                batch.add(first);
+
+                // Only streams of one picture size share a process, as the JPEG encoder keeps the size of the first frame
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FRAME_BATCH_WAIT_MS);
+                List<HevcRequest> deferred = new ArrayList<>();
+                while (batch.size() < FRAME_BATCH_SIZE) {
+                    HevcRequest next = hevcQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    if (first.batchKey != null && first.batchKey.equals(next.batchKey)) batch.add(next);
+                    else deferred.add(next);
+                }
+                hevcQueue.addAll(deferred);
+
+                runHevcBatch(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                logger.warn("HEVC thumbnail batch failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void runHevcBatch(List<HevcRequest> batch) throws InterruptedException {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (HevcRequest request : batch) input.writeBytes(request.annexB);
+
+        List<byte[]> images;
+        ffmpegPermits.acquire();
+        try {
+            byte[] output = pipeThrough(processStarter, List.of(
+                    ffmpegPath,
+                    "-loglevel", "error",
+                    "-f", "hevc",
+                    "-i", "pipe:0",
+                    "-vf", scaleFilter(batch.get(0).maxSize),
+                    "-q:v", "2",
+                    "-f", "image2pipe",
+                    "-vcodec", "mjpeg",
+                    "pipe:1"
+            ), input.toByteArray());
+            images = output == null ? List.of() : splitJpegStream(output);
+        } finally {
+            ffmpegPermits.release();
+        }
+
+        if (images.size() == batch.size()) {
+            for (int i = 0; i < batch.size(); i++) batch.get(i).result.complete(images.get(i));
+            return;
+        }
+
+        // A stream that fails to decode shifts or drops the frames of the others, so retry them one by one
+        for (HevcRequest request : batch) {
+            if (batch.size() > 1 && !closed) runHevcBatch(List.of(request));
+            else request.result.complete(images.isEmpty() ? null : images.get(0));
+        }
+    }
+
+    /**
+     * Runs a tool that reads its input from stdin and writes the result to stdout.
+     *
+     * @return The output or null if the tool failed or printed nothing
+     */
+    static byte[] pipeThrough(ProcessStarter processStarter, List<String> command, byte[] input) {
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+            Process process = processStarter.start(pb);
+
+            Thread writer = new Thread(() -> {
+                try (OutputStream stdin = process.getOutputStream()) {
+                    stdin.write(input);
+                } catch (IOException ignored) {
+                    // the tool exits early on invalid input, the result check below handles it
+                }
+            }, "media-tool-input");
+            writer.setDaemon(true);
+            writer.start();
+
+            byte[] output = process.getInputStream().readAllBytes();
+            boolean finished = process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+            if (!finished) {
+                process.destroyForcibly();
+                return null;
+            }
+
+            if (process.exitValue() != 0 || output.length == 0) return null;
+            return output;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            logger.warn("Failed to convert via {}: {}", command.get(0), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Splits the concatenated JPEGs written by ffmpeg's image2pipe muxer, following the segment structure
+     * so that bytes inside headers or entropy-coded data are never mistaken for a boundary.
+     */
+    static List<byte[]> splitJpegStream(byte[] data) {
+        List<byte[]> images = new ArrayList<>();
+        int pos = 0;
+        while (pos + 4 <= data.length) {
+            if ((data[pos] & 0xFF) != 0xFF || (data[pos + 1] & 0xFF) != 0xD8) break;
+            int start = pos;
+            pos += 2;
+
+            int end = -1;
+            while (end < 0 && pos + 2 <= data.length) {
+                if ((data[pos] & 0xFF) != 0xFF) return images;
+                int marker = data[pos + 1] & 0xFF;
+                pos += 2;
+
+                if (marker == 0xD9) {
+                    end = pos;
+                } else if (marker == 0xFF) {
+                    pos--;
+                } else if (marker == 0x01 || marker >= 0xD0 && marker <= 0xD7) {
+                    // standalone marker without a length
+                } else {
+                    if (pos + 2 > data.length) return images;
+                    pos += ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+                    if (marker == 0xDA) {
+                        while (pos + 1 < data.length) {
+                            int next = data[pos + 1] & 0xFF;
+                            if ((data[pos] & 0xFF) == 0xFF && next != 0x00 && (next < 0xD0 || next > 0xD7)) break;
+                            pos++;
+                        }
+                    }
+                }
+            }
+            if (end < 0) break;
+            images.add(Arrays.copyOfRange(data, start, end));
+        }
+        return images;
+    }
+
+    /**
+     * Reads the picture size from the first sequence parameter set of an Annex B HEVC stream.
+     *
+     * @return width and height, or null if the stream has no readable SPS
+     */
+    static int[] hevcPictureSize(byte[] annexB) {
+        for (int i = 0; i + 5 < annexB.length; i++) {
+            if (annexB[i] != 0 || annexB[i + 1] != 0 || annexB[i + 2] != 1) continue;
+            int nalType = (annexB[i + 3] >> 1) & 0x3F;
+            if (nalType != 33) continue;
+
+            int end = i + 3;
+            while (end + 2 < annexB.length && !(annexB[end] == 0 && annexB[end + 1] == 0 && (annexB[end + 2] & 0xFF) <= 1)) end++;
+            if (end + 2 >= annexB.length) end = annexB.length;
+
+            try {
+                return readSpsPictureSize(new BitReader(removeEmulationPrevention(annexB, i + 5, end)));
+            } catch (IndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static int[] readSpsPictureSize(BitReader sps) {
+        sps.skip(4); // sps_video_parameter_set_id
+        int maxSubLayersMinus1 = sps.read(3);
+        sps.skip(1); // sps_temporal_id_nesting_flag
+
+        // profile_tier_level: general profile (88 bits) and level (8 bits), then the optional sub-layer entries
+        sps.skip(96);
+        boolean[] subLayerProfile = new boolean[maxSubLayersMinus1];
+        boolean[] subLayerLevel = new boolean[maxSubLayersMinus1];
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            subLayerProfile[i] = sps.read(1) == 1;
+            subLayerLevel[i] = sps.read(1) == 1;
+        }
+        if (maxSubLayersMinus1 > 0) sps.skip(2 * (8 - maxSubLayersMinus1));
+        for (int i = 0; i < maxSubLayersMinus1; i++) {
+            if (subLayerProfile[i]) sps.skip(88);
+            if (subLayerLevel[i]) sps.skip(8);
+        }
+
+        sps.readUnsignedExpGolomb(); // sps_seq_parameter_set_id
+        int chromaFormat = sps.readUnsignedExpGolomb();
+        if (chromaFormat == 3) sps.skip(1); // separate_colour_plane_flag
+        int width = sps.readUnsignedExpGolomb();
+        int height = sps.readUnsignedExpGolomb();
+        return new int[]{width, height};
+    }
+
+    private static byte[] removeEmulationPrevention(byte[] data, int from, int to) {
+        ByteArrayOutputStream rbsp = new ByteArrayOutputStream(to - from);
+        int zeros = 0;
+        for (int i = from; i < to; i++) {
+            int b = data[i] & 0xFF;
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            rbsp.write(b);
+        }
+        return rbsp.toByteArray();
+    }
+
+    private static String scaleFilter(int maxSize) {
+        return "scale='min(" + maxSize + ",iw)':'min(" + maxSize + ",ih)':force_original_aspect_ratio=decrease";
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Starts the external processes, replaceable so tests can stand in for the media tools.
+     */
+    @FunctionalInterface
+    interface ProcessStarter {
+        Process start(ProcessBuilder builder) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface WorkerCall<T> {
+        T run(MagickWorker worker) throws IOException, InterruptedException;
+    }
+
+    private record FrameRequest(File source, int maxSize, boolean still, CompletableFuture<File> result) {
+        FrameRequest(File source, int maxSize, boolean still) {
+            this(source, maxSize, still, new CompletableFuture<>());
+        }
+    }
+
+    private record HevcRequest(byte[] annexB, int maxSize, String batchKey, CompletableFuture<byte[]> result) {
+        HevcRequest(byte[] annexB, int maxSize) {
+            this(annexB, maxSize, batchKey(annexB, maxSize), new CompletableFuture<>());
+        }
+
+        private static String batchKey(byte[] annexB, int maxSize) {
+            int[] size = hevcPictureSize(annexB);
+            return size == null ? null : maxSize + ":" + size[0] + "x" + size[1];
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] data;
+        private int bit = 0;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        int read(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++, bit++) {
+                value = (value << 1) | ((data[bit >> 3] >> (7 - (bit & 7))) & 1);
+            }
+            return value;
+        }
+
+        void skip(int count) {
+            if ((bit + count - 1) >> 3 >= data.length) throw new IndexOutOfBoundsException("SPS too short");
+            bit += count;
+        }
+
+        int readUnsignedExpGolomb() {
+            int leadingZeros = 0;
+            while (read(1) == 0) {
+                if (++leadingZeros > 31) throw new IndexOutOfBoundsException("Invalid Exp-Golomb code");
+            }
+            return (1 << leadingZeros) - 1 + read(leadingZeros);
+        }
+    }
+
+    private static final class MagickWorker {
+        private final Process process;
+        private final OutputStream commands;
+        // stdout split at line feeds; kept as bytes since converted images are written there as well
+        private final BlockingQueue<byte[]> replies = new LinkedBlockingQueue<>();
+        private long sequence = 0;
+
+        MagickWorker(ProcessStarter processStarter, String executable) throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(executable, "-script", "-");
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+            this.process = processStarter.start(pb);
+            this.commands = new BufferedOutputStream(process.getOutputStream());
+
+            Thread reader = new Thread(() -> {
+                try (InputStream output = new BufferedInputStream(process.getInputStream())) {
+                    ByteArrayOutputStream line = new ByteArrayOutputStream();
+                    int b;
+                    while ((b = output.read()) != -1) {
+                        if (b != '\n') {
+                            line.write(b);
+                            continue;
+                        }
+                        replies.add(line.toByteArray());
+                        line.reset();
+                    }
+                    if (line.size() > 0) replies.add(line.toByteArray());
+                } catch (IOException ignored) {
+                    // the process was destroyed
+                }
+            }, "magick-worker-output");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        boolean probe() throws IOException, InterruptedException {
+            String marker = nextMarker();
+            send("-print " + quote(marker + "\\n"));
+            return awaitMarker(marker, PROBE_TIMEOUT_SECONDS);
+        }
+
+        boolean convert(File source, File output, int maxSize) throws IOException, InterruptedException {
+            String marker = nextMarker();
+            send("-read " + quote(source.getAbsolutePath())
+                    + " -auto-orient -resize " + quote(maxSize + "x" + maxSize + ">")
+                    + " -quality 90 -write " + quote(output.getAbsolutePath())
+                    + " +delete -print " + quote(marker + "\\n"));
+            if (!awaitMarker(marker, TIMEOUT_SECONDS))
+                throw new IOException(process.isAlive() ? "Timed out" : "Worker exited");
+            return output.length() > 0;
+        }
+
+        byte[] convert(byte[] data, String format, int maxSize) throws IOException, InterruptedException {
+            String marker = nextMarker();
+            commands.write(("-read \"inline:data:image/" + format + ";base64,").getBytes(StandardCharsets.US_ASCII));
+            commands.write(Base64.getEncoder().encode(data));
+            // The line feed before the marker ends the JPEG, so everything up to it is the image
+            send("\" -auto-orient -resize " + quote(maxSize + "x" + maxSize + ">")
+                    + " -quality 90 -write jpg:- +delete -print " + quote("\\n" + marker + "\\n"));
+
+            List<byte[]> lines = new ArrayList<>();
+            if (!awaitMarker(marker, TIMEOUT_SECONDS, lines))
+                throw new IOException(process.isAlive() ? "Timed out" : "Worker exited");
+
+            ByteArrayOutputStream image = new ByteArrayOutputStream();
+            for (int i = 0; i < lines.size(); i++) {
+                if (i > 0) image.write('\n');
+                image.writeBytes(lines.get(i));
+            }
+            return image.size() > 0 ? image.toByteArray() : null;
+        }
+
+        void destroy() {
+            process.destroyForcibly();
+        }
+
+        private String nextMarker() {
+            return "itbe-done-" + (++sequence);
+        }
+
+        private void send(String line) throws IOException {
+            commands.write(line.getBytes(StandardCharsets.UTF_8));
+            commands.write('\n');
+            commands.flush();
+        }
+
+        private boolean awaitMarker(String marker, long timeoutSeconds) throws InterruptedException {
+            return awaitMarker(marker, timeoutSeconds, null);
+        }
+
+        /**
+         * @param output Receives the lines printed before the marker, or null to discard them
+         */
+        private boolean awaitMarker(String marker, long timeoutSeconds, List<byte[]> output) throws InterruptedException {
+            byte[] expected = marker.getBytes(StandardCharsets.US_ASCII);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !process.isAlive() && replies.isEmpty()) return false;
+
+                byte[] reply = replies.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(200)), TimeUnit.NANOSECONDS);
+                if (reply == null) continue;
+                if (Arrays.equals(trimCarriageReturn(reply), expected)) return true;
+                if (output != null) output.add(reply);
+            }
+        }
+
+        private static byte[] trimCarriageReturn(byte[] line) {
+            return line.length > 0 && line[line.length - 1] == '\r' ? Arrays.copyOf(line, line.length - 1) : line;
+        }
+    }
+}
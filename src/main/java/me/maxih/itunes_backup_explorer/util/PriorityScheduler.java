@@ -0,0 +1,255 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed thread pool that runs the most urgent work first.
+ * Tasks are ordered by priority and, within one priority, newest first, since the latest request
+ * is usually the one the user is looking at. Background tasks can be limited per budget (e.g. per tab),
+ * and some threads only take interactive work, so a click never waits behind a full queue.
+ */
+public class PriorityScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(PriorityScheduler.class);
+
+    public enum Priority {
+        INTERACTIVE,
+        VISIBLE,
+        PREFETCH
+    }
+
+    private final Object lock = new Object();
+    private final Map<Priority, Deque<Task>> queues = new EnumMap<>(Priority.class);
+    private final Map<String, Integer> budgetLimits = new HashMap<>();
+    private final Map<String, Integer> budgetRunning = new HashMap<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final int backgroundThreads;
+
+    private int runningBackground = 0;
+    private boolean shutdown = false;
+
+    /**
+     * @param name               Thread name prefix
+     * @param backgroundThreads  Threads that may run any work
+     * @param interactiveThreads Additional threads reserved for {@link Priority#INTERACTIVE} tasks
+     */
+    public PriorityScheduler(String name, int backgroundThreads, int interactiveThreads) {
+        if (backgroundThreads < 1 || interactiveThreads < 0)
+            throw new IllegalArgumentException("Invalid thread counts");
+
+        this.backgroundThreads = backgroundThreads;
+        for (Priority priority : Priority.values()) queues.put(priority, new ArrayDeque<>());
+
+        for (int i = 0; i < backgroundThreads + interactiveThreads; i++) {
+            Thread thread = new Thread(this::work, name + "-" + (i + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Limits how many non-interactive tasks of the given budget may run at the same time.
+     */
+    public void setBudget(String budget, int maxConcurrent) {
+        synchronized (lock) {
+            budgetLimits.put(budget, maxConcurrent);
+            lock.notifyAll();
+        }
+    }
+
+    public Task submit(Runnable runnable, Priority priority, String budget) {
+        Task task = new Task(runnable, priority, budget);
+        synchronized (lock) {
+            if (shutdown) {
+                task.state = State.CANCELLED;
+                return task;
+            }
+            queues.get(priority).addFirst(task);
+            lock.notifyAll();
+        }
+        return task;
+    }
+
+    public int queuedCount() {
+        synchronized (lock) {
+            return queues.values().stream().mapToInt(Deque::size).sum();
+        }
+    }
+
+    /**
+     * Stops accepting tasks. Already queued tasks still run.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops accepting tasks, drops the queue and interrupts running tasks.
+     */
+    public void shutdownNow() {
+        synchronized (lock) {
+            shutdown = true;
+            for (Deque<Task> queue : queues.values()) {
+                queue.forEach(task -> task.state = State.CANCELLED);
+                queue.clear();
+            }
+            lock.notifyAll();
+        }
+        threads.forEach(Thread::interrupt);
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread thread : threads) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) return false;
+            thread.join(remaining);
+            if (thread.isAlive()) return false;
+        }
+        return true;
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            synchronized (lock) {
+                while ((task = next()) == null) {
+                    if (shutdown && queues.values().stream().allMatch(Deque::isEmpty)) return;
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        if (shutdown) return;
+                    }
+                }
+                start(task);
+            }
+
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                logger.warn("Scheduled task failed", e);
+            } finally {
+                synchronized (lock) {
+                    finish(task);
+                    lock.notifyAll();
+                }
+                // Clear a cancellation interrupt so it does not leak into the next task
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private Task next() {
+        for (Priority priority : Priority.values()) {
+            boolean interactive = priority == Priority.INTERACTIVE;
+            if (!interactive && runningBackground >= backgroundThreads) return null;
+
+            Iterator<Task> iterator = queues.get(priority).iterator();
+            while (iterator.hasNext()) {
+                Task task = iterator.next();
+                if (interactive || hasBudget(task.budget)) {
+                    iterator.remove();
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean hasBudget(String budget) {
+        Integer limit = budgetLimits.get(budget);
+        return limit == null || budgetRunning.getOrDefault(budget, 0) < limit;
+    }
+
+    private void start(Task task) {
+        task.state = State.RUNNING;
+        task.runningAsBackground = task.priority != Priority.INTERACTIVE;
+        if (task.runningAsBackground) {
+            runningBackground++;
+            budgetRunning.merge(task.budget, 1, Integer::sum);
+        }
+    }
+
+    private void finish(Task task) {
+        task.state = State.DONE;
+        if (task.runningAsBackground) {
+            runningBackground--;
+            budgetRunning.merge(task.budget, -1, Integer::sum);
+        }
+    }
+
+    private enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        CANCELLED
+    }
+
+    public final class Task {
+        private final Runnable runnable;
+        private final String budget;
+        private Priority priority;
+        private State state = State.QUEUED;
+        private boolean runningAsBackground;
+
+        private Task(Runnable runnable, Priority priority, String budget) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.budget = budget;
+        }
+
+        /**
+         * Removes the task from the queue if it has not started yet.
+         *
+         * @return true if the task will not run
+         */
+        public boolean cancel() {
+            synchronized (lock) {
+                if (state == State.CANCELLED) return true;
+                if (state != State.QUEUED) return false;
+                queues.get(priority).remove(this);
+                state = State.CANCELLED;
+                return true;
+            }
+        }
+
+        /**
+         * Moves a queued task to a more urgent priority, in front of the tasks already waiting there.
+         */
+        public void promote(Priority target) {
+            synchronized (lock) {
+                if (state != State.QUEUED || target.ordinal() >= priority.ordinal()) return;
+                queues.get(priority).remove(this);
+                priority = target;
+                queues.get(target).addFirst(this);
+                lock.notifyAll();
+            }
+        }
+
+        public Priority getPriority() {
+            synchronized (lock) {
+                return priority;
+            }
+        }
+
+        public boolean isCancelled() {
+            synchronized (lock) {
+                return state == State.CANCELLED;
+            }
+        }
+    }
+}
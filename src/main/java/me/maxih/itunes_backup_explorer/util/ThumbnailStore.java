@@ -0,0 +1,164 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+
+/**
+ * Disk-backed store for encoded thumbnail blobs, packed into a single SQLite database
+ * in the application config directory. The total size is capped and the least recently
+ * used entries are evicted first.
+ */
+public class ThumbnailStore implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailStore.class);
+
+    public static final Path DEFAULT_LOCATION = AppPaths.CONFIG_DIR.resolve("thumbnails.db");
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final long ACCESS_UPDATE_INTERVAL_MS = 60L * 60 * 1000;
+
+    private final Path location;
+    private final long maxBytes;
+    private Connection connection;
+    private boolean unavailable = false;
+    private long totalBytes;
+
+    public ThumbnailStore(Path location, long maxBytes) {
+        this.location = location;
+        this.maxBytes = maxBytes;
+    }
+
+    public static String key(String deviceID, String fileID, int thumbnailSize, String contentTag) {
+        return deviceID + ":" + fileID + ":" + thumbnailSize + ":" + contentTag;
+    }
+
+    public synchronized byte[] get(String key) {
+        if (!ensureOpen()) return null;
+
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT data, last_access FROM thumbnails WHERE key = ?")) {
+            statement.setString(1, key);
+            try (ResultSet result = statement.executeQuery()) {
+                if (!result.next()) return null;
+                byte[] data = result.getBytes(1);
+                long lastAccess = result.getLong(2);
+
+                long now = System.currentTimeMillis();
+                if (now - lastAccess > ACCESS_UPDATE_INTERVAL_MS) touch(key, now);
+                return data;
+            }
+        } catch (SQLException e) {
+            logger.warn("Failed to read cached thumbnail: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, byte[] data) {
+        if (data == null || data.length == 0 || data.length > maxBytes || !ensureOpen()) return;
+
+        try {
+            long previous = 0;
+            try (PreparedStatement statement = connection.prepareStatement("SELECT length(data) FROM thumbnails WHERE key = ?")) {
+                statement.setString(1, key);
+                try (ResultSet result = statement.executeQuery()) {
+                    if (result.next()) previous = result.getLong(1);
+                }
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT OR REPLACE INTO thumbnails (key, data, last_access) VALUES (?, ?, ?)")) {
+                statement.setString(1, key);
+                statement.setBytes(2, data);
+                statement.setLong(3, System.currentTimeMillis());
+                statement.executeUpdate();
+            }
+
+            totalBytes += data.length - previous;
+            if (totalBytes > maxBytes) evict();
+        } catch (SQLException e) {
+            logger.warn("Failed to store thumbnail: {}", e.getMessage());
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return ensureOpen() ? totalBytes : 0;
+    }
+
+    public synchronized void clear() {
+        if (!ensureOpen()) return;
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM thumbnails");
+            statement.execute("VACUUM");
+            totalBytes = 0;
+        } catch (SQLException e) {
+            logger.warn("Failed to clear thumbnail store: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.warn("Failed to close thumbnail store: {}", e.getMessage());
+        }
+        connection = null;
+    }
+
+    private void touch(String key, long now) {
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE thumbnails SET last_access = ? WHERE key = ?")) {
+            statement.setLong(1, now);
+            statement.setString(2, key);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            logger.debug("Failed to update thumbnail access time: {}", e.getMessage());
+        }
+    }
+
+    private void evict() throws SQLException {
+        long target = maxBytes * 9 / 10;
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT key, length(data) FROM thumbnails ORDER BY last_access ASC");
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM thumbnails WHERE key = ?")) {
+            try (ResultSet result = select.executeQuery()) {
+                while (totalBytes > target && result.next()) {
+                    delete.setString(1, result.getString(1));
+                    delete.addBatch();
+                    totalBytes -= result.getLong(2);
+                }
+            }
+            delete.executeBatch();
+        }
+    }
+
+    private boolean ensureOpen() {
+        if (connection != null) return true;
+        if (unavailable) return false;
+
+        try {
+            Files.createDirectories(location.getParent());
+            connection = DriverManager.getConnection("jdbc:sqlite:" + location.toAbsolutePath());
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("CREATE TABLE IF NOT EXISTS thumbnails (" +
+                        "key TEXT PRIMARY KEY, data BLOB NOT NULL, last_access INTEGER NOT NULL)");
+                statement.execute("CREATE INDEX IF NOT EXISTS thumbnails_last_access ON thumbnails (last_access)");
+                try (ResultSet result = statement.executeQuery("SELECT COALESCE(SUM(length(data)), 0) FROM thumbnails")) {
+                    totalBytes = result.next() ? result.getLong(1) : 0;
+                }
+            }
+            return true;
+        } catch (SQLException | IOException e) {
+            logger.warn("Thumbnail store unavailable at {}: {}", location, e.getMessage());
+            unavailable = true;
+            close();
+            return false;
+        }
+    }
+}
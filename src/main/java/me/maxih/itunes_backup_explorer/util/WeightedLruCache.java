@@ -0,0 +1,115 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe LRU cache bounded by the total weight of its values instead of the entry count.
+ * Entries evicted from the strong part can optionally be kept as soft references,
+ * so they survive until the garbage collector actually needs the memory.
+ */
+public class WeightedLruCache<K, V> {
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final boolean softOverflow;
+
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<K, SoftEntry<K, V>> overflow = new HashMap<>();
+    private final ReferenceQueue<V> collected = new ReferenceQueue<>();
+    private long weight = 0;
+
+    public WeightedLruCache(long maxWeight, ToLongFunction<V> weigher, boolean softOverflow) {
+        if (maxWeight <= 0) throw new IllegalArgumentException("maxWeight must be positive");
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.softOverflow = softOverflow;
+    }
+
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value != null) return value;
+
+        expungeCollected();
+        SoftEntry<K, V> soft = overflow.remove(key);
+        if (soft == null) return null;
+
+        value = soft.get();
+        if (value != null) put(key, value);
+        return value;
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    public synchronized void put(K key, V value) {
+        long valueWeight = Math.max(0, weigher.applyAsLong(value));
+
+        V previous = entries.remove(key);
+        if (previous != null) weight -= weigher.applyAsLong(previous);
+        overflow.remove(key);
+
+        if (valueWeight > maxWeight) {
+            if (softOverflow) overflow.put(key, new SoftEntry<>(key, value, collected));
+            return;
+        }
+
+        entries.put(key, value);
+        weight += valueWeight;
+        evict();
+    }
+
+    public synchronized void remove(K key) {
+        V previous = entries.remove(key);
+        if (previous != null) weight -= weigher.applyAsLong(previous);
+        overflow.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        overflow.clear();
+        weight = 0;
+        expungeCollected();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            Map.Entry<K, V> eldest = iterator.next();
+            iterator.remove();
+            weight -= weigher.applyAsLong(eldest.getValue());
+            if (softOverflow) overflow.put(eldest.getKey(), new SoftEntry<>(eldest.getKey(), eldest.getValue(), collected));
+        }
+        expungeCollected();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void expungeCollected() {
+        SoftEntry<K, V> entry;
+        while ((entry = (SoftEntry<K, V>) collected.poll()) != null) {
+            overflow.remove(entry.key, entry);
+        }
+    }
+
+    private static class SoftEntry<K, V> extends SoftReference<V> {
+        final K key;
+
+        SoftEntry(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
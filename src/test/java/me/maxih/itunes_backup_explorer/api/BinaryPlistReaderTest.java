@@ -0,0 +1,131 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import com.dd.plist.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryPlistReaderTest {
+
+    private static BinaryPlistReader read(NSObject root) throws IOException, PropertyListFormatException {
+        return new BinaryPlistReader(ByteBuffer.wrap(BinaryPropertyListWriter.writeToArray(root)));
+    }
+
+    @Test
+    void read_decodesScalars() throws IOException, PropertyListFormatException {
+        NSDictionary root = new NSDictionary();
+        root.put("name", "\u00dcn\u00efcode name");
+        root.put("small", 7);
+        root.put("negative", -42L);
+        root.put("ratio", 0.25);
+        root.put("enabled", true);
+        root.put("created", new NSDate(Date.from(Instant.parse("2020-01-02T03:04:05Z"))));
+        root.put("blob", new NSData(new byte[]{1, 2, 3}));
+
+        BinaryPlistReader reader = read(root);
+        int top = reader.getTopObject();
+
+        assertEquals(BinaryPlistReader.Kind.DICTIONARY, reader.kind(top));
+        assertEquals(7, reader.count(top));
+        assertFalse(reader.isKeyedArchive());
+        assertEquals("\u00dcn\u00efcode name", reader.string(reader.lookup(top, "name")));
+        assertEquals(7L, reader.integer(reader.lookup(top, "small")));
+        assertEquals(-42L, reader.integer(reader.lookup(top, "negative")));
+        assertEquals(0.25, reader.real(reader.lookup(top, "ratio")));
+        assertTrue(reader.bool(reader.lookup(top, "enabled")));
+        assertEquals(Instant.parse("2020-01-02T03:04:05Z"), reader.date(reader.lookup(top, "created")));
+        assertArrayEquals(new byte[]{1, 2}, reader.data(reader.lookup(top, "blob"), 2));
+        assertEquals("3 bytes <010203>", reader.preview(reader.lookup(top, "blob")));
+        assertEquals(-1, reader.lookup(top, "missing"));
+    }
+
+    @Test
+    void read_decodesLargeContainers() throws IOException, PropertyListFormatException {
+        NSArray array = new NSArray(300);
+        for (int i = 0; i < 300; i++) array.setValue(i, new NSNumber(i * 1000));
+
+        BinaryPlistReader reader = read(array);
+        int top = reader.getTopObject();
+
+        assertEquals(BinaryPlistReader.Kind.ARRAY, reader.kind(top));
+        assertEquals(300, reader.count(top));
+        assertEquals(299_000L, reader.integer(reader.child(top, 299)));
+        assertThrows(IndexOutOfBoundsException.class, () -> reader.child(top, 300));
+        assertThrows(IllegalArgumentException.class, () -> reader.string(top));
+    }
+
+    @Test
+    void resolve_followsKeyedArchiverUids() throws IOException, PropertyListFormatException {
+        NSDictionary file = new NSDictionary();
+        file.put("Size", 5);
+        file.put("$class", new UID("class", BigInteger.TWO));
+        NSDictionary classInfo = new NSDictionary();
+        classInfo.put("$classname", "MBFile");
+        classInfo.put("$classes", new NSArray(new NSString("MBFile"), new NSString("NSObject")));
+
+        NSDictionary top = new NSDictionary();
+        top.put("root", new UID("root", BigInteger.ONE));
+        NSDictionary archive = new NSDictionary();
+        archive.put("$archiver", "NSKeyedArchiver");
+        archive.put("$version", 100000);
+        archive.put("$top", top);
+        archive.put("$objects", new NSArray(new NSString("$null"), file, classInfo));
+
+        BinaryPlistReader reader = read(archive);
+        int rootUid = reader.lookup(reader.lookup(reader.getTopObject(), "$top"), "root");
+
+        assertTrue(reader.isKeyedArchive());
+        assertEquals(BinaryPlistReader.Kind.UID, reader.kind(rootUid));
+        assertEquals(1, reader.uid(rootUid));
+        int root = reader.resolve(rootUid);
+        assertEquals(5L, reader.integer(reader.lookup(root, "Size")));
+        assertEquals("MBFile", reader.archivedClassName(root));
+        assertEquals("$objects[1] MBFile", reader.preview(rootUid));
+    }
+
+    @Test
+    void preview_stopsAtUidPointingToUid() throws IOException, PropertyListFormatException {
+        NSDictionary top = new NSDictionary();
+        top.put("root", new UID("root", BigInteger.ONE));
+        NSDictionary archive = new NSDictionary();
+        archive.put("$archiver", "NSKeyedArchiver");
+        archive.put("$version", 100000);
+        archive.put("$top", top);
+        archive.put("$objects", new NSArray(new NSString("$null"), new UID("self", BigInteger.ONE)));
+
+        BinaryPlistReader reader = read(archive);
+        int rootUid = reader.lookup(reader.lookup(reader.getTopObject(), "$top"), "root");
+
+        assertEquals("$objects[1] UID 1", reader.preview(rootUid));
+        assertEquals("$objects[1] UID 1", reader.preview(reader.resolve(rootUid)));
+    }
+
+    @Test
+    void of_convertsXmlPlists() throws IOException, PropertyListFormatException {
+        NSDictionary root = new NSDictionary();
+        root.put("key", "value");
+        byte[] xml = root.toXMLPropertyList().getBytes(StandardCharsets.UTF_8);
+
+        BinaryPlistReader reader = BinaryPlistReader.of(xml);
+
+        assertEquals("value", reader.string(reader.lookup(reader.getTopObject(), "key")));
+    }
+
+    @Test
+    void constructor_rejectsInvalidTrailer() throws IOException {
+        byte[] data = BinaryPropertyListWriter.writeToArray(new NSString("text"));
+        // Offset table beyond the trailer
+        data[data.length - 1] = (byte) 0xFF;
+
+        assertThrows(PropertyListFormatException.class, () -> new BinaryPlistReader(ByteBuffer.wrap(data)));
+        assertThrows(PropertyListFormatException.class,
+                () -> new BinaryPlistReader(ByteBuffer.wrap("bplist00 but far too short".getBytes(StandardCharsets.US_ASCII))));
+    }
+}
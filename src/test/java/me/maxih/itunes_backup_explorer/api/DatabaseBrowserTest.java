@@ -0,0 +1,117 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseBrowserTest {
+
+    @TempDir
+    Path tempDir;
+
+    private DatabaseBrowser createBrowser() throws SQLException {
+        String url = "jdbc:sqlite:" + tempDir.resolve("test.db").toAbsolutePath();
+        try (Connection connection = DriverManager.getConnection(url);
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE notes (id INTEGER, title TEXT, body BLOB)");
+            stmt.execute("INSERT INTO notes VALUES (1, 'first', NULL), (2, 'second, with comma', X'CAFE'), " +
+                    "(3, 'third', NULL), (4, 'fourth', NULL), (5, 'fifth', NULL)");
+            stmt.execute("DELETE FROM notes WHERE id = 2");
+            stmt.execute("CREATE TABLE tags (name TEXT, note INTEGER, PRIMARY KEY (name, note)) WITHOUT ROWID");
+            stmt.execute("INSERT INTO tags VALUES ('b', 1), ('a', 3), ('a', 1)");
+            stmt.execute("CREATE VIEW titles AS SELECT title FROM notes");
+        }
+        return new DatabaseBrowser(DriverManager.getConnection(url));
+    }
+
+    private static DatabaseBrowser.Table table(List<DatabaseBrowser.Table> tables, String name) {
+        return tables.stream().filter(table -> table.name().equals(name)).findFirst().orElseThrow();
+    }
+
+    private static List<Object> readAll(DatabaseBrowser browser, DatabaseBrowser.Table table, int column) throws SQLException {
+        List<Object> values = new ArrayList<>();
+        Object[] key = null;
+        do {
+            DatabaseBrowser.Page page = browser.page(table, key, 2);
+            assertTrue(page.rows().size() <= 2);
+            for (Object[] row : page.rows()) values.add(row[column]);
+            key = page.nextKey();
+        } while (key != null);
+        return values;
+    }
+
+    @Test
+    void listTables_detectsKeys() throws SQLException {
+        try (DatabaseBrowser browser = createBrowser()) {
+            List<DatabaseBrowser.Table> tables = browser.listTables();
+
+            assertEquals(List.of("notes", "tags", "titles"), tables.stream().map(DatabaseBrowser.Table::name).toList());
+            assertEquals(List.of("rowid"), table(tables, "notes").keyColumns());
+            assertEquals(List.of("name", "note"), table(tables, "tags").keyColumns());
+            assertTrue(table(tables, "titles").view());
+            assertFalse(table(tables, "titles").keyed());
+        }
+    }
+
+    @Test
+    void page_seeksByKey() throws SQLException {
+        try (DatabaseBrowser browser = createBrowser()) {
+            List<DatabaseBrowser.Table> tables = browser.listTables();
+
+            DatabaseBrowser.Page first = browser.page(table(tables, "notes"), null, 2);
+            assertEquals(List.of("id", "title", "body"), first.columns());
+            assertArrayEquals(new Object[]{3}, first.nextKey());
+
+            assertEquals(List.of(1, 3, 4, 5), readAll(browser, table(tables, "notes"), 0));
+            assertEquals(List.of("a", "a", "b"), readAll(browser, table(tables, "tags"), 0));
+            assertEquals(List.of(1, 3, 1), readAll(browser, table(tables, "tags"), 1));
+            assertEquals(List.of("first", "third", "fourth", "fifth"), readAll(browser, table(tables, "titles"), 0));
+        }
+    }
+
+    @Test
+    void query_capsRowsAndRefusesWrites() throws SQLException {
+        try (DatabaseBrowser browser = createBrowser()) {
+            DatabaseBrowser.QueryResult result = browser.query("SELECT id FROM notes ORDER BY id;", 3, 10);
+            assertEquals(3, result.rows().size());
+            assertTrue(result.truncated());
+
+            assertFalse(browser.query("-- all of them\nSELECT * FROM notes", 10, 10).truncated());
+            assertThrows(SQLException.class, () -> browser.query("DELETE FROM notes", 10, 10));
+            assertThrows(SQLException.class, () -> browser.query("WITH x AS (SELECT 1) DELETE FROM notes", 10, 10));
+            assertThrows(SQLException.class, () -> browser.query("SELECT 1; DELETE FROM notes", 10, 10));
+            assertEquals(4, browser.query("SELECT * FROM notes", 10, 10).rows().size());
+        }
+    }
+
+    @Test
+    void checkQuery_ignoresSemicolonsInLiterals() throws SQLException {
+        assertEquals("SELECT ';' AS \"a;b\"", DatabaseBrowser.checkQuery("  SELECT ';' AS \"a;b\"; "));
+        assertEquals("SELECT 1", DatabaseBrowser.checkQuery("/* note; */ SELECT 1"));
+        assertThrows(SQLException.class, () -> DatabaseBrowser.checkQuery("PRAGMA query_only = 0"));
+        assertThrows(SQLException.class, () -> DatabaseBrowser.checkQuery("-- SELECT 1"));
+    }
+
+    @Test
+    void exportCsv_quotesFields() throws SQLException, IOException {
+        try (DatabaseBrowser browser = createBrowser()) {
+            StringWriter writer = new StringWriter();
+            long count = browser.exportCsv("SELECT id, title, body FROM notes WHERE id <= 3 " +
+                    "UNION ALL SELECT 2, 'say \"hi\"' || char(10) || 'bye', X'CAFE' ORDER BY id", writer);
+
+            assertEquals(3, count);
+            assertEquals("id,title,body\r\n1,first,\r\n2,\"say \"\"hi\"\"\nbye\",cafe\r\n3,third,\r\n", writer.toString());
+        }
+    }
+}
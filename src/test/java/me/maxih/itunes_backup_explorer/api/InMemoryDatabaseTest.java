@@ -0,0 +1,127 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryDatabaseTest {
+    private static final int PAGE_SIZE = 512;
+    private static final int SALT_1 = 0x11223344;
+    private static final int SALT_2 = 0x55667788;
+
+    private static byte[] database(int pages, boolean walMode) {
+        byte[] image = new byte[pages * PAGE_SIZE];
+        System.arraycopy("SQLite format 3\0".getBytes(), 0, image, 0, 16);
+        image[16] = (byte) (PAGE_SIZE >> 8);
+        image[17] = (byte) PAGE_SIZE;
+        image[18] = image[19] = (byte) (walMode ? 2 : 1);
+        ByteBuffer.wrap(image).putInt(28, pages);
+        return image;
+    }
+
+    private static byte[] page(int fill) {
+        byte[] page = new byte[PAGE_SIZE];
+        Arrays.fill(page, (byte) fill);
+        return page;
+    }
+
+    /**
+     * Writes a WAL with little-endian checksums, the variant iOS devices produce.
+     */
+    private static class WalWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int s0, s1;
+
+        WalWriter() {
+            ByteBuffer header = ByteBuffer.allocate(32);
+            header.putInt(0x377f0682).putInt(3007000).putInt(PAGE_SIZE).putInt(0).putInt(SALT_1).putInt(SALT_2);
+            checksum(header.array(), 0, 24);
+            header.putInt(s0).putInt(s1);
+            out.writeBytes(header.array());
+        }
+
+        WalWriter frame(int pageNumber, int commitSize, byte[] page) {
+            ByteBuffer header = ByteBuffer.allocate(24);
+            header.putInt(pageNumber).putInt(commitSize).putInt(SALT_1).putInt(SALT_2);
+            checksum(header.array(), 0, 8);
+            checksum(page, 0, page.length);
+            header.putInt(s0).putInt(s1);
+            out.writeBytes(header.array());
+            out.writeBytes(page);
+            return this;
+        }
+
+        private void checksum(byte[] data, int offset, int length) {
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = offset; i < offset + length; i += 8) {
+                s0 += buffer.getInt(i) + s1;
+                s1 += buffer.getInt(i + 4) + s0;
+            }
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] pageOf(byte[] image, int number) {
+        return Arrays.copyOfRange(image, (number - 1) * PAGE_SIZE, number * PAGE_SIZE);
+    }
+
+    @Test
+    void mergeWal_appliesCommittedTransactions() {
+        byte[] wal = new WalWriter()
+                .frame(2, 0, page(0x22))
+                .frame(3, 3, page(0x33))
+                .frame(2, 3, page(0x44))
+                .bytes();
+
+        byte[] merged = InMemoryDatabase.mergeWal(database(2, true), wal);
+
+        assertEquals(3 * PAGE_SIZE, merged.length);
+        assertArrayEquals(page(0x44), pageOf(merged, 2));
+        assertArrayEquals(page(0x33), pageOf(merged, 3));
+        assertEquals(1, merged[18]);
+        assertEquals(1, merged[19]);
+        assertEquals(3, ByteBuffer.wrap(merged).getInt(28));
+    }
+
+    @Test
+    void mergeWal_leavesOutUnfinishedTransaction() {
+        byte[] wal = new WalWriter()
+                .frame(2, 2, page(0x22))
+                .frame(2, 0, page(0x55))
+                .bytes();
+
+        byte[] merged = InMemoryDatabase.mergeWal(database(2, true), wal);
+
+        assertArrayEquals(page(0x22), pageOf(merged, 2));
+    }
+
+    @Test
+    void mergeWal_stopsAtBrokenChecksum() {
+        byte[] wal = new WalWriter()
+                .frame(2, 2, page(0x22))
+                .frame(2, 2, page(0x66))
+                .bytes();
+        // Torn write in the page of the second frame
+        wal[wal.length - 1] ^= 1;
+
+        byte[] merged = InMemoryDatabase.mergeWal(database(2, true), wal);
+
+        assertArrayEquals(page(0x22), pageOf(merged, 2));
+    }
+
+    @Test
+    void mergeWal_ignoresWalOfRollbackJournalDatabase() {
+        byte[] database = database(2, false);
+        byte[] wal = new WalWriter().frame(2, 2, page(0x22)).bytes();
+
+        assertSame(database, InMemoryDatabase.mergeWal(database, wal));
+    }
+}
@@ -0,0 +1,160 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import com.dd.plist.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MBFileDecoderTest {
+
+    private static final byte[] WRAPPED_KEY = new byte[44];
+    private static final byte[] DIGEST = new byte[20];
+
+    static {
+        for (int i = 0; i < WRAPPED_KEY.length; i++) WRAPPED_KEY[i] = (byte) i;
+        for (int i = 0; i < DIGEST.length; i++) DIGEST[i] = (byte) (0xF0 - i);
+    }
+
+    private static UID uid(int index) {
+        return new UID("uid" + index, BigInteger.valueOf(index));
+    }
+
+    private static NSDictionary classInfo(String name) {
+        NSDictionary info = new NSDictionary();
+        info.put("$classname", name);
+        info.put("$classes", new NSArray(new NSString(name), new NSString("NSObject")));
+        return info;
+    }
+
+    /**
+     * An MBFile archive as iOS writes it, with the record and its encryption key, digest or symlink target in $objects.
+     */
+    private static NSDictionary archive(NSObject extra, String extraKey) {
+        NSDictionary file = new NSDictionary();
+        file.put("LastModified", 1_600_000_000L);
+        file.put("LastStatusChange", 1_600_000_001L);
+        file.put("Birth", 1_500_000_000L);
+        file.put("Flags", 0);
+        file.put("GroupID", 501);
+        file.put("UserID", 501);
+        file.put("InodeNumber", 123456789L);
+        file.put("Mode", 0100644);
+        file.put("Size", 5_000_000_000L);
+        file.put("ProtectionClass", 3);
+        file.put("RelativePath", uid(2));
+        file.put("$class", uid(3));
+        if (extra != null) file.put(extraKey, uid(4));
+
+        NSArray objects = new NSArray(extra == null ? 4 : 5);
+        objects.setValue(0, new NSString("$null"));
+        objects.setValue(1, file);
+        objects.setValue(2, new NSString("Library/Preferences/com.apple.test.plist"));
+        objects.setValue(3, classInfo("MBFile"));
+        if (extra != null) objects.setValue(4, extra);
+
+        NSDictionary top = new NSDictionary();
+        top.put("root", uid(1));
+        NSDictionary archive = new NSDictionary();
+        archive.put("$version", 100000);
+        archive.put("$archiver", "NSKeyedArchiver");
+        archive.put("$top", top);
+        archive.put("$objects", objects);
+        return archive;
+    }
+
+    private static byte[] encryptedFileRecord() throws IOException {
+        NSDictionary archive = archive(null, null);
+        NSDictionary file = (NSDictionary) ((NSArray) archive.get("$objects")).objectAtIndex(1);
+        file.put("EncryptionKey", uid(4));
+        file.put("Digest", uid(6));
+
+        NSDictionary key = new NSDictionary();
+        key.put("NS.data", new NSData(WRAPPED_KEY));
+        key.put("$class", uid(5));
+        NSArray objects = (NSArray) archive.get("$objects");
+        archive.put("$objects", new NSArray(objects.objectAtIndex(0), objects.objectAtIndex(1), objects.objectAtIndex(2),
+                objects.objectAtIndex(3), key, classInfo("NSMutableData"), new NSData(DIGEST)));
+        return BinaryPropertyListWriter.writeToArray(archive);
+    }
+
+    @Test
+    void decode_readsFileFields() throws IOException {
+        MBFileDecoder decoder = new MBFileDecoder();
+
+        assertTrue(decoder.decode(encryptedFileRecord()));
+        assertEquals(5_000_000_000L, decoder.getSize());
+        assertEquals(3, decoder.getProtectionClass());
+        assertEquals(1_600_000_000L, decoder.getLastModified());
+        assertEquals(0100644, decoder.getMode());
+        assertArrayEquals(Arrays.copyOfRange(WRAPPED_KEY, 4, 44), decoder.copyEncryptionKey());
+        assertArrayEquals(DIGEST, decoder.copyDigest());
+        assertNull(decoder.getTarget());
+
+        // Nothing is left over from the previous record
+        assertTrue(decoder.decode(BinaryPropertyListWriter.writeToArray(archive(null, null))));
+        assertFalse(decoder.hasEncryptionKey());
+        assertNull(decoder.copyDigest());
+    }
+
+    @Test
+    void decode_readsSymlinkTargets() throws IOException {
+        MBFileDecoder decoder = new MBFileDecoder();
+
+        assertTrue(decoder.decode(BinaryPropertyListWriter.writeToArray(archive(new NSString("../Target"), "Target"))));
+        assertEquals("../Target", decoder.getTarget());
+
+        assertTrue(decoder.decode(BinaryPropertyListWriter.writeToArray(archive(new NSString("Ziel \u00fc"), "Target"))));
+        assertEquals("Ziel \u00fc", decoder.getTarget());
+    }
+
+    @Test
+    void decode_rejectsOtherShapes() throws IOException {
+        MBFileDecoder decoder = new MBFileDecoder();
+        NSDictionary plain = new NSDictionary();
+        plain.put("Size", 1);
+
+        assertFalse(decoder.decode(BinaryPropertyListWriter.writeToArray(plain)));
+        assertFalse(decoder.decode(plain.toXMLPropertyList().getBytes()));
+        assertFalse(decoder.decode(new byte[0]));
+        // A digest that is no data object
+        assertFalse(decoder.decode(BinaryPropertyListWriter.writeToArray(archive(new NSString("digest"), "Digest"))));
+    }
+
+    @Test
+    void decode_toleratesTruncatedRecords() throws IOException {
+        byte[] record = encryptedFileRecord();
+        MBFileDecoder decoder = new MBFileDecoder();
+
+        for (int length = 0; length < record.length; length++) {
+            byte[] truncated = Arrays.copyOf(record, length);
+            assertDoesNotThrow(() -> decoder.decode(truncated), "length " + length);
+        }
+        for (int i = 0; i < record.length; i++) {
+            byte[] corrupted = record.clone();
+            corrupted[i] ^= (byte) 0xFF;
+            assertDoesNotThrow(() -> decoder.decode(corrupted), "byte " + i);
+        }
+    }
+
+    @Test
+    void backupFile_fallsBackToPropertyList() throws IOException, BackupReadException {
+        MBFileDecoder decoder = new MBFileDecoder();
+        byte[] symlink = BinaryPropertyListWriter.writeToArray(archive(new NSString("../Target"), "Target"));
+        // An encryption key too short to be decoded; only the property list path ignores it for directories
+        NSDictionary key = new NSDictionary();
+        key.put("NS.data", new NSData(new byte[8]));
+        byte[] directory = BinaryPropertyListWriter.writeToArray(archive(key, "EncryptionKey"));
+
+        BackupFile link = new BackupFile(null, "id", "HomeDomain", "link", BackupFile.FileType.SYMBOLIC_LINK.flag, symlink, decoder);
+        BackupFile folder = new BackupFile(null, "id", "HomeDomain", "folder", BackupFile.FileType.DIRECTORY.flag, directory, decoder);
+
+        assertEquals("../Target", link.getSymlinkTarget());
+        assertEquals(0100644, link.getMode());
+        assertEquals(0100644, folder.getMode());
+        assertTrue(folder.getData().getArray("$objects").isPresent());
+    }
+}
@@ -0,0 +1,107 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import com.dd.plist.NSArray;
+import com.dd.plist.NSDictionary;
+import com.dd.plist.NSString;
+import com.dd.plist.UID;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaCatalogTest {
+
+    private static MediaAsset asset(long id, String name, boolean video, Long date, boolean favorite) {
+        return new MediaAsset(id, "Media/DCIM/100APPLE/" + name, video,
+                date == null ? null : Instant.ofEpochSecond(date), favorite, false, null, null);
+    }
+
+    private static MediaCatalog createCatalog() {
+        List<MediaAsset> assets = List.of(
+                asset(1, "IMG_0001.HEIC", false, 1000L, false),
+                asset(2, "IMG_0002.MOV", true, 3000L, true),
+                asset(3, "IMG_0003.JPG", false, 2000L, true),
+                asset(-1, "unlisted.png", false, null, false)
+        );
+        Map<MediaAlbum, long[]> albums = new LinkedHashMap<>();
+        albums.put(new MediaAlbum(10, "Holiday", 0), new long[]{1, 2, 99});
+        albums.put(new MediaAlbum(11, "Not in backup", 0), new long[]{99});
+        return new MediaCatalog(assets, albums);
+    }
+
+    private static List<String> names(List<MediaAsset> assets) {
+        return assets.stream().map(MediaAsset::fileName).toList();
+    }
+
+    @Test
+    void query_sortsByCaptureDate() {
+        MediaCatalog catalog = createCatalog();
+
+        assertEquals(List.of("IMG_0002.MOV", "IMG_0003.JPG", "IMG_0001.HEIC", "unlisted.png"),
+                names(catalog.query(MediaCatalog.Filter.ALL)));
+        assertEquals(List.of("IMG_0001.HEIC", "IMG_0003.JPG", "IMG_0002.MOV", "unlisted.png"),
+                names(catalog.query(new MediaCatalog.Filter(MediaCatalog.Kind.ALL, -1, false, true))));
+    }
+
+    @Test
+    void query_combinesFilters() {
+        MediaCatalog catalog = createCatalog();
+
+        assertEquals(List.of("IMG_0003.JPG", "IMG_0001.HEIC", "unlisted.png"),
+                names(catalog.query(new MediaCatalog.Filter(MediaCatalog.Kind.PHOTOS, -1, false, false))));
+        assertEquals(List.of("IMG_0002.MOV"),
+                names(catalog.query(new MediaCatalog.Filter(MediaCatalog.Kind.VIDEOS, -1, false, false))));
+        assertEquals(List.of("IMG_0003.JPG"),
+                names(catalog.query(new MediaCatalog.Filter(MediaCatalog.Kind.PHOTOS, -1, true, false))));
+        assertEquals(List.of("IMG_0002.MOV", "IMG_0001.HEIC"),
+                names(catalog.query(new MediaCatalog.Filter(MediaCatalog.Kind.ALL, 10, false, false))));
+        assertTrue(catalog.query(new MediaCatalog.Filter(MediaCatalog.Kind.ALL, 11, false, false)).isEmpty());
+    }
+
+    @Test
+    void albums_onlyCountAssetsInBackup() {
+        List<MediaAlbum> albums = createCatalog().getAlbums();
+
+        assertEquals(1, albums.size());
+        assertEquals("Holiday", albums.get(0).title());
+        assertEquals(2, albums.get(0).assetCount());
+    }
+
+    @Test
+    void join_pairsLivePhotoVideos() throws BackupReadException {
+        Map<String, BackupFile> files = new HashMap<>();
+        for (String path : List.of("Media/DCIM/100APPLE/IMG_0001.HEIC", "Media/DCIM/100APPLE/IMG_0001.MOV",
+                "Media/DCIM/100APPLE/IMG_0002.JPG", "Media/DCIM/100APPLE/IMG_0003.PNG",
+                "Media/PhotoData/Thumbnails/1.jpg", "Media/DCIM/100APPLE/notes.txt")) {
+            files.put(path.toLowerCase(Locale.ROOT), backupFile(path));
+        }
+
+        MediaAsset live = new MediaAsset(1, "Media/DCIM/100APPLE/IMG_0001.HEIC", false, Instant.EPOCH, false, true, null, null);
+        MediaAsset missing = asset(2, "IMG_9999.JPG", false, 0L, false);
+        MediaAsset plain = asset(3, "IMG_0002.JPG", false, 0L, false);
+
+        List<MediaAsset> joined = MediaCatalog.join(List.of(live, missing, plain), files);
+
+        assertEquals(3, joined.size());
+        assertEquals("Media/DCIM/100APPLE/IMG_0001.MOV", joined.get(0).livePhotoVideo().relativePath);
+        assertEquals("Media/DCIM/100APPLE/IMG_0002.JPG", joined.get(1).file().relativePath);
+        assertNull(joined.get(1).livePhotoVideo());
+
+        MediaAsset unlisted = joined.get(2);
+        assertEquals(-1, unlisted.assetId());
+        assertEquals("IMG_0003.PNG", unlisted.fileName());
+        assertNull(unlisted.captureDate());
+    }
+
+    private static BackupFile backupFile(String relativePath) throws BackupReadException {
+        NSDictionary top = new NSDictionary();
+        top.put("root", new UID("root", BigInteger.ONE));
+        NSDictionary data = new NSDictionary();
+        data.put("$objects", new NSArray(new NSString("$null"), new NSDictionary()));
+        data.put("$top", top);
+        return new BackupFile(null, relativePath, PhotosLibrary.DOMAIN, relativePath, BackupFile.FileType.DIRECTORY.flag, data);
+    }
+}
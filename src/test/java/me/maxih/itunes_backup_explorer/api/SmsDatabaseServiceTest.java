@@ -0,0 +1,180 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SmsDatabaseServiceTest {
+
+    private static final long NANOS = 1_000_000_000L;
+
+    @TempDir
+    Path tempDir;
+
+    private File createSmsDatabase() throws SQLException {
+        File file = tempDir.resolve("sms.db").toFile();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE chat (ROWID INTEGER PRIMARY KEY, chat_identifier TEXT, display_name TEXT, " +
+                    "service_name TEXT, style INTEGER)");
+            stmt.execute("CREATE TABLE handle (ROWID INTEGER PRIMARY KEY, id TEXT)");
+            stmt.execute("CREATE TABLE message (ROWID INTEGER PRIMARY KEY, handle_id INTEGER, is_from_me INTEGER, " +
+                    "date INTEGER, text TEXT, attributedBody BLOB, service TEXT, cache_has_attachments INTEGER)");
+            stmt.execute("CREATE TABLE chat_message_join (chat_id INTEGER, message_id INTEGER, message_date INTEGER)");
+            stmt.execute("CREATE TABLE attachment (ROWID INTEGER PRIMARY KEY, filename TEXT, mime_type TEXT, " +
+                    "transfer_name TEXT, total_bytes INTEGER)");
+            stmt.execute("CREATE TABLE message_attachment_join (message_id INTEGER, attachment_id INTEGER)");
+
+            stmt.execute("INSERT INTO chat VALUES (1, '+15550001', NULL, 'iMessage', 45), (2, 'chat123', 'Family', 'iMessage', 43)");
+            stmt.execute("INSERT INTO handle VALUES (1, '+15550001'), (2, 'bob@example.com')");
+            stmt.execute("INSERT INTO message VALUES " +
+                    "(1, 1, 0, " + 700000000 * NANOS + ", 'hello', NULL, 'iMessage', 0), " +
+                    "(2, 0, 1, " + 700000100 * NANOS + ", 'photo', NULL, 'iMessage', 1), " +
+                    "(3, 1, 0, " + 700000100 * NANOS + ", 'same time', NULL, 'SMS', 0), " +
+                    "(4, 2, 0, 700000050, 'group message', NULL, 'iMessage', 0)");
+            stmt.execute("INSERT INTO chat_message_join VALUES " +
+                    "(1, 1, " + 700000000 * NANOS + "), (1, 2, " + 700000100 * NANOS + "), (1, 3, " + 700000100 * NANOS + "), " +
+                    "(2, 4, 700000050)");
+            stmt.execute("INSERT INTO attachment VALUES " +
+                    "(1, '~/Library/SMS/Attachments/ab/11/GUID/IMG_0001.HEIC', 'image/heic', 'IMG_0001.HEIC', 1024)");
+            stmt.execute("INSERT INTO message_attachment_join VALUES (2, 1)");
+        }
+        return file;
+    }
+
+    @Test
+    void queryChats_sortsByLastMessage() throws SQLException {
+        try (SmsDatabaseService service = new SmsDatabaseService(createSmsDatabase())) {
+            List<SmsChat> chats = service.queryChats();
+
+            assertEquals(2, chats.size());
+
+            SmsChat direct = chats.get(0);
+            assertEquals(1, direct.id());
+            assertEquals(3, direct.messageCount());
+            assertEquals("same time", direct.lastMessagePreview());
+            assertEquals("+15550001", direct.title());
+            assertFalse(direct.isGroup());
+
+            SmsChat group = chats.get(1);
+            assertEquals("Family", group.title());
+            assertTrue(group.isGroup());
+            assertSame(chats, service.queryChats());
+        }
+    }
+
+    @Test
+    void queryMessagePage_pagesByKeyset() throws SQLException {
+        try (SmsDatabaseService service = new SmsDatabaseService(createSmsDatabase())) {
+            SmsDatabaseService.MessagePage first = service.queryMessagePage(1, null, 2);
+            assertEquals(List.of(3L, 2L), first.messages().stream().map(SmsMessage::id).toList());
+            assertNotNull(first.nextCursor());
+
+            SmsDatabaseService.MessagePage second = service.queryMessagePage(1, first.nextCursor(), 2);
+            assertEquals(List.of(1L), second.messages().stream().map(SmsMessage::id).toList());
+            assertNull(second.nextCursor());
+
+            SmsMessage hello = second.messages().get(0);
+            assertEquals("+15550001", hello.sender());
+            assertEquals(SmsDatabaseService.toInstant(700000000L), hello.date());
+        }
+    }
+
+    @Test
+    void queryMessagePage_loadsAttachmentsPerPage() throws SQLException {
+        try (SmsDatabaseService service = new SmsDatabaseService(createSmsDatabase())) {
+            List<SmsMessage> messages = service.queryMessagePage(1, null, 10).messages();
+
+            SmsMessage photo = messages.stream().filter(message -> message.id() == 2).findFirst().orElseThrow();
+            assertTrue(photo.fromMe());
+            assertNull(photo.sender());
+            assertEquals(1, photo.attachments().size());
+            assertEquals("IMG_0001.HEIC", photo.attachments().get(0).displayName());
+            assertTrue(photo.attachments().get(0).isImage());
+
+            assertTrue(messages.get(0).attachments().isEmpty());
+        }
+    }
+
+    @Test
+    void queryNewerMessagePage_continuesAfterCursor() throws SQLException {
+        try (SmsDatabaseService service = new SmsDatabaseService(createSmsDatabase())) {
+            SmsDatabaseService.MessageCursor oldest = service.queryMessagePage(1, null, 3).nextCursor();
+            assertNotNull(oldest);
+
+            List<SmsMessage> newer = service.queryNewerMessagePage(1, oldest, 10).messages();
+            assertEquals(List.of(2L, 3L), newer.stream().map(SmsMessage::id).toList());
+        }
+    }
+
+    @Test
+    void queryMessagePage_decodesAttributedBody() throws SQLException {
+        File database = createSmsDatabase();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath());
+             PreparedStatement stmt = connection.prepareStatement("UPDATE message SET text = NULL, attributedBody = ? WHERE ROWID = 4")) {
+            stmt.setBytes(1, attributedBody("from attributedBody"));
+            stmt.executeUpdate();
+        }
+
+        try (SmsDatabaseService service = new SmsDatabaseService(database)) {
+            assertEquals("from attributedBody", service.queryMessagePage(2, null, 10).messages().get(0).text());
+        }
+    }
+
+    @Test
+    void decodeAttributedBody_readsLongStrings() {
+        String text = "x".repeat(300);
+        assertEquals(text, SmsDatabaseService.decodeAttributedBody(attributedBody(text)));
+        assertNull(SmsDatabaseService.decodeAttributedBody(new byte[]{1, 2, 3}));
+        assertNull(SmsDatabaseService.decodeAttributedBody(null));
+    }
+
+    @Test
+    void toRelativePath_stripsDevicePrefixes() {
+        assertEquals("Library/SMS/Attachments/ab/11/a.jpg", SmsAttachmentIndex.toRelativePath("~/Library/SMS/Attachments/ab/11/a.jpg"));
+        assertEquals("Library/SMS/Attachments/ab/11/a.jpg", SmsAttachmentIndex.toRelativePath("/var/mobile/Library/SMS/Attachments/ab/11/a.jpg"));
+        assertEquals("Library/SMS/Attachments/ab/11/a.jpg", SmsAttachmentIndex.toRelativePath("/private/var/mobile/Library/SMS/Attachments/ab/11/a.jpg"));
+        assertNull(SmsAttachmentIndex.toRelativePath("/tmp/a.jpg"));
+        assertNull(SmsAttachmentIndex.toRelativePath(null));
+    }
+
+    /**
+     * Mimics the start of an archived NSAttributedString as written by iOS.
+     */
+    private static byte[] attributedBody(String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(new byte[]{0x04, 0x0B});
+        out.writeBytes("streamtyped".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(new byte[]{(byte) 0x81, (byte) 0xE8, 0x03, (byte) 0x84, 0x01, 0x40, (byte) 0x84, (byte) 0x84, (byte) 0x84, 0x12});
+        out.writeBytes("NSAttributedString".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(new byte[]{0x00, (byte) 0x84, (byte) 0x84, 0x08});
+        out.writeBytes("NSObject".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(new byte[]{0x00, (byte) 0x85, (byte) 0x92, (byte) 0x84, (byte) 0x84, (byte) 0x84, 0x08});
+        out.writeBytes("NSString".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(new byte[]{0x01, (byte) 0x94, (byte) 0x84, 0x01, 0x2B});
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < 0x80) {
+            out.write(bytes.length);
+        } else {
+            out.write(0x81);
+            out.write(bytes.length & 0xFF);
+            out.write(bytes.length >> 8);
+        }
+        out.writeBytes(bytes);
+        out.writeBytes(new byte[]{(byte) 0x86, (byte) 0x84});
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,481 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import com.dd.plist.*;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes backups in the layout of iTunes and Finder, so tests and benchmarks do not depend on device data.
+ * Generation is deterministic for a given seed. Encrypted backups are unlocked with {@link #PASSCODE}.
+ * <p>
+ * A backup for manual testing can be written with
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=me.maxih.itunes_backup_explorer.api.SyntheticBackup
+ * -Dexec.args="&lt;directory&gt; [files] [domains] [depth] [encrypted]"</code>
+ */
+public final class SyntheticBackup {
+    public static final String PASSCODE = "synthetic";
+    public static final int MANIFEST_PROTECTION_CLASS = 4;
+
+    private static final int[] PROTECTION_CLASSES = {1, 2, 3, 4};
+    // Far below what iOS uses, which would make every unlock take seconds
+    private static final int ITERATIONS = 10;
+    private static final int BATCH_SIZE = 10_000;
+    private static final long LAST_MODIFIED = 1_700_000_000L;
+
+    private SyntheticBackup() {
+    }
+
+    /**
+     * Sizes of the generated files in bytes.
+     */
+    @FunctionalInterface
+    public interface SizeDistribution {
+        long next(Random random);
+
+        static SizeDistribution fixed(long size) {
+            return random -> size;
+        }
+
+        /**
+         * Many small and few large files, as on devices.
+         */
+        static SizeDistribution logUniform(long min, long max) {
+            double logMin = Math.log(Math.max(min, 1));
+            double logMax = Math.log(Math.max(max, 1));
+            return random -> Math.min(max, Math.round(Math.exp(logMin + random.nextDouble() * (logMax - logMin))));
+        }
+    }
+
+    /**
+     * @param domains Number of domains, each with a tree of directories
+     * @param files   Number of files, spread over the domains and their directories
+     * @param depth   Levels of directories below the root of each domain
+     * @param fanOut  Subdirectories of each directory above the deepest level
+     */
+    public record Options(int domains, int files, int depth, int fanOut, SizeDistribution sizes, boolean encrypted, long seed) {
+        public static Options defaults() {
+            return new Options(10, 10_000, 3, 4, SizeDistribution.logUniform(1, 4096), false, 1);
+        }
+
+        public Options withDomains(int domains) {
+            return new Options(domains, files, depth, fanOut, sizes, encrypted, seed);
+        }
+
+        public Options withFiles(int files) {
+            return new Options(domains, files, depth, fanOut, sizes, encrypted, seed);
+        }
+
+        public Options withDepth(int depth) {
+            return new Options(domains, files, depth, fanOut, sizes, encrypted, seed);
+        }
+
+        public Options withFanOut(int fanOut) {
+            return new Options(domains, files, depth, fanOut, sizes, encrypted, seed);
+        }
+
+        public Options withSizes(SizeDistribution sizes) {
+            return new Options(domains, files, depth, fanOut, sizes, encrypted, seed);
+        }
+
+        public Options withEncrypted(boolean encrypted) {
+            return new Options(domains, files, depth, fanOut, sizes, encrypted, seed);
+        }
+
+        public Options withSeed(long seed) {
+            return new Options(domains, files, depth, fanOut, sizes, encrypted, seed);
+        }
+
+        /**
+         * @return The directories of each domain, including its root
+         */
+        public int directoriesPerDomain() {
+            int count = 1;
+            int level = 1;
+            for (int i = 0; i < depth; i++) {
+                level *= fanOut;
+                count += level;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Writes a backup into an existing empty directory.
+     *
+     * @return The backup; encrypted ones are still locked
+     */
+    public static ITunesBackup generate(Path directory, Options options) throws IOException, GeneralSecurityException, SQLException, BackupReadException, UnsupportedCryptoException, NotUnlockedException {
+        Random random = new Random(options.seed());
+        KeyBag keyBag = null;
+        byte[] keyBagData = null;
+        byte[] manifestKey = null;
+        if (options.encrypted()) {
+            keyBagData = keyBagBlob(random);
+            keyBag = new KeyBag(new NSData(keyBagData));
+            keyBag.unlock(PASSCODE.toCharArray());
+            manifestKey = wrapFileKey(keyBag, MANIFEST_PROTECTION_CLASS, randomKey(random));
+        }
+
+        Path database = directory.resolve(options.encrypted() ? "Manifest.db.plain" : "Manifest.db");
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database)) {
+            createSchema(connection);
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO Files VALUES (?, ?, ?, ?, ?)")) {
+                new DomainWriter(directory, options, random, keyBag, insert).writeDomains();
+            }
+            connection.commit();
+        }
+        if (keyBag != null) {
+            try {
+                keyBag.encryptFile(MANIFEST_PROTECTION_CLASS, manifestKey, database.toFile(), directory.resolve("Manifest.db").toFile());
+            } finally {
+                Files.delete(database);
+            }
+        }
+
+        writeManifest(directory, options.encrypted(), keyBagData, manifestKey);
+        writeInfo(directory);
+        return new ITunesBackup(directory.toFile());
+    }
+
+    private static void createSchema(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE Files (fileID TEXT PRIMARY KEY, domain TEXT, relativePath TEXT, flags INTEGER, file BLOB)");
+            statement.execute("CREATE INDEX FilesDomainIdx ON Files(domain)");
+            statement.execute("CREATE INDEX FilesRelativePathIdx ON Files(relativePath)");
+            statement.execute("CREATE INDEX FilesFlagsIdx ON Files(flags)");
+            statement.execute("CREATE TABLE Properties (key TEXT PRIMARY KEY, value BLOB)");
+        }
+    }
+
+    private static void putTag(ByteArrayOutputStream blob, String tag, byte[] value) {
+        blob.writeBytes(tag.getBytes(StandardCharsets.US_ASCII));
+        blob.writeBytes(ByteBuffer.allocate(4).putInt(value.length).array());
+        blob.writeBytes(value);
+    }
+
+    private static byte[] intBytes(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] randomKey(Random random) {
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        return key;
+    }
+
+    /**
+     * A key bag of type backup, with the keys of the protection classes 1 to 11 wrapped by {@link #PASSCODE}.
+     */
+    static byte[] keyBagBlob(Random random) throws GeneralSecurityException {
+        byte[] salt = new byte[20];
+        byte[] dpsl = new byte[20];
+        random.nextBytes(salt);
+        random.nextBytes(dpsl);
+
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        byte[] passcodeKey = factory.generateSecret(new PBEKeySpec(PASSCODE.toCharArray(), dpsl, ITERATIONS, 32 * 8)).getEncoded();
+        PKCS5S2ParametersGenerator generator = new PKCS5S2ParametersGenerator(new SHA1Digest());
+        generator.init(passcodeKey, salt, ITERATIONS);
+        byte[] keyEncryptionKey = ((KeyParameter) generator.generateDerivedParameters(32 * 8)).getKey();
+
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        byte[] uuid = new byte[16];
+        random.nextBytes(uuid);
+        putTag(blob, "VERS", intBytes(3));
+        putTag(blob, "TYPE", intBytes(1));
+        putTag(blob, "UUID", uuid);
+        putTag(blob, "WRAP", intBytes(0));
+        putTag(blob, "SALT", salt);
+        putTag(blob, "ITER", intBytes(ITERATIONS));
+        putTag(blob, "DPWT", intBytes(1));
+        putTag(blob, "DPIC", intBytes(ITERATIONS));
+        putTag(blob, "DPSL", dpsl);
+
+        Cipher wrap = Cipher.getInstance("AESWrap");
+        wrap.init(Cipher.WRAP_MODE, new SecretKeySpec(keyEncryptionKey, "AES"));
+        for (int protectionClass = 1; protectionClass <= 11; protectionClass++) {
+            random.nextBytes(uuid);
+            putTag(blob, "UUID", uuid);
+            putTag(blob, "CLAS", intBytes(protectionClass));
+            putTag(blob, "WRAP", intBytes(2));
+            putTag(blob, "KTYP", intBytes(0));
+            putTag(blob, "WPKY", wrap.wrap(new SecretKeySpec(randomKey(random), "AES")));
+        }
+        return blob.toByteArray();
+    }
+
+    /**
+     * @return A key bag as in generated backups, unlocked
+     */
+    static KeyBag unlockedKeyBag(long seed) throws GeneralSecurityException, BackupReadException, UnsupportedCryptoException {
+        KeyBag keyBag = new KeyBag(new NSData(keyBagBlob(new Random(seed))));
+        keyBag.unlock(PASSCODE.toCharArray());
+        return keyBag;
+    }
+
+    /**
+     * @return The key of a file wrapped with the key of its protection class
+     */
+    static byte[] wrapFileKey(KeyBag keyBag, int protectionClass, byte[] fileKey) throws GeneralSecurityException {
+        byte[] classKey = keyBag.classKeys.get(ByteBuffer.wrap(intBytes(protectionClass))).get("KEY");
+        Cipher wrap = Cipher.getInstance("AESWrap");
+        wrap.init(Cipher.WRAP_MODE, new SecretKeySpec(classKey, "AES"));
+        return wrap.wrap(new SecretKeySpec(fileKey, "AES"));
+    }
+
+    private static UID uid(int index) {
+        return new UID("uid" + index, BigInteger.valueOf(index));
+    }
+
+    private static NSDictionary classInfo(String name) {
+        NSDictionary info = new NSDictionary();
+        info.put("$classname", name);
+        info.put("$classes", new NSArray(new NSString(name), new NSString("NSObject")));
+        return info;
+    }
+
+    /**
+     * An MBFile record as iOS archives it into the file column of Manifest.db.
+     *
+     * @param encryptionKey Protection class and wrapped key, or null
+     * @param digest        Digest of the content, or null
+     */
+    static byte[] record(BackupFile.FileType type, String relativePath, long size, int protectionClass, long lastModified, byte[] encryptionKey, byte[] digest) throws IOException {
+        NSDictionary properties = new NSDictionary();
+        properties.put("LastModified", lastModified);
+        properties.put("LastStatusChange", lastModified);
+        properties.put("Birth", lastModified);
+        properties.put("Flags", 0);
+        properties.put("GroupID", 501);
+        properties.put("UserID", 501);
+        properties.put("InodeNumber", relativePath.hashCode() & 0xFFFFFFFFL);
+        properties.put("Mode", switch (type) {
+            case FILE -> 0100644;
+            case DIRECTORY -> 040755;
+            case SYMBOLIC_LINK -> 0120755;
+        });
+        properties.put("Size", size);
+        properties.put("ProtectionClass", protectionClass);
+        properties.put("RelativePath", uid(2));
+        properties.put("$class", uid(3));
+
+        List<NSObject> objects = new ArrayList<>(List.of(new NSString("$null"), properties, new NSString(relativePath), classInfo("MBFile")));
+        if (encryptionKey != null) {
+            NSDictionary key = new NSDictionary();
+            key.put("NS.data", new NSData(encryptionKey));
+            key.put("$class", uid(objects.size() + 1));
+            properties.put("EncryptionKey", uid(objects.size()));
+            objects.add(key);
+            objects.add(classInfo("NSMutableData"));
+        }
+        if (digest != null) {
+            properties.put("Digest", uid(objects.size()));
+            objects.add(new NSData(digest));
+        }
+
+        NSDictionary top = new NSDictionary();
+        top.put("root", uid(1));
+        NSDictionary archive = new NSDictionary();
+        archive.put("$version", 100000);
+        archive.put("$archiver", "NSKeyedArchiver");
+        archive.put("$top", top);
+        archive.put("$objects", new NSArray(objects.toArray(NSObject[]::new)));
+        return BinaryPropertyListWriter.writeToArray(archive);
+    }
+
+    private static NSDictionary lockdown() {
+        NSDictionary lockdown = new NSDictionary();
+        lockdown.put("ProductVersion", "17.0");
+        lockdown.put("ProductType", "iPhone15,2");
+        lockdown.put("BuildVersion", "21A329");
+        lockdown.put("UniqueDeviceID", "00008120-000000000000SYNT");
+        lockdown.put("SerialNumber", "SYNTHETIC");
+        lockdown.put("DeviceName", "Synthetic iPhone");
+        return lockdown;
+    }
+
+    private static void writeManifest(Path directory, boolean encrypted, byte[] keyBag, byte[] manifestKey) throws IOException {
+        NSDictionary manifest = new NSDictionary();
+        manifest.put("IsEncrypted", encrypted);
+        manifest.put("Version", "10.0");
+        manifest.put("Date", new NSDate(new Date(LAST_MODIFIED * 1000)));
+        manifest.put("WasPasscodeSet", false);
+        manifest.put("Lockdown", lockdown());
+        manifest.put("Applications", new NSDictionary());
+        if (encrypted) {
+            manifest.put("BackupKeyBag", new NSData(keyBag));
+            manifest.put("ManifestKey", new NSData(ByteBuffer.allocate(4 + manifestKey.length).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(MANIFEST_PROTECTION_CLASS).put(manifestKey).array()));
+        }
+        Files.write(directory.resolve("Manifest.plist"), BinaryPropertyListWriter.writeToArray(manifest));
+    }
+
+    private static void writeInfo(Path directory) throws IOException {
+        NSDictionary lockdown = lockdown();
+        NSDictionary info = new NSDictionary();
+        info.put("Applications", new NSDictionary());
+        info.put("Installed Applications", new NSArray(0));
+        info.put("Last Backup Date", new NSDate(new Date(LAST_MODIFIED * 1000)));
+        info.put("Device Name", lockdown.get("DeviceName"));
+        info.put("Display Name", lockdown.get("DeviceName"));
+        info.put("Serial Number", lockdown.get("SerialNumber"));
+        info.put("Product Type", lockdown.get("ProductType"));
+        info.put("Product Version", lockdown.get("ProductVersion"));
+        info.put("Build Version", lockdown.get("BuildVersion"));
+        info.put("Unique Identifier", lockdown.get("UniqueDeviceID"));
+        Files.writeString(directory.resolve("Info.plist"), info.toXMLPropertyList());
+    }
+
+    private static String domainName(int index) {
+        return switch (index) {
+            case 0 -> "HomeDomain";
+            case 1 -> "MediaDomain";
+            case 2 -> "CameraRollDomain";
+            default -> "AppDomain-com.example.app" + (index - 3);
+        };
+    }
+
+    /**
+     * Writes the files of all domains, batching the inserts into Manifest.db.
+     */
+    private static final class DomainWriter {
+        private final Path directory;
+        private final Options options;
+        private final Random random;
+        private final KeyBag keyBag;
+        private final PreparedStatement insert;
+        private final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        private int pending = 0;
+
+        DomainWriter(Path directory, Options options, Random random, KeyBag keyBag, PreparedStatement insert) throws GeneralSecurityException {
+            this.directory = directory;
+            this.options = options;
+            this.random = random;
+            this.keyBag = keyBag;
+            this.insert = insert;
+        }
+
+        void writeDomains() throws IOException, GeneralSecurityException, SQLException, BackupReadException, UnsupportedCryptoException, NotUnlockedException {
+            for (int d = 0; d < options.domains(); d++) {
+                String domain = domainName(d);
+                List<String> directories = new ArrayList<>(options.directoriesPerDomain());
+                directories.add("");
+                addDirectories(directories, "", options.depth());
+                for (String path : directories) writeDirectory(domain, path);
+
+                int files = options.files() / options.domains() + (d < options.files() % options.domains() ? 1 : 0);
+                for (int f = 0; f < files; f++) {
+                    // Files go into any directory but the root, unless there are none
+                    int parent = directories.size() == 1 ? 0 : 1 + random.nextInt(directories.size() - 1);
+                    String parentPath = directories.get(parent);
+                    writeFile(domain, (parentPath.isEmpty() ? "" : parentPath + "/") + "file" + f + ".dat");
+                }
+            }
+            if (pending > 0) insert.executeBatch();
+        }
+
+        private void addDirectories(List<String> directories, String parent, int levels) {
+            if (levels == 0) return;
+            for (int i = 0; i < options.fanOut(); i++) {
+                String path = (parent.isEmpty() ? "" : parent + "/") + (parent.isEmpty() ? "Library" : "Directory") + i;
+                directories.add(path);
+                addDirectories(directories, path, levels - 1);
+            }
+        }
+
+        private String fileID(String domain, String relativePath) {
+            return HexFormat.of().formatHex(sha1.digest((domain + "-" + relativePath).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        private void writeDirectory(String domain, String relativePath) throws IOException, SQLException {
+            byte[] record = record(BackupFile.FileType.DIRECTORY, relativePath, 0, 0, LAST_MODIFIED, null, null);
+            add(fileID(domain, relativePath), domain, relativePath, BackupFile.FileType.DIRECTORY, record);
+        }
+
+        private void writeFile(String domain, String relativePath) throws IOException, GeneralSecurityException, SQLException, BackupReadException, UnsupportedCryptoException, NotUnlockedException {
+            String fileID = fileID(domain, relativePath);
+            byte[] content = new byte[(int) Math.min(options.sizes().next(random), Integer.MAX_VALUE - 16)];
+            random.nextBytes(content);
+            int protectionClass = PROTECTION_CLASSES[random.nextInt(PROTECTION_CLASSES.length)];
+
+            Path contentFile = directory.resolve(fileID.substring(0, 2)).resolve(fileID);
+            Files.createDirectories(contentFile.getParent());
+            // The digest is taken over the content file as stored, like BackupFile.calcFileDigest
+            byte[] encryptionKey = null;
+            try (OutputStream output = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(contentFile)), sha1)) {
+                if (keyBag != null) {
+                    byte[] persistentKey = wrapFileKey(keyBag, protectionClass, randomKey(random));
+                    try (OutputStream encrypted = keyBag.encryptStream(intBytes(protectionClass), persistentKey, output)) {
+                        encrypted.write(content);
+                    }
+                    encryptionKey = ByteBuffer.allocate(4 + persistentKey.length).order(ByteOrder.LITTLE_ENDIAN)
+                            .putInt(protectionClass).put(persistentKey).array();
+                } else {
+                    output.write(content);
+                }
+            }
+
+            byte[] record = record(BackupFile.FileType.FILE, relativePath, content.length, protectionClass,
+                    LAST_MODIFIED - random.nextInt(365 * 24 * 3600), encryptionKey, sha1.digest());
+            add(fileID, domain, relativePath, BackupFile.FileType.FILE, record);
+        }
+
+        private void add(String fileID, String domain, String relativePath, BackupFile.FileType type, byte[] record) throws SQLException {
+            insert.setString(1, fileID);
+            insert.setString(2, domain);
+            insert.setString(3, relativePath);
+            insert.setInt(4, type.flag);
+            insert.setBytes(5, record);
+            insert.addBatch();
+            if (++pending == BATCH_SIZE) {
+                insert.executeBatch();
+                pending = 0;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticBackup <directory> [files] [domains] [depth] [encrypted]");
+            System.exit(1);
+        }
+        Options options = Options.defaults();
+        if (args.length > 1) options = options.withFiles(Integer.parseInt(args[1]));
+        if (args.length > 2) options = options.withDomains(Integer.parseInt(args[2]));
+        if (args.length > 3) options = options.withDepth(Integer.parseInt(args[3]));
+        if (args.length > 4) options = options.withEncrypted(Boolean.parseBoolean(args[4]));
+
+        Path directory = Files.createDirectories(Path.of(args[0]));
+        long start = System.nanoTime();
+        generate(directory, options);
+        System.out.printf("Wrote %d files to %s in %d ms%n", options.files(), directory.toAbsolutePath(), (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,124 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticBackupTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final SyntheticBackup.Options SMALL = SyntheticBackup.Options.defaults()
+            .withDomains(3).withFiles(50).withDepth(2).withFanOut(2)
+            .withSizes(SyntheticBackup.SizeDistribution.logUniform(1, 100_000));
+
+    @Test
+    void generate_writesReadableBackup() throws Exception {
+        ITunesBackup backup = SyntheticBackup.generate(tempDir, SMALL);
+
+        assertFalse(backup.manifest.encrypted);
+        assertTrue(backup.getBackupInfo().isPresent());
+
+        List<BackupFile> files = backup.queryAllFiles();
+        assertEquals(50 + 3 * SMALL.directoriesPerDomain(), files.size());
+
+        Set<String> directories = files.stream()
+                .filter(file -> file.getFileType() == BackupFile.FileType.DIRECTORY)
+                .map(file -> file.domain + "-" + file.relativePath)
+                .collect(Collectors.toSet());
+        for (BackupFile file : files) {
+            if (!file.relativePath.isEmpty())
+                assertTrue(directories.contains(file.domain + "-" + file.getParentPath()), file.relativePath);
+            if (file.getFileType() == BackupFile.FileType.FILE) {
+                assertEquals(file.getSize(), file.getContentFile().length());
+                assertArrayEquals(file.calcFileDigest(), file.getDigest());
+            }
+        }
+        backup.cleanUp();
+    }
+
+    @Test
+    void generate_encryptsDatabaseAndContent() throws Exception {
+        Path backupDir = Files.createDirectory(tempDir.resolve("backup"));
+        ITunesBackup backup = SyntheticBackup.generate(backupDir, SMALL.withEncrypted(true));
+
+        assertTrue(backup.isLocked());
+        backup.manifest.getKeyBag().orElseThrow().unlock(SyntheticBackup.PASSCODE.toCharArray());
+        backup.decryptDatabase();
+
+        List<BackupFile> files = backup.queryAllFiles();
+        assertEquals(50 + 3 * SMALL.directoriesPerDomain(), files.size());
+
+        BackupFile file = files.stream().filter(BackupFile::isEncrypted).findFirst().orElseThrow();
+        File extracted = tempDir.resolve("extracted").toFile();
+        file.extract(extracted);
+        assertEquals(file.getSize(), extracted.length());
+        backup.cleanUp();
+    }
+
+    @Test
+    void generate_isDeterministic() throws Exception {
+        Path first = Files.createDirectory(tempDir.resolve("first"));
+        Path second = Files.createDirectory(tempDir.resolve("second"));
+        SyntheticBackup.generate(first, SMALL).cleanUp();
+        SyntheticBackup.generate(second, SMALL).cleanUp();
+
+        try (var paths = Files.walk(first)) {
+            for (Path path : paths.filter(Files::isRegularFile).filter(path -> path.getFileName().toString().length() == 40).toList())
+                assertArrayEquals(Files.readAllBytes(path), Files.readAllBytes(second.resolve(first.relativize(path))));
+        }
+    }
+
+    @Test
+    void record_isDecodedLikeDeviceRecords() throws Exception {
+        byte[] encryptionKey = new byte[44];
+        Arrays.fill(encryptionKey, (byte) 7);
+        byte[] digest = new byte[20];
+        Arrays.fill(digest, (byte) 9);
+
+        MBFileDecoder decoder = new MBFileDecoder();
+        assertTrue(decoder.decode(SyntheticBackup.record(BackupFile.FileType.FILE, "Library/file.dat", 1234, 3, 1_600_000_000L, encryptionKey, digest)));
+        assertEquals(1234, decoder.getSize());
+        assertEquals(3, decoder.getProtectionClass());
+        assertEquals(1_600_000_000L, decoder.getLastModified());
+        assertArrayEquals(Arrays.copyOfRange(encryptionKey, 4, 44), decoder.copyEncryptionKey());
+        assertArrayEquals(digest, decoder.copyDigest());
+
+        assertTrue(decoder.decode(SyntheticBackup.record(BackupFile.FileType.DIRECTORY, "Library", 0, 0, 1_600_000_000L, null, null)));
+        assertFalse(decoder.hasEncryptionKey());
+        assertEquals(040755, decoder.getMode());
+    }
+
+    @Test
+    void unlockedKeyBag_encryptsWithWrappedFileKeys() throws Exception {
+        KeyBag keyBag = SyntheticBackup.unlockedKeyBag(1);
+        byte[] protectionClass = ByteBuffer.allocate(4).putInt(3).array();
+        byte[] persistentKey = SyntheticBackup.wrapFileKey(keyBag, 3, new byte[32]);
+        byte[] content = new byte[1000];
+        new Random(1).nextBytes(content);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream output = keyBag.encryptStream(protectionClass, persistentKey, encrypted)) {
+            output.write(content);
+        }
+        try (InputStream input = keyBag.decryptStream(protectionClass, persistentKey, new ByteArrayInputStream(encrypted.toByteArray()))) {
+            assertArrayEquals(content, input.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimelineTest {
+
+    /**
+     * Source backed by a list, which counts the pages read from it.
+     */
+    private static class ListCursor implements TimelineCursor {
+        final List<TimelineEvent> events;
+        int position;
+        int pages;
+
+        ListCursor(TimelineEvent.Source source, long... seconds) {
+            this.events = LongStream.of(seconds)
+                    .mapToObj(s -> new TimelineEvent(source, Instant.ofEpochSecond(s), s, source.label, null))
+                    .sorted(Timeline.ORDER)
+                    .toList();
+        }
+
+        @Override
+        public void seek(Instant before) {
+            position = 0;
+            while (before != null && position < events.size() && !events.get(position).date().isBefore(before)) position++;
+        }
+
+        @Override
+        public List<TimelineEvent> next(int limit) throws SQLException {
+            pages++;
+            List<TimelineEvent> page = events.subList(position, Math.min(events.size(), position + limit));
+            position += page.size();
+            return page;
+        }
+    }
+
+    private static List<Long> seconds(List<TimelineEvent> events) {
+        return events.stream().map(event -> event.date().getEpochSecond()).toList();
+    }
+
+    @Test
+    void next_mergesSourcesNewestFirst() {
+        Timeline timeline = new Timeline(List.of(
+                new ListCursor(TimelineEvent.Source.WHATSAPP, 10, 40, 50),
+                new ListCursor(TimelineEvent.Source.MESSAGES, 20, 30),
+                new ListCursor(TimelineEvent.Source.PHOTOS)
+        ));
+
+        assertEquals(List.of(50L, 40L, 30L), seconds(timeline.next(3)));
+        assertEquals(List.of(20L, 10L), seconds(timeline.next(3)));
+        assertTrue(timeline.next(3).isEmpty());
+    }
+
+    @Test
+    void next_readsOneBatchPerSource() {
+        long[] many = LongStream.range(0, Timeline.BATCH_SIZE * 10L).toArray();
+        ListCursor messages = new ListCursor(TimelineEvent.Source.MESSAGES, many);
+        ListCursor calls = new ListCursor(TimelineEvent.Source.CALLS, many);
+        Timeline timeline = new Timeline(List.of(messages, calls));
+
+        List<TimelineEvent> events = timeline.next(Timeline.BATCH_SIZE);
+
+        assertEquals(Timeline.BATCH_SIZE, events.size());
+        assertEquals(1, messages.pages);
+        assertEquals(1, calls.pages);
+        // Events at the same time are ordered by source
+        assertEquals(TimelineEvent.Source.MESSAGES, events.get(0).source());
+        assertEquals(TimelineEvent.Source.CALLS, events.get(1).source());
+    }
+
+    @Test
+    void seek_continuesBeforeDate() {
+        Timeline timeline = new Timeline(List.of(
+                new ListCursor(TimelineEvent.Source.WHATSAPP, 10, 40, 50),
+                new ListCursor(TimelineEvent.Source.CALLS, 20, 30)
+        ));
+        timeline.next(5);
+
+        timeline.seek(Instant.ofEpochSecond(40));
+        assertEquals(List.of(30L, 20L, 10L), seconds(timeline.next(5)));
+
+        timeline.seek(null);
+        assertEquals(List.of(50L, 40L), seconds(timeline.next(2)));
+    }
+
+    @Test
+    void next_leavesOutFailingSource() {
+        TimelineCursor failing = new TimelineCursor() {
+            @Override
+            public void seek(Instant before) {
+            }
+
+            @Override
+            public List<TimelineEvent> next(int limit) throws SQLException {
+                throw new SQLException("database disk image is malformed");
+            }
+        };
+        Timeline timeline = new Timeline(List.of(failing, new ListCursor(TimelineEvent.Source.PHOTOS, 1, 2)));
+
+        assertEquals(List.of(2L, 1L), seconds(timeline.next(5)));
+    }
+}
@@ -0,0 +1,122 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WhatsAppDatabaseCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private int extractions = 0;
+
+    private void extract(File directory) throws IOException {
+        extractions++;
+        Files.writeString(new File(directory, WhatsAppDatabaseCache.DATABASE_NAME).toPath(), "database " + extractions);
+        Files.writeString(new File(directory, WhatsAppDatabaseCache.DATABASE_NAME + "-wal").toPath(), "wal");
+    }
+
+    /**
+     * Reverses the bytes, enough to tell stored copies from plaintext.
+     */
+    private static final WhatsAppDatabaseCache.Encryption REVERSING = new WhatsAppDatabaseCache.Encryption() {
+        @Override
+        public void encrypt(File source, File destination) throws IOException {
+            Files.write(destination.toPath(), reverse(Files.readAllBytes(source.toPath())));
+        }
+
+        @Override
+        public void decrypt(File source, File destination) throws IOException {
+            encrypt(source, destination);
+        }
+
+        private byte[] reverse(byte[] data) {
+            byte[] reversed = new byte[data.length];
+            for (int i = 0; i < data.length; i++) reversed[i] = data[data.length - 1 - i];
+            return reversed;
+        }
+    };
+
+    @Test
+    void open_reusesCopyOfUnchangedSource() throws Exception {
+        WhatsAppDatabaseCache cache = new WhatsAppDatabaseCache(tempDir, "backup", null);
+        File first = cache.open("a", this::extract);
+        cache.release();
+
+        File second = new WhatsAppDatabaseCache(tempDir, "backup", null).open("a", this::extract);
+
+        assertEquals(1, extractions);
+        assertEquals(first, second);
+        assertEquals("database 1", Files.readString(second.toPath()));
+        assertTrue(new File(second.getParentFile(), WhatsAppDatabaseCache.DATABASE_NAME + "-wal").isFile());
+    }
+
+    @Test
+    void open_extractsAgainWhenSourceChanged() throws Exception {
+        WhatsAppDatabaseCache cache = new WhatsAppDatabaseCache(tempDir, "backup", null);
+        cache.open("a", this::extract);
+        File database = cache.open("b", this::extract);
+
+        assertEquals(2, extractions);
+        assertEquals("database 2", Files.readString(database.toPath()));
+    }
+
+    @Test
+    void open_doesNotReuseInterruptedExtraction() throws Exception {
+        WhatsAppDatabaseCache cache = new WhatsAppDatabaseCache(tempDir, "backup", null);
+        assertThrows(IOException.class, () -> cache.open("a", dir -> {
+            extract(dir);
+            throw new IOException("interrupted");
+        }));
+
+        cache.open("a", this::extract);
+        assertEquals(2, extractions);
+    }
+
+    @Test
+    void open_keepsEncryptedCacheOnlyEncrypted() throws Exception {
+        WhatsAppDatabaseCache cache = new WhatsAppDatabaseCache(tempDir, "backup", REVERSING);
+        File working = cache.open("a", this::extract);
+        assertNotEquals(cache.getDirectory(), working.getParentFile());
+
+        File stored = new File(cache.getDirectory(), WhatsAppDatabaseCache.DATABASE_NAME + ".enc");
+        assertEquals("1 esabatad", Files.readString(stored.toPath(), StandardCharsets.UTF_8));
+        assertFalse(new File(cache.getDirectory(), WhatsAppDatabaseCache.DATABASE_NAME).exists());
+
+        cache.release();
+        assertFalse(working.exists());
+
+        File restored = new WhatsAppDatabaseCache(tempDir, "backup", REVERSING).open("a", this::extract);
+        assertEquals(1, extractions);
+        assertEquals("database 1", Files.readString(restored.toPath()));
+    }
+
+    @Test
+    void store_writesBackChangedWorkingFiles() throws Exception {
+        WhatsAppDatabaseCache cache = new WhatsAppDatabaseCache(tempDir, "backup", REVERSING);
+        File working = cache.open("a", this::extract);
+        File sidecar = new File(working.getParentFile(), "ChatStorage-search.sqlite");
+        Files.writeString(sidecar.toPath(), "index");
+        cache.store();
+        cache.release();
+
+        File restored = new WhatsAppDatabaseCache(tempDir, "backup", REVERSING).open("a", this::extract);
+        assertEquals("index", Files.readString(new File(restored.getParentFile(), sidecar.getName()).toPath()));
+    }
+
+    @Test
+    void open_ignoresCacheWrittenWithOtherEncryptionSetting() throws Exception {
+        new WhatsAppDatabaseCache(tempDir, "backup", REVERSING).open("a", this::extract);
+        new WhatsAppDatabaseCache(tempDir, "backup", null).open("a", this::extract);
+
+        assertEquals(2, extractions);
+    }
+}
@@ -0,0 +1,165 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WhatsAppDatabaseServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File createChatStorage() throws SQLException {
+        File file = tempDir.resolve("ChatStorage.sqlite").toFile();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE ZWACHATSESSION (Z_PK INTEGER PRIMARY KEY, ZCONTACTJID TEXT, ZPARTNERNAME TEXT, " +
+                    "ZSESSIONTYPE INTEGER, ZLASTMESSAGEDATE REAL)");
+            stmt.execute("CREATE TABLE ZWAMESSAGE (Z_PK INTEGER PRIMARY KEY, ZCHATSESSION INTEGER, ZISFROMME INTEGER, " +
+                    "ZMESSAGETYPE INTEGER, ZMESSAGEDATE REAL, ZFROMJID TEXT, ZTEXT TEXT, ZPUSHNAME TEXT, ZSTARRED INTEGER)");
+
+            stmt.execute("INSERT INTO ZWACHATSESSION VALUES " +
+                    "(1, '111@s.whatsapp.net', 'Alice', 0, 700000300), " +
+                    "(2, '222@g.us', NULL, 1, 700000100), " +
+                    "(3, '333@s.whatsapp.net', 'No messages', 0, 700000500)");
+            stmt.execute("INSERT INTO ZWAMESSAGE VALUES " +
+                    "(1, 1, 0, 0, 700000000, '111@s.whatsapp.net', 'hello', 'Al', 0), " +
+                    "(2, 1, 1, 0, 700000200, NULL, 'latest text', NULL, 0), " +
+                    "(3, 1, 0, 1, 700000300, '111@s.whatsapp.net', '', 'Alice P', 0), " +
+                    "(4, 2, 0, 0, 700000050, '444@s.whatsapp.net', 'group message', 'Bob', 1)");
+        }
+        return file;
+    }
+
+    @Test
+    void queryChats_aggregatesPerSession() throws SQLException {
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(createChatStorage())) {
+            List<WhatsAppChat> chats = service.queryChats();
+
+            assertEquals(2, chats.size());
+
+            WhatsAppChat alice = chats.get(0);
+            assertEquals(1, alice.id());
+            assertEquals(3, alice.messageCount());
+            assertEquals("latest text", alice.lastMessagePreview());
+            assertEquals("Alice P", alice.latestPushName());
+
+            WhatsAppChat group = chats.get(1);
+            assertEquals(2, group.id());
+            assertEquals(1, group.messageCount());
+            assertEquals("Bob", group.latestPushName());
+            assertTrue(group.isGroup());
+        }
+    }
+
+    @Test
+    void queryChats_resultIsKept() throws SQLException {
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(createChatStorage())) {
+            assertSame(service.queryChats(), service.queryChats());
+        }
+    }
+
+    @Test
+    void countMessages_usesAggregates() throws SQLException {
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(createChatStorage())) {
+            assertEquals(3, service.countMessages(1));
+            service.queryChats();
+            assertEquals(3, service.countMessages(1));
+            assertEquals(0, service.countMessages(3));
+        }
+    }
+
+    @Test
+    void queryMessagePage_walksHistoryWithCursor() throws SQLException {
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(createChatStorage())) {
+            WhatsAppDatabaseService.MessagePage first = service.queryMessagePage(1, null, 2);
+            assertEquals(List.of(3L, 2L), first.messages().stream().map(WhatsAppMessage::id).toList());
+            assertNotNull(first.nextCursor());
+
+            WhatsAppDatabaseService.MessagePage second = service.queryMessagePage(1, first.nextCursor(), 2);
+            assertEquals(List.of(1L), second.messages().stream().map(WhatsAppMessage::id).toList());
+            assertNull(second.nextCursor());
+        }
+    }
+
+    @Test
+    void queryMessagePage_breaksDateTiesById() throws SQLException {
+        File file = createChatStorage();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE ZWAMESSAGE SET ZMESSAGEDATE = 700000000 WHERE ZCHATSESSION = 1");
+        }
+
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(file)) {
+            WhatsAppDatabaseService.MessagePage first = service.queryMessagePage(1, null, 1);
+            WhatsAppDatabaseService.MessagePage second = service.queryMessagePage(1, first.nextCursor(), 1);
+            WhatsAppDatabaseService.MessagePage third = service.queryMessagePage(1, second.nextCursor(), 1);
+
+            assertEquals(3, first.messages().get(0).id());
+            assertEquals(2, second.messages().get(0).id());
+            assertEquals(1, third.messages().get(0).id());
+        }
+    }
+
+    @Test
+    void queryMessagePage_pagesThroughMessagesWithoutDate() throws SQLException {
+        File file = createChatStorage();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("UPDATE ZWAMESSAGE SET ZMESSAGEDATE = NULL WHERE Z_PK IN (1, 2)");
+        }
+
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(file)) {
+            WhatsAppDatabaseService.MessagePage first = service.queryMessagePage(1, null, 1);
+            WhatsAppDatabaseService.MessagePage second = service.queryMessagePage(1, first.nextCursor(), 1);
+            WhatsAppDatabaseService.MessagePage third = service.queryMessagePage(1, second.nextCursor(), 1);
+
+            assertEquals(3, first.messages().get(0).id());
+            assertEquals(2, second.messages().get(0).id());
+            assertEquals(1, third.messages().get(0).id());
+
+            WhatsAppDatabaseService.MessagePage newer = service.queryNewerMessagePage(1, service.cursorOf(1), 10);
+            assertEquals(List.of(2L, 3L), newer.messages().stream().map(WhatsAppMessage::id).toList());
+        }
+    }
+
+    @Test
+    void queryMessagePage_loadsThumbnailsOnlyOnDemand() throws SQLException {
+        File file = createChatStorage();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE ZWAMEDIAITEM (Z_PK INTEGER PRIMARY KEY, ZMESSAGE INTEGER, ZMEDIALOCALPATH TEXT, " +
+                    "ZTHUMBNAILDATA BLOB, ZTITLE TEXT)");
+            stmt.execute("INSERT INTO ZWAMEDIAITEM VALUES " +
+                    "(10, 3, 'Media/a.jpg', X'FFD8FFE0', NULL), " +
+                    "(11, 2, 'Media/b.pdf', X'', NULL)");
+        }
+
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(file)) {
+            List<WhatsAppMessage> messages = service.queryMessagePage(1, null, 10).messages();
+            WhatsAppMedia photo = messages.get(0).media();
+            WhatsAppMedia document = messages.get(1).media();
+
+            assertEquals(10, photo.mediaItemId());
+            assertTrue(photo.hasThumbnailData());
+            assertFalse(document.hasThumbnailData());
+            assertNull(messages.get(2).media());
+
+            Map<Long, byte[]> thumbnails = service.queryThumbnailData(List.of(10L, 11L, 99L));
+            assertEquals(Set.of(10L), thumbnails.keySet());
+            assertArrayEquals(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}, thumbnails.get(10L));
+            assertNull(service.queryThumbnailData(11));
+        }
+    }
+}
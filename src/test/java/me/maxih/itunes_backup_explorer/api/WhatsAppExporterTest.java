@@ -0,0 +1,123 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WhatsAppExporterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File createChatStorage() throws SQLException {
+        File file = tempDir.resolve("ChatStorage.sqlite").toFile();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE ZWACHATSESSION (Z_PK INTEGER PRIMARY KEY, ZCONTACTJID TEXT, ZPARTNERNAME TEXT, " +
+                    "ZSESSIONTYPE INTEGER, ZLASTMESSAGEDATE REAL)");
+            stmt.execute("CREATE TABLE ZWAMESSAGE (Z_PK INTEGER PRIMARY KEY, ZCHATSESSION INTEGER, ZISFROMME INTEGER, " +
+                    "ZMESSAGETYPE INTEGER, ZMESSAGEDATE REAL, ZFROMJID TEXT, ZTEXT TEXT, ZPUSHNAME TEXT, ZSTARRED INTEGER)");
+
+            stmt.execute("INSERT INTO ZWACHATSESSION VALUES " +
+                    "(1, '111@s.whatsapp.net', 'Alice', 0, 700000200), " +
+                    "(2, '222@s.whatsapp.net', 'Alice', 0, 700000300)");
+            stmt.execute("INSERT INTO ZWAMESSAGE VALUES " +
+                    "(1, 1, 0, 0, 700000000, '111@s.whatsapp.net', 'hello \"there\"', 'Al', 0), " +
+                    "(2, 1, 1, 0, 700000200, NULL, '<b>line one\nline two</b>', NULL, 1), " +
+                    "(3, 2, 0, 0, 700000300, '222@s.whatsapp.net', 'other chat', NULL, 0)");
+        }
+        return file;
+    }
+
+    private List<String> export(WhatsAppExporter.Format format) throws SQLException, IOException {
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(createChatStorage());
+             WhatsAppExporter exporter = new WhatsAppExporter(service, null, format)) {
+            File destination = tempDir.resolve("chat." + format.extension()).toFile();
+            WhatsAppChat chat = service.queryChats().stream().filter(c -> c.id() == 1).findFirst().orElseThrow();
+
+            assertEquals(2, exporter.exportChat(chat, destination).messages());
+            return Files.readAllLines(destination.toPath(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void exportChat_writesTextOldestFirst() throws SQLException, IOException {
+        List<String> lines = export(WhatsAppExporter.Format.TXT);
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0).endsWith("] Al: hello \"there\""));
+        assertTrue(lines.get(1).endsWith("] You: <b>line one"));
+    }
+
+    @Test
+    void exportChat_writesOneJsonObjectPerMessage() throws SQLException, IOException {
+        List<String> lines = export(WhatsAppExporter.Format.JSONL);
+
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"id\":1,\"chat\":\"Alice\""));
+        assertTrue(lines.get(0).contains("\"text\":\"hello \\\"there\\\"\""));
+        assertTrue(lines.get(1).contains("\"text\":\"<b>line one\\nline two</b>\""));
+        assertTrue(lines.get(1).contains("\"starred\":true"));
+    }
+
+    @Test
+    void exportChat_escapesHtml() throws SQLException, IOException {
+        String html = String.join("\n", export(WhatsAppExporter.Format.HTML));
+
+        assertTrue(html.startsWith("<!DOCTYPE html>"));
+        assertTrue(html.contains("&lt;b&gt;line one"));
+        assertFalse(html.contains("<b>line one"));
+        assertTrue(html.endsWith("</html>"));
+    }
+
+    @Test
+    void exportChat_skipsMessagesWithoutContent() throws SQLException, IOException {
+        File file = createChatStorage();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("INSERT INTO ZWAMESSAGE VALUES (4, 1, 0, 6, 700000100, '111@s.whatsapp.net', NULL, NULL, 0)");
+        }
+
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(file);
+             WhatsAppExporter exporter = new WhatsAppExporter(service, null, WhatsAppExporter.Format.TXT)) {
+            File destination = tempDir.resolve("chat.txt").toFile();
+            WhatsAppChat chat = service.queryChats().stream().filter(c -> c.id() == 1).findFirst().orElseThrow();
+            exporter.exportChat(chat, destination);
+
+            String text = Files.readString(destination.toPath(), StandardCharsets.UTF_8);
+            assertFalse(text.contains("null"));
+            assertEquals(3, text.lines().count());
+        }
+    }
+
+    @Test
+    void exportAllChats_writesOneFilePerChat() throws SQLException, IOException {
+        File directory = tempDir.resolve("all").toFile();
+        assertTrue(directory.mkdir());
+
+        try (WhatsAppDatabaseService service = new WhatsAppDatabaseService(createChatStorage());
+             WhatsAppExporter exporter = new WhatsAppExporter(service, null, WhatsAppExporter.Format.TXT)) {
+            int[] done = {0};
+            WhatsAppExporter.Result result = exporter.exportAllChats(service.queryChats(), directory, () -> false,
+                    count -> done[0] = count);
+
+            assertEquals(3, result.messages());
+            assertEquals(2, done[0]);
+        }
+
+        assertTrue(new File(directory, "Alice.txt").isFile());
+        assertTrue(new File(directory, "Alice (1).txt").isFile());
+    }
+}
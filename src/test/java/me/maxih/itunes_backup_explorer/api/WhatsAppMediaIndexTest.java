@@ -0,0 +1,83 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WhatsAppMediaIndexTest {
+    private static final String SHARED = "AppDomainGroup-group.net.whatsapp.WhatsApp.shared";
+    private static final String BUSINESS = "AppDomainGroup-group.net.whatsapp.WhatsAppSMB.shared";
+
+    @TempDir
+    Path tempDir;
+
+    private ITunesBackup backup;
+
+    @BeforeEach
+    void createBackup() throws Exception {
+        backup = SyntheticBackup.generate(tempDir, SyntheticBackup.Options.defaults().withDomains(1).withFiles(1));
+    }
+
+    @AfterEach
+    void cleanUp() {
+        backup.cleanUp();
+    }
+
+    private BackupFile file(String fileID, String domain, String relativePath) throws Exception {
+        Path content = backup.directory.toPath().resolve(fileID.substring(0, 2)).resolve(fileID);
+        Files.createDirectories(content.getParent());
+        Files.write(content, new byte[0]);
+        byte[] record = SyntheticBackup.record(BackupFile.FileType.FILE, relativePath, 0, 4, 0, null, null);
+        return new BackupFile(backup, fileID, domain, relativePath, BackupFile.FileType.FILE.flag, record, new MBFileDecoder());
+    }
+
+    @Test
+    void findByPathSuffix_matchesEndOfPathIgnoringCase() throws Exception {
+        BackupFile photo = file("aa01", SHARED, "Message/Media/123@s.whatsapp.net/a/b/Photo.JPG");
+        BackupFile other = file("aa02", SHARED, "Message/Media/456@s.whatsapp.net/a/b/other.jpg");
+        WhatsAppMediaIndex index = new WhatsAppMediaIndex(SHARED, List.of(photo, other));
+
+        assertSame(photo, index.findByPathSuffix("Media/123@s.whatsapp.net/a/b/photo.jpg"));
+        assertSame(other, index.findByPathSuffix("b/other.jpg"));
+        assertNull(index.findByPathSuffix("missing.jpg"));
+        assertNull(index.findByPathSuffix(null));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void findByPathSuffix_fallsBackToFileName() throws Exception {
+        BackupFile photo = file("aa01", SHARED, "Message/Media/123@s.whatsapp.net/a/b/photo.jpg");
+        WhatsAppMediaIndex index = new WhatsAppMediaIndex(SHARED, List.of(photo));
+
+        assertSame(photo, index.findByPathSuffix("Media/moved/elsewhere/photo.jpg"));
+    }
+
+    @Test
+    void findByPathSuffix_prefersPreferredDomain() throws Exception {
+        BackupFile business = file("aa01", BUSINESS, "Message/Media/a/photo.jpg");
+        BackupFile regular = file("aa02", SHARED, "Message/Media/a/photo.jpg");
+
+        assertSame(regular, new WhatsAppMediaIndex(SHARED, List.of(business, regular)).findByPathSuffix("a/photo.jpg"));
+        assertSame(business, new WhatsAppMediaIndex(BUSINESS, List.of(business, regular)).findByPathSuffix("a/photo.jpg"));
+        assertSame(business, new WhatsAppMediaIndex(null, List.of(business, regular)).findByPathSuffix("a/photo.jpg"));
+    }
+
+    @Test
+    void findByStem_findsMediaByUuid() throws Exception {
+        BackupFile thumb = file("aa01", SHARED, "Message/Media/a/c/ac74d48b-0b6f.thumb");
+        BackupFile video = file("aa02", SHARED, "Message/Media/a/c/AC74D48B-0B6F.mp4");
+        WhatsAppMediaIndex index = new WhatsAppMediaIndex(SHARED, List.of(thumb, video));
+
+        assertSame(video, index.findByStem("ac74d48b-0b6f", f -> !f.relativePath.endsWith(".thumb")));
+        assertNotNull(index.findByStem("ac74d48b-0b6f", f -> true));
+        assertNull(index.findByStem("ac74d48b-0b6f", f -> false));
+        assertNull(index.findByStem("unknown", f -> true));
+    }
+}
@@ -0,0 +1,105 @@
+package me.maxih.itunes_backup_explorer.api;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WhatsAppSearchIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private File createChatStorage() throws SQLException {
+        File file = tempDir.resolve("ChatStorage.sqlite").toFile();
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+             Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE ZWAMESSAGE (Z_PK INTEGER PRIMARY KEY, ZCHATSESSION INTEGER, ZISFROMME INTEGER, " +
+                    "ZMESSAGETYPE INTEGER, ZMESSAGEDATE REAL, ZFROMJID TEXT, ZTEXT TEXT, ZPUSHNAME TEXT, ZSTARRED INTEGER)");
+            stmt.execute("CREATE TABLE ZWAMEDIAITEM (Z_PK INTEGER PRIMARY KEY, ZMESSAGE INTEGER, ZTITLE TEXT)");
+
+            stmt.execute("INSERT INTO ZWAMESSAGE VALUES " +
+                    "(1, 1, 0, 0, 700000000, '111@s.whatsapp.net', 'Let us meet at the café', NULL, 0), " +
+                    "(2, 1, 1, 0, 700000100, NULL, '', NULL, 0), " +
+                    "(3, 2, 0, 1, 700000200, '444@s.whatsapp.net', NULL, 'Bob', 0), " +
+                    "(4, 2, 0, 0, 700000300, '444@s.whatsapp.net', 'cafe cafe cafe', 'Bob', 0)");
+            stmt.execute("INSERT INTO ZWAMEDIAITEM VALUES (1, 3, 'Holiday photo')");
+        }
+        return file;
+    }
+
+    @Test
+    void toMatchExpression_quotesWordsAsPrefixes() {
+        assertEquals("\"meet\"* \"caf\"*", WhatsAppSearchIndex.toMatchExpression("  meet caf "));
+        assertEquals("\"OR\"* \"a-b\"*", WhatsAppSearchIndex.toMatchExpression("OR \"a-b\""));
+        assertNull(WhatsAppSearchIndex.toMatchExpression("  \" "));
+    }
+
+    @Test
+    void sidecarFor_isNextToDatabase() {
+        File db = tempDir.resolve("ChatStorage.sqlite").toFile();
+        assertEquals(tempDir.resolve("ChatStorage-search.sqlite").toFile(), WhatsAppSearchIndex.sidecarFor(db));
+    }
+
+    @Test
+    void search_findsTextCaptionsAndPushNames() throws SQLException {
+        try (WhatsAppSearchIndex index = new WhatsAppSearchIndex(createChatStorage())) {
+            assertTrue(index.build(() -> false, progress -> {}));
+
+            List<WhatsAppSearchHit> cafe = index.search("caf", 10, 0);
+            assertEquals(List.of(4L, 1L), cafe.stream().map(WhatsAppSearchHit::messageId).toList());
+            assertEquals(2, cafe.get(0).chatSessionId());
+
+            List<WhatsAppSearchHit> holiday = index.search("holi", 10, 0);
+            assertEquals(1, holiday.size());
+            assertEquals(3, holiday.get(0).messageId());
+            assertTrue(holiday.get(0).snippet().contains(WhatsAppSearchIndex.HIGHLIGHT_START + "Holiday"));
+
+            assertEquals(2, index.search("bob", 10, 0).size());
+            assertEquals(List.of(1L), index.search("meet café", 10, 0).stream().map(WhatsAppSearchHit::messageId).toList());
+        }
+    }
+
+    @Test
+    void search_pagesRankedResults() throws SQLException {
+        try (WhatsAppSearchIndex index = new WhatsAppSearchIndex(createChatStorage())) {
+            index.build(() -> false, progress -> {});
+
+            assertEquals(4, index.search("cafe", 1, 0).get(0).messageId());
+            assertEquals(1, index.search("cafe", 1, 1).get(0).messageId());
+            assertTrue(index.search("cafe", 1, 2).isEmpty());
+        }
+    }
+
+    @Test
+    void build_reusesUpToDateIndex() throws SQLException {
+        File db = createChatStorage();
+        try (WhatsAppSearchIndex index = new WhatsAppSearchIndex(db)) {
+            index.build(() -> false, progress -> {});
+        }
+
+        double[] lastProgress = {0};
+        try (WhatsAppSearchIndex index = new WhatsAppSearchIndex(db)) {
+            assertTrue(index.build(() -> false, progress -> lastProgress[0] = progress));
+            assertEquals(0, lastProgress[0]);
+            assertEquals(2, index.search("cafe", 10, 0).size());
+        }
+    }
+
+    @Test
+    void build_stopsWhenCancelled() throws SQLException {
+        try (WhatsAppSearchIndex index = new WhatsAppSearchIndex(createChatStorage())) {
+            assertFalse(index.build(() -> true, progress -> {}));
+            assertFalse(index.isReady());
+            assertTrue(index.search("cafe", 10, 0).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package me.maxih.itunes_backup_explorer.ui;
+
+import me.maxih.itunes_backup_explorer.api.BackupFile;
+import me.maxih.itunes_backup_explorer.api.ITunesBackup;
+import me.maxih.itunes_backup_explorer.api.SyntheticBackup;
+import me.maxih.itunes_backup_explorer.util.ThumbnailStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThumbnailDiskCacheTest {
+    private static final SyntheticBackup.Options SMALL = SyntheticBackup.Options.defaults().withDomains(1).withFiles(5);
+
+    @TempDir
+    Path tempDir;
+
+    private static BackupFile anyFile(ITunesBackup backup) throws Exception {
+        return backup.queryAllFiles().stream()
+                .filter(file -> file.getFileType() == BackupFile.FileType.FILE)
+                .findFirst().orElseThrow();
+    }
+
+    @Test
+    void put_storesThumbnailsOfUnencryptedBackups() throws Exception {
+        ITunesBackup backup = SyntheticBackup.generate(Files.createDirectory(tempDir.resolve("backup")), SMALL);
+        BackupFile file = anyFile(backup);
+
+        try (ThumbnailDiskCache cache = new ThumbnailDiskCache(new ThumbnailStore(tempDir.resolve("thumbnails.db"), 1000))) {
+            cache.put(file, 90, new byte[100]);
+            assertEquals(100, cache.get(file, 90).length);
+            assertNull(cache.get(file, 400));
+        } finally {
+            backup.cleanUp();
+        }
+    }
+
+    @Test
+    void put_leavesNoRowsForEncryptedBackups() throws Exception {
+        ITunesBackup backup = SyntheticBackup.generate(Files.createDirectory(tempDir.resolve("backup")), SMALL.withEncrypted(true));
+        backup.manifest.getKeyBag().orElseThrow().unlock(SyntheticBackup.PASSCODE.toCharArray());
+        backup.decryptDatabase();
+        BackupFile file = anyFile(backup);
+
+        Path location = tempDir.resolve("thumbnails.db");
+        try (ThumbnailDiskCache cache = new ThumbnailDiskCache(new ThumbnailStore(location, 1000))) {
+            cache.put(file, 90, new byte[100]);
+            assertNull(cache.get(file, 90));
+        } finally {
+            backup.cleanUp();
+        }
+
+        try (ThumbnailStore store = new ThumbnailStore(location, 1000)) {
+            assertEquals(0, store.getTotalBytes());
+        }
+    }
+}
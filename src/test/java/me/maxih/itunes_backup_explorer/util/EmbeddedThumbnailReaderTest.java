@@ -0,0 +1,170 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddedThumbnailReaderTest {
+
+    private static final byte[] FAKE_JPEG = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, 4, (byte) 0xFF, (byte) 0xD9};
+
+    private static byte[] exifJpeg(ByteOrder order, byte[] thumbnail) {
+        int ifd0 = 8;
+        int ifd1 = ifd0 + 2 + 12 + 4;
+        int thumbOffset = ifd1 + 2 + 2 * 12 + 4;
+
+        ByteBuffer tiff = ByteBuffer.allocate(thumbOffset + thumbnail.length).order(order);
+        tiff.putShort(order == ByteOrder.LITTLE_ENDIAN ? (short) 0x4949 : (short) 0x4D4D);
+        tiff.putShort((short) 42);
+        tiff.putInt(ifd0);
+
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 1).putShort((short) 0);
+        tiff.putInt(ifd1);
+
+        tiff.putShort((short) 2);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(thumbOffset);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        out.write(0xFF);
+        out.write(0xE1);
+        int length = 2 + 6 + tiff.capacity();
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.writeBytes("Exif\0\0".getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(tiff.array());
+        out.writeBytes(new byte[]{(byte) 0xFF, (byte) 0xDA, 0, 2});
+        return out.toByteArray();
+    }
+
+    private static byte[] box(String type, byte[]... contents) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] content : contents) body.writeBytes(content);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + body.size());
+        buffer.putInt(8 + body.size());
+        buffer.put(type.getBytes(StandardCharsets.US_ASCII));
+        buffer.put(body.toByteArray());
+        return buffer.array();
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = (byte) values[i];
+        return result;
+    }
+
+    private static byte[] heif(String thumbnailType, byte[] thumbnailData, int mdatOffsetPadding) {
+        byte[] hvcC = box("hvcC",
+                new byte[21],
+                bytes(0x03, 1),
+                bytes(0x20, 0, 1, 0, 3), bytes(0x40, 0x01, 0x0C));
+
+        byte[] infe1 = box("infe", bytes(2, 0, 0, 0, 0, 1, 0, 0), "hvc1".getBytes(StandardCharsets.US_ASCII), bytes(0));
+        byte[] infe2 = box("infe", bytes(2, 0, 0, 0, 0, 2, 0, 0), thumbnailType.getBytes(StandardCharsets.US_ASCII), bytes(0));
+        byte[] iinf = box("iinf", bytes(0, 0, 0, 0, 0, 2), infe1, infe2);
+        byte[] pitm = box("pitm", bytes(0, 0, 0, 0, 0, 1));
+        byte[] iref = box("iref", bytes(0, 0, 0, 0), box("thmb", bytes(0, 2, 0, 1, 0, 1)));
+        byte[] iprp = box("iprp",
+                box("ipco", hvcC),
+                box("ipma", bytes(0, 0, 0, 0, 0, 0, 0, 1, 0, 2, 1, 0x81)));
+
+        byte[] ftyp = box("ftyp", "heic".getBytes(StandardCharsets.US_ASCII), new byte[4]);
+        int ilocSize = 8 + 4 + 2 + 2 + (2 + 2 + 2 + 4 + 4);
+        int metaSize = 8 + 4 + pitm.length + iinf.length + iref.length + iprp.length + ilocSize;
+        int dataOffset = ftyp.length + metaSize + 8 + mdatOffsetPadding;
+
+        ByteBuffer iloc = ByteBuffer.allocate(4 + 2 + 2 + 14);
+        iloc.put(bytes(0, 0, 0, 0));
+        iloc.putShort((short) 0x4400);
+        iloc.putShort((short) 1);
+        iloc.putShort((short) 2).putShort((short) 0).putShort((short) 1).putInt(dataOffset).putInt(thumbnailData.length);
+
+        byte[] meta = box("meta", bytes(0, 0, 0, 0), pitm, iinf, iref, iprp, box("iloc", iloc.array()));
+        byte[] mdat = box("mdat", new byte[mdatOffsetPadding], thumbnailData);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(ftyp);
+        out.writeBytes(meta);
+        out.writeBytes(mdat);
+        return out.toByteArray();
+    }
+
+    @Test
+    void read_jpegLittleEndianExifThumbnail() throws IOException {
+        byte[] file = exifJpeg(ByteOrder.LITTLE_ENDIAN, FAKE_JPEG);
+        EmbeddedThumbnailReader.EmbeddedThumbnail thumbnail = EmbeddedThumbnailReader.read(new ByteArrayInputStream(file), "JPG");
+
+        assertNotNull(thumbnail);
+        assertEquals(EmbeddedThumbnailReader.Format.JPEG, thumbnail.format());
+        assertArrayEquals(FAKE_JPEG, thumbnail.data());
+    }
+
+    @Test
+    void read_jpegBigEndianExifThumbnail() throws IOException {
+        byte[] file = exifJpeg(ByteOrder.BIG_ENDIAN, FAKE_JPEG);
+        EmbeddedThumbnailReader.EmbeddedThumbnail thumbnail = EmbeddedThumbnailReader.read(new ByteArrayInputStream(file), "jpeg");
+
+        assertNotNull(thumbnail);
+        assertArrayEquals(FAKE_JPEG, thumbnail.data());
+    }
+
+    @Test
+    void read_jpegWithoutExifReturnsNull() throws IOException {
+        byte[] file = bytes(0xFF, 0xD8, 0xFF, 0xE0, 0, 4, 0, 0, 0xFF, 0xDA, 0, 2);
+        assertNull(EmbeddedThumbnailReader.read(new ByteArrayInputStream(file), "jpg"));
+    }
+
+    @Test
+    void read_notAJpegReturnsNull() throws IOException {
+        assertNull(EmbeddedThumbnailReader.read(new ByteArrayInputStream(new byte[64]), "jpg"));
+    }
+
+    @Test
+    void read_heifJpegThumbnailItem() throws IOException {
+        byte[] file = heif("jpeg", FAKE_JPEG, 0);
+        EmbeddedThumbnailReader.EmbeddedThumbnail thumbnail = EmbeddedThumbnailReader.read(new ByteArrayInputStream(file), "heic");
+
+        assertNotNull(thumbnail);
+        assertEquals(EmbeddedThumbnailReader.Format.JPEG, thumbnail.format());
+        assertArrayEquals(FAKE_JPEG, thumbnail.data());
+    }
+
+    @Test
+    void read_heifHevcThumbnailIsConvertedToAnnexB() throws IOException {
+        byte[] nal = bytes(0x26, 0x01, 0xAA, 0xBB);
+        byte[] itemData = ByteBuffer.allocate(4 + nal.length).putInt(nal.length).put(nal).array();
+
+        byte[] file = heif("hvc1", itemData, 0);
+        EmbeddedThumbnailReader.EmbeddedThumbnail thumbnail = EmbeddedThumbnailReader.read(new ByteArrayInputStream(file), "HEIC");
+
+        assertNotNull(thumbnail);
+        assertEquals(EmbeddedThumbnailReader.Format.HEVC, thumbnail.format());
+        assertArrayEquals(bytes(0, 0, 0, 1, 0x40, 0x01, 0x0C, 0, 0, 0, 1, 0x26, 0x01, 0xAA, 0xBB), thumbnail.data());
+    }
+
+    @Test
+    void read_heifThumbnailBeyondPrefixReturnsNull() throws IOException {
+        byte[] file = heif("jpeg", FAKE_JPEG, EmbeddedThumbnailReader.HEIF_PREFIX_BYTES);
+        assertNull(EmbeddedThumbnailReader.read(new ByteArrayInputStream(file), "heic"));
+    }
+
+    @Test
+    void supports_onlyJpegAndHeif() {
+        assertTrue(EmbeddedThumbnailReader.supports("JPG"));
+        assertTrue(EmbeddedThumbnailReader.supports("heif"));
+        assertFalse(EmbeddedThumbnailReader.supports("png"));
+        assertFalse(EmbeddedThumbnailReader.supports(null));
+    }
+}
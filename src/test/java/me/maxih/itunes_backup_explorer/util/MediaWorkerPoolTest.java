@@ -0,0 +1,564 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaWorkerPoolTest {
+    private static final Pattern SCRIPT_TOKEN = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"|(\\S+)");
+
+    @TempDir
+    Path tempDir;
+
+    private final List<List<String>> started = Collections.synchronizedList(new ArrayList<>());
+    private MediaWorkerPool pool;
+
+    @AfterEach
+    void closePool() {
+        if (pool != null) pool.close();
+    }
+
+    private MediaWorkerPool pool(String magick, String ffmpeg, FakeTool tool) {
+        pool = new MediaWorkerPool(magick, ffmpeg, 1, builder -> {
+            started.add(List.copyOf(builder.command()));
+            return new FakeProcess(builder.command(), tool);
+        });
+        return pool;
+    }
+
+    private File source(String name) throws IOException {
+        return Files.write(tempDir.resolve(name), new byte[]{1, 2, 3}).toFile();
+    }
+
+    /**
+     * Runs the -read, -write and -print options of each script line, or exits without an answer
+     * when the source is named "broken". Inline data written to stdout comes back prefixed with "jpeg:".
+     */
+    private static int fakeMagickScript(List<String> command, InputStream stdin, OutputStream stdout) throws IOException {
+        String line;
+        byte[] inline = null;
+        while ((line = readLine(stdin)) != null) {
+            List<String> tokens = scriptTokens(line);
+            for (int i = 0; i < tokens.size() - 1; i++) {
+                String argument = tokens.get(i + 1);
+                switch (tokens.get(i)) {
+                    case "-read" -> {
+                        if (argument.contains("broken")) return 1;
+                        if (argument.startsWith("inline:")) {
+                            inline = Base64.getDecoder().decode(argument.substring(argument.indexOf(',') + 1));
+                        }
+                    }
+                    case "-write" -> {
+                        if (argument.equals("jpg:-")) {
+                            stdout.write("jpeg:".getBytes(StandardCharsets.US_ASCII));
+                            stdout.write(inline);
+                        } else {
+                            Files.write(Path.of(argument), "jpeg".getBytes(StandardCharsets.US_ASCII));
+                        }
+                    }
+                    case "-print" -> {
+                        stdout.write(argument.replace("\\n", "\n").getBytes(StandardCharsets.US_ASCII));
+                        stdout.flush();
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Splits a script line into tokens, resolving backslash escapes inside double quotes like ImageMagick does.
+     */
+    private static List<String> scriptTokens(String line) {
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = SCRIPT_TOKEN.matcher(line);
+        while (matcher.find()) {
+            tokens.add(matcher.group(1) != null ? matcher.group(1).replaceAll("\\\\(.)", "$1") : matcher.group(2));
+        }
+        return tokens;
+    }
+
+    /**
+     * Writes every mapped output of a frame batch, unless one of the inputs is named "broken".
+     */
+    private static int fakeFfmpegFrames(List<String> command, InputStream stdin, OutputStream stdout) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        List<String> outputs = new ArrayList<>();
+        for (int i = 0; i < command.size() - 1; i++) {
+            if (command.get(i).equals("-i")) inputs.add(command.get(i + 1));
+            if (command.get(i).equals("-q:v")) outputs.add(command.get(i + 2));
+        }
+        if (inputs.stream().anyMatch(input -> input.contains("broken"))) return 1;
+        for (String output : outputs) Files.write(Path.of(output), "frame".getBytes(StandardCharsets.US_ASCII));
+        return 0;
+    }
+
+    @Test
+    void convertImage_reusesScriptWorker() throws IOException {
+        MediaWorkerPool pool = pool("magick", null, MediaWorkerPoolTest::fakeMagickScript);
+
+        for (int i = 0; i < 3; i++) {
+            File result = pool.convertImage(source("photo" + i + ".heic"), 100);
+            assertNotNull(result);
+            assertEquals("jpeg", Files.readString(result.toPath()));
+            result.delete();
+        }
+
+        assertEquals(1, started.size());
+        assertEquals(List.of("magick", "-script", "-"), started.get(0));
+        assertTrue(pool.isScriptModeAvailable());
+    }
+
+    @Test
+    void convertImage_disablesScriptModeAfterRepeatedFailures() throws IOException {
+        MediaWorkerPool pool = pool("magick", null, MediaWorkerPoolTest::fakeMagickScript);
+
+        assertNull(pool.convertImage(source("broken1.heic"), 100));
+        assertNull(pool.convertImage(source("broken2.heic"), 100));
+        assertTrue(pool.isScriptModeAvailable());
+
+        assertNull(pool.convertImage(source("broken3.heic"), 100));
+        assertFalse(pool.isScriptModeAvailable());
+        assertEquals(3, started.size());
+
+        assertNull(pool.convertImage(source("photo.heic"), 100));
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    void convertImage_successResetsFailureCount() throws IOException {
+        MediaWorkerPool pool = pool("magick", null, MediaWorkerPoolTest::fakeMagickScript);
+
+        assertNull(pool.convertImage(source("broken1.heic"), 100));
+        assertNull(pool.convertImage(source("broken2.heic"), 100));
+        assertNotNull(pool.convertImage(source("photo.heic"), 100));
+        assertNull(pool.convertImage(source("broken3.heic"), 100));
+
+        assertTrue(pool.isScriptModeAvailable());
+    }
+
+    @Test
+    void convertImage_readsInMemoryResultFromWorker() {
+        MediaWorkerPool pool = pool("magick", null, MediaWorkerPoolTest::fakeMagickScript);
+        // Line feeds inside the image must survive the line-based reply protocol
+        byte[] heic = "heic\nbytes\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        for (int i = 0; i < 2; i++) {
+            assertArrayEquals("jpeg:heic\nbytes\r\n".getBytes(StandardCharsets.US_ASCII), pool.convertImage(heic, "heic", 100));
+        }
+        assertEquals(1, started.size());
+    }
+
+    @Test
+    void convertImage_leavesDataAboveInlineLimitToCaller() {
+        MediaWorkerPool pool = pool("magick", null, MediaWorkerPoolTest::fakeMagickScript);
+
+        assertNull(pool.convertImage(new byte[MediaWorkerPool.INLINE_MAX_BYTES + 1], "heic", 100));
+        assertTrue(started.isEmpty());
+        assertTrue(pool.isScriptModeAvailable());
+    }
+
+    @Test
+    void convertImage_disablesScriptModeWithoutProbeReply() throws IOException {
+        MediaWorkerPool pool = pool("magick", null, (command, stdin, stdout) -> 1);
+
+        assertNull(pool.convertImage(source("photo.heic"), 100));
+        assertFalse(pool.isScriptModeAvailable());
+    }
+
+    @Test
+    void scriptMode_requiresImageMagick7() {
+        assertFalse(pool("convert", null, MediaWorkerPoolTest::fakeMagickScript).isScriptModeAvailable());
+    }
+
+    @Test
+    void extractVideoFrame_retriesFilesOfFailedBatchOneByOne() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MediaWorkerPool pool = pool(null, "ffmpeg", (command, stdin, stdout) -> {
+            if (command.contains(tempDir.resolve("first.mov").toString())) release.await();
+            return fakeFfmpegFrames(command, stdin, stdout);
+        });
+
+        // The first request occupies the only dispatcher, so the next ones are queued and share one batch
+        CompletableFuture<File> first = CompletableFuture.supplyAsync(() -> pool.extractVideoFrame(new File(tempDir.toFile(), "first.mov"), 100));
+        waitForStarts(1);
+        List<CompletableFuture<File>> results = new ArrayList<>();
+        for (String name : List.of("a.mov", "broken.mov", "b.mov")) {
+            File source = source(name);
+            results.add(CompletableFuture.supplyAsync(() -> pool.extractVideoFrame(source, 100)));
+        }
+        Thread.sleep(200);
+        release.countDown();
+
+        assertNotNull(first.get(10, TimeUnit.SECONDS));
+        assertNotNull(results.get(0).get(10, TimeUnit.SECONDS));
+        assertNull(results.get(1).get(10, TimeUnit.SECONDS));
+        assertNotNull(results.get(2).get(10, TimeUnit.SECONDS));
+
+        // warm-up, the failed batch of three and one retry per file
+        assertEquals(5, started.size());
+        assertEquals(3, started.get(1).stream().filter("-i"::equals).count());
+    }
+
+    @Test
+    void extractStillImage_decodesWithoutSeeking() throws Exception {
+        MediaWorkerPool pool = pool(null, "ffmpeg", MediaWorkerPoolTest::fakeFfmpegFrames);
+
+        assertNotNull(pool.extractStillImage(source("photo.heic"), 100));
+        assertFalse(started.get(started.size() - 1).contains("-ss"));
+    }
+
+    @Test
+    void decodeHevc_batchesStreamsOfOnePictureSize() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MediaWorkerPool pool = pool(null, "ffmpeg", (command, stdin, stdout) -> {
+            byte[] input = stdin.readAllBytes();
+            if (input[6] == 0) release.await();
+            for (byte id : streamIds(input)) {
+                if (id != BROKEN_STREAM) stdout.write(jpeg(id));
+            }
+            return 0;
+        });
+
+        CompletableFuture<byte[]> first = CompletableFuture.supplyAsync(() -> pool.decodeHevc(hevc(0, 320, 240), 100));
+        waitForStarts(1);
+        List<CompletableFuture<byte[]>> results = new ArrayList<>();
+        for (int id = 1; id <= 3; id++) {
+            byte[] stream = hevc(id, 320, 240);
+            results.add(CompletableFuture.supplyAsync(() -> pool.decodeHevc(stream, 100)));
+        }
+        Thread.sleep(200);
+        release.countDown();
+
+        assertArrayEquals(jpeg((byte) 0), first.get(10, TimeUnit.SECONDS));
+        for (int id = 1; id <= 3; id++) {
+            assertArrayEquals(jpeg((byte) id), results.get(id - 1).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(2, started.size());
+        assertFalse(started.get(1).contains("-frames:v"));
+    }
+
+    @Test
+    void decodeHevc_retriesStreamsOfFailedBatchOneByOne() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MediaWorkerPool pool = pool(null, "ffmpeg", (command, stdin, stdout) -> {
+            byte[] input = stdin.readAllBytes();
+            if (input[6] == 0) release.await();
+            for (byte id : streamIds(input)) {
+                if (id != BROKEN_STREAM) stdout.write(jpeg(id));
+            }
+            return 0;
+        });
+
+        CompletableFuture<byte[]> first = CompletableFuture.supplyAsync(() -> pool.decodeHevc(hevc(0, 320, 240), 100));
+        waitForStarts(1);
+        byte[] good = hevc(1, 320, 240);
+        byte[] broken = hevc(BROKEN_STREAM, 320, 240);
+        CompletableFuture<byte[]> goodResult = CompletableFuture.supplyAsync(() -> pool.decodeHevc(good, 100));
+        CompletableFuture<byte[]> brokenResult = CompletableFuture.supplyAsync(() -> pool.decodeHevc(broken, 100));
+        Thread.sleep(200);
+        release.countDown();
+
+        assertNotNull(first.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(jpeg((byte) 1), goodResult.get(10, TimeUnit.SECONDS));
+        assertNull(brokenResult.get(10, TimeUnit.SECONDS));
+        assertEquals(4, started.size());
+    }
+
+    @Test
+    void decodeHevc_keepsDifferentPictureSizesApart() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MediaWorkerPool pool = pool(null, "ffmpeg", (command, stdin, stdout) -> {
+            byte[] input = stdin.readAllBytes();
+            if (input[6] == 0) release.await();
+            for (byte id : streamIds(input)) stdout.write(jpeg(id));
+            return 0;
+        });
+
+        CompletableFuture<byte[]> first = CompletableFuture.supplyAsync(() -> pool.decodeHevc(hevc(0, 320, 240), 100));
+        waitForStarts(1);
+        byte[] landscape = hevc(1, 320, 240);
+        byte[] portrait = hevc(2, 240, 320);
+        CompletableFuture<byte[]> landscapeResult = CompletableFuture.supplyAsync(() -> pool.decodeHevc(landscape, 100));
+        CompletableFuture<byte[]> portraitResult = CompletableFuture.supplyAsync(() -> pool.decodeHevc(portrait, 100));
+        Thread.sleep(200);
+        release.countDown();
+
+        assertNotNull(first.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(jpeg((byte) 1), landscapeResult.get(10, TimeUnit.SECONDS));
+        assertArrayEquals(jpeg((byte) 2), portraitResult.get(10, TimeUnit.SECONDS));
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    void hevcPictureSize_readsSequenceParameterSet() {
+        assertArrayEquals(new int[]{320, 240}, MediaWorkerPool.hevcPictureSize(hevc(1, 320, 240)));
+        assertArrayEquals(new int[]{512, 384}, MediaWorkerPool.hevcPictureSize(hevc(1, 512, 384)));
+        assertNull(MediaWorkerPool.hevcPictureSize(new byte[]{0, 0, 0, 1, 0x40, 0x01, 0x0C}));
+    }
+
+    @Test
+    void splitJpegStream_ignoresMarkerBytesInsideSegments() {
+        byte[] withEoiInHeader = {
+                (byte) 0xFF, (byte) 0xD8,
+                (byte) 0xFF, (byte) 0xFE, 0x00, 0x04, (byte) 0xFF, (byte) 0xD9,
+                (byte) 0xFF, (byte) 0xDA, 0x00, 0x02, 0x12, (byte) 0xFF, 0x00, 0x34, (byte) 0xFF, (byte) 0xD0, 0x56,
+                (byte) 0xFF, (byte) 0xD9
+        };
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.writeBytes(withEoiInHeader);
+        stream.writeBytes(jpeg((byte) 7));
+
+        List<byte[]> images = MediaWorkerPool.splitJpegStream(stream.toByteArray());
+
+        assertEquals(2, images.size());
+        assertArrayEquals(withEoiInHeader, images.get(0));
+        assertArrayEquals(jpeg((byte) 7), images.get(1));
+    }
+
+    private void waitForStarts(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (started.size() < count && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(count, started.size());
+    }
+
+    private static final byte BROKEN_STREAM = 0x7F;
+
+    private static byte[] jpeg(byte id) {
+        return new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDA, 0x00, 0x02, id, (byte) 0xFF, (byte) 0xD9};
+    }
+
+    /**
+     * A minimal Annex B stream: a VPS carrying the id in its first payload byte, followed by an SPS with the picture size.
+     */
+    private static byte[] hevc(int id, int width, int height) {
+        BitWriter sps = new BitWriter();
+        sps.write(0x01, 8); // vps id 0, one sub-layer, temporal id nesting
+        for (int i = 0; i < 12; i++) sps.write(0x11, 8); // profile_tier_level
+        sps.writeUnsignedExpGolomb(0); // sps id
+        sps.writeUnsignedExpGolomb(1); // 4:2:0
+        sps.writeUnsignedExpGolomb(width);
+        sps.writeUnsignedExpGolomb(height);
+        sps.write(1, 1);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.writeBytes(new byte[]{0, 0, 0, 1, 0x40, 0x01, (byte) id, 0x0C});
+        stream.writeBytes(new byte[]{0, 0, 0, 1, 0x42, 0x01});
+        stream.writeBytes(sps.toByteArray());
+        return stream.toByteArray();
+    }
+
+    private static byte[] streamIds(byte[] input) {
+        ByteArrayOutputStream ids = new ByteArrayOutputStream();
+        for (int i = 0; i + 5 < input.length; i++) {
+            if (input[i] == 0 && input[i + 1] == 0 && input[i + 2] == 1 && input[i + 3] == 0x40) ids.write(input[i + 5]);
+        }
+        return ids.toByteArray();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') line.write(b);
+        if (b == -1 && line.size() == 0) return null;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int current = 0;
+        private int bits = 0;
+
+        void write(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >> i) & 1);
+                if (++bits == 8) {
+                    bytes.write(current);
+                    current = 0;
+                    bits = 0;
+                }
+            }
+        }
+
+        void writeUnsignedExpGolomb(int value) {
+            int code = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(code);
+            write(0, length - 1);
+            write(code, length);
+        }
+
+        byte[] toByteArray() {
+            if (bits > 0) write(0, 8 - bits);
+            return bytes.toByteArray();
+        }
+    }
+
+    @FunctionalInterface
+    private interface FakeTool {
+        int run(List<String> command, InputStream stdin, OutputStream stdout) throws Exception;
+    }
+
+    /**
+     * Runs a fake tool on a thread, connected through in-memory pipes.
+     */
+    private static final class FakeProcess extends Process {
+        private final Pipe stdin = new Pipe();
+        private final Pipe stdout = new Pipe();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final Thread thread;
+        private volatile int exitCode = -1;
+
+        FakeProcess(List<String> command, FakeTool tool) {
+            List<String> arguments = List.copyOf(command);
+            this.thread = new Thread(() -> {
+                try {
+                    exitCode = tool.run(arguments, stdin.input, stdout.output);
+                } catch (Exception e) {
+                    exitCode = 2;
+                } finally {
+                    finish();
+                }
+            }, "fake-" + arguments.get(0));
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private void finish() {
+            stdout.close();
+            stdin.close();
+            done.countDown();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return stdin.output;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return stdout.input;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            done.await();
+            return exitCode;
+        }
+
+        @Override
+        public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+            return done.await(timeout, unit);
+        }
+
+        @Override
+        public int exitValue() {
+            if (done.getCount() > 0) throw new IllegalThreadStateException("running");
+            return exitCode;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return done.getCount() > 0;
+        }
+
+        @Override
+        public void destroy() {
+            thread.interrupt();
+            exitCode = 137;
+            finish();
+        }
+    }
+
+    private static final class Pipe {
+        private static final byte[] EOF = new byte[0];
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        private volatile boolean closed = false;
+
+        final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) throw new IOException("Pipe closed");
+                if (len > 0) chunks.add(Arrays.copyOfRange(b, off, off + len));
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        void close() {
+            synchronized (chunks) {
+                if (closed) return;
+                closed = true;
+                chunks.add(EOF);
+            }
+        }
+
+        final InputStream input = new InputStream() {
+            private byte[] current = null;
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                if (current == null || position == current.length) {
+                    try {
+                        current = chunks.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted");
+                    }
+                    position = 0;
+                    if (current == EOF) {
+                        chunks.add(EOF);
+                        return -1;
+                    }
+                }
+                int count = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, count);
+                position += count;
+                return count;
+            }
+        };
+    }
+}
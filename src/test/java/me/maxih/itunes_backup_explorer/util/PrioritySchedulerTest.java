@@ -0,0 +1,137 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrioritySchedulerTest {
+
+    private static Runnable blockUntil(CountDownLatch started, CountDownLatch release) {
+        return () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        };
+    }
+
+    @Test
+    void submit_runsByPriorityThenNewestFirst() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler("test", 1, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(blockUntil(started, release), PriorityScheduler.Priority.VISIBLE, "media");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        scheduler.submit(() -> order.add("prefetch"), PriorityScheduler.Priority.PREFETCH, "media");
+        scheduler.submit(() -> order.add("visible-old"), PriorityScheduler.Priority.VISIBLE, "media");
+        scheduler.submit(() -> order.add("visible-new"), PriorityScheduler.Priority.VISIBLE, "media");
+        scheduler.submit(() -> order.add("interactive"), PriorityScheduler.Priority.INTERACTIVE, "media");
+
+        release.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(List.of("interactive", "visible-new", "visible-old", "prefetch"), order);
+    }
+
+    @Test
+    void submit_interactiveRunsWhileBackgroundThreadsAreBusy() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler("test", 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(blockUntil(started, release), PriorityScheduler.Priority.VISIBLE, "media");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch interactiveRan = new CountDownLatch(1);
+        AtomicBoolean prefetchRan = new AtomicBoolean(false);
+        scheduler.submit(() -> prefetchRan.set(true), PriorityScheduler.Priority.PREFETCH, "media");
+        scheduler.submit(interactiveRan::countDown, PriorityScheduler.Priority.INTERACTIVE, "media");
+
+        assertTrue(interactiveRan.await(5, TimeUnit.SECONDS));
+        assertFalse(prefetchRan.get());
+
+        release.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(prefetchRan.get());
+    }
+
+    @Test
+    void setBudget_limitsConcurrentTasksPerBudget() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler("test", 2, 0);
+        scheduler.setBudget("whatsapp", 1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(blockUntil(started, release), PriorityScheduler.Priority.VISIBLE, "whatsapp");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        AtomicBoolean secondRan = new AtomicBoolean(false);
+        CountDownLatch otherRan = new CountDownLatch(1);
+        scheduler.submit(() -> secondRan.set(true), PriorityScheduler.Priority.VISIBLE, "whatsapp");
+        scheduler.submit(otherRan::countDown, PriorityScheduler.Priority.PREFETCH, "media");
+
+        assertTrue(otherRan.await(5, TimeUnit.SECONDS));
+        assertFalse(secondRan.get());
+
+        release.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(secondRan.get());
+    }
+
+    @Test
+    void cancel_preventsQueuedTaskFromRunning() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler("test", 1, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(blockUntil(started, release), PriorityScheduler.Priority.VISIBLE, "media");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        AtomicBoolean ran = new AtomicBoolean(false);
+        PriorityScheduler.Task task = scheduler.submit(() -> ran.set(true), PriorityScheduler.Priority.PREFETCH, "media");
+        assertTrue(task.cancel());
+        assertTrue(task.isCancelled());
+        assertEquals(0, scheduler.queuedCount());
+
+        release.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+
+    @Test
+    void promote_movesTaskAheadOfWaitingWork() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler("test", 1, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(blockUntil(started, release), PriorityScheduler.Priority.VISIBLE, "media");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        PriorityScheduler.Task prefetch = scheduler.submit(() -> order.add("promoted"), PriorityScheduler.Priority.PREFETCH, "media");
+        scheduler.submit(() -> order.add("visible"), PriorityScheduler.Priority.VISIBLE, "media");
+        prefetch.promote(PriorityScheduler.Priority.VISIBLE);
+        assertEquals(PriorityScheduler.Priority.VISIBLE, prefetch.getPriority());
+
+        release.countDown();
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(List.of("promoted", "visible"), order);
+    }
+
+    @Test
+    void submit_afterShutdownIsCancelled() {
+        PriorityScheduler scheduler = new PriorityScheduler("test", 1, 0);
+        scheduler.shutdown();
+        assertTrue(scheduler.submit(() -> {}, PriorityScheduler.Priority.VISIBLE, "media").isCancelled());
+    }
+}
@@ -0,0 +1,109 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThumbnailStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private ThumbnailStore store(long maxBytes) {
+        return new ThumbnailStore(tempDir.resolve("thumbnails.db"), maxBytes);
+    }
+
+    // Entries written in the same millisecond share their access time, which would make the eviction order arbitrary
+    private static void putInOrder(ThumbnailStore store, String key, int size) throws InterruptedException {
+        store.put(key, new byte[size]);
+        Thread.sleep(5);
+    }
+
+    @Test
+    void put_tracksTotalBytes() {
+        try (ThumbnailStore store = store(1000)) {
+            store.put("a", new byte[300]);
+            store.put("b", new byte[200]);
+            assertEquals(500, store.getTotalBytes());
+            assertEquals(300, store.get("a").length);
+        }
+    }
+
+    @Test
+    void put_replacingKeyUpdatesTotalBytes() {
+        try (ThumbnailStore store = store(1000)) {
+            store.put("a", new byte[300]);
+            store.put("a", new byte[100]);
+            assertEquals(100, store.getTotalBytes());
+            assertEquals(100, store.get("a").length);
+        }
+    }
+
+    @Test
+    void put_evictsLeastRecentlyUsed() throws InterruptedException {
+        try (ThumbnailStore store = store(1000)) {
+            putInOrder(store, "a", 300);
+            putInOrder(store, "b", 300);
+            putInOrder(store, "c", 300);
+            putInOrder(store, "d", 300);
+
+            assertNull(store.get("a"));
+            assertNotNull(store.get("b"));
+            assertNotNull(store.get("c"));
+            assertNotNull(store.get("d"));
+            assertEquals(900, store.getTotalBytes());
+        }
+    }
+
+    @Test
+    void put_trimsToNinetyPercentOfLimit() throws InterruptedException {
+        try (ThumbnailStore store = store(1000)) {
+            for (int i = 0; i < 10; i++) putInOrder(store, "k" + i, 100);
+            assertEquals(1000, store.getTotalBytes());
+            assertNotNull(store.get("k0"));
+
+            putInOrder(store, "k10", 100);
+
+            assertEquals(900, store.getTotalBytes());
+            assertNull(store.get("k0"));
+            assertNull(store.get("k1"));
+            assertNotNull(store.get("k2"));
+            assertNotNull(store.get("k10"));
+        }
+    }
+
+    @Test
+    void put_ignoresOversizedAndEmptyData() {
+        try (ThumbnailStore store = store(100)) {
+            store.put("huge", new byte[500]);
+            store.put("empty", new byte[0]);
+            assertNull(store.get("huge"));
+            assertNull(store.get("empty"));
+            assertEquals(0, store.getTotalBytes());
+        }
+    }
+
+    @Test
+    void reopen_restoresEntriesAndTotalBytes() {
+        try (ThumbnailStore store = store(1000)) {
+            store.put("a", new byte[300]);
+        }
+        try (ThumbnailStore store = store(1000)) {
+            assertEquals(300, store.getTotalBytes());
+            assertEquals(300, store.get("a").length);
+        }
+    }
+
+    @Test
+    void clear_removesAllEntries() {
+        try (ThumbnailStore store = store(1000)) {
+            store.put("a", new byte[300]);
+            store.clear();
+            assertEquals(0, store.getTotalBytes());
+            assertNull(store.get("a"));
+        }
+    }
+}
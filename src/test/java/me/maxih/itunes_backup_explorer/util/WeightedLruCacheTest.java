@@ -0,0 +1,77 @@
+package me.maxih.itunes_backup_explorer.util;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class WeightedLruCacheTest {
+
+    private static WeightedLruCache<String, byte[]> cache(long maxWeight, boolean softOverflow) {
+        return new WeightedLruCache<>(maxWeight, value -> value.length, softOverflow);
+    }
+
+    @Test
+    void put_tracksWeight() {
+        WeightedLruCache<String, byte[]> cache = cache(100, false);
+        cache.put("a", new byte[30]);
+        cache.put("b", new byte[20]);
+        assertEquals(50, cache.weight());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void put_replacingKeyUpdatesWeight() {
+        WeightedLruCache<String, byte[]> cache = cache(100, false);
+        cache.put("a", new byte[30]);
+        cache.put("a", new byte[10]);
+        assertEquals(10, cache.weight());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void put_evictsLeastRecentlyUsed() {
+        WeightedLruCache<String, byte[]> cache = cache(100, false);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        cache.get("a");
+        cache.put("c", new byte[40]);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(80, cache.weight());
+    }
+
+    @Test
+    void put_oversizedValueIsNotKeptStrongly() {
+        WeightedLruCache<String, byte[]> cache = cache(100, false);
+        cache.put("a", new byte[10]);
+        cache.put("huge", new byte[500]);
+        assertNull(cache.get("huge"));
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    void get_softOverflowReturnsEvictedValue() {
+        WeightedLruCache<String, byte[]> cache = cache(50, true);
+        byte[] first = new byte[40];
+        cache.put("a", first);
+        cache.put("b", new byte[40]);
+
+        assertEquals(40, cache.weight());
+        assertSame(first, cache.get("a"));
+    }
+
+    @Test
+    void clear_resetsWeight() {
+        WeightedLruCache<String, byte[]> cache = cache(100, true);
+        cache.put("a", new byte[40]);
+        cache.clear();
+        assertEquals(0, cache.weight());
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void constructor_rejectsNonPositiveLimit() {
+        assertThrows(IllegalArgumentException.class, () -> cache(0, false));
+    }
+}